@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.admin;
+
+import net.cpas.model.InfoModel;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Holds the {@link InfoModel}s of the admins currently on the server. Admins can be looked up by {@link UUID} in
+ * constant time and iterated in descending rank order. Admins that share a rank are all kept. Readers never block,
+ * writers may come from any CPAS callback thread.
+ */
+public class AdminRegistry {
+
+    /**
+     * Orders admins by descending rank, then by {@link UUID} so equal ranks do not collapse into one entry.
+     */
+    private static final Comparator<InfoModel> RANK_ORDER = (o1, o2)->{
+        final int compare = Integer.compare(o2.primaryGroup.rank, o1.primaryGroup.rank);
+        return compare != 0 ? compare : o1.gameId.compareTo(o2.gameId);
+    };
+
+    /**
+     * The admins keyed by {@link UUID}.
+     */
+    private final Map<UUID, InfoModel> admins = new ConcurrentHashMap<>();
+
+    /**
+     * The admins in descending rank order.
+     */
+    private final NavigableSet<InfoModel> rankedAdmins = new ConcurrentSkipListSet<>(RANK_ORDER);
+
+    /**
+     * Serializes writers so both views are updated together.
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * Adds an admin, replacing any older {@link InfoModel} with the same {@link UUID}.
+     *
+     * @param admin the admin to add.
+     */
+    public void put(@Nonnull InfoModel admin) {
+        synchronized(writeLock) {
+            final InfoModel previous = admins.put(admin.gameId, admin);
+            if (previous != null) {
+                rankedAdmins.remove(previous);
+            }
+            rankedAdmins.add(admin);
+        }
+    }
+
+    /**
+     * @param uuid the {@link UUID} of the admin to remove.
+     * @return the removed admin or null if the {@link UUID} does not belong to an admin.
+     */
+    @Nullable
+    public InfoModel remove(@Nonnull UUID uuid) {
+        synchronized(writeLock) {
+            final InfoModel previous = admins.remove(uuid);
+            if (previous != null) {
+                rankedAdmins.remove(previous);
+            }
+            return previous;
+        }
+    }
+
+    /**
+     * @param uuid the {@link UUID} of a potential admin.
+     * @return the {@link InfoModel} of the admin or null if not present.
+     */
+    @Nullable
+    public InfoModel get(@Nonnull UUID uuid) {
+        return admins.get(uuid);
+    }
+
+    /**
+     * Checks the ban rules between two players. Anyone who is not an admin may be banned, only admins may ban admins and
+     * admins at or above the rank threshold may only be banned by admins at or above it as well.
+     *
+     * @param admin         the {@link UUID} of the player banning.
+     * @param player        the {@link UUID} of the player being banned.
+     * @param rankThreshold the primary group rank from which admins can only be banned by the same ranks.
+     * @return true if the admin can ban the player.
+     */
+    public boolean canBan(@Nonnull UUID admin, @Nonnull UUID player, int rankThreshold) {
+        final InfoModel playerInfoModel = admins.get(player);
+        if (playerInfoModel == null) {
+            return true;
+        }
+        final InfoModel adminInfoModel = admins.get(admin);
+        if (adminInfoModel == null) {
+            return false;
+        }
+        return playerInfoModel.primaryGroup.rank < rankThreshold || adminInfoModel.primaryGroup.rank >= rankThreshold;
+    }
+
+    /**
+     * @return a read only view of the admins in descending rank order.
+     */
+    @Nonnull
+    public NavigableSet<InfoModel> getRankedAdmins() {
+        return Collections.unmodifiableNavigableSet(rankedAdmins);
+    }
+
+    /**
+     * @param count the number of admins to return.
+     * @return the {@link UUID}s of the highest ranked admins, padded with empty strings up to {@code count}.
+     */
+    @Nonnull
+    public String[] getTopAdminIds(int count) {
+        final String[] adminIds = new String[count];
+        Arrays.fill(adminIds, "");
+        int current = 0;
+        for (InfoModel infoModel : rankedAdmins) {
+            if (current >= count) {
+                break;
+            }
+            adminIds[current++] = infoModel.gameId.toString();
+        }
+        return adminIds;
+    }
+
+    /**
+     * @return the number of admins on the server.
+     */
+    public int size() {
+        return admins.size();
+    }
+}
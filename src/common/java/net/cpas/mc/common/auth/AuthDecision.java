@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.auth;
+
+import net.cpas.model.BanInfoModel;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The outcome of a ban check for a connecting player.
+ */
+public final class AuthDecision {
+
+    /**
+     * Where an {@link AuthDecision} came from.
+     */
+    public enum Source {
+        /**
+         * The decision was made from a CPAS response.
+         */
+        REMOTE,
+        /**
+         * The decision was made from a recent CPAS response.
+         */
+        CACHE,
+        /**
+         * The decision was made from local data because CPAS did not answer in time.
+         */
+        FALLBACK,
+        /**
+         * The decision was made from the local copy of active bans.
+         */
+        INDEX,
+        /**
+         * The decision was made from a ban issued on this server that CPAS has not confirmed yet.
+         */
+        PENDING
+    }
+
+    /**
+     * True if the player is banned.
+     */
+    private final boolean banned;
+
+    /**
+     * The remaining ban duration in minutes, negative if the ban is permanent.
+     */
+    private final int duration;
+
+    /**
+     * The reason the player is banned.
+     */
+    private final String reason;
+
+    /**
+     * Where this decision came from.
+     */
+    private final Source source;
+
+    /**
+     * Creates a new {@link AuthDecision} object.
+     *
+     * @param banned   true if the player is banned.
+     * @param duration the remaining ban duration in minutes, negative if the ban is permanent.
+     * @param reason   the reason the player is banned.
+     * @param source   where this decision came from.
+     */
+    private AuthDecision(boolean banned, int duration, @Nonnull String reason, @Nonnull Source source) {
+        this.banned = banned;
+        this.duration = duration;
+        this.reason = reason;
+        this.source = source;
+    }
+
+    /**
+     * @param source where the decision came from.
+     * @return a decision that lets the player connect.
+     */
+    @Nonnull
+    public static AuthDecision allowed(@Nonnull Source source) {
+        return new AuthDecision(false, 0, "", source);
+    }
+
+    /**
+     * @param duration the remaining ban duration in minutes, negative if the ban is permanent.
+     * @param reason   the reason the player is banned.
+     * @param source   where the decision came from.
+     * @return a decision that keeps the player out.
+     */
+    @Nonnull
+    public static AuthDecision banned(int duration, String reason, @Nonnull Source source) {
+        return new AuthDecision(true, duration, reason == null ? "" : reason, source);
+    }
+
+    /**
+     * @param duration the ban duration in minutes as given to a ban command, zero or less for a permanent ban.
+     * @param reason   the reason the player is banned.
+     * @param source   where the decision came from.
+     * @return a decision that keeps the player out.
+     */
+    @Nonnull
+    public static AuthDecision fromBanCommand(int duration, String reason, @Nonnull Source source) {
+        return banned(isPermanentBan(duration) ? -1 : duration, reason, source);
+    }
+
+    /**
+     * @param duration the ban duration in minutes as given to a ban command.
+     * @return true if the ban never runs out, which is the case for zero and negative durations on both platforms.
+     */
+    public static boolean isPermanentBan(int duration) {
+        return duration <= 0;
+    }
+
+    /**
+     * @param banInfo the CPAS ban info of the player.
+     * @param source  where the decision came from.
+     * @return the decision the ban info stands for.
+     */
+    @Nonnull
+    public static AuthDecision fromBanInfo(@Nonnull BanInfoModel banInfo, @Nonnull Source source) {
+        return banInfo.duration != 0 ? banned(banInfo.duration, banInfo.reason, source) : allowed(source);
+    }
+
+    /**
+     * @return true if the player is banned.
+     */
+    public boolean isBanned() {
+        return banned;
+    }
+
+    /**
+     * @return true if the player is banned permanently.
+     */
+    public boolean isPermanent() {
+        return banned && duration < 0;
+    }
+
+    /**
+     * @return the remaining ban duration in minutes, negative if the ban is permanent.
+     */
+    public int getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return the reason the player is banned.
+     */
+    @Nonnull
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * @return where this decision came from.
+     */
+    @Nonnull
+    public Source getSource() {
+        return source;
+    }
+}
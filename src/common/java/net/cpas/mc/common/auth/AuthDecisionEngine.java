@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.auth;
+
+import net.cpas.mc.common.ban.LocalBanIndex;
+import net.cpas.mc.common.cache.BanVerdictCache;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides if a connecting player may join. CPAS is given a bounded amount of time to answer, after which the decision
+ * is made from a local source instead so a slow or hung CPAS can not stall the connection threads.
+ */
+public class AuthDecisionEngine {
+
+    /**
+     * Asks CPAS if a player is banned.
+     */
+    @FunctionalInterface
+    public interface RemoteLookup {
+
+        /**
+         * @param playerUUID the {@link UUID} of the connecting player.
+         * @return the pending CPAS verdict, completed with null if CPAS could not answer.
+         */
+        @Nonnull
+        CompletableFuture<AuthDecision> request(@Nonnull UUID playerUUID);
+    }
+
+    /**
+     * A source of ban data that does not need CPAS.
+     */
+    @FunctionalInterface
+    public interface LocalDecisionSource {
+
+        /**
+         * @param playerUUID the {@link UUID} of the connecting player.
+         * @return the local decision for the player or null if there is no local data.
+         */
+        @Nullable
+        AuthDecision decide(@Nonnull UUID playerUUID);
+    }
+
+    /**
+     * Supplies the number of milliseconds to wait for CPAS.
+     */
+    private final LongSupplier deadlineMillis;
+
+    /**
+     * Recent CPAS verdicts.
+     */
+    private final BanVerdictCache verdictCache;
+
+    /**
+     * The local copy of active bans.
+     */
+    private final LocalBanIndex banIndex;
+
+    /**
+     * The number of decisions made per {@link AuthDecision.Source}, indexed by ordinal.
+     */
+    private final AtomicLongArray decisions = new AtomicLongArray(AuthDecision.Source.values().length);
+
+    /**
+     * The number of times CPAS did not answer before the deadline.
+     */
+    private final AtomicLong missedDeadlines = new AtomicLong();
+
+    /**
+     * The number of bans from the index that CPAS no longer had when asked to confirm them.
+     */
+    private final AtomicLong overturnedBans = new AtomicLong();
+
+    /**
+     * Creates a new {@link AuthDecisionEngine} object.
+     *
+     * @param deadlineMillis supplies the number of milliseconds to wait for CPAS, read on every decision so config
+     *                       reloads are picked up.
+     * @param verdictCache   recent CPAS verdicts, consulted before CPAS is asked.
+     * @param banIndex       the local copy of active bans, consulted first and kept up to date with CPAS verdicts.
+     */
+    public AuthDecisionEngine(@Nonnull LongSupplier deadlineMillis, @Nonnull BanVerdictCache verdictCache,
+                              @Nonnull LocalBanIndex banIndex) {
+        this.deadlineMillis = deadlineMillis;
+        this.verdictCache = verdictCache;
+        this.banIndex = banIndex;
+    }
+
+    /**
+     * A player with an active ban in the local index is turned away right away and CPAS is asked in the background to
+     * confirm the ban. Otherwise a cached verdict is used if there is one, or the CPAS verdict is waited on up to the
+     * deadline, falling back to the local source if it does not arrive. A verdict that the player is not banned is
+     * still checked against the local source, as local bans may not have been pushed to CPAS yet.
+     *
+     * @param playerUUID the {@link UUID} of the connecting player.
+     * @param remote     asks CPAS for the verdict.
+     * @param fallback   the local source to use if CPAS does not ban the player.
+     * @return the decision for the player.
+     */
+    @Nonnull
+    public AuthDecision decide(@Nonnull UUID playerUUID, @Nonnull RemoteLookup remote,
+                               @Nonnull LocalDecisionSource fallback) {
+        final AuthDecision indexed = banIndex.get(playerUUID, System.currentTimeMillis());
+        if (indexed != null) {
+            remote.request(playerUUID).thenAccept(confirmed->{
+                if (confirmed != null) {
+                    if (!confirmed.isBanned()) {
+                        overturnedBans.incrementAndGet();
+                    }
+                    store(playerUUID, confirmed);
+                }
+            });
+            return record(indexed);
+        }
+        AuthDecision verdict = verdictCache.get(playerUUID);
+        if (verdict == null) {
+            final CompletableFuture<AuthDecision> remoteVerdict = remote.request(playerUUID);
+            // Stored once it arrives, whether that is before the deadline or after it for the next attempt
+            remoteVerdict.thenAccept(arrived->{
+                if (arrived != null) {
+                    store(playerUUID, arrived);
+                }
+            });
+            verdict = awaitRemote(remoteVerdict);
+        }
+        if (verdict != null && verdict.isBanned()) {
+            return record(verdict);
+        }
+        final AuthDecision local = fallback.decide(playerUUID);
+        if (local != null && local.isBanned()) {
+            return record(local);
+        }
+        return record(verdict != null ? verdict : AuthDecision.allowed(AuthDecision.Source.FALLBACK));
+    }
+
+    /**
+     * Keeps a CPAS verdict in the cache and the local index.
+     *
+     * @param playerUUID the {@link UUID} of the player.
+     * @param verdict    the CPAS verdict.
+     */
+    private void store(@Nonnull UUID playerUUID, @Nonnull AuthDecision verdict) {
+        verdictCache.put(playerUUID, verdict);
+        banIndex.update(playerUUID, verdict);
+    }
+
+    /**
+     * @param decision the decision that was made.
+     * @return the given decision.
+     */
+    @Nonnull
+    private AuthDecision record(@Nonnull AuthDecision decision) {
+        decisions.incrementAndGet(decision.getSource().ordinal());
+        return decision;
+    }
+
+    /**
+     * @param remoteVerdict the pending CPAS verdict.
+     * @return the CPAS verdict or null if it failed or did not arrive before the deadline.
+     */
+    @Nullable
+    private AuthDecision awaitRemote(@Nonnull Future<AuthDecision> remoteVerdict) {
+        try {
+            return remoteVerdict.get(Math.max(0, deadlineMillis.getAsLong()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            missedDeadlines.incrementAndGet();
+        } catch (ExecutionException e) {
+            // CPAS failed, the local source decides
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * @param source where the decisions came from.
+     * @return the number of decisions that came from the given source.
+     */
+    public long getDecisions(@Nonnull AuthDecision.Source source) {
+        return decisions.get(source.ordinal());
+    }
+
+    /**
+     * @return the number of times CPAS did not answer before the deadline.
+     */
+    public long getMissedDeadlines() {
+        return missedDeadlines.get();
+    }
+
+    /**
+     * @return the number of bans from the index that CPAS no longer had when asked to confirm them.
+     */
+    public long getOverturnedBans() {
+        return overturnedBans.get();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.ban;
+
+import net.cpas.Cpas;
+import net.cpas.mc.common.auth.AuthDecision;
+import net.cpas.mc.common.cache.BanVerdictCache;
+import net.cpas.mc.common.client.CpasClient;
+import net.cpas.mc.common.client.RequestPriority;
+import net.cpas.model.BanInfoModel;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asks CPAS about the bans in the {@link LocalBanIndex} a few at a time, so bans lifted or changed on CPAS are picked
+ * up without a login. CPAS has no way to list all active bans, so the index is filled from the ban checks and bans
+ * this server sees and kept current by this task.
+ */
+public class BanIndexRevalidator implements Runnable {
+
+    /**
+     * The index to keep current.
+     */
+    private final LocalBanIndex banIndex;
+
+    /**
+     * Recent CPAS verdicts, updated with each answer.
+     */
+    private final BanVerdictCache verdictCache;
+
+    /**
+     * The maximum number of players to ask CPAS about per run.
+     */
+    private final int batchSize;
+
+    /**
+     * The number of bans checked with CPAS.
+     */
+    private final AtomicLong checkedBans = new AtomicLong();
+
+    /**
+     * The players still to check in this pass over the index.
+     */
+    private List<UUID> pass = Collections.emptyList();
+
+    /**
+     * The position in {@link #pass}.
+     */
+    private int cursor;
+
+    /**
+     * Creates a new {@link BanIndexRevalidator} object.
+     *
+     * @param banIndex     the index to keep current.
+     * @param verdictCache recent CPAS verdicts, updated with each answer.
+     * @param batchSize    the maximum number of players to ask CPAS about per run.
+     */
+    public BanIndexRevalidator(@Nonnull LocalBanIndex banIndex, @Nonnull BanVerdictCache verdictCache, int batchSize) {
+        this.banIndex = banIndex;
+        this.verdictCache = verdictCache;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public synchronized void run() {
+        if (cursor >= pass.size()) {
+            pass = banIndex.getPlayers();
+            cursor = 0;
+        }
+        final int end = Math.min(pass.size(), cursor + batchSize);
+        for (; cursor < end; cursor++) {
+            final UUID playerUUID = pass.get(cursor);
+            CpasClient.getInstance().getBanInfo(playerUUID.toString(), RequestPriority.BACKGROUND, new ProcessBanInfoResponse(playerUUID));
+        }
+    }
+
+    /**
+     * @return the number of bans checked with CPAS.
+     */
+    public long getCheckedBans() {
+        return checkedBans.get();
+    }
+
+    /**
+     * Updates the index with the CPAS answer for one player.
+     */
+    private class ProcessBanInfoResponse implements Cpas.ProcessResponse<BanInfoModel> {
+
+        /**
+         * The player that was checked.
+         */
+        private final UUID playerUUID;
+
+        /**
+         * Creates a new {@link ProcessBanInfoResponse} object.
+         *
+         * @param playerUUID the player that was checked.
+         */
+        ProcessBanInfoResponse(@Nonnull UUID playerUUID) {
+            this.playerUUID = playerUUID;
+        }
+
+        @Override
+        public void process(BanInfoModel response, String errorMessage) {
+            if (errorMessage != null) {
+                return;
+            }
+            checkedBans.incrementAndGet();
+            final AuthDecision verdict = AuthDecision.fromBanInfo(response, AuthDecision.Source.REMOTE);
+            verdictCache.put(playerUUID, verdict);
+            banIndex.update(playerUUID, verdict);
+        }
+
+        @Override
+        public Class<BanInfoModel> getModelClass() {
+            return BanInfoModel.class;
+        }
+    }
+}
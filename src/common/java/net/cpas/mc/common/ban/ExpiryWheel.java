@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.ban;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A hierarchical timer wheel that hands back players whose bans have expired. Each level has 64 slots, a slot on the
+ * first level spans one tick and a slot on each level above spans a full turn of the level below it. Scheduling and
+ * expiring a ban cost O(1), and only the slot that is due is looked at on each tick, so there are never scans over
+ * every ban. Bans further out than the top level can hold wait in an overflow list that is sorted into the wheel each
+ * time the top level turns.
+ */
+public class ExpiryWheel {
+
+    /**
+     * The number of bits of a tick used per level.
+     */
+    private static final int SLOT_BITS = 6;
+
+    /**
+     * The number of slots per level.
+     */
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    /**
+     * The number of levels.
+     */
+    private static final int LEVELS = 4;
+
+    /**
+     * The length of a tick in milliseconds.
+     */
+    private final long tickMillis;
+
+    /**
+     * The scheduled expiries by level and slot.
+     */
+    private final List<List<Expiry>> slots = new ArrayList<>(LEVELS * SLOTS);
+
+    /**
+     * Expiries too far out for the top level.
+     */
+    private List<Expiry> overflow = new ArrayList<>();
+
+    /**
+     * Expiries that were already due when they were scheduled.
+     */
+    private List<Expiry> due = new ArrayList<>();
+
+    /**
+     * The last tick that was processed.
+     */
+    private long currentTick;
+
+    /**
+     * The number of scheduled expiries.
+     */
+    private int size;
+
+    /**
+     * Creates a new {@link ExpiryWheel} object.
+     *
+     * @param tickMillis the length of a tick in milliseconds.
+     * @param nowMillis  the current time in milliseconds since the epoch.
+     */
+    public ExpiryWheel(long tickMillis, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = nowMillis / tickMillis;
+        for (int i = 0; i < LEVELS * SLOTS; i++) {
+            slots.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * @param playerUUID      the banned player.
+     * @param expiresAtMillis when the ban expires, in milliseconds since the epoch.
+     */
+    public synchronized void schedule(@Nonnull UUID playerUUID, long expiresAtMillis) {
+        place(new Expiry(playerUUID, expiresAtMillis, (expiresAtMillis + tickMillis - 1) / tickMillis));
+        size++;
+    }
+
+    /**
+     * Moves the wheel forward to the given time.
+     *
+     * @param nowMillis the current time in milliseconds since the epoch.
+     * @return the expiries that came due.
+     */
+    @Nonnull
+    public synchronized List<Expiry> advance(long nowMillis) {
+        final long targetTick = nowMillis / tickMillis;
+        final List<Expiry> expired = due;
+        due = new ArrayList<>();
+        while (currentTick < targetTick) {
+            currentTick++;
+            // Refill the levels below from the levels above when they finish a turn, top level first
+            int turned = 0;
+            while (turned < LEVELS && (currentTick & ((1L << (SLOT_BITS * (turned + 1))) - 1)) == 0) {
+                turned++;
+            }
+            if (turned == LEVELS) {
+                final List<Expiry> waiting = overflow;
+                overflow = new ArrayList<>();
+                for (Expiry expiry : waiting) {
+                    place(expiry);
+                }
+                turned = LEVELS - 1;
+            }
+            for (int level = turned; level >= 1; level--) {
+                final List<Expiry> slot = slots.get(level * SLOTS + slotOf(currentTick, level));
+                if (!slot.isEmpty()) {
+                    final List<Expiry> cascading = new ArrayList<>(slot);
+                    slot.clear();
+                    for (Expiry expiry : cascading) {
+                        place(expiry);
+                    }
+                }
+            }
+            final List<Expiry> slot = slots.get(slotOf(currentTick, 0));
+            expired.addAll(slot);
+            slot.clear();
+            expired.addAll(due);
+            due.clear();
+        }
+        size -= expired.size();
+        return expired;
+    }
+
+    /**
+     * @return the number of scheduled expiries, including ones for bans that have since changed.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @param expiry the expiry to put in the slot it belongs to.
+     */
+    private void place(@Nonnull Expiry expiry) {
+        final long delta = expiry.tick - currentTick;
+        if (delta <= 0) {
+            due.add(expiry);
+            return;
+        }
+        for (int level = 0; level < LEVELS; level++) {
+            if (delta < (1L << (SLOT_BITS * (level + 1)))) {
+                slots.get(level * SLOTS + slotOf(expiry.tick, level)).add(expiry);
+                return;
+            }
+        }
+        overflow.add(expiry);
+    }
+
+    /**
+     * @param tick  a tick.
+     * @param level a level of the wheel.
+     * @return the slot the tick falls in on the level.
+     */
+    private static int slotOf(long tick, int level) {
+        return (int) (tick >>> (SLOT_BITS * level)) & (SLOTS - 1);
+    }
+
+    /**
+     * A scheduled ban expiry.
+     */
+    public static final class Expiry {
+
+        /**
+         * The banned player.
+         */
+        private final UUID playerUUID;
+
+        /**
+         * When the ban expires, in milliseconds since the epoch.
+         */
+        private final long expiresAtMillis;
+
+        /**
+         * The tick the ban expires on.
+         */
+        private final long tick;
+
+        /**
+         * Creates a new {@link Expiry} object.
+         *
+         * @param playerUUID      the banned player.
+         * @param expiresAtMillis when the ban expires, in milliseconds since the epoch.
+         * @param tick            the tick the ban expires on.
+         */
+        Expiry(@Nonnull UUID playerUUID, long expiresAtMillis, long tick) {
+            this.playerUUID = playerUUID;
+            this.expiresAtMillis = expiresAtMillis;
+            this.tick = tick;
+        }
+
+        /**
+         * @return the banned player.
+         */
+        @Nonnull
+        public UUID getPlayerUUID() {
+            return playerUUID;
+        }
+
+        /**
+         * @return when the ban expires, in milliseconds since the epoch.
+         */
+        public long getExpiresAtMillis() {
+            return expiresAtMillis;
+        }
+    }
+}
@@ -0,0 +1,561 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.ban;
+
+import net.cpas.mc.common.auth.AuthDecision;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A local copy of the active bans this server knows about, so a connecting player can be checked without waiting on
+ * CPAS. Bans are kept in an open addressing hash table made of primitive arrays, two longs for the {@link UUID}, one
+ * for the expiry and the reason, so lookups stay O(1) and cheap on memory with tens of thousands of bans. Lookups are
+ * lock free unless they race with a write. Temporary bans are also put on an {@link ExpiryWheel} so {@link #expire(long)}
+ * can drop them once they run out without scanning the table.
+ */
+public class LocalBanIndex {
+
+    /**
+     * The expiry of a permanent ban.
+     */
+    public static final long PERMANENT = Long.MAX_VALUE;
+
+    /**
+     * Marks the file as a saved ban index.
+     */
+    private static final int MAGIC = 0x43504249;
+
+    /**
+     * The number of slots a new index starts with.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The number of one minute intervals the expiry counts are kept for.
+     */
+    private static final int EXPIRY_INTERVALS = 60;
+
+    /**
+     * Guards {@link #table} and {@link #size}.
+     */
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * The number of lookups.
+     */
+    private final AtomicLong lookups = new AtomicLong();
+
+    /**
+     * The number of lookups that found an active ban.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Schedules the removal of temporary bans.
+     */
+    private final ExpiryWheel expiryWheel = new ExpiryWheel(TimeUnit.SECONDS.toMillis(1), System.currentTimeMillis());
+
+    /**
+     * The number of bans that expired in each of the last {@link #EXPIRY_INTERVALS} minutes, indexed by minute.
+     */
+    private final long[] expiredPerMinute = new long[EXPIRY_INTERVALS];
+
+    /**
+     * The minute {@link #expiredPerMinute} was last moved forward to.
+     */
+    private long expiryMinute = System.currentTimeMillis() / TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * The number of bans that expired.
+     */
+    private final AtomicLong expired = new AtomicLong();
+
+    /**
+     * The hash table, replaced as a whole when it grows.
+     */
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+
+    /**
+     * The number of bans in the index.
+     */
+    private int size;
+
+    /**
+     * Adds a ban or replaces the ban of the same player.
+     *
+     * @param playerUUID      the banned player.
+     * @param expiresAtMillis when the ban expires, in milliseconds since the epoch, or {@link #PERMANENT}.
+     * @param reason          the ban reason.
+     */
+    public void put(@Nonnull UUID playerUUID, long expiresAtMillis, @Nonnull String reason) {
+        final long stamp = lock.writeLock();
+        try {
+            Table current = table;
+            int slot = current.find(playerUUID.getMostSignificantBits(), playerUUID.getLeastSignificantBits());
+            if (slot >= 0) {
+                current.expiries[slot] = expiresAtMillis;
+                current.reasons[slot] = reason;
+            } else {
+                if ((size + 1) * 4 > current.capacity() * 3) {
+                    current = current.grow();
+                    table = current;
+                }
+                current.insert(playerUUID.getMostSignificantBits(), playerUUID.getLeastSignificantBits(), expiresAtMillis, reason);
+                size++;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        if (expiresAtMillis != PERMANENT) {
+            expiryWheel.schedule(playerUUID, expiresAtMillis);
+        }
+    }
+
+    /**
+     * Adds a ban from a CPAS or local verdict, or removes the player's ban if the verdict lets them in.
+     *
+     * @param playerUUID the player.
+     * @param verdict    the verdict for the player.
+     */
+    public void update(@Nonnull UUID playerUUID, @Nonnull AuthDecision verdict) {
+        if (!verdict.isBanned()) {
+            remove(playerUUID);
+        } else if (verdict.isPermanent()) {
+            put(playerUUID, PERMANENT, verdict.getReason());
+        } else {
+            put(playerUUID, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(verdict.getDuration()), verdict.getReason());
+        }
+    }
+
+    /**
+     * @param playerUUID the player.
+     * @return true if the player had a ban in the index.
+     */
+    public boolean remove(@Nonnull UUID playerUUID) {
+        final long stamp = lock.writeLock();
+        try {
+            if (table.delete(playerUUID.getMostSignificantBits(), playerUUID.getLeastSignificantBits())) {
+                size--;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes the bans that have run out since the last call. Meant to be called about once a second.
+     *
+     * @param nowMillis the current time in milliseconds since the epoch.
+     * @return the number of bans removed.
+     */
+    public int expire(long nowMillis) {
+        int removed = 0;
+        for (ExpiryWheel.Expiry expiry : expiryWheel.advance(nowMillis)) {
+            final UUID playerUUID = expiry.getPlayerUUID();
+            final long stamp = lock.writeLock();
+            try {
+                // The ban may have been replaced or lifted since this expiry was scheduled
+                final int slot = table.find(playerUUID.getMostSignificantBits(), playerUUID.getLeastSignificantBits());
+                if (slot >= 0 && table.expiries[slot] == expiry.getExpiresAtMillis()
+                        && table.delete(playerUUID.getMostSignificantBits(), playerUUID.getLeastSignificantBits())) {
+                    size--;
+                    removed++;
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+        expired.addAndGet(removed);
+        synchronized(expiredPerMinute) {
+            rollExpiryMinutes(nowMillis);
+            expiredPerMinute[(int) (expiryMinute % EXPIRY_INTERVALS)] += removed;
+        }
+        return removed;
+    }
+
+    /**
+     * @param playerUUID the player.
+     * @param nowMillis  the current time in milliseconds since the epoch.
+     * @return a banned decision if the player has an active ban in the index, null otherwise.
+     */
+    @Nullable
+    public AuthDecision get(@Nonnull UUID playerUUID, long nowMillis) {
+        lookups.incrementAndGet();
+        final long msb = playerUUID.getMostSignificantBits();
+        final long lsb = playerUUID.getLeastSignificantBits();
+        long expiresAt;
+        String reason;
+        long stamp = lock.tryOptimisticRead();
+        Table current = table;
+        int slot = current.find(msb, lsb);
+        expiresAt = slot >= 0 ? current.expiries[slot] : 0;
+        reason = slot >= 0 ? current.reasons[slot] : null;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                current = table;
+                slot = current.find(msb, lsb);
+                expiresAt = slot >= 0 ? current.expiries[slot] : 0;
+                reason = slot >= 0 ? current.reasons[slot] : null;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if (slot < 0 || expiresAt <= nowMillis) {
+            return null;
+        }
+        hits.incrementAndGet();
+        if (expiresAt == PERMANENT) {
+            return AuthDecision.banned(-1, reason, AuthDecision.Source.INDEX);
+        }
+        final long minutesLeft = (expiresAt - nowMillis + TimeUnit.MINUTES.toMillis(1) - 1) / TimeUnit.MINUTES.toMillis(1);
+        return AuthDecision.banned((int) Math.min(Integer.MAX_VALUE, minutesLeft), reason, AuthDecision.Source.INDEX);
+    }
+
+    /**
+     * @return the players that have a ban in the index.
+     */
+    @Nonnull
+    public List<UUID> getPlayers() {
+        final long stamp = lock.readLock();
+        try {
+            final Table current = table;
+            final List<UUID> players = new ArrayList<>(size);
+            for (int slot = 0; slot < current.capacity(); slot++) {
+                if (current.reasons[slot] != null) {
+                    players.add(new UUID(current.keys[slot * 2], current.keys[slot * 2 + 1]));
+                }
+            }
+            return players;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return the number of bans in the index.
+     */
+    public int size() {
+        final long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return the number of lookups.
+     */
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    /**
+     * @return the number of lookups that found an active ban.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of bans that expired.
+     */
+    public long getExpired() {
+        return expired.get();
+    }
+
+    /**
+     * @param nowMillis the current time in milliseconds since the epoch.
+     * @return the number of bans that expired in each of the last sixty minutes, oldest first, the current minute last.
+     */
+    @Nonnull
+    public long[] getExpiredPerMinute(long nowMillis) {
+        final long[] counts = new long[EXPIRY_INTERVALS];
+        synchronized(expiredPerMinute) {
+            rollExpiryMinutes(nowMillis);
+            for (int i = 0; i < EXPIRY_INTERVALS; i++) {
+                counts[i] = expiredPerMinute[(int) ((expiryMinute + 1 + i) % EXPIRY_INTERVALS)];
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return the number of expiries waiting on the wheel, including ones for bans that have since changed.
+     */
+    public int getScheduledExpiries() {
+        return expiryWheel.size();
+    }
+
+    /**
+     * Moves {@link #expiredPerMinute} forward to the current minute, clearing the minutes in between. Callers must hold
+     * the {@link #expiredPerMinute} monitor.
+     *
+     * @param nowMillis the current time in milliseconds since the epoch.
+     */
+    private void rollExpiryMinutes(long nowMillis) {
+        final long minute = nowMillis / TimeUnit.MINUTES.toMillis(1);
+        final long passed = Math.min(minute - expiryMinute, EXPIRY_INTERVALS);
+        for (long i = 1; i <= passed; i++) {
+            expiredPerMinute[(int) ((expiryMinute + i) % EXPIRY_INTERVALS)] = 0;
+        }
+        if (minute > expiryMinute) {
+            expiryMinute = minute;
+        }
+    }
+
+    /**
+     * Saves the bans that are still active, replacing the file in one step.
+     *
+     * @param file where to save the bans.
+     * @throws IOException if the file could not be written.
+     */
+    public void save(@Nonnull Path file) throws IOException {
+        final long now = System.currentTimeMillis();
+        final Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        final long stamp = lock.readLock();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            final Table current = table;
+            int count = 0;
+            for (int slot = 0; slot < current.capacity(); slot++) {
+                if (current.reasons[slot] != null && current.expiries[slot] > now) {
+                    count++;
+                }
+            }
+            out.writeInt(MAGIC);
+            out.writeInt(count);
+            for (int slot = 0; slot < current.capacity(); slot++) {
+                if (current.reasons[slot] != null && current.expiries[slot] > now) {
+                    out.writeLong(current.keys[slot * 2]);
+                    out.writeLong(current.keys[slot * 2 + 1]);
+                    out.writeLong(current.expiries[slot]);
+                    out.writeUTF(current.reasons[slot]);
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Adds the bans saved by {@link #save(Path)} that are still active.
+     *
+     * @param file where the bans were saved.
+     * @return the number of bans added.
+     * @throws IOException if the file could not be read or is not a saved ban index.
+     */
+    public int load(@Nonnull Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        final long now = System.currentTimeMillis();
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a saved ban index");
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final UUID playerUUID = new UUID(in.readLong(), in.readLong());
+                final long expiresAt = in.readLong();
+                final String reason = in.readUTF();
+                if (expiresAt > now) {
+                    put(playerUUID, expiresAt, reason);
+                    loaded++;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Open addressing hash table with linear probing. A slot is in use when its reason is not null.
+     */
+    private static final class Table {
+
+        /**
+         * The most and least significant bits of each {@link UUID}, two longs per slot.
+         */
+        final long[] keys;
+
+        /**
+         * The expiry of each ban in milliseconds since the epoch.
+         */
+        final long[] expiries;
+
+        /**
+         * The reason of each ban, null for an empty slot.
+         */
+        final String[] reasons;
+
+        /**
+         * Used to turn a hash into a slot.
+         */
+        final int mask;
+
+        /**
+         * Creates a new {@link Table} object.
+         *
+         * @param capacity the number of slots, a power of two.
+         */
+        Table(int capacity) {
+            keys = new long[capacity * 2];
+            expiries = new long[capacity];
+            reasons = new String[capacity];
+            mask = capacity - 1;
+        }
+
+        /**
+         * @return the number of slots.
+         */
+        int capacity() {
+            return reasons.length;
+        }
+
+        /**
+         * @param msb the most significant bits of the {@link UUID}.
+         * @param lsb the least significant bits of the {@link UUID}.
+         * @return the home slot of the {@link UUID}.
+         */
+        int home(long msb, long lsb) {
+            long hash = msb * 0x9E3779B97F4A7C15L ^ lsb;
+            hash ^= hash >>> 33;
+            hash *= 0xFF51AFD7ED558CCDL;
+            hash ^= hash >>> 33;
+            return (int) hash & mask;
+        }
+
+        /**
+         * @param msb the most significant bits of the {@link UUID}.
+         * @param lsb the least significant bits of the {@link UUID}.
+         * @return the slot holding the {@link UUID} or -1 if it is not in the table.
+         */
+        int find(long msb, long lsb) {
+            int slot = home(msb, lsb);
+            // Bounded so a read racing with a write can not loop forever
+            for (int probes = 0; probes <= mask; probes++) {
+                if (reasons[slot] == null) {
+                    return -1;
+                }
+                if (keys[slot * 2] == msb && keys[slot * 2 + 1] == lsb) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * Adds a ban that is not in the table yet. The table must have a free slot.
+         *
+         * @param msb       the most significant bits of the {@link UUID}.
+         * @param lsb       the least significant bits of the {@link UUID}.
+         * @param expiresAt when the ban expires.
+         * @param reason    the ban reason.
+         */
+        void insert(long msb, long lsb, long expiresAt, @Nonnull String reason) {
+            int slot = home(msb, lsb);
+            while (reasons[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot * 2] = msb;
+            keys[slot * 2 + 1] = lsb;
+            expiries[slot] = expiresAt;
+            reasons[slot] = reason;
+        }
+
+        /**
+         * Removes a ban and shifts the bans after it back so no probe chain is broken.
+         *
+         * @param msb the most significant bits of the {@link UUID}.
+         * @param lsb the least significant bits of the {@link UUID}.
+         * @return true if the ban was in the table.
+         */
+        boolean delete(long msb, long lsb) {
+            int hole = find(msb, lsb);
+            if (hole < 0) {
+                return false;
+            }
+            int slot = (hole + 1) & mask;
+            while (reasons[slot] != null) {
+                final int home = home(keys[slot * 2], keys[slot * 2 + 1]);
+                // Move the ban into the hole if the hole lies between its home slot and where it is now
+                if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                    keys[hole * 2] = keys[slot * 2];
+                    keys[hole * 2 + 1] = keys[slot * 2 + 1];
+                    expiries[hole] = expiries[slot];
+                    reasons[hole] = reasons[slot];
+                    hole = slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            reasons[hole] = null;
+            return true;
+        }
+
+        /**
+         * @return a table twice the size holding the same bans.
+         */
+        @Nonnull
+        Table grow() {
+            final Table grown = new Table(capacity() * 2);
+            for (int slot = 0; slot < capacity(); slot++) {
+                if (reasons[slot] != null) {
+                    grown.insert(keys[slot * 2], keys[slot * 2 + 1], expiries[slot], reasons[slot]);
+                }
+            }
+            return grown;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.cache;
+
+import net.cpas.mc.common.auth.AuthDecision;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded cache of CPAS ban verdicts keyed by player {@link UUID}. Banned and not banned verdicts are kept for
+ * separate amounts of time so a player stuck in a reconnect loop does not hit CPAS on every attempt.
+ */
+public class BanVerdictCache {
+
+    /**
+     * The cached verdict returned for players that are not banned.
+     */
+    private static final AuthDecision CACHED_ALLOWED = AuthDecision.allowed(AuthDecision.Source.CACHE);
+
+    /**
+     * The fraction of the maximum size a full cache is trimmed down to.
+     */
+    private static final double EVICTION_TARGET = 0.9;
+
+    /**
+     * The order verdicts are evicted in, not banned verdicts before banned ones and older verdicts first.
+     */
+    private static final Comparator<Map.Entry<UUID, Entry>> EVICTION_ORDER = Comparator
+            .comparing((Map.Entry<UUID, Entry> entry)->entry.getValue().decision.isBanned())
+            .thenComparingLong(entry->entry.getValue().cachedAt);
+
+    /**
+     * The cached verdicts.
+     */
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Supplies the number of milliseconds a banned verdict is kept.
+     */
+    private final LongSupplier positiveTtlMillis;
+
+    /**
+     * Supplies the number of milliseconds a not banned verdict is kept.
+     */
+    private final LongSupplier negativeTtlMillis;
+
+    /**
+     * Supplies the maximum number of verdicts to keep.
+     */
+    private final IntSupplier maximumSize;
+
+    /**
+     * The number of lookups answered from the cache.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * The number of lookups that were not in the cache.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a new {@link BanVerdictCache} object. The suppliers are read on every use so config reloads are picked
+     * up.
+     *
+     * @param positiveTtlMillis supplies the number of milliseconds a banned verdict is kept.
+     * @param negativeTtlMillis supplies the number of milliseconds a not banned verdict is kept.
+     * @param maximumSize       supplies the maximum number of verdicts to keep.
+     */
+    public BanVerdictCache(@Nonnull LongSupplier positiveTtlMillis, @Nonnull LongSupplier negativeTtlMillis,
+                           @Nonnull IntSupplier maximumSize) {
+        this.positiveTtlMillis = positiveTtlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * @param playerUUID the {@link UUID} of the player.
+     * @return the cached verdict for the player or null if there is no fresh verdict. Temporary ban durations are
+     * reduced by the time the verdict spent in the cache.
+     */
+    @Nullable
+    public AuthDecision get(@Nonnull UUID playerUUID) {
+        return read(playerUUID, true);
+    }
+
+    /**
+     * Like {@link #get(UUID)}, but not counted as a hit or miss. For re-reading a verdict that was already looked up
+     * earlier in the same login.
+     *
+     * @param playerUUID the {@link UUID} of the player.
+     * @return the cached verdict for the player or null if there is no fresh verdict.
+     */
+    @Nullable
+    public AuthDecision peek(@Nonnull UUID playerUUID) {
+        return read(playerUUID, false);
+    }
+
+    /**
+     * @param playerUUID the {@link UUID} of the player.
+     * @param count      true to count the lookup as a hit or miss.
+     * @return the cached verdict for the player or null if there is no fresh verdict.
+     */
+    @Nullable
+    private AuthDecision read(@Nonnull UUID playerUUID, boolean count) {
+        final Entry entry = entries.get(playerUUID);
+        final long now = System.nanoTime();
+        if (entry == null || entry.isExpired(now)) {
+            if (entry != null) {
+                entries.remove(playerUUID, entry);
+            }
+            if (count) {
+                misses.incrementAndGet();
+            }
+            return null;
+        }
+        if (count) {
+            hits.incrementAndGet();
+        }
+        final AuthDecision decision = entry.decision;
+        if (!decision.isBanned()) {
+            return CACHED_ALLOWED;
+        }
+        if (decision.isPermanent()) {
+            return AuthDecision.banned(decision.getDuration(), decision.getReason(), AuthDecision.Source.CACHE);
+        }
+        final long elapsedMinutes = TimeUnit.NANOSECONDS.toMinutes(now - entry.cachedAt);
+        final int remaining = (int) Math.max(1, decision.getDuration() - elapsedMinutes);
+        return AuthDecision.banned(remaining, decision.getReason(), AuthDecision.Source.CACHE);
+    }
+
+    /**
+     * Caches a verdict. Temporary bans are never kept past their own expiry.
+     *
+     * @param playerUUID the {@link UUID} of the player.
+     * @param decision   the verdict to cache.
+     */
+    public void put(@Nonnull UUID playerUUID, @Nonnull AuthDecision decision) {
+        long ttl = decision.isBanned() ? positiveTtlMillis.getAsLong() : negativeTtlMillis.getAsLong();
+        if (decision.isBanned() && !decision.isPermanent()) {
+            ttl = Math.min(ttl, TimeUnit.MINUTES.toMillis(decision.getDuration()));
+        }
+        if (ttl <= 0) {
+            entries.remove(playerUUID);
+            return;
+        }
+        final long now = System.nanoTime();
+        if (entries.size() >= maximumSize.getAsInt() && !entries.containsKey(playerUUID)) {
+            evict(now);
+        }
+        entries.put(playerUUID, new Entry(decision, now, now + TimeUnit.MILLISECONDS.toNanos(ttl)));
+    }
+
+    /**
+     * Removes the verdict for a player, for example after they were banned.
+     *
+     * @param playerUUID the {@link UUID} of the player.
+     */
+    public void invalidate(@Nonnull UUID playerUUID) {
+        entries.remove(playerUUID);
+    }
+
+    /**
+     * Removes all verdicts.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Makes room for new verdicts by dropping expired verdicts, then the oldest not banned verdicts and only then the
+     * oldest banned ones until the cache is down to {@link #EVICTION_TARGET} of its maximum size. Clearing a batch at
+     * a time means a full cache is swept once per batch of new players rather than on every login.
+     *
+     * @param now the current {@link System#nanoTime()}.
+     */
+    private synchronized void evict(long now) {
+        final int maximum = maximumSize.getAsInt();
+        if (entries.size() < maximum) {
+            // Another login already made room
+            return;
+        }
+        entries.values().removeIf(entry->entry.isExpired(now));
+        final int target = Math.min(maximum - 1, (int) (maximum * EVICTION_TARGET));
+        if (entries.size() <= target) {
+            return;
+        }
+        final List<Map.Entry<UUID, Entry>> candidates = new ArrayList<>(entries.entrySet());
+        candidates.sort(EVICTION_ORDER);
+        for (Map.Entry<UUID, Entry> candidate : candidates) {
+            if (entries.size() <= target) {
+                break;
+            }
+            entries.remove(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    /**
+     * @return the number of cached verdicts, including ones that expired but were not looked up since.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of lookups answered from the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that were not in the cache.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * A cached verdict.
+     */
+    private static final class Entry {
+
+        /**
+         * The cached verdict.
+         */
+        private final AuthDecision decision;
+
+        /**
+         * The {@link System#nanoTime()} the verdict was cached at.
+         */
+        private final long cachedAt;
+
+        /**
+         * The {@link System#nanoTime()} the verdict expires at.
+         */
+        private final long expiresAt;
+
+        /**
+         * Creates a new {@link Entry} object.
+         *
+         * @param decision  the cached verdict.
+         * @param cachedAt  the {@link System#nanoTime()} the verdict was cached at.
+         * @param expiresAt the {@link System#nanoTime()} the verdict expires at.
+         */
+        Entry(@Nonnull AuthDecision decision, long cachedAt, long expiresAt) {
+            this.decision = decision;
+            this.cachedAt = cachedAt;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * @param now the current {@link System#nanoTime()}.
+         * @return true if the verdict is no longer fresh.
+         */
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.cache;
+
+import net.cpas.Cpas;
+import net.cpas.mc.common.auth.AuthDecision;
+import net.cpas.mc.common.ban.LocalBanIndex;
+import net.cpas.mc.common.client.CpasClient;
+import net.cpas.mc.common.client.RequestPriority;
+import net.cpas.mc.common.profile.ProfileSnapshotStore;
+import net.cpas.model.BanInfoModel;
+import net.cpas.model.InfoModel;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Fetches the ban info and info of players who are likely to log in soon, so the caches are warm when they do. The
+ * requests are sent from a background thread at a fixed rate and with {@link RequestPriority#BACKGROUND}, and the
+ * warmer gives up once its time budget is spent, so it never holds up startup or logins.
+ */
+public class CacheWarmer implements Runnable {
+
+    /**
+     * The players to warm the caches for, most likely to log in first.
+     */
+    private final List<UUID> players;
+
+    /**
+     * Filled with the ban verdicts.
+     */
+    private final BanVerdictCache verdictCache;
+
+    /**
+     * Filled with active bans.
+     */
+    private final LocalBanIndex banIndex;
+
+    /**
+     * Filled with the info.
+     */
+    private final InfoModelCache infoModelCache;
+
+    /**
+     * Updated with the info.
+     */
+    private final ProfileSnapshotStore profileSnapshotStore;
+
+    /**
+     * The most players to fetch per second.
+     */
+    private final int playersPerSecond;
+
+    /**
+     * How long the warmer may run for in milliseconds.
+     */
+    private final long budgetMillis;
+
+    /**
+     * Called with errors that happen while saving snapshots.
+     */
+    private final Consumer<Exception> errorHandler;
+
+    /**
+     * The number of players requests were sent for.
+     */
+    private final AtomicLong requestedPlayers = new AtomicLong();
+
+    /**
+     * The number of answers put in the caches.
+     */
+    private final AtomicLong warmedEntries = new AtomicLong();
+
+    /**
+     * The thread sending the requests, null until started.
+     */
+    private volatile Thread thread;
+
+    /**
+     * Creates a new {@link CacheWarmer} object.
+     *
+     * @param players              the players to warm the caches for, most likely to log in first.
+     * @param verdictCache         filled with the ban verdicts.
+     * @param banIndex             filled with active bans.
+     * @param infoModelCache       filled with the info.
+     * @param profileSnapshotStore updated with the info.
+     * @param playersPerSecond     the most players to fetch per second.
+     * @param budgetMillis         how long the warmer may run for in milliseconds.
+     * @param errorHandler         called with errors that happen while saving snapshots.
+     */
+    public CacheWarmer(@Nonnull List<UUID> players, @Nonnull BanVerdictCache verdictCache,
+                       @Nonnull LocalBanIndex banIndex, @Nonnull InfoModelCache infoModelCache,
+                       @Nonnull ProfileSnapshotStore profileSnapshotStore, int playersPerSecond, long budgetMillis,
+                       @Nonnull Consumer<Exception> errorHandler) {
+        this.players = new ArrayList<>(players);
+        this.verdictCache = verdictCache;
+        this.banIndex = banIndex;
+        this.infoModelCache = infoModelCache;
+        this.profileSnapshotStore = profileSnapshotStore;
+        this.playersPerSecond = Math.max(1, playersPerSecond);
+        this.budgetMillis = budgetMillis;
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Starts sending requests from a background thread and returns straight away.
+     */
+    public synchronized void start() {
+        if (thread != null || players.isEmpty()) {
+            return;
+        }
+        thread = new Thread(this, "CPAS Cache Warmer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops sending requests. Answers to requests already sent are still put in the caches.
+     */
+    public synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        final long pauseNanos = TimeUnit.SECONDS.toNanos(1) / playersPerSecond;
+        for (UUID playerUUID : players) {
+            if (Thread.currentThread().isInterrupted() || System.nanoTime() >= deadline) {
+                return;
+            }
+            // Players already checked since startup do not need warming
+            if (verdictCache.get(playerUUID) == null) {
+                CpasClient.getInstance().getBanInfo(playerUUID.toString(), RequestPriority.BACKGROUND,
+                        new ProcessBanInfoResponse(playerUUID));
+                CpasClient.getInstance().getInfo(playerUUID.toString(), false, RequestPriority.BACKGROUND,
+                        new ProcessInfoResponse(playerUUID));
+                requestedPlayers.incrementAndGet();
+                try {
+                    TimeUnit.NANOSECONDS.sleep(pauseNanos);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true while requests are still being sent.
+     */
+    public boolean isRunning() {
+        final Thread current = thread;
+        return current != null && current.isAlive();
+    }
+
+    /**
+     * @return the number of players requests were sent for.
+     */
+    public long getRequestedPlayers() {
+        return requestedPlayers.get();
+    }
+
+    /**
+     * @return the number of answers put in the caches.
+     */
+    public long getWarmedEntries() {
+        return warmedEntries.get();
+    }
+
+    /**
+     * Puts a ban info answer in the verdict cache and the ban index.
+     */
+    private class ProcessBanInfoResponse implements Cpas.ProcessResponse<BanInfoModel> {
+
+        /**
+         * The player the answer is for.
+         */
+        private final UUID playerUUID;
+
+        /**
+         * Creates a new {@link ProcessBanInfoResponse} object.
+         *
+         * @param playerUUID the player the answer is for.
+         */
+        ProcessBanInfoResponse(@Nonnull UUID playerUUID) {
+            this.playerUUID = playerUUID;
+        }
+
+        @Override
+        public void process(BanInfoModel response, String errorMessage) {
+            if (errorMessage != null) {
+                return;
+            }
+            final AuthDecision decision = AuthDecision.fromBanInfo(response, AuthDecision.Source.REMOTE);
+            verdictCache.put(playerUUID, decision);
+            banIndex.update(playerUUID, decision);
+            warmedEntries.incrementAndGet();
+        }
+
+        @Override
+        public Class<BanInfoModel> getModelClass() {
+            return BanInfoModel.class;
+        }
+    }
+
+    /**
+     * Puts an info answer in the info cache and the profile snapshot store.
+     */
+    private class ProcessInfoResponse implements Cpas.ProcessResponse<InfoModel> {
+
+        /**
+         * The player the answer is for.
+         */
+        private final UUID playerUUID;
+
+        /**
+         * Creates a new {@link ProcessInfoResponse} object.
+         *
+         * @param playerUUID the player the answer is for.
+         */
+        ProcessInfoResponse(@Nonnull UUID playerUUID) {
+            this.playerUUID = playerUUID;
+        }
+
+        @Override
+        public void process(InfoModel response, String errorMessage) {
+            if (errorMessage != null) {
+                return;
+            }
+            infoModelCache.put(playerUUID, response);
+            try {
+                profileSnapshotStore.put(playerUUID, response);
+            } catch (IOException e) {
+                errorHandler.accept(e);
+            }
+            warmedEntries.incrementAndGet();
+        }
+
+        @Override
+        public Class<InfoModel> getModelClass() {
+            return InfoModel.class;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.cache;
+
+import net.cpas.Cpas;
+import net.cpas.model.InfoModel;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * A cache of CPAS {@link InfoModel}s keyed by player {@link UUID}. Entries younger than the fresh time are served as
+ * is. Entries older than that but younger than the max age are served right away while a refresh is fetched in the
+ * background (stale-while-revalidate). Older entries are not served.
+ */
+public class InfoModelCache {
+
+    /**
+     * The cached models.
+     */
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Supplies the number of milliseconds an entry is served without a refresh.
+     */
+    private final LongSupplier freshMillis;
+
+    /**
+     * Supplies the number of milliseconds an entry is served at all.
+     */
+    private final LongSupplier maxAgeMillis;
+
+    /**
+     * The maximum number of entries to keep.
+     */
+    private final int maximumSize;
+
+    /**
+     * Fetches a fresh {@link InfoModel} from CPAS and hands it to the given response.
+     */
+    private final BiConsumer<UUID, Cpas.ProcessResponse<InfoModel>> fetcher;
+
+    /**
+     * The number of lookups answered with a fresh entry.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * The number of lookups answered with a stale entry.
+     */
+    private final AtomicLong staleHits = new AtomicLong();
+
+    /**
+     * The number of lookups that found no usable entry.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a new {@link InfoModelCache} object. The suppliers are read on every use so config reloads are picked
+     * up.
+     *
+     * @param freshMillis  supplies the number of milliseconds an entry is served without a refresh.
+     * @param maxAgeMillis supplies the number of milliseconds an entry is served at all.
+     * @param maximumSize  the maximum number of entries to keep.
+     * @param fetcher      fetches a fresh {@link InfoModel} from CPAS and hands it to the given response.
+     */
+    public InfoModelCache(@Nonnull LongSupplier freshMillis, @Nonnull LongSupplier maxAgeMillis, int maximumSize,
+                          @Nonnull BiConsumer<UUID, Cpas.ProcessResponse<InfoModel>> fetcher) {
+        this.freshMillis = freshMillis;
+        this.maxAgeMillis = maxAgeMillis;
+        this.maximumSize = maximumSize;
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * Looks up a player. A stale entry triggers a single background refresh.
+     *
+     * @param playerUUID the {@link UUID} of the player.
+     * @return the cached {@link InfoModel} or null if there is none or it is too old to serve.
+     */
+    @Nullable
+    public InfoModel get(@Nonnull UUID playerUUID) {
+        final Entry entry = entries.get(playerUUID);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        final long age = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - entry.cachedAt);
+        if (age >= maxAgeMillis.getAsLong()) {
+            entries.remove(playerUUID, entry);
+            misses.incrementAndGet();
+            return null;
+        }
+        if (age < freshMillis.getAsLong()) {
+            hits.incrementAndGet();
+            return entry.infoModel;
+        }
+        staleHits.incrementAndGet();
+        if (entry.refreshing.compareAndSet(false, true)) {
+            fetcher.accept(playerUUID, new ProcessRefreshResponse(playerUUID, entry));
+        }
+        return entry.infoModel;
+    }
+
+    /**
+     * Caches a freshly received {@link InfoModel}.
+     *
+     * @param playerUUID the {@link UUID} of the player.
+     * @param infoModel  the model to cache.
+     */
+    public void put(@Nonnull UUID playerUUID, @Nonnull InfoModel infoModel) {
+        if (entries.size() >= maximumSize && !entries.containsKey(playerUUID)) {
+            evict();
+        }
+        entries.put(playerUUID, new Entry(infoModel, System.nanoTime()));
+    }
+
+    /**
+     * @param playerUUID the {@link UUID} of the player to forget.
+     */
+    public void invalidate(@Nonnull UUID playerUUID) {
+        entries.remove(playerUUID);
+    }
+
+    /**
+     * Makes room for a new entry by dropping entries that are too old to serve, then arbitrary ones if the cache is
+     * still full.
+     */
+    private void evict() {
+        final long now = System.nanoTime();
+        final long maxAge = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis.getAsLong());
+        entries.values().removeIf(entry->now - entry.cachedAt >= maxAge);
+        final Iterator<UUID> iterator = entries.keySet().iterator();
+        while (entries.size() >= maximumSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return the number of cached entries.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of lookups answered with a fresh entry.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups answered with a stale entry.
+     */
+    public long getStaleHits() {
+        return staleHits.get();
+    }
+
+    /**
+     * @return the number of lookups that found no usable entry.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * A cached model.
+     */
+    private static final class Entry {
+
+        /**
+         * The cached model.
+         */
+        private final InfoModel infoModel;
+
+        /**
+         * The {@link System#nanoTime()} the model was cached at.
+         */
+        private final long cachedAt;
+
+        /**
+         * True while a background refresh for this entry is in flight.
+         */
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        /**
+         * Creates a new {@link Entry} object.
+         *
+         * @param infoModel the cached model.
+         * @param cachedAt  the {@link System#nanoTime()} the model was cached at.
+         */
+        Entry(@Nonnull InfoModel infoModel, long cachedAt) {
+            this.infoModel = infoModel;
+            this.cachedAt = cachedAt;
+        }
+    }
+
+    /**
+     * Class that handles the processing of a background refresh.
+     */
+    private class ProcessRefreshResponse implements Cpas.ProcessResponse<InfoModel> {
+
+        /**
+         * The {@link UUID} of the player being refreshed.
+         */
+        private final UUID playerUUID;
+
+        /**
+         * The stale entry being refreshed.
+         */
+        private final Entry entry;
+
+        /**
+         * Creates a new {@link ProcessRefreshResponse} object.
+         *
+         * @param playerUUID the {@link UUID} of the player being refreshed.
+         * @param entry      the stale entry being refreshed.
+         */
+        ProcessRefreshResponse(@Nonnull UUID playerUUID, @Nonnull Entry entry) {
+            this.playerUUID = playerUUID;
+            this.entry = entry;
+        }
+
+        @Override
+        public void process(InfoModel response, String errorMessage) {
+            if (errorMessage == null && response != null) {
+                put(playerUUID, response);
+            } else {
+                // Let the next lookup try again
+                entry.refreshing.set(false);
+            }
+        }
+
+        @Override
+        public Class<InfoModel> getModelClass() {
+            return InfoModel.class;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.client;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops requests to a CPAS endpoint that keeps failing. After {@code failureThreshold} failures in a row the breaker
+ * opens and requests are refused without being sent. Once it has been open for {@code openMillis} it lets a single
+ * trial request through, if that succeeds the breaker closes again, if it fails the breaker opens for another period.
+ */
+public class CircuitBreaker {
+
+    /**
+     * The states of a {@link CircuitBreaker}.
+     */
+    public enum State {
+        /**
+         * Requests are sent.
+         */
+        CLOSED,
+        /**
+         * Requests are refused.
+         */
+        OPEN,
+        /**
+         * A trial request decides if the breaker closes or opens again.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * The name of the endpoint.
+     */
+    private final String name;
+
+    /**
+     * The number of failures in a row that opens the breaker.
+     */
+    private final int failureThreshold;
+
+    /**
+     * How long the breaker stays open before a trial request is let through.
+     */
+    private final long openMillis;
+
+    /**
+     * Supplies the current time in milliseconds.
+     */
+    private final LongSupplier clock;
+
+    /**
+     * The number of requests refused.
+     */
+    private final AtomicLong rejectedRequests = new AtomicLong();
+
+    /**
+     * The number of times the breaker opened.
+     */
+    private final AtomicLong trips = new AtomicLong();
+
+    /**
+     * The current state.
+     */
+    private State state = State.CLOSED;
+
+    /**
+     * The number of failures in a row.
+     */
+    private int consecutiveFailures;
+
+    /**
+     * When the breaker last opened, or when the trial request was let through.
+     */
+    private long changedAt;
+
+    /**
+     * Creates a new {@link CircuitBreaker} object.
+     *
+     * @param name             the name of the endpoint.
+     * @param failureThreshold the number of failures in a row that opens the breaker.
+     * @param openMillis       how long the breaker stays open before a trial request is let through.
+     * @param clock            supplies the current time in milliseconds.
+     */
+    public CircuitBreaker(@Nonnull String name, int failureThreshold, long openMillis, @Nonnull LongSupplier clock) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.clock = clock;
+        this.changedAt = clock.getAsLong();
+    }
+
+    /**
+     * @return true if a request may be sent, false if it must be answered locally.
+     */
+    public synchronized boolean tryAcquire() {
+        final long now = clock.getAsLong();
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - changedAt >= openMillis) {
+                    state = State.HALF_OPEN;
+                    changedAt = now;
+                    return true;
+                }
+                break;
+            case HALF_OPEN:
+                // A trial request that never came back should not hold the breaker half open forever
+                if (now - changedAt >= openMillis) {
+                    changedAt = now;
+                    return true;
+                }
+                break;
+        }
+        rejectedRequests.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Records a request that got an answer from CPAS.
+     */
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        if (state != State.CLOSED) {
+            state = State.CLOSED;
+            changedAt = clock.getAsLong();
+        }
+    }
+
+    /**
+     * Records a request that failed.
+     */
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            changedAt = clock.getAsLong();
+            trips.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the name of the endpoint.
+     */
+    @Nonnull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the current state.
+     */
+    @Nonnull
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return the number of failures in a row.
+     */
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return how long ago the state last changed in milliseconds.
+     */
+    public synchronized long getMillisInState() {
+        return clock.getAsLong() - changedAt;
+    }
+
+    /**
+     * @return the number of requests refused.
+     */
+    public long getRejectedRequests() {
+        return rejectedRequests.get();
+    }
+
+    /**
+     * @return the number of times the breaker opened.
+     */
+    public long getTrips() {
+        return trips.get();
+    }
+}
@@ -0,0 +1,564 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.client;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Caps the number of requests waiting on CPAS at once, queueing the rest. The cap adapts AIMD style: it grows by one
+ * for every full window of requests that come back in good time and is cut, at most once per round trip, when a
+ * request fails or when latency keeps growing. Each kind of request has its own {@link Latency}, a short moving
+ * average of its recent answers compared against a long one. Only when the recent average stays more than
+ * {@link #LATENCY_TOLERANCE} times the long one is the cap cut, by the same ratio, so single slow answers from a
+ * healthy server do not count. Failures halve the cap.
+ * <p>
+ * Waiting requests are kept in one queue per {@link RequestPriority} and the most urgent is sent first. Every
+ * {@link #AGING_NANOS} a request waits it moves up one priority, so background work still gets through while the
+ * server is busy with logins.
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * How many times the long average latency the recent average may reach before it counts as a sign of overload.
+     */
+    private static final double LATENCY_TOLERANCE = 1.5;
+
+    /**
+     * The weight of each answer in the recent average, roughly the last 10 answers.
+     */
+    private static final double RECENT_WEIGHT = 0.1;
+
+    /**
+     * The weight of each answer in the long average, roughly the last 100 answers.
+     */
+    private static final double BASELINE_WEIGHT = 0.01;
+
+    /**
+     * The number of answers a {@link Latency} needs before its averages are trusted.
+     */
+    private static final int WARMUP_SAMPLES = 10;
+
+    /**
+     * The most the limit is cut by at once.
+     */
+    private static final double MAX_DECREASE = 0.5;
+
+    /**
+     * How long a request waits before it moves up one priority.
+     */
+    private static final long AGING_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /**
+     * The lowest the limit goes.
+     */
+    private final int minLimit;
+
+    /**
+     * The highest the limit goes.
+     */
+    private final int maxLimit;
+
+    /**
+     * Supplies the current time in nanoseconds.
+     */
+    private final LongSupplier nanoClock;
+
+    /**
+     * Sends the requests that were waiting for room.
+     */
+    private final Executor dispatcher;
+
+    /**
+     * The requests waiting for room, one queue per priority, oldest first unless promoted.
+     */
+    private final List<ArrayDeque<Ticket>> queues = new ArrayList<>();
+
+    /**
+     * The number of requests waiting for room.
+     */
+    private int queueDepth;
+
+    /**
+     * The current limit, fractional so it can grow by less than one per answer.
+     */
+    private double limit;
+
+    /**
+     * The number of requests waiting on CPAS.
+     */
+    private int inFlight;
+
+    /**
+     * When the limit was last lowered.
+     */
+    private long lastDecreaseNanos;
+
+    /**
+     * The number of requests that had to wait in the queue.
+     */
+    private long queuedRequests;
+
+    /**
+     * The total time requests spent in the queue in nanoseconds.
+     */
+    private long totalQueueWaitNanos;
+
+    /**
+     * The longest time a request spent in the queue in nanoseconds.
+     */
+    private long maxQueueWaitNanos;
+
+    /**
+     * The number of times the limit was lowered.
+     */
+    private long decreases;
+
+    /**
+     * Creates a new {@link ConcurrencyLimiter} object.
+     *
+     * @param initialLimit the limit to start with.
+     * @param minLimit     the lowest the limit goes.
+     * @param maxLimit     the highest the limit goes.
+     * @param nanoClock    supplies the current time in nanoseconds.
+     * @param dispatcher   sends the requests that were waiting for room, so they are not sent on the thread that
+     *                     delivered the answer that made room. It must run every task it is given.
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, @Nonnull LongSupplier nanoClock,
+                              @Nonnull Executor dispatcher) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.nanoClock = nanoClock;
+        this.dispatcher = dispatcher;
+        this.lastDecreaseNanos = nanoClock.getAsLong();
+        for (int i = 0; i < RequestPriority.values().length; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * @param name the name of the kind of request, for example the endpoint.
+     * @return a new {@link Latency} to pass with every request of that kind.
+     */
+    @Nonnull
+    public Latency newLatency(@Nonnull String name) {
+        return new Latency(name);
+    }
+
+    /**
+     * Runs the task now if there is room, or once there is. The task must release the {@link Permit} it is given when
+     * its request is answered.
+     *
+     * @param priority how urgent the request is.
+     * @param latency  the latency of this kind of request, fed with the time the request takes.
+     * @param task     sends a request.
+     * @return the ticket of the request, which can be used to make it more urgent while it waits.
+     */
+    @Nonnull
+    public Ticket execute(@Nonnull RequestPriority priority, @Nonnull Latency latency, @Nonnull Task task) {
+        final Ticket ticket = new Ticket(task, priority, latency, nanoClock.getAsLong());
+        synchronized(this) {
+            if (queueDepth > 0 || inFlight >= (int) limit) {
+                queues.get(priority.ordinal()).addLast(ticket);
+                ticket.queued = true;
+                queueDepth++;
+                queuedRequests++;
+                return ticket;
+            }
+            inFlight++;
+        }
+        dispatch(ticket);
+        return ticket;
+    }
+
+    /**
+     * Moves a waiting request to a more urgent queue, in front of the requests already there.
+     *
+     * @param ticket   the ticket of the request.
+     * @param priority the new priority.
+     */
+    private synchronized void promote(@Nonnull Ticket ticket, @Nonnull RequestPriority priority) {
+        if (!ticket.queued || priority.ordinal() >= ticket.priority.ordinal()) {
+            return;
+        }
+        queues.get(ticket.priority.ordinal()).remove(ticket);
+        ticket.priority = priority;
+        queues.get(priority.ordinal()).addFirst(ticket);
+    }
+
+    /**
+     * Takes the request to send next, the one with the most urgent priority after aging. Callers must hold this
+     * object's monitor and make sure a request is waiting.
+     *
+     * @param now the current time in nanoseconds.
+     * @return the request to send next.
+     */
+    @Nonnull
+    private Ticket pollNext(long now) {
+        ArrayDeque<Ticket> best = null;
+        long bestRank = Long.MAX_VALUE;
+        // Queues are checked most urgent first so a tie goes to the more urgent one
+        for (ArrayDeque<Ticket> queue : queues) {
+            final Ticket head = queue.peekFirst();
+            if (head != null) {
+                final long rank = head.priority.ordinal() - (now - head.queuedAt) / AGING_NANOS;
+                if (rank < bestRank) {
+                    best = queue;
+                    bestRank = rank;
+                }
+            }
+        }
+        final Ticket next = best.pollFirst();
+        next.queued = false;
+        queueDepth--;
+        return next;
+    }
+
+    /**
+     * @param ticket a request that has been counted as in flight.
+     */
+    private void dispatch(@Nonnull Ticket ticket) {
+        final Permit permit = new Permit(ticket.latency, nanoClock.getAsLong());
+        try {
+            ticket.task.run(permit);
+        } catch (RuntimeException e) {
+            permit.release(true);
+            throw e;
+        }
+    }
+
+    /**
+     * Adjusts the limit from an answer and hands the requests that now fit to the dispatcher. A request that fails to
+     * send gives its room back and does not stop the others from being sent.
+     *
+     * @param latency   the latency of this kind of request.
+     * @param startedAt when the request was sent.
+     * @param failed    true if the request failed.
+     */
+    private void complete(@Nonnull Latency latency, long startedAt, boolean failed) {
+        final long now = nanoClock.getAsLong();
+        final long took = now - startedAt;
+        final List<Ticket> ready = new ArrayList<>();
+        synchronized(this) {
+            inFlight--;
+            double decrease = failed ? MAX_DECREASE : 1;
+            if (!failed) {
+                latency.record(took);
+                if (latency.isGrowing()) {
+                    decrease = Math.max(MAX_DECREASE, latency.baselineNanos / latency.recentNanos);
+                }
+            }
+            if (decrease < 1) {
+                // One cut per round trip, the answers still coming back were sent before the last cut
+                if (now - lastDecreaseNanos > Math.max(took, latency.recentNanos)) {
+                    limit = Math.max(minLimit, limit * decrease);
+                    lastDecreaseNanos = now;
+                    decreases++;
+                }
+            } else {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            while (queueDepth > 0 && inFlight < (int) limit) {
+                final Ticket ticket = pollNext(now);
+                final long waited = now - ticket.queuedAt;
+                totalQueueWaitNanos += waited;
+                maxQueueWaitNanos = Math.max(maxQueueWaitNanos, waited);
+                inFlight++;
+                ready.add(ticket);
+            }
+        }
+        RuntimeException failure = null;
+        for (Ticket ticket : ready) {
+            try {
+                dispatcher.execute(()->dispatch(ticket));
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return the current limit.
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return the number of requests waiting on CPAS.
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return the number of requests waiting for room.
+     */
+    public synchronized int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * @param priority a priority.
+     * @return the number of requests of the priority waiting for room.
+     */
+    public synchronized int getQueueDepth(@Nonnull RequestPriority priority) {
+        return queues.get(priority.ordinal()).size();
+    }
+
+    /**
+     * @return the number of requests that had to wait for room.
+     */
+    public synchronized long getQueuedRequests() {
+        return queuedRequests;
+    }
+
+    /**
+     * @return the total time requests spent waiting for room in milliseconds.
+     */
+    public synchronized long getTotalQueueWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalQueueWaitNanos);
+    }
+
+    /**
+     * @return the longest time a request spent waiting for room in milliseconds.
+     */
+    public synchronized long getMaxQueueWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxQueueWaitNanos);
+    }
+
+    /**
+     * @return the number of times the limit was lowered.
+     */
+    public synchronized long getDecreases() {
+        return decreases;
+    }
+
+    /**
+     * Sends a request once the limiter has room for it.
+     */
+    @FunctionalInterface
+    public interface Task {
+
+        /**
+         * @param permit to release when the request is answered.
+         */
+        void run(@Nonnull Permit permit);
+    }
+
+    /**
+     * The latency of one kind of request, kept as a recent and a long moving average. Both are plain averages until
+     * they have seen enough answers to be moving ones. Guarded by the limiter.
+     */
+    public final class Latency {
+
+        /**
+         * The name of the kind of request.
+         */
+        private final String name;
+
+        /**
+         * The average latency of the recent answers in nanoseconds.
+         */
+        private double recentNanos;
+
+        /**
+         * The average latency over a longer window in nanoseconds.
+         */
+        private double baselineNanos;
+
+        /**
+         * The number of answers seen.
+         */
+        private long samples;
+
+        /**
+         * Creates a new {@link Latency} object.
+         *
+         * @param name the name of the kind of request.
+         */
+        Latency(@Nonnull String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param nanos the time an answer took.
+         */
+        private void record(long nanos) {
+            samples++;
+            recentNanos += (nanos - recentNanos) * Math.max(RECENT_WEIGHT, 1.0 / samples);
+            baselineNanos += (nanos - baselineNanos) * Math.max(BASELINE_WEIGHT, 1.0 / samples);
+        }
+
+        /**
+         * @return true if the recent answers are slower than the long average allows.
+         */
+        private boolean isGrowing() {
+            return samples >= WARMUP_SAMPLES && recentNanos > baselineNanos * LATENCY_TOLERANCE;
+        }
+
+        /**
+         * @return the name of the kind of request.
+         */
+        @Nonnull
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the average latency of the recent answers in milliseconds.
+         */
+        public long getRecentMillis() {
+            synchronized(ConcurrencyLimiter.this) {
+                return TimeUnit.NANOSECONDS.toMillis((long) recentNanos);
+            }
+        }
+
+        /**
+         * @return the average latency over a longer window in milliseconds.
+         */
+        public long getBaselineMillis() {
+            synchronized(ConcurrencyLimiter.this) {
+                return TimeUnit.NANOSECONDS.toMillis((long) baselineNanos);
+            }
+        }
+    }
+
+    /**
+     * Room for one request. Releasing it more than once has no effect.
+     */
+    public final class Permit {
+
+        /**
+         * The latency of this kind of request.
+         */
+        private final Latency latency;
+
+        /**
+         * When the request was sent.
+         */
+        private final long startedAt;
+
+        /**
+         * True once the permit has been released.
+         */
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        /**
+         * Creates a new {@link Permit} object.
+         *
+         * @param latency   the latency of this kind of request.
+         * @param startedAt when the request was sent.
+         */
+        Permit(@Nonnull Latency latency, long startedAt) {
+            this.latency = latency;
+            this.startedAt = startedAt;
+        }
+
+        /**
+         * @param failed true if the request failed.
+         */
+        public void release(boolean failed) {
+            if (released.compareAndSet(false, true)) {
+                complete(latency, startedAt, failed);
+            }
+        }
+    }
+
+    /**
+     * A request passed to {@link #execute(RequestPriority, Latency, Task)}.
+     */
+    public final class Ticket {
+
+        /**
+         * Sends the request.
+         */
+        private final Task task;
+
+        /**
+         * The latency of this kind of request.
+         */
+        private final Latency latency;
+
+        /**
+         * When the request was made.
+         */
+        private final long queuedAt;
+
+        /**
+         * How urgent the request is, guarded by the limiter.
+         */
+        private RequestPriority priority;
+
+        /**
+         * True while the request is waiting for room, guarded by the limiter.
+         */
+        private boolean queued;
+
+        /**
+         * Creates a new {@link Ticket} object.
+         *
+         * @param task     sends the request.
+         * @param priority how urgent the request is.
+         * @param latency  the latency of this kind of request.
+         * @param queuedAt when the request was made.
+         */
+        Ticket(@Nonnull Task task, @Nonnull RequestPriority priority, @Nonnull Latency latency, long queuedAt) {
+            this.task = task;
+            this.latency = latency;
+            this.priority = priority;
+            this.queuedAt = queuedAt;
+        }
+
+        /**
+         * Makes the request more urgent if it is still waiting for room. Making it less urgent has no effect.
+         *
+         * @param priority the new priority.
+         */
+        public void promote(@Nonnull RequestPriority priority) {
+            ConcurrencyLimiter.this.promote(this, priority);
+        }
+    }
+}
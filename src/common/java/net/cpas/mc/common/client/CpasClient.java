@@ -0,0 +1,737 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.client;
+
+import net.cpas.Cpas;
+import net.cpas.mc.common.metrics.EndpointStats;
+import net.cpas.model.BanHistoryModel;
+import net.cpas.model.BanInfoModel;
+import net.cpas.model.InfoModel;
+import net.cpas.model.SuccessResponseModel;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Front for {@link Cpas} used by both platforms. Identical read requests that are made while one is already waiting
+ * on CPAS are not sent again, they share the pending request and every caller gets the response. Each endpoint sits
+ * behind a {@link CircuitBreaker}, while a breaker is open requests to its endpoint are answered straight away with
+ * {@link #UNAVAILABLE} so callers fall back to their local data instead of waiting on a CPAS that is down. Requests
+ * that are sent go through a {@link ConcurrencyLimiter} so a wave of logins can not flood the CPAS host. The time each
+ * request spends queued, waiting on CPAS and in its callbacks is recorded per endpoint in {@link EndpointStats}. A
+ * sent request that CPAS does not answer in time is answered with {@link #TIMED_OUT}, which frees its key and its
+ * room in the limiter. Only requests that never reached CPAS or got no answer count against the breaker, an error
+ * CPAS answered with is an answer like any other.
+ */
+public final class CpasClient {
+
+    /**
+     * The error message given to callbacks while the breaker of their endpoint is open.
+     */
+    public static final String UNAVAILABLE = "CPAS is unavailable, try again later";
+
+    /**
+     * The error message given to callbacks when CPAS does not answer in time.
+     */
+    public static final String TIMED_OUT = "CPAS did not answer in time";
+
+    /**
+     * Parts of the exception text the library answers with when it could not talk to CPAS.
+     */
+    private static final String[] TRANSPORT_FAILURE_MARKERS = {"java.io.", "java.net.", "javax.net.", "IOException",
+            "timed out", "Connection refused", "Connection reset"};
+
+    /**
+     * How long a sent request waits for CPAS before it is answered with {@link #TIMED_OUT}.
+     */
+    private static final long REQUEST_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * The number of failures in a row that opens a breaker.
+     */
+    private static final int BREAKER_FAILURE_THRESHOLD = 5;
+
+    /**
+     * How long a breaker stays open before a trial request is sent.
+     */
+    private static final long BREAKER_OPEN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * The number of requests allowed to wait on CPAS at once before the limiter has seen any answers.
+     */
+    private static final int INITIAL_CONCURRENCY = 8;
+
+    /**
+     * The fewest requests allowed to wait on CPAS at once.
+     */
+    private static final int MIN_CONCURRENCY = 2;
+
+    /**
+     * The most requests allowed to wait on CPAS at once.
+     */
+    private static final int MAX_CONCURRENCY = 64;
+
+    /**
+     * The only instance of this class.
+     */
+    private static final CpasClient instance = new CpasClient();
+
+    /**
+     * The CPAS endpoints used by the plugin.
+     */
+    public enum Endpoint {
+        /**
+         * {@link Cpas#getInfo(String, boolean, Cpas.ProcessResponse)} and the variant with an ip address.
+         */
+        INFO("getInfo"),
+        /**
+         * {@link Cpas#getBanInfo(String, Cpas.ProcessResponse)}.
+         */
+        BAN_INFO("getBanInfo"),
+        /**
+         * {@link Cpas#banUser(String, String, String, String[], int, String, Cpas.ProcessResponse)}.
+         */
+        BAN_USER("banUser"),
+        /**
+         * {@link Cpas#getBanHistory(String, int, Cpas.ProcessResponse)}.
+         */
+        BAN_HISTORY("getBanHistory");
+
+        /**
+         * The name of the CPAS method.
+         */
+        private final String methodName;
+
+        /**
+         * Creates a new {@link Endpoint} object.
+         *
+         * @param methodName the name of the CPAS method.
+         */
+        Endpoint(@Nonnull String methodName) {
+            this.methodName = methodName;
+        }
+
+        /**
+         * @return the name of the CPAS method.
+         */
+        @Nonnull
+        public String getMethodName() {
+            return methodName;
+        }
+    }
+
+    /**
+     * The circuit breaker of each endpoint.
+     */
+    private final Map<Endpoint, CircuitBreaker> breakers = new EnumMap<>(Endpoint.class);
+
+    /**
+     * The timings of each endpoint.
+     */
+    private final Map<Endpoint, EndpointStats> stats = new EnumMap<>(Endpoint.class);
+
+    /**
+     * Caps the number of requests waiting on CPAS.
+     */
+    private final ConcurrencyLimiter limiter;
+
+    /**
+     * The latency of each endpoint, as seen by the limiter.
+     */
+    private final Map<Endpoint, ConcurrencyLimiter.Latency> latencies = new EnumMap<>(Endpoint.class);
+
+    /**
+     * Sends the requests the limiter queued once there is room for them and times out the ones CPAS does not answer.
+     */
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable->{
+        final Thread thread = new Thread(runnable, "CPAS Client");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The pending read requests by key.
+     */
+    private final ConcurrentMap<String, InFlightRequest<?>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * The number of requests sent to CPAS.
+     */
+    private final AtomicLong issuedRequests = new AtomicLong();
+
+    /**
+     * The number of requests that joined a pending request instead of being sent.
+     */
+    private final AtomicLong coalescedRequests = new AtomicLong();
+
+    /**
+     * Creates a new {@link CpasClient} object.
+     */
+    private CpasClient() {
+        limiter = new ConcurrencyLimiter(INITIAL_CONCURRENCY, MIN_CONCURRENCY, MAX_CONCURRENCY, System::nanoTime,
+                executor);
+        for (Endpoint endpoint : Endpoint.values()) {
+            breakers.put(endpoint, new CircuitBreaker(endpoint.getMethodName(), BREAKER_FAILURE_THRESHOLD,
+                    BREAKER_OPEN_MILLIS, System::currentTimeMillis));
+            stats.put(endpoint, new EndpointStats(endpoint.getMethodName()));
+            latencies.put(endpoint, limiter.newLatency(endpoint.getMethodName()));
+        }
+    }
+
+    /**
+     * @return the only instance of this class.
+     */
+    @Nonnull
+    public static CpasClient getInstance() {
+        return instance;
+    }
+
+    /**
+     * Gets the info of a player.
+     *
+     * @param gameId   the game id of the player.
+     * @param ip       the ip address of the player.
+     * @param flag     passed to {@link Cpas#getInfo(String, String, boolean, Cpas.ProcessResponse)}.
+     * @param priority how urgent the request is.
+     * @param response called with the response.
+     */
+    public void getInfo(@Nonnull String gameId, @Nonnull String ip, boolean flag, @Nonnull RequestPriority priority,
+                        @Nonnull Cpas.ProcessResponse<InfoModel> response) {
+        coalesce(Endpoint.INFO, "info:" + gameId + ':' + ip + ':' + flag, priority, response,
+                shared->Cpas.getInstance().getInfo(gameId, ip, flag, shared));
+    }
+
+    /**
+     * Gets the info of a player.
+     *
+     * @param gameId   the game id of the player.
+     * @param flag     passed to {@link Cpas#getInfo(String, boolean, Cpas.ProcessResponse)}.
+     * @param priority how urgent the request is.
+     * @param response called with the response.
+     */
+    public void getInfo(@Nonnull String gameId, boolean flag, @Nonnull RequestPriority priority,
+                        @Nonnull Cpas.ProcessResponse<InfoModel> response) {
+        coalesce(Endpoint.INFO, "info:" + gameId + ':' + flag, priority, response, shared->Cpas.getInstance().getInfo(gameId, flag, shared));
+    }
+
+    /**
+     * Gets the current ban of a player.
+     *
+     * @param gameId   the game id of the player.
+     * @param priority how urgent the request is.
+     * @param response called with the response.
+     */
+    public void getBanInfo(@Nonnull String gameId, @Nonnull RequestPriority priority,
+                           @Nonnull Cpas.ProcessResponse<BanInfoModel> response) {
+        coalesce(Endpoint.BAN_INFO, "banInfo:" + gameId, priority, response, shared->Cpas.getInstance().getBanInfo(gameId, shared));
+    }
+
+    /**
+     * Gets the ban history of a player.
+     *
+     * @param gameId   the game id of the player.
+     * @param count    the number of bans to get.
+     * @param priority how urgent the request is.
+     * @param response called with the response.
+     */
+    public void getBanHistory(@Nonnull String gameId, int count, @Nonnull RequestPriority priority,
+                              @Nonnull Cpas.ProcessResponse<BanHistoryModel> response) {
+        coalesce(Endpoint.BAN_HISTORY, "banHistory:" + gameId + ':' + count, priority, response,
+                shared->Cpas.getInstance().getBanHistory(gameId, count, shared));
+    }
+
+    /**
+     * Bans a player. Bans are never coalesced.
+     *
+     * @param gameId     the game id of the player to ban.
+     * @param name       the name of the player to ban.
+     * @param bannerId   the game id of the banning admin, empty for the default admin.
+     * @param admins     the game ids of the admins on the server.
+     * @param duration   the ban duration in minutes.
+     * @param reason     the ban reason.
+     * @param priority   how urgent the request is.
+     * @param response   called with the response.
+     */
+    public void banUser(@Nonnull String gameId, @Nonnull String name, @Nonnull String bannerId, @Nonnull String[] admins,
+                        int duration, @Nonnull String reason, @Nonnull RequestPriority priority,
+                        @Nonnull Cpas.ProcessResponse<SuccessResponseModel> response) {
+        final CircuitBreaker breaker = breakers.get(Endpoint.BAN_USER);
+        if (!breaker.tryAcquire()) {
+            response.process(null, UNAVAILABLE);
+            return;
+        }
+        issuedRequests.incrementAndGet();
+        final SingleRequest<SuccessResponseModel> request = new SingleRequest<>(response, breaker,
+                stats.get(Endpoint.BAN_USER));
+        limiter.execute(priority, latencies.get(Endpoint.BAN_USER), permit->request.send(permit,
+                shared->Cpas.getInstance().banUser(gameId, name, bannerId, admins, duration, reason, shared)));
+    }
+
+    /**
+     * Sends a request, or joins the pending request with the same key. Answers with {@link #UNAVAILABLE} right away if
+     * the breaker of the endpoint is open.
+     *
+     * @param endpoint the endpoint the request is for.
+     * @param key      identifies identical requests.
+     * @param priority how urgent the request is, a pending request that is joined is made at least as urgent.
+     * @param response called with the response.
+     * @param sender   sends the request to CPAS with the shared callback.
+     * @param <T>      the model type of the response.
+     */
+    private <T> void coalesce(@Nonnull Endpoint endpoint, @Nonnull String key, @Nonnull RequestPriority priority,
+                              @Nonnull Cpas.ProcessResponse<T> response, @Nonnull Consumer<Cpas.ProcessResponse<T>> sender) {
+        final CircuitBreaker breaker = breakers.get(endpoint);
+        if (!breaker.tryAcquire()) {
+            response.process(null, UNAVAILABLE);
+            return;
+        }
+        while (true) {
+            final InFlightRequest<T> created = new InFlightRequest<>(key, response, breaker, stats.get(endpoint));
+            @SuppressWarnings ("unchecked") final InFlightRequest<T> existing = (InFlightRequest<T>) inFlight.putIfAbsent(key, created);
+            if (existing == null) {
+                issuedRequests.incrementAndGet();
+                created.setTicket(limiter.execute(priority, latencies.get(endpoint),
+                        permit->created.send(permit, sender)));
+                return;
+            }
+            if (existing.join(response, priority)) {
+                coalescedRequests.incrementAndGet();
+                return;
+            }
+            // The pending request completed while we were joining it, try again
+            inFlight.remove(key, existing);
+        }
+    }
+
+    /**
+     * @param e the exception thrown while sending a request.
+     * @return the error message to give the callbacks of the request.
+     */
+    @Nonnull
+    private static String sendFailure(@Nonnull RuntimeException e) {
+        return "Could not send the request to CPAS: " + e;
+    }
+
+    /**
+     * The library hands the text of the exception to the callback when it could not talk to CPAS, while errors CPAS
+     * answered with are passed on as CPAS worded them.
+     *
+     * @param errorMessage the error message the library answered with, or null.
+     * @return true if the error means CPAS could not be reached or did not answer.
+     */
+    static boolean isTransportFailure(@Nullable String errorMessage) {
+        if (errorMessage == null) {
+            return false;
+        }
+        for (String marker : TRANSPORT_FAILURE_MARKERS) {
+            if (errorMessage.contains(marker)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param endpoint the endpoint.
+     * @return the circuit breaker of the endpoint.
+     */
+    @Nonnull
+    public CircuitBreaker getBreaker(@Nonnull Endpoint endpoint) {
+        return breakers.get(endpoint);
+    }
+
+    /**
+     * @return the circuit breakers of every endpoint.
+     */
+    @Nonnull
+    public Collection<CircuitBreaker> getBreakers() {
+        return Collections.unmodifiableCollection(breakers.values());
+    }
+
+    /**
+     * @param endpoint the endpoint.
+     * @return the timings of the endpoint.
+     */
+    @Nonnull
+    public EndpointStats getStats(@Nonnull Endpoint endpoint) {
+        return stats.get(endpoint);
+    }
+
+    /**
+     * @return the timings of every endpoint.
+     */
+    @Nonnull
+    public Collection<EndpointStats> getStats() {
+        return Collections.unmodifiableCollection(stats.values());
+    }
+
+    /**
+     * @return the limiter capping the number of requests waiting on CPAS.
+     */
+    @Nonnull
+    public ConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * @param endpoint the endpoint.
+     * @return the latency of the endpoint as seen by the limiter.
+     */
+    @Nonnull
+    public ConcurrencyLimiter.Latency getLatency(@Nonnull Endpoint endpoint) {
+        return latencies.get(endpoint);
+    }
+
+    /**
+     * @return the number of requests currently waiting on CPAS.
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * @return the number of requests sent to CPAS.
+     */
+    public long getIssuedRequests() {
+        return issuedRequests.get();
+    }
+
+    /**
+     * @return the number of requests that were answered by another pending request instead of being sent.
+     */
+    public long getCoalescedRequests() {
+        return coalescedRequests.get();
+    }
+
+    /**
+     * A request sent to CPAS. It is answered once, either by CPAS or with {@link #TIMED_OUT} if CPAS does not answer
+     * within {@link #REQUEST_TIMEOUT_MILLIS}, whichever comes first. Either way the circuit breaker, the limiter and
+     * the endpoint timings are told how it went and its permit is released after the callbacks ran.
+     *
+     * @param <T> the model type of the response.
+     */
+    private abstract class PendingRequest<T> implements Cpas.ProcessResponse<T> {
+
+        /**
+         * The model type of the response.
+         */
+        private final Class<T> modelClass;
+
+        /**
+         * The circuit breaker of the endpoint.
+         */
+        private final CircuitBreaker breaker;
+
+        /**
+         * The timings of the endpoint.
+         */
+        private final EndpointStats stats;
+
+        /**
+         * When the request was made.
+         */
+        private final long createdAt = System.nanoTime();
+
+        /**
+         * True once the request has been answered or timed out.
+         */
+        private final AtomicBoolean answered = new AtomicBoolean();
+
+        /**
+         * When the request was sent.
+         */
+        private volatile long sentAt;
+
+        /**
+         * The room this request holds in the limiter, set when it is sent.
+         */
+        private volatile ConcurrencyLimiter.Permit permit;
+
+        /**
+         * Answers the request with {@link #TIMED_OUT}, set when it is sent.
+         */
+        private volatile ScheduledFuture<?> timeout;
+
+        /**
+         * Creates a new {@link PendingRequest} object.
+         *
+         * @param modelClass the model type of the response.
+         * @param breaker    the circuit breaker of the endpoint.
+         * @param stats      the timings of the endpoint.
+         */
+        PendingRequest(@Nonnull Class<T> modelClass, @Nonnull CircuitBreaker breaker, @Nonnull EndpointStats stats) {
+            this.modelClass = modelClass;
+            this.breaker = breaker;
+            this.stats = stats;
+        }
+
+        /**
+         * Sends the request and starts its deadline. A request that can not be sent is answered with an error.
+         *
+         * @param permit the room this request holds in the limiter.
+         * @param sender sends the request to CPAS with this object as the callback.
+         */
+        void send(@Nonnull ConcurrencyLimiter.Permit permit, @Nonnull Consumer<Cpas.ProcessResponse<T>> sender) {
+            this.permit = permit;
+            sentAt = System.nanoTime();
+            stats.getQueueWait().recordNanos(sentAt - createdAt);
+            timeout = executor.schedule(()->answer(null, TIMED_OUT, true), REQUEST_TIMEOUT_MILLIS,
+                    TimeUnit.MILLISECONDS);
+            try {
+                sender.accept(this);
+            } catch (RuntimeException e) {
+                answer(null, sendFailure(e), true);
+            }
+        }
+
+        @Override
+        public final void process(T response, String errorMessage) {
+            answer(response, errorMessage, isTransportFailure(errorMessage));
+        }
+
+        /**
+         * Answers the request once. Only a request that never reached CPAS or got no answer from it counts as a
+         * failure for the breaker and the limiter, an error CPAS answered with is still an answer.
+         *
+         * @param response         the response.
+         * @param errorMessage     the error message or null if the request succeeded.
+         * @param transportFailure true if CPAS could not be reached or did not answer.
+         */
+        private void answer(T response, String errorMessage, boolean transportFailure) {
+            if (!answered.compareAndSet(false, true)) {
+                // Already timed out, or CPAS answered after all
+                return;
+            }
+            final ScheduledFuture<?> timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            stats.getNetwork().recordNanos(System.nanoTime() - sentAt);
+            stats.recordResponse(errorMessage != null);
+            if (transportFailure) {
+                breaker.recordFailure();
+            } else {
+                breaker.recordSuccess();
+            }
+            final long callbacksStartedAt = System.nanoTime();
+            try {
+                deliver(response, errorMessage);
+            } finally {
+                stats.getCallback().recordNanos(System.nanoTime() - callbacksStartedAt);
+                // Only once the callbacks ran, releasing may send queued requests
+                final ConcurrencyLimiter.Permit permit = this.permit;
+                if (permit != null) {
+                    permit.release(transportFailure);
+                }
+            }
+        }
+
+        /**
+         * Hands the response to the callbacks waiting on it.
+         *
+         * @param response     the response.
+         * @param errorMessage the error message or null if the request succeeded.
+         */
+        abstract void deliver(T response, String errorMessage);
+
+        @Override
+        public Class<T> getModelClass() {
+            return modelClass;
+        }
+    }
+
+    /**
+     * A read request waiting on CPAS and every callback waiting on it.
+     *
+     * @param <T> the model type of the response.
+     */
+    private class InFlightRequest<T> extends PendingRequest<T> {
+
+        /**
+         * The key of the request.
+         */
+        private final String key;
+
+        /**
+         * The ticket of this request in the limiter, null until the limiter took the request.
+         */
+        private ConcurrencyLimiter.Ticket ticket;
+
+        /**
+         * The most urgent priority asked for by callers that joined before the ticket was set, or null.
+         */
+        private RequestPriority promoteTo;
+
+        /**
+         * The callbacks waiting on the response, null once the response has been delivered.
+         */
+        private List<Cpas.ProcessResponse<T>> callbacks = new ArrayList<>(2);
+
+        /**
+         * Creates a new {@link InFlightRequest} object.
+         *
+         * @param key      the key of the request.
+         * @param response the first callback waiting on the response.
+         * @param breaker  the circuit breaker of the endpoint.
+         * @param stats    the timings of the endpoint.
+         */
+        InFlightRequest(@Nonnull String key, @Nonnull Cpas.ProcessResponse<T> response, @Nonnull CircuitBreaker breaker,
+                        @Nonnull EndpointStats stats) {
+            super(response.getModelClass(), breaker, stats);
+            this.key = key;
+            callbacks.add(response);
+        }
+
+        /**
+         * Sets the ticket of this request and applies the priority of callers that joined before it was set.
+         *
+         * @param ticket the ticket of this request in the limiter.
+         */
+        void setTicket(@Nonnull ConcurrencyLimiter.Ticket ticket) {
+            final RequestPriority priority;
+            synchronized(this) {
+                this.ticket = ticket;
+                priority = promoteTo;
+                promoteTo = null;
+            }
+            if (priority != null) {
+                ticket.promote(priority);
+            }
+        }
+
+        /**
+         * Adds a callback and makes the request at least as urgent as the caller asked. If the request has no ticket
+         * yet the priority is kept and applied once it has one.
+         *
+         * @param response the callback to add.
+         * @param priority how urgent the caller needs the response.
+         * @return false if the response was already delivered and the callback was not added.
+         */
+        boolean join(@Nonnull Cpas.ProcessResponse<T> response, @Nonnull RequestPriority priority) {
+            final ConcurrencyLimiter.Ticket ticket;
+            synchronized(this) {
+                if (callbacks == null) {
+                    return false;
+                }
+                callbacks.add(response);
+                ticket = this.ticket;
+                if (ticket == null && (promoteTo == null || priority.ordinal() < promoteTo.ordinal())) {
+                    promoteTo = priority;
+                }
+            }
+            if (ticket != null) {
+                ticket.promote(priority);
+            }
+            return true;
+        }
+
+        /**
+         * Hands the response to every callback, even if one of them fails. The key is freed first so requests made
+         * from here on are sent again.
+         *
+         * @param response     the response.
+         * @param errorMessage the error message or null if the request succeeded.
+         */
+        @Override
+        void deliver(T response, String errorMessage) {
+            inFlight.remove(key, this);
+            final List<Cpas.ProcessResponse<T>> waiting;
+            synchronized(this) {
+                waiting = callbacks;
+                callbacks = null;
+            }
+            if (waiting == null) {
+                return;
+            }
+            RuntimeException failure = null;
+            for (Cpas.ProcessResponse<T> callback : waiting) {
+                try {
+                    callback.process(response, errorMessage);
+                } catch (RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * A request with a single callback, used for requests that are never coalesced.
+     *
+     * @param <T> the model type of the response.
+     */
+    private class SingleRequest<T> extends PendingRequest<T> {
+
+        /**
+         * The callback waiting on the response.
+         */
+        private final Cpas.ProcessResponse<T> delegate;
+
+        /**
+         * Creates a new {@link SingleRequest} object.
+         *
+         * @param delegate the callback waiting on the response.
+         * @param breaker  the circuit breaker of the endpoint.
+         * @param stats    the timings of the endpoint.
+         */
+        SingleRequest(@Nonnull Cpas.ProcessResponse<T> delegate, @Nonnull CircuitBreaker breaker,
+                      @Nonnull EndpointStats stats) {
+            super(delegate.getModelClass(), breaker, stats);
+            this.delegate = delegate;
+        }
+
+        @Override
+        void deliver(T response, String errorMessage) {
+            delegate.process(response, errorMessage);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.concurrent;
+
+import net.cpas.Cpas;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.Executor;
+
+/**
+ * Hands a CPAS response over to an {@link Executor} instead of processing it on the HTTP thread that received it.
+ *
+ * @param <T> the model type of the response.
+ */
+public class ExecutorProcessResponse<T> implements Cpas.ProcessResponse<T> {
+
+    /**
+     * The executor the response is processed on.
+     */
+    private final Executor executor;
+
+    /**
+     * The response handler to run on the executor.
+     */
+    private final Cpas.ProcessResponse<T> delegate;
+
+    /**
+     * Creates a new {@link ExecutorProcessResponse} object.
+     *
+     * @param executor the executor the response is processed on.
+     * @param delegate the response handler to run on the executor.
+     */
+    public ExecutorProcessResponse(@Nonnull Executor executor, @Nonnull Cpas.ProcessResponse<T> delegate) {
+        this.executor = executor;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void process(T response, String errorMessage) {
+        executor.execute(()->delegate.process(response, errorMessage));
+    }
+
+    @Override
+    public Class<T> getModelClass() {
+        return delegate.getModelClass();
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.group;
+
+import net.cpas.model.CpasGroupModel;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The configured CPAS to in game group mappings compiled into immutable lookup tables. A table is built once per
+ * config load so resolving groups on login does no parsing and allocates as little as possible.
+ */
+public final class GroupMappingTable {
+
+    /**
+     * The maximum number of secondary groups, one per bit of a membership mask.
+     */
+    public static final int MAX_SECONDARY_GROUPS = Long.SIZE;
+
+    /**
+     * The primary group ranks in ascending order.
+     */
+    private final int[] primaryRanks;
+
+    /**
+     * The primary group names, indexed like {@link #primaryRanks}.
+     */
+    private final String[] primaryGroups;
+
+    /**
+     * The primary group permission nodes, indexed like {@link #primaryRanks}.
+     */
+    private final String[] primaryNodes;
+
+    /**
+     * The division group names keyed by division tag.
+     */
+    private final Map<String, String> divisionGroups;
+
+    /**
+     * The division group permission nodes keyed by division tag.
+     */
+    private final Map<String, String> divisionNodes;
+
+    /**
+     * The secondary group ranks in ascending order.
+     */
+    private final int[] secondaryRanks;
+
+    /**
+     * The secondary group names, indexed like {@link #secondaryRanks}.
+     */
+    private final String[] secondaryGroups;
+
+    /**
+     * The secondary group permission nodes, indexed like {@link #secondaryRanks}.
+     */
+    private final String[] secondaryNodes;
+
+    /**
+     * The group given to players without a primary group.
+     */
+    private final String noGroup;
+
+    /**
+     * The permission node of the group given to players without a primary group.
+     */
+    private final String noGroupNode;
+
+    /**
+     * The ds group.
+     */
+    private final String dsGroup;
+
+    /**
+     * The permission node of the ds group.
+     */
+    private final String dsNode;
+
+    /**
+     * The config keys that could not be compiled.
+     */
+    private final List<String> invalidKeys;
+
+    /**
+     * Creates a new {@link GroupMappingTable} object.
+     *
+     * @param prefix    the group permission prefix.
+     * @param primary   the primary group names keyed by CPAS rank.
+     * @param division  the division group names keyed by division tag.
+     * @param secondary the secondary group names keyed by CPAS rank.
+     * @param noGroup   the group given to players without a primary group.
+     * @param dsGroup   the ds group.
+     */
+    private GroupMappingTable(@Nonnull String prefix, @Nonnull Map<String, String> primary,
+                              @Nonnull Map<String, String> division, @Nonnull Map<String, String> secondary,
+                              @Nonnull String noGroup, @Nonnull String dsGroup) {
+        final List<String> invalid = new ArrayList<>();
+        final TreeMap<Integer, String> sortedPrimary = parseRanks("primaryGroups", primary, invalid);
+        final TreeMap<Integer, String> sortedSecondary = parseRanks("secondaryGroups", secondary, invalid);
+        while (sortedSecondary.size() > MAX_SECONDARY_GROUPS) {
+            invalid.add("secondaryGroups." + sortedSecondary.lastKey());
+            sortedSecondary.remove(sortedSecondary.lastKey());
+        }
+
+        primaryRanks = new int[sortedPrimary.size()];
+        primaryGroups = new String[sortedPrimary.size()];
+        primaryNodes = new String[sortedPrimary.size()];
+        int index = 0;
+        for (Map.Entry<Integer, String> kvp : sortedPrimary.entrySet()) {
+            primaryRanks[index] = kvp.getKey();
+            primaryGroups[index] = kvp.getValue();
+            primaryNodes[index] = prefix + kvp.getValue();
+            index++;
+        }
+
+        final Map<String, String> divisionGroupMap = new HashMap<>();
+        final Map<String, String> divisionNodeMap = new HashMap<>();
+        for (Map.Entry<String, String> kvp : division.entrySet()) {
+            if (kvp.getValue() == null) {
+                invalid.add("divisionGroups." + kvp.getKey());
+                continue;
+            }
+            divisionGroupMap.put(kvp.getKey(), kvp.getValue());
+            divisionNodeMap.put(kvp.getKey(), prefix + kvp.getValue());
+        }
+        divisionGroups = Collections.unmodifiableMap(divisionGroupMap);
+        divisionNodes = Collections.unmodifiableMap(divisionNodeMap);
+
+        secondaryRanks = new int[sortedSecondary.size()];
+        secondaryGroups = new String[sortedSecondary.size()];
+        secondaryNodes = new String[sortedSecondary.size()];
+        index = 0;
+        for (Map.Entry<Integer, String> kvp : sortedSecondary.entrySet()) {
+            secondaryRanks[index] = kvp.getKey();
+            secondaryGroups[index] = kvp.getValue();
+            secondaryNodes[index] = prefix + kvp.getValue();
+            index++;
+        }
+
+        this.noGroup = noGroup;
+        noGroupNode = prefix + noGroup;
+        this.dsGroup = dsGroup;
+        dsNode = prefix + dsGroup;
+        invalidKeys = Collections.unmodifiableList(invalid);
+    }
+
+    /**
+     * Compiles the group mappings of a config. Keys that are not valid are skipped and reported by
+     * {@link #getInvalidKeys()}.
+     *
+     * @param prefix    the group permission prefix.
+     * @param primary   the primary group names keyed by CPAS rank.
+     * @param division  the division group names keyed by division tag.
+     * @param secondary the secondary group names keyed by CPAS rank.
+     * @param noGroup   the group given to players without a primary group.
+     * @param dsGroup   the ds group.
+     * @return the compiled table.
+     */
+    @Nonnull
+    public static GroupMappingTable compile(@Nullable String prefix, @Nonnull Map<String, String> primary,
+                                            @Nonnull Map<String, String> division,
+                                            @Nonnull Map<String, String> secondary, @Nullable String noGroup,
+                                            @Nullable String dsGroup) {
+        return new GroupMappingTable(prefix == null ? "" : prefix, primary, division, secondary,
+                noGroup == null ? "" : noGroup, dsGroup == null ? "" : dsGroup);
+    }
+
+    /**
+     * @param section the name of the config section, used when reporting invalid keys.
+     * @param groups  the group names keyed by CPAS rank.
+     * @param invalid collects the keys that are not valid.
+     * @return the group names keyed by parsed rank.
+     */
+    @Nonnull
+    private static TreeMap<Integer, String> parseRanks(@Nonnull String section, @Nonnull Map<String, String> groups,
+                                                       @Nonnull List<String> invalid) {
+        final TreeMap<Integer, String> sorted = new TreeMap<>();
+        for (Map.Entry<String, String> kvp : groups.entrySet()) {
+            try {
+                if (kvp.getValue() == null) {
+                    throw new NumberFormatException();
+                }
+                sorted.put(Integer.valueOf(kvp.getKey().trim()), kvp.getValue());
+            } catch (NumberFormatException e) {
+                invalid.add(section + "." + kvp.getKey());
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * @param rank a CPAS rank.
+     * @return the primary group name for the rank or null if it is not mapped.
+     */
+    @Nullable
+    public String getPrimaryGroup(int rank) {
+        final int index = Arrays.binarySearch(primaryRanks, rank);
+        return index < 0 ? null : primaryGroups[index];
+    }
+
+    /**
+     * @param rank a CPAS rank.
+     * @return the primary group permission node for the rank or null if it is not mapped.
+     */
+    @Nullable
+    public String getPrimaryNode(int rank) {
+        final int index = Arrays.binarySearch(primaryRanks, rank);
+        return index < 0 ? null : primaryNodes[index];
+    }
+
+    /**
+     * @return the number of primary groups.
+     */
+    public int getPrimaryCount() {
+        return primaryRanks.length;
+    }
+
+    /**
+     * @param index an index below {@link #getPrimaryCount()}.
+     * @return the primary group name at the index.
+     */
+    @Nonnull
+    public String getPrimaryGroupAt(int index) {
+        return primaryGroups[index];
+    }
+
+    /**
+     * @param index an index below {@link #getPrimaryCount()}.
+     * @return the primary group permission node at the index.
+     */
+    @Nonnull
+    public String getPrimaryNodeAt(int index) {
+        return primaryNodes[index];
+    }
+
+    /**
+     * @param division a CPAS division tag.
+     * @return the division group name for the tag or null if it is not mapped.
+     */
+    @Nullable
+    public String getDivisionGroup(@Nullable String division) {
+        return division == null ? null : divisionGroups.get(division);
+    }
+
+    /**
+     * @param division a CPAS division tag.
+     * @return the division group permission node for the tag or null if it is not mapped.
+     */
+    @Nullable
+    public String getDivisionNode(@Nullable String division) {
+        return division == null ? null : divisionNodes.get(division);
+    }
+
+    /**
+     * @return the division group names keyed by division tag.
+     */
+    @Nonnull
+    public Map<String, String> getDivisionGroups() {
+        return divisionGroups;
+    }
+
+    /**
+     * @return the number of secondary groups.
+     */
+    public int getSecondaryCount() {
+        return secondaryRanks.length;
+    }
+
+    /**
+     * @param index an index below {@link #getSecondaryCount()}.
+     * @return the secondary group name at the index.
+     */
+    @Nonnull
+    public String getSecondaryGroupAt(int index) {
+        return secondaryGroups[index];
+    }
+
+    /**
+     * @param index an index below {@link #getSecondaryCount()}.
+     * @return the secondary group permission node at the index.
+     */
+    @Nonnull
+    public String getSecondaryNodeAt(int index) {
+        return secondaryNodes[index];
+    }
+
+    /**
+     * @param groups the CPAS groups of a player.
+     * @return a mask with bit {@code i} set if the player is a member of the secondary group at index {@code i}.
+     */
+    public long getSecondaryMembership(@Nullable List<CpasGroupModel> groups) {
+        long membership = 0L;
+        if (groups == null) {
+            return membership;
+        }
+        for (int i = 0; i < groups.size(); i++) {
+            final int index = Arrays.binarySearch(secondaryRanks, groups.get(i).rank);
+            if (index >= 0) {
+                membership |= 1L << index;
+            }
+        }
+        return membership;
+    }
+
+    /**
+     * @return the group given to players without a primary group.
+     */
+    @Nonnull
+    public String getNoGroup() {
+        return noGroup;
+    }
+
+    /**
+     * @return the permission node of the group given to players without a primary group.
+     */
+    @Nonnull
+    public String getNoGroupNode() {
+        return noGroupNode;
+    }
+
+    /**
+     * @return the ds group.
+     */
+    @Nonnull
+    public String getDsGroup() {
+        return dsGroup;
+    }
+
+    /**
+     * @return the permission node of the ds group.
+     */
+    @Nonnull
+    public String getDsNode() {
+        return dsNode;
+    }
+
+    /**
+     * @return the config keys that could not be compiled.
+     */
+    @Nonnull
+    public List<String> getInvalidKeys() {
+        return invalidKeys;
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.group;
+
+import net.cpas.model.InfoModel;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Works out which groups a player should have from their CPAS info and which groups the plugin is responsible for,
+ * the same way on every platform. The groups that are managed only depend on the config, so they are worked out once
+ * when the resolver is built and each login only builds the set of groups the player should have.
+ */
+public final class GroupResolver {
+
+    /**
+     * How the groups are named to the permission plugin.
+     */
+    public enum Naming {
+
+        /**
+         * The plain group names, compared ignoring case.
+         */
+        GROUP,
+
+        /**
+         * The permission nodes, the group names with the configured prefix.
+         */
+        NODE
+    }
+
+    /**
+     * The compiled group mappings.
+     */
+    private final GroupMappingTable table;
+
+    /**
+     * How the groups are named.
+     */
+    private final Naming naming;
+
+    /**
+     * True if players get the group mapped to their primary rank.
+     */
+    private final boolean usePrimaryGroups;
+
+    /**
+     * True if players without a mapped primary group get the no group.
+     */
+    private final boolean useNoGroup;
+
+    /**
+     * True if players get the group mapped to their division.
+     */
+    private final boolean useDivisionGroups;
+
+    /**
+     * True if players get the groups mapped to their other ranks.
+     */
+    private final boolean useSecondaryGroups;
+
+    /**
+     * True if the ds group is handed out and taken away on login.
+     */
+    private final boolean useDsGroup;
+
+    /**
+     * The managed groups outside of a login, lower case when compared ignoring case.
+     */
+    private final Set<String> managed;
+
+    /**
+     * The managed groups on login, which include the ds group when it is used.
+     */
+    private final Set<String> managedOnLogin;
+
+    /**
+     * Creates a new {@link GroupResolver} object.
+     *
+     * @param table              the compiled group mappings.
+     * @param naming             how the groups are named.
+     * @param usePrimaryGroups   true if players get the group mapped to their primary rank.
+     * @param useNoGroup         true if players without a mapped primary group get the no group, only used together
+     *                           with the primary groups.
+     * @param useDivisionGroups  true if players get the group mapped to their division.
+     * @param useSecondaryGroups true if players get the groups mapped to their other ranks.
+     * @param useDsGroup         true if the ds group is handed out and taken away on login.
+     */
+    public GroupResolver(@Nonnull GroupMappingTable table, @Nonnull Naming naming, boolean usePrimaryGroups,
+                         boolean useNoGroup, boolean useDivisionGroups, boolean useSecondaryGroups,
+                         boolean useDsGroup) {
+        this.table = table;
+        this.naming = naming;
+        this.usePrimaryGroups = usePrimaryGroups;
+        this.useNoGroup = usePrimaryGroups && useNoGroup;
+        this.useDivisionGroups = useDivisionGroups;
+        this.useSecondaryGroups = useSecondaryGroups;
+        this.useDsGroup = useDsGroup;
+
+        final Set<String> groups = new HashSet<>();
+        if (usePrimaryGroups) {
+            for (int i = 0; i < table.getPrimaryCount(); i++) {
+                groups.add(key(name(table.getPrimaryGroupAt(i), table.getPrimaryNodeAt(i))));
+            }
+        }
+        if (this.useNoGroup) {
+            groups.add(key(name(table.getNoGroup(), table.getNoGroupNode())));
+        }
+        if (useDivisionGroups) {
+            for (String division : table.getDivisionGroups().keySet()) {
+                groups.add(key(name(table.getDivisionGroup(division), table.getDivisionNode(division))));
+            }
+        }
+        if (useSecondaryGroups) {
+            for (int i = 0; i < table.getSecondaryCount(); i++) {
+                groups.add(key(name(table.getSecondaryGroupAt(i), table.getSecondaryNodeAt(i))));
+            }
+        }
+        managed = Collections.unmodifiableSet(new HashSet<>(groups));
+        if (useDsGroup) {
+            groups.add(key(name(table.getDsGroup(), table.getDsNode())));
+        }
+        managedOnLogin = Collections.unmodifiableSet(groups);
+    }
+
+    /**
+     * @param response the CPAS info of the player.
+     * @param login    true if the player is logging in, the ds group is only handed out on login.
+     * @return a new, modifiable set of the groups the player should have.
+     */
+    @Nonnull
+    public Set<String> resolve(@Nonnull InfoModel response, boolean login) {
+        final Set<String> desired = new HashSet<>();
+        if (usePrimaryGroups) {
+            final String primary = name(table.getPrimaryGroup(response.primaryGroup.rank),
+                    table.getPrimaryNode(response.primaryGroup.rank));
+            if (primary != null) {
+                desired.add(primary);
+            } else if (useNoGroup) {
+                // 'noGroup' is only given when there is no primary group assigned
+                desired.add(name(table.getNoGroup(), table.getNoGroupNode()));
+            }
+        }
+        if (useDivisionGroups) {
+            final String division = name(table.getDivisionGroup(response.division),
+                    table.getDivisionNode(response.division));
+            if (division != null) {
+                desired.add(division);
+            }
+        }
+        if (useSecondaryGroups) {
+            final long membership = table.getSecondaryMembership(response.groups);
+            for (int i = 0; i < table.getSecondaryCount(); i++) {
+                if ((membership & (1L << i)) != 0) {
+                    desired.add(name(table.getSecondaryGroupAt(i), table.getSecondaryNodeAt(i)));
+                }
+            }
+        }
+        if (login && useDsGroup && response.dsInfo.isDedicatedSupporter) {
+            desired.add(name(table.getDsGroup(), table.getDsNode()));
+        }
+        return desired;
+    }
+
+    /**
+     * @param group a group the player has.
+     * @param login true if the player is logging in.
+     * @return true if the plugin is responsible for the group and may take it away.
+     */
+    public boolean isManaged(@Nonnull String group, boolean login) {
+        return (login ? managedOnLogin : managed).contains(key(group));
+    }
+
+    /**
+     * @param login true if the player is logging in.
+     * @return {@link #isManaged(String, boolean)} as a predicate.
+     */
+    @Nonnull
+    public Predicate<String> managed(boolean login) {
+        return group->isManaged(group, login);
+    }
+
+    /**
+     * @param login true if the player is logging in.
+     * @return the number of managed groups.
+     */
+    public int getManagedCount(boolean login) {
+        return (login ? managedOnLogin : managed).size();
+    }
+
+    /**
+     * @param group the group name.
+     * @param node  the permission node of the group.
+     * @return the group as it is named to the permission plugin.
+     */
+    @Nullable
+    private String name(@Nullable String group, @Nullable String node) {
+        return naming == Naming.GROUP ? group : node;
+    }
+
+    /**
+     * @param group a group as it is named to the permission plugin.
+     * @return the group as it is looked up in the managed groups.
+     */
+    @Nonnull
+    private String key(@Nonnull String group) {
+        return naming == Naming.GROUP ? group.toLowerCase(Locale.ROOT) : group;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.UUID;
+
+/**
+ * The {@code jdk.jfr} side of {@link LoginEvents}, only loaded once the runtime is known to have it.
+ */
+final class JfrLoginEvents {
+
+    /**
+     * Only static methods.
+     */
+    private JfrLoginEvents() {
+    }
+
+    /**
+     * @param stage the stage.
+     * @return the span to end when the stage is done, {@link LoginEvents#NONE} if the stage is not being recorded.
+     */
+    @Nonnull
+    static LoginEvents.Span begin(@Nonnull LoginStage stage) {
+        final LoginStageEvent event;
+        switch (stage) {
+            case AUTH_CHECK:
+                event = new AuthCheckEvent();
+                break;
+            case INFO_FETCH:
+                event = new InfoFetchEvent();
+                break;
+            case PERMISSION_SYNC:
+                event = new PermissionSyncEvent();
+                break;
+            default:
+                event = new DsBroadcastEvent();
+                break;
+        }
+        // Without a recording nothing is timed and the shared no-op span is handed out instead
+        if (!event.isEnabled()) {
+            return LoginEvents.NONE;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * A stage of a login, the duration of the event is the duration of the stage.
+     */
+    @Category ({"CPAS", "Login"})
+    abstract static class LoginStageEvent extends Event implements LoginEvents.Span {
+
+        /**
+         * The {@link UUID} of the player logging in.
+         */
+        @Label ("Player")
+        String player;
+
+        /**
+         * How the stage ended.
+         */
+        @Label ("Outcome")
+        String outcome;
+
+        /**
+         * More about the outcome, such as an error message.
+         */
+        @Label ("Detail")
+        String detail;
+
+        @Override
+        public void end(@Nonnull UUID player, @Nonnull String outcome, @Nullable String detail) {
+            end();
+            if (shouldCommit()) {
+                this.player = player.toString();
+                this.outcome = outcome;
+                this.detail = detail;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * Deciding if the connecting player is banned.
+     */
+    @Name ("net.cpas.login.AuthCheck")
+    @Label ("Auth Ban Check")
+    @Description ("Deciding if a connecting player is banned, the detail is where the decision came from.")
+    static final class AuthCheckEvent extends LoginStageEvent {
+    }
+
+    /**
+     * Fetching the CPAS info of the player.
+     */
+    @Name ("net.cpas.login.InfoFetch")
+    @Label ("Info Fetch")
+    @Description ("From requesting the CPAS info of a player until the plugin gets the response.")
+    static final class InfoFetchEvent extends LoginStageEvent {
+    }
+
+    /**
+     * Writing the CPAS groups of the player to the permission plugin.
+     */
+    @Name ("net.cpas.login.PermissionSync")
+    @Label ("Permission Sync")
+    @Description ("Writing the CPAS groups of a player to the permission plugin.")
+    static final class PermissionSyncEvent extends LoginStageEvent {
+    }
+
+    /**
+     * Announcing the join of the player.
+     */
+    @Name ("net.cpas.login.DsBroadcast")
+    @Label ("DS Broadcast")
+    @Description ("Announcing the join of a player, with their dedicated supporter message if they have one.")
+    static final class DsBroadcastEvent extends LoginStageEvent {
+    }
+}
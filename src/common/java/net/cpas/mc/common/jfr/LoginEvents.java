@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.jfr;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.UUID;
+
+/**
+ * Records the stages of a login as Java Flight Recorder events, so a recording shows where login time goes next to
+ * GC and thread data. {@code jdk.jfr} is only present on Java 8u262 and later, on older runtimes and while nothing is
+ * recording {@link #begin(LoginStage)} hands out {@link #NONE}, which costs nothing.
+ */
+public final class LoginEvents {
+
+    /**
+     * A span that records nothing.
+     */
+    public static final Span NONE = (player, outcome, detail)->{
+    };
+
+    /**
+     * True if the runtime has {@code jdk.jfr}.
+     */
+    private static final boolean AVAILABLE = isAvailable();
+
+    /**
+     * Only static methods.
+     */
+    private LoginEvents() {
+    }
+
+    /**
+     * Starts timing a stage of a login.
+     *
+     * @param stage the stage.
+     * @return the span to end when the stage is done, {@link #NONE} if the stage is not being recorded.
+     */
+    @Nonnull
+    public static Span begin(@Nonnull LoginStage stage) {
+        return AVAILABLE ? JfrLoginEvents.begin(stage) : NONE;
+    }
+
+    /**
+     * @return true if the runtime has {@code jdk.jfr}.
+     */
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, LoginEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * One timed stage of a login.
+     */
+    @FunctionalInterface
+    public interface Span {
+
+        /**
+         * Stops timing the stage and records it.
+         *
+         * @param player  the {@link UUID} of the player logging in.
+         * @param outcome how the stage ended.
+         * @param detail  more about the outcome, such as an error message, or null.
+         */
+        void end(@Nonnull UUID player, @Nonnull String outcome, @Nullable String detail);
+    }
+}
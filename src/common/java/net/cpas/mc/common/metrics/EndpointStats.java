@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.metrics;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The timings of the requests to one CPAS endpoint, split into the time spent waiting to be sent, waiting on CPAS and
+ * running the callbacks.
+ */
+public class EndpointStats {
+
+    /**
+     * The name of the endpoint.
+     */
+    private final String name;
+
+    /**
+     * The time from a request being made to it being sent.
+     */
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+
+    /**
+     * The time from a request being sent to CPAS answering.
+     */
+    private final LatencyHistogram network = new LatencyHistogram();
+
+    /**
+     * The time spent running the callbacks of a request.
+     */
+    private final LatencyHistogram callback = new LatencyHistogram();
+
+    /**
+     * The number of answers.
+     */
+    private final AtomicLong responses = new AtomicLong();
+
+    /**
+     * The number of answers that were errors.
+     */
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * Creates a new {@link EndpointStats} object.
+     *
+     * @param name the name of the endpoint.
+     */
+    public EndpointStats(@Nonnull String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param failed true if the answer was an error.
+     */
+    public void recordResponse(boolean failed) {
+        responses.incrementAndGet();
+        if (failed) {
+            errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the name of the endpoint.
+     */
+    @Nonnull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the time from a request being made to it being sent.
+     */
+    @Nonnull
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    /**
+     * @return the time from a request being sent to CPAS answering.
+     */
+    @Nonnull
+    public LatencyHistogram getNetwork() {
+        return network;
+    }
+
+    /**
+     * @return the time spent running the callbacks of a request.
+     */
+    @Nonnull
+    public LatencyHistogram getCallback() {
+        return callback;
+    }
+
+    /**
+     * @return the number of answers.
+     */
+    public long getResponses() {
+        return responses.get();
+    }
+
+    /**
+     * @return the number of answers that were errors.
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * @return the share of answers that were errors, between 0 and 1.
+     */
+    public double getErrorRate() {
+        final long answered = responses.get();
+        return answered == 0 ? 0 : (double) errors.get() / answered;
+    }
+}
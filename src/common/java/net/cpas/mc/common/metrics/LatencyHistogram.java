@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.metrics;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency distribution in the style of HdrHistogram. Latencies are kept in microseconds in log-linear buckets: every
+ * power of two range is split into {@link #SUB_BUCKETS} equal buckets, so any percentile is reported to within about
+ * three percent from one microsecond up to several days. Recording is lock free and allocates nothing.
+ */
+public class LatencyHistogram {
+
+    /**
+     * The number of bits used to split each power of two range.
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /**
+     * The number of buckets each power of two range is split into.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The largest power of two tracked, larger latencies are counted in the last bucket.
+     */
+    private static final int MAX_EXPONENT = 40;
+
+    /**
+     * The number of buckets.
+     */
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    /**
+     * The number of latencies in each bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * The number of latencies recorded.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * The sum of the latencies recorded in microseconds.
+     */
+    private final AtomicLong totalMicros = new AtomicLong();
+
+    /**
+     * The largest latency recorded in microseconds.
+     */
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * @param nanos the latency to record in nanoseconds.
+     */
+    public void recordNanos(long nanos) {
+        final long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        counts.incrementAndGet(indexOf(micros));
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        maxMicros.accumulateAndGet(micros, Math::max);
+    }
+
+    /**
+     * @return the number of latencies recorded.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the mean latency in microseconds, zero if nothing was recorded.
+     */
+    public long getMeanMicros() {
+        final long recorded = count.get();
+        return recorded == 0 ? 0 : totalMicros.get() / recorded;
+    }
+
+    /**
+     * @return the largest latency recorded in microseconds.
+     */
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    /**
+     * @return the sum of the latencies recorded in microseconds.
+     */
+    public long getTotalMicros() {
+        return totalMicros.get();
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100.
+     * @return the latency in microseconds that the given percentage of recorded latencies are at or below, zero if
+     * nothing was recorded.
+     */
+    public long getPercentileMicros(double percentile) {
+        final long[] snapshot = new long[BUCKETS];
+        long recorded = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            recorded += snapshot[i];
+        }
+        if (recorded == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil(recorded * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return Math.min(upperBoundOf(i), maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    /**
+     * Counts the latencies at or below each of the given bounds without allocating.
+     *
+     * @param upperBoundsMicros the bounds in microseconds, ascending.
+     * @param cumulative        filled with the number of latencies at or below each bound, as far as the buckets tell.
+     */
+    public void getCumulativeCounts(@Nonnull long[] upperBoundsMicros, @Nonnull long[] cumulative) {
+        int bound = 0;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS && bound < upperBoundsMicros.length; i++) {
+            // A bucket is only counted under a bound once all of it is at or below the bound
+            while (bound < upperBoundsMicros.length && upperBoundOf(i) > upperBoundsMicros[bound]) {
+                cumulative[bound++] = seen;
+            }
+            seen += counts.get(i);
+        }
+        while (bound < upperBoundsMicros.length) {
+            cumulative[bound++] = seen;
+        }
+    }
+
+    /**
+     * @param micros a latency in microseconds.
+     * @return the bucket the latency is counted in.
+     */
+    private static int indexOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        final int exponent = Math.min(MAX_EXPONENT, 63 - Long.numberOfLeadingZeros(micros));
+        if (exponent == MAX_EXPONENT && micros >= (1L << (MAX_EXPONENT + 1))) {
+            return BUCKETS - 1;
+        }
+        final int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @param index a bucket.
+     * @return the largest latency in microseconds counted in the bucket.
+     */
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long subBucket = index % SUB_BUCKETS;
+        final long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+}
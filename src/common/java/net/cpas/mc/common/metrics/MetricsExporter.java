@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Serves metrics in the Prometheus text format over HTTP at {@code /metrics}. Scrapes are handled one at a time on a
+ * single daemon thread with one {@link PrometheusWriter}, so the buffers are reused from scrape to scrape.
+ */
+public class MetricsExporter implements Closeable {
+
+    /**
+     * The content type of the Prometheus text format.
+     */
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * The address the server is bound to.
+     */
+    private final InetSocketAddress address;
+
+    /**
+     * Writes the metrics of a scrape.
+     */
+    private final Consumer<PrometheusWriter> collector;
+
+    /**
+     * Reused for every scrape.
+     */
+    private final PrometheusWriter writer = new PrometheusWriter();
+
+    /**
+     * The number of scrapes served.
+     */
+    private final AtomicLong scrapes = new AtomicLong();
+
+    /**
+     * The HTTP server, null until started.
+     */
+    private HttpServer server;
+
+    /**
+     * The thread scrapes are handled on, null until started.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Creates a new {@link MetricsExporter} object.
+     *
+     * @param host      the host to bind to, should be a local address.
+     * @param port      the port to bind to.
+     * @param collector writes the metrics of a scrape.
+     */
+    public MetricsExporter(@Nonnull String host, int port, @Nonnull Consumer<PrometheusWriter> collector) {
+        this.address = new InetSocketAddress(host, port);
+        this.collector = collector;
+    }
+
+    /**
+     * Binds the server and starts serving scrapes.
+     *
+     * @throws IOException if the address could not be bound.
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        final HttpServer server = HttpServer.create(address, 0);
+        executor = Executors.newSingleThreadExecutor(runnable->{
+            final Thread thread = new Thread(runnable, "CPAS Metrics Exporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/metrics", this::handle);
+        server.start();
+        this.server = server;
+    }
+
+    /**
+     * Stops serving scrapes and releases the port.
+     */
+    @Override
+    public synchronized void close() {
+        if (server == null) {
+            return;
+        }
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+        executor = null;
+    }
+
+    /**
+     * @return true if the server is serving scrapes.
+     */
+    public synchronized boolean isRunning() {
+        return server != null;
+    }
+
+    /**
+     * @return the address the server is bound to.
+     */
+    @Nonnull
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the number of scrapes served.
+     */
+    public long getScrapes() {
+        return scrapes.get();
+    }
+
+    /**
+     * Renders the metrics into the reused buffers and writes them to the scraper.
+     *
+     * @param exchange the scrape.
+     * @throws IOException if the response could not be written.
+     */
+    private void handle(@Nonnull HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            // Only the executor thread renders, the writer is never shared
+            writer.reset();
+            collector.accept(writer);
+            final int length = writer.encode();
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(writer.getBytes(), 0, length);
+            }
+            scrapes.incrementAndGet();
+        } finally {
+            exchange.close();
+        }
+    }
+}
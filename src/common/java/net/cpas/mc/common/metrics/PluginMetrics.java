@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.metrics;
+
+import net.cpas.mc.common.admin.AdminRegistry;
+import net.cpas.mc.common.ban.LocalBanIndex;
+import net.cpas.mc.common.cache.BanVerdictCache;
+import net.cpas.mc.common.cache.InfoModelCache;
+import net.cpas.mc.common.client.CircuitBreaker;
+import net.cpas.mc.common.client.ConcurrencyLimiter;
+import net.cpas.mc.common.client.CpasClient;
+import net.cpas.mc.common.client.RequestPriority;
+import net.cpas.mc.common.outbox.BanOutbox;
+import net.cpas.mc.common.permission.PermissionSyncEngine;
+import net.cpas.mc.common.session.SessionTracker;
+
+import javax.annotation.Nonnull;
+import java.util.function.Consumer;
+
+/**
+ * Writes the metrics of the plugin for a {@link MetricsExporter} scrape. Only reads counters the components already
+ * keep, nothing is recorded here.
+ */
+public class PluginMetrics implements Consumer<PrometheusWriter> {
+
+    /**
+     * The label holding the name of a CPAS endpoint.
+     */
+    private static final String ENDPOINT = "endpoint";
+
+    /**
+     * Recent CPAS ban verdicts.
+     */
+    private final BanVerdictCache banVerdictCache;
+
+    /**
+     * Recent CPAS player info.
+     */
+    private final InfoModelCache infoModelCache;
+
+    /**
+     * The admins on the server.
+     */
+    private final AdminRegistry adminRegistry;
+
+    /**
+     * The local copy of active bans.
+     */
+    private final LocalBanIndex localBanIndex;
+
+    /**
+     * Bans waiting to be sent to CPAS.
+     */
+    private final BanOutbox banOutbox;
+
+    /**
+     * Applies CPAS groups to players.
+     */
+    private final PermissionSyncEngine permissionSyncEngine;
+
+    /**
+     * The CPAS callbacks waiting on behalf of online players.
+     */
+    private final SessionTracker sessionTracker;
+
+    /**
+     * The time the plugin spends on the server thread.
+     */
+    private final TickProfiler tickProfiler;
+
+    /**
+     * Creates a new {@link PluginMetrics} object.
+     *
+     * @param banVerdictCache      recent CPAS ban verdicts.
+     * @param infoModelCache       recent CPAS player info.
+     * @param adminRegistry        the admins on the server.
+     * @param localBanIndex        the local copy of active bans.
+     * @param banOutbox            bans waiting to be sent to CPAS.
+     * @param permissionSyncEngine applies CPAS groups to players.
+     * @param sessionTracker       the CPAS callbacks waiting on behalf of online players.
+     * @param tickProfiler         the time the plugin spends on the server thread.
+     */
+    public PluginMetrics(@Nonnull BanVerdictCache banVerdictCache, @Nonnull InfoModelCache infoModelCache,
+                         @Nonnull AdminRegistry adminRegistry, @Nonnull LocalBanIndex localBanIndex,
+                         @Nonnull BanOutbox banOutbox, @Nonnull PermissionSyncEngine permissionSyncEngine,
+                         @Nonnull SessionTracker sessionTracker, @Nonnull TickProfiler tickProfiler) {
+        this.banVerdictCache = banVerdictCache;
+        this.infoModelCache = infoModelCache;
+        this.adminRegistry = adminRegistry;
+        this.localBanIndex = localBanIndex;
+        this.banOutbox = banOutbox;
+        this.permissionSyncEngine = permissionSyncEngine;
+        this.sessionTracker = sessionTracker;
+        this.tickProfiler = tickProfiler;
+    }
+
+    /**
+     * @param writer the writer of the scrape.
+     */
+    @Override
+    public void accept(@Nonnull PrometheusWriter writer) {
+        writeClient(writer, CpasClient.getInstance());
+
+        final long banHits = banVerdictCache.getHits();
+        final long banMisses = banVerdictCache.getMisses();
+        writer.gauge("cpas_ban_cache_entries", "Ban verdicts in the cache.", banVerdictCache.size());
+        writer.counter("cpas_ban_cache_hits_total", "Ban checks answered from the cache.", banHits);
+        writer.counter("cpas_ban_cache_misses_total", "Ban checks the cache could not answer.", banMisses);
+        writer.gauge("cpas_ban_cache_hit_ratio", "Share of ban checks answered from the cache.",
+                ratio(banHits, banHits + banMisses));
+
+        final long infoHits = infoModelCache.getHits();
+        final long infoStaleHits = infoModelCache.getStaleHits();
+        final long infoMisses = infoModelCache.getMisses();
+        writer.gauge("cpas_info_cache_entries", "Player info in the cache.", infoModelCache.size());
+        writer.counter("cpas_info_cache_hits_total", "Info lookups answered with fresh info.", infoHits);
+        writer.counter("cpas_info_cache_stale_hits_total", "Info lookups answered with stale info.", infoStaleHits);
+        writer.counter("cpas_info_cache_misses_total", "Info lookups the cache could not answer.", infoMisses);
+        writer.gauge("cpas_info_cache_hit_ratio", "Share of info lookups answered from the cache.",
+                ratio(infoHits + infoStaleHits, infoHits + infoStaleHits + infoMisses));
+
+        writer.gauge("cpas_admin_registry_size", "Admins currently online.", adminRegistry.size());
+
+        writer.gauge("cpas_ban_index_entries", "Active bans in the local index.", localBanIndex.size());
+        writer.counter("cpas_ban_index_lookups_total", "Lookups in the local ban index.", localBanIndex.getLookups());
+        writer.counter("cpas_ban_index_hits_total", "Lookups that found a ban in the local index.",
+                localBanIndex.getHits());
+        writer.counter("cpas_ban_index_expired_total", "Bans removed from the local index once they ran out.",
+                localBanIndex.getExpired());
+
+        writer.gauge("cpas_ban_outbox_depth", "Bans waiting to be sent to CPAS.", banOutbox.getQueueDepth());
+        writer.gauge("cpas_ban_outbox_dead_letters", "Bans from the outbox that were given up on.",
+                banOutbox.getDeadLetterCount());
+        writer.counter("cpas_ban_outbox_delivered_total", "Bans from the outbox CPAS accepted.",
+                banOutbox.getDelivered());
+        writer.counter("cpas_ban_outbox_failed_attempts_total", "Attempts to send a ban from the outbox that failed.",
+                banOutbox.getFailedAttempts());
+
+        writer.counter("cpas_permission_writes_total", "Permission nodes written to players.",
+                permissionSyncEngine.getAppliedWrites());
+        writer.counter("cpas_permission_writes_skipped_total", "Permission nodes left alone as they had not changed.",
+                permissionSyncEngine.getSkippedWrites());
+
+        writer.gauge("cpas_sessions_active", "Online players with CPAS callbacks tracked.",
+                sessionTracker.getActiveSessions());
+        writer.counter("cpas_session_callbacks_cancelled_total", "CPAS callbacks cancelled as the player left.",
+                sessionTracker.getCancelledCallbacks());
+
+        writer.family("cpas_main_thread_seconds_total", "Time a handler spent on the server thread.", "counter");
+        for (TickProfiler.Section section : tickProfiler.getSections()) {
+            writer.sample("cpas_main_thread_seconds_total", "section", section.getName(),
+                    section.getTotalNanos() / 1_000_000_000.0);
+        }
+        writer.family("cpas_main_thread_calls_total", "Times a handler ran on the server thread.", "counter");
+        for (TickProfiler.Section section : tickProfiler.getSections()) {
+            writer.sample("cpas_main_thread_calls_total", "section", section.getName(), section.getCalls());
+        }
+        writer.counter("cpas_ticks_over_budget_total", "Ticks the plugin went over its server thread budget in.",
+                tickProfiler.getOverBudgetTicks());
+        writer.gauge("cpas_worst_tick_seconds", "The most time the plugin used on the server thread in one tick.",
+                tickProfiler.getWorstTickNanos() / 1_000_000_000.0);
+    }
+
+    /**
+     * @param writer the writer of the scrape.
+     * @param client the CPAS client.
+     */
+    private static void writeClient(@Nonnull PrometheusWriter writer, @Nonnull CpasClient client) {
+        writer.counter("cpas_requests_issued_total", "Requests sent to CPAS.", client.getIssuedRequests());
+        writer.counter("cpas_requests_coalesced_total", "Requests that joined one already in flight.",
+                client.getCoalescedRequests());
+
+        writer.family("cpas_responses_total", "Responses from CPAS.", "counter");
+        for (EndpointStats stats : client.getStats()) {
+            writer.sample("cpas_responses_total", ENDPOINT, stats.getName(), stats.getResponses());
+        }
+        writer.family("cpas_response_errors_total", "Responses from CPAS that were errors.", "counter");
+        for (EndpointStats stats : client.getStats()) {
+            writer.sample("cpas_response_errors_total", ENDPOINT, stats.getName(), stats.getErrors());
+        }
+        writer.family("cpas_request_queue_seconds", "Time requests waited for a concurrency permit.", "histogram");
+        for (EndpointStats stats : client.getStats()) {
+            writer.histogram("cpas_request_queue_seconds", ENDPOINT, stats.getName(), stats.getQueueWait());
+        }
+        writer.family("cpas_request_network_seconds", "Time from sending a request to CPAS answering.", "histogram");
+        for (EndpointStats stats : client.getStats()) {
+            writer.histogram("cpas_request_network_seconds", ENDPOINT, stats.getName(), stats.getNetwork());
+        }
+        writer.family("cpas_request_callback_seconds", "Time spent running the callbacks of a response.",
+                "histogram");
+        for (EndpointStats stats : client.getStats()) {
+            writer.histogram("cpas_request_callback_seconds", ENDPOINT, stats.getName(), stats.getCallback());
+        }
+
+        writer.family("cpas_breaker_open", "1 if the circuit breaker of the endpoint is not closed.", "gauge");
+        for (CircuitBreaker breaker : client.getBreakers()) {
+            writer.sample("cpas_breaker_open", ENDPOINT, breaker.getName(),
+                    breaker.getState() == CircuitBreaker.State.CLOSED ? 0 : 1);
+        }
+        writer.family("cpas_breaker_trips_total", "Times the circuit breaker of the endpoint opened.", "counter");
+        for (CircuitBreaker breaker : client.getBreakers()) {
+            writer.sample("cpas_breaker_trips_total", ENDPOINT, breaker.getName(), breaker.getTrips());
+        }
+
+        final ConcurrencyLimiter limiter = client.getLimiter();
+        writer.gauge("cpas_concurrency_limit", "Requests allowed in flight at once.", limiter.getLimit());
+        writer.gauge("cpas_requests_in_flight", "Requests currently in flight.", limiter.getInFlight());
+        writer.family("cpas_request_queue_depth", "Requests waiting for a concurrency permit.", "gauge");
+        for (RequestPriority priority : RequestPriority.values()) {
+            writer.sample("cpas_request_queue_depth", "priority", priority.name(), limiter.getQueueDepth(priority));
+        }
+    }
+
+    /**
+     * @param part  the number of matching events.
+     * @param total the number of events.
+     * @return the share of matching events, 0 if there were none.
+     */
+    private static double ratio(long part, long total) {
+        return total == 0 ? 0 : (double) part / total;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.metrics;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Renders metrics in the Prometheus text exposition format. The text and byte buffers are kept between scrapes and
+ * only grow, so once they are big enough a scrape renders without allocating. Not thread safe.
+ */
+public class PrometheusWriter {
+
+    /**
+     * The upper bounds of the latency histogram buckets in microseconds.
+     */
+    private static final long[] LATENCY_BOUNDS_MICROS = {
+            1_000, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000, 1_000_000, 2_500_000, 5_000_000, 10_000_000
+    };
+
+    /**
+     * The upper bounds of the latency histogram buckets in seconds, as they are written.
+     */
+    private static final String[] LATENCY_BOUNDS = {
+            "0.001", "0.005", "0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10"
+    };
+
+    /**
+     * The rendered text.
+     */
+    private final StringBuilder text = new StringBuilder(16 * 1024);
+
+    /**
+     * Reused for the cumulative bucket counts of a histogram.
+     */
+    private final long[] cumulative = new long[LATENCY_BOUNDS_MICROS.length];
+
+    /**
+     * The rendered text as ASCII.
+     */
+    private byte[] bytes = new byte[16 * 1024];
+
+    /**
+     * Clears the text for a new scrape.
+     */
+    public void reset() {
+        text.setLength(0);
+    }
+
+    /**
+     * Writes the help and type lines of a metric family.
+     *
+     * @param name the name of the family.
+     * @param help what the family measures.
+     * @param type the Prometheus type of the family.
+     */
+    public void family(@Nonnull String name, @Nonnull String help, @Nonnull String type) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * @param name  the name of the counter.
+     * @param help  what the counter counts.
+     * @param value the value of the counter.
+     */
+    public void counter(@Nonnull String name, @Nonnull String help, long value) {
+        family(name, help, "counter");
+        sample(name, null, null, value);
+    }
+
+    /**
+     * @param name  the name of the gauge.
+     * @param help  what the gauge measures.
+     * @param value the value of the gauge.
+     */
+    public void gauge(@Nonnull String name, @Nonnull String help, long value) {
+        family(name, help, "gauge");
+        sample(name, null, null, value);
+    }
+
+    /**
+     * @param name  the name of the gauge.
+     * @param help  what the gauge measures.
+     * @param value the value of the gauge.
+     */
+    public void gauge(@Nonnull String name, @Nonnull String help, double value) {
+        family(name, help, "gauge");
+        sampleStart(name, null, null);
+        text.append(value).append('\n');
+    }
+
+    /**
+     * Writes one sample of a family whose help and type lines were written with
+     * {@link #family(String, String, String)}.
+     *
+     * @param name       the name of the sample.
+     * @param labelName  the name of the label or null for none.
+     * @param labelValue the value of the label.
+     * @param value      the value of the sample.
+     */
+    public void sample(@Nonnull String name, @Nullable String labelName, @Nullable String labelValue, long value) {
+        sampleStart(name, labelName, labelValue);
+        text.append(value).append('\n');
+    }
+
+    /**
+     * Writes one sample of a family whose help and type lines were written with
+     * {@link #family(String, String, String)}.
+     *
+     * @param name       the name of the sample.
+     * @param labelName  the name of the label.
+     * @param labelValue the value of the label.
+     * @param value      the value of the sample.
+     */
+    public void sample(@Nonnull String name, @Nonnull String labelName, @Nonnull String labelValue, double value) {
+        sampleStart(name, labelName, labelValue);
+        text.append(value).append('\n');
+    }
+
+    /**
+     * Writes the samples of one latency histogram of a family whose help and type lines were written with
+     * {@link #family(String, String, String)} and the type histogram.
+     *
+     * @param name       the name of the family.
+     * @param labelName  the name of the label.
+     * @param labelValue the value of the label.
+     * @param histogram  the latencies.
+     */
+    public void histogram(@Nonnull String name, @Nonnull String labelName, @Nonnull String labelValue,
+                          @Nonnull LatencyHistogram histogram) {
+        final long count = histogram.getCount();
+        histogram.getCumulativeCounts(LATENCY_BOUNDS_MICROS, cumulative);
+        for (int i = 0; i < LATENCY_BOUNDS.length; i++) {
+            bucket(name, labelName, labelValue, LATENCY_BOUNDS[i], Math.min(count, cumulative[i]));
+        }
+        bucket(name, labelName, labelValue, "+Inf", count);
+        text.append(name).append("_sum{").append(labelName).append("=\"").append(labelValue).append("\"} ")
+                .append(histogram.getTotalMicros() / 1_000_000.0).append('\n');
+        text.append(name).append("_count{").append(labelName).append("=\"").append(labelValue).append("\"} ")
+                .append(count).append('\n');
+    }
+
+    /**
+     * Converts the text to ASCII in the reused byte buffer.
+     *
+     * @return the number of bytes in {@link #getBytes()} that hold the text.
+     */
+    public int encode() {
+        final int length = text.length();
+        if (bytes.length < length) {
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            bytes[i] = c < 0x80 ? (byte) c : (byte) '?';
+        }
+        return length;
+    }
+
+    /**
+     * @return the buffer {@link #encode()} wrote to, only the first bytes it returned are valid.
+     */
+    @Nonnull
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @param name       the name of the family.
+     * @param labelName  the name of the label.
+     * @param labelValue the value of the label.
+     * @param bound      the upper bound of the bucket.
+     * @param count      the number of latencies at or below the bound.
+     */
+    private void bucket(@Nonnull String name, @Nonnull String labelName, @Nonnull String labelValue,
+                        @Nonnull String bound, long count) {
+        text.append(name).append("_bucket{").append(labelName).append("=\"").append(labelValue)
+                .append("\",le=\"").append(bound).append("\"} ").append(count).append('\n');
+    }
+
+    /**
+     * @param name       the name of the sample.
+     * @param labelName  the name of the label or null for none.
+     * @param labelValue the value of the label.
+     */
+    private void sampleStart(@Nonnull String name, @Nullable String labelName, @Nullable String labelValue) {
+        text.append(name);
+        if (labelName != null) {
+            text.append('{').append(labelName).append("=\"").append(labelValue).append("\"}");
+        }
+        text.append(' ');
+    }
+}
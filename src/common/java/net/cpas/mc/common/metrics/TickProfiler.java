@@ -0,0 +1,433 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.metrics;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Accounts for the time the plugin spends on the server thread, per handler and per tick. Handlers are wrapped in
+ * a {@link Section}, which also feeds the server's own timings when there are any. {@link #tick()} is called once per
+ * tick to close the tick, roll the per-section totals over the last {@link #getWindowTicks()} ticks and flag the tick
+ * if the plugin went over its budget.
+ * <p>
+ * Sections only measure on the server thread, timing them elsewhere does nothing. All recording happens on the server
+ * thread, the getters may be read from any thread.
+ */
+public class TickProfiler {
+
+    /**
+     * How often an over budget tick is reported at most.
+     */
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * The server thread.
+     */
+    private final Thread mainThread;
+
+    /**
+     * The number of ticks the rolling totals cover.
+     */
+    private final int windowTicks;
+
+    /**
+     * The nanoseconds the plugin may use per tick before the tick is flagged.
+     */
+    private final LongSupplier budgetNanos;
+
+    /**
+     * Creates the server's own timing for a section.
+     */
+    private final Function<String, PlatformTiming> platformTimings;
+
+    /**
+     * Told about over budget ticks, at most once per {@link #REPORT_INTERVAL_NANOS}.
+     */
+    private final Consumer<String> reporter;
+
+    /**
+     * The sections by name.
+     */
+    private final Map<String, Section> sections = new ConcurrentHashMap<>();
+
+    /**
+     * The sections in the order they were created, only used on the server thread.
+     */
+    private final List<Section> orderedSections = new ArrayList<>();
+
+    /**
+     * The slot of the current tick in the rolling windows.
+     */
+    private int windowIndex;
+
+    /**
+     * The time the last over budget tick was reported, {@link Long#MIN_VALUE} if none was.
+     */
+    private long reportedAt = Long.MIN_VALUE;
+
+    /**
+     * The number of ticks closed.
+     */
+    private volatile long ticks;
+
+    /**
+     * The number of ticks the plugin went over its budget in.
+     */
+    private volatile long overBudgetTicks;
+
+    /**
+     * The most nanoseconds the plugin used in a single tick.
+     */
+    private volatile long worstTickNanos;
+
+    /**
+     * Creates a new {@link TickProfiler} object.
+     *
+     * @param mainThread      the server thread.
+     * @param windowTicks     the number of ticks the rolling totals cover.
+     * @param budgetNanos     the nanoseconds the plugin may use per tick before the tick is flagged.
+     * @param platformTimings creates the server's own timing for a section.
+     * @param reporter        told about over budget ticks, at most once a minute.
+     */
+    public TickProfiler(@Nonnull Thread mainThread, int windowTicks, @Nonnull LongSupplier budgetNanos,
+                        @Nonnull Function<String, PlatformTiming> platformTimings, @Nonnull Consumer<String> reporter) {
+        this.mainThread = mainThread;
+        this.windowTicks = windowTicks;
+        this.budgetNanos = budgetNanos;
+        this.platformTimings = platformTimings;
+        this.reporter = reporter;
+    }
+
+    /**
+     * @param name the name of the handler.
+     * @return the section timing the handler, created the first time it is asked for.
+     */
+    @Nonnull
+    public Section section(@Nonnull String name) {
+        return sections.computeIfAbsent(name, key->new Section(key, platformTimings.apply(key)));
+    }
+
+    /**
+     * Closes the current tick. Called on the server thread once per tick.
+     */
+    public void tick() {
+        if (Thread.currentThread() != mainThread) {
+            return;
+        }
+        // New sections are picked up here so the loop below never sees the map change under it
+        if (orderedSections.size() != sections.size()) {
+            for (Section section : sections.values()) {
+                if (!orderedSections.contains(section)) {
+                    orderedSections.add(section);
+                }
+            }
+        }
+        long tickNanos = 0;
+        for (Section section : orderedSections) {
+            tickNanos += section.roll(windowIndex);
+        }
+        windowIndex = (windowIndex + 1) % windowTicks;
+        ticks++;
+        if (tickNanos > worstTickNanos) {
+            worstTickNanos = tickNanos;
+        }
+        final long budget = budgetNanos.getAsLong();
+        if (budget > 0 && tickNanos > budget) {
+            overBudgetTicks++;
+            final long now = System.nanoTime();
+            if (reportedAt == Long.MIN_VALUE || now - reportedAt >= REPORT_INTERVAL_NANOS) {
+                reportedAt = now;
+                reporter.accept(describeTick(tickNanos, budget));
+            }
+        }
+    }
+
+    /**
+     * @return the sections in no particular order.
+     */
+    @Nonnull
+    public Collection<Section> getSections() {
+        return Collections.unmodifiableCollection(sections.values());
+    }
+
+    /**
+     * @return the number of ticks the rolling totals cover.
+     */
+    public int getWindowTicks() {
+        return windowTicks;
+    }
+
+    /**
+     * @return the number of ticks closed.
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * @return the number of ticks the plugin went over its budget in.
+     */
+    public long getOverBudgetTicks() {
+        return overBudgetTicks;
+    }
+
+    /**
+     * @return the most nanoseconds the plugin used in a single tick.
+     */
+    public long getWorstTickNanos() {
+        return worstTickNanos;
+    }
+
+    /**
+     * @return the nanoseconds all sections used over the last {@link #getWindowTicks()} ticks.
+     */
+    public long getWindowNanos() {
+        long total = 0;
+        for (Section section : sections.values()) {
+            total += section.getWindowNanos();
+        }
+        return total;
+    }
+
+    /**
+     * @param tickNanos the nanoseconds the plugin used in the tick.
+     * @param budget    the budget in nanoseconds.
+     * @return a description of the tick naming the sections that used time in it.
+     */
+    @Nonnull
+    private String describeTick(long tickNanos, long budget) {
+        final StringBuilder builder = new StringBuilder("CPAS used ")
+                .append(formatMillis(tickNanos)).append(" ms of a tick, the budget is ").append(formatMillis(budget))
+                .append(" ms (");
+        boolean first = true;
+        for (Section section : orderedSections) {
+            if (section.lastTickNanos == 0) {
+                continue;
+            }
+            if (!first) {
+                builder.append(", ");
+            }
+            first = false;
+            builder.append(section.name).append(' ').append(formatMillis(section.lastTickNanos)).append(" ms");
+        }
+        return builder.append(')').toString();
+    }
+
+    /**
+     * @param nanos a duration in nanoseconds.
+     * @return the duration in milliseconds with two decimals.
+     */
+    @Nonnull
+    private static String formatMillis(long nanos) {
+        return String.format("%.2f", nanos / 1_000_000.0);
+    }
+
+    /**
+     * The server's own timing of a section, such as Sponge's or Spigot's timings.
+     */
+    public interface PlatformTiming {
+
+        /**
+         * Used when the server has no timings.
+         */
+        PlatformTiming NONE = new PlatformTiming() {
+            @Override
+            public void start() {
+            }
+
+            @Override
+            public void stop() {
+            }
+        };
+
+        /**
+         * Starts timing the section.
+         */
+        void start();
+
+        /**
+         * Stops timing the section.
+         */
+        void stop();
+    }
+
+    /**
+     * Times one handler, use it with try-with-resources:
+     * {@code try (TickProfiler.Section ignored = section.start()) { ... }}. Nested starts of the same section are
+     * counted once.
+     */
+    public final class Section implements AutoCloseable {
+
+        /**
+         * The name of the handler.
+         */
+        private final String name;
+
+        /**
+         * The server's own timing of the handler.
+         */
+        private final PlatformTiming platformTiming;
+
+        /**
+         * The nanoseconds used in each tick of the window.
+         */
+        private final long[] window = new long[windowTicks];
+
+        /**
+         * The number of starts not closed yet.
+         */
+        private int depth;
+
+        /**
+         * The time the outermost start happened.
+         */
+        private long startedAt;
+
+        /**
+         * The nanoseconds used in the current tick.
+         */
+        private long tickNanos;
+
+        /**
+         * The nanoseconds used in the last closed tick.
+         */
+        private long lastTickNanos;
+
+        /**
+         * The nanoseconds used over the window.
+         */
+        private volatile long windowNanos;
+
+        /**
+         * The nanoseconds used since the server started.
+         */
+        private volatile long totalNanos;
+
+        /**
+         * The number of times the handler ran.
+         */
+        private volatile long calls;
+
+        /**
+         * Creates a new {@link Section} object.
+         *
+         * @param name           the name of the handler.
+         * @param platformTiming the server's own timing of the handler.
+         */
+        private Section(@Nonnull String name, @Nonnull PlatformTiming platformTiming) {
+            this.name = name;
+            this.platformTiming = platformTiming;
+        }
+
+        /**
+         * Starts timing the handler if this is the server thread.
+         *
+         * @return this section, to be closed when the handler is done.
+         */
+        @Nonnull
+        public Section start() {
+            if (Thread.currentThread() == mainThread && depth++ == 0) {
+                platformTiming.start();
+                startedAt = System.nanoTime();
+            }
+            return this;
+        }
+
+        /**
+         * Stops timing the handler.
+         */
+        @Override
+        public void close() {
+            if (Thread.currentThread() != mainThread || depth == 0 || --depth > 0) {
+                return;
+            }
+            final long elapsed = System.nanoTime() - startedAt;
+            platformTiming.stop();
+            tickNanos += elapsed;
+            totalNanos += elapsed;
+            calls++;
+        }
+
+        /**
+         * Moves the current tick into the window.
+         *
+         * @param index the slot of the tick in the window.
+         * @return the nanoseconds used in the tick.
+         */
+        private long roll(int index) {
+            final long used = tickNanos;
+            windowNanos += used - window[index];
+            window[index] = used;
+            lastTickNanos = used;
+            tickNanos = 0;
+            return used;
+        }
+
+        /**
+         * @return the name of the handler.
+         */
+        @Nonnull
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the nanoseconds used over the last {@link #getWindowTicks()} ticks.
+         */
+        public long getWindowNanos() {
+            return windowNanos;
+        }
+
+        /**
+         * @return the nanoseconds used since the server started.
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * @return the number of times the handler ran.
+         */
+        public long getCalls() {
+            return calls;
+        }
+    }
+}
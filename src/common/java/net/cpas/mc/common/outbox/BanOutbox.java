@@ -0,0 +1,915 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.outbox;
+
+import net.cpas.Cpas;
+import net.cpas.mc.common.client.CpasClient;
+import net.cpas.mc.common.client.RequestPriority;
+import net.cpas.model.SuccessResponseModel;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Bans that CPAS has not accepted yet, kept in an append-only file so they survive a crash or restart. Bans are sent
+ * to CPAS one at a time in the order they were made, an attempt that could not reach CPAS is retried with exponential
+ * backoff for as long as it takes. Only a ban CPAS refuses is moved to the dead letters so it does not hold up the
+ * bans behind it, {@link #requeueDeadLetters()} hands the dead letters back once the cause is fixed. Only the newest
+ * {@link #MAX_DEAD_LETTERS} dead letters are kept. Appends are synced to disk in batches. A ban CPAS has accepted is
+ * marked as such with a small record, the file is only rewritten without the accepted bans once they make up a good
+ * part of it, so draining a long queue does not rewrite the file for every ban.
+ * <p>
+ * The file starts with a header followed by one record per ban, dead letter marker or accepted marker. Each record is
+ * the payload length, the CRC32 of the payload and the payload, which starts with the type of the record. A torn
+ * record at the end of the file, left by a crash mid-write, is dropped on load.
+ */
+public class BanOutbox implements Closeable {
+
+    /**
+     * Sends a pending ban to CPAS.
+     */
+    public interface Sender {
+
+        /**
+         * @param ban      the ban to send.
+         * @param response called with the CPAS response.
+         */
+        void send(@Nonnull PendingBan ban, @Nonnull Cpas.ProcessResponse<SuccessResponseModel> response);
+    }
+
+    /**
+     * Marks the file as a ban outbox.
+     */
+    private static final int MAGIC = 0x4350424F;
+
+    /**
+     * The version of the file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The record type of a ban.
+     */
+    private static final byte RECORD_BAN = 0;
+
+    /**
+     * The record type of a marker that moves a ban to the dead letters.
+     */
+    private static final byte RECORD_DEAD_LETTER = 1;
+
+    /**
+     * The record type of a marker that removes a ban CPAS has accepted.
+     */
+    private static final byte RECORD_ACCEPTED = 2;
+
+    /**
+     * The number of records left over from accepted bans the file may hold before it is rewritten, at least.
+     */
+    private static final int MIN_COMPACTION_RECORDS = 64;
+
+    /**
+     * The size of the file header in bytes.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * The size of a record header in bytes.
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * How long appends may wait before they are synced to disk.
+     */
+    private static final long FLUSH_DELAY_MILLIS = 20;
+
+    /**
+     * The wait after the first failed attempt.
+     */
+    private static final long INITIAL_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * The longest wait between attempts.
+     */
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * The number of dead letters kept, the oldest one is dropped when another ban is given up on.
+     */
+    static final int MAX_DEAD_LETTERS = 100;
+
+    /**
+     * The outbox file.
+     */
+    private final Path file;
+
+    /**
+     * Sends pending bans to CPAS.
+     */
+    private final Sender sender;
+
+    /**
+     * Told about errors that happen off the calling thread.
+     */
+    private final Consumer<Exception> errorHandler;
+
+    /**
+     * Syncs the file and sends bans.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Guards the file and the pending bans.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * The bans CPAS has not accepted yet, oldest first.
+     */
+    private final Deque<PendingBan> pending = new ArrayDeque<>();
+
+    /**
+     * The bans that were given up on, oldest first.
+     */
+    private final Deque<DeadLetter> deadLetters = new ArrayDeque<>();
+
+    /**
+     * Called with each ban once CPAS has accepted it.
+     */
+    private final List<Consumer<PendingBan>> ackListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * The number of bans CPAS has accepted.
+     */
+    private final AtomicLong delivered = new AtomicLong();
+
+    /**
+     * The number of attempts that failed.
+     */
+    private final AtomicLong failedAttempts = new AtomicLong();
+
+    /**
+     * The number of times the file was synced to disk.
+     */
+    private final AtomicLong fsyncs = new AtomicLong();
+
+    /**
+     * The open outbox file, null while the outbox is closed.
+     */
+    private FileChannel channel;
+
+    /**
+     * The number of records in the file left over from accepted bans.
+     */
+    private int staleRecords;
+
+    /**
+     * The sequence number of the next ban.
+     */
+    private long nextSequence = 1;
+
+    /**
+     * True while a sync is scheduled.
+     */
+    private boolean flushScheduled;
+
+    /**
+     * True while an attempt is scheduled or waiting on CPAS.
+     */
+    private boolean deliveryScheduled;
+
+    /**
+     * The number of failed attempts for the oldest ban.
+     */
+    private int attempts;
+
+    /**
+     * When the next attempt is made, in milliseconds since the epoch.
+     */
+    private volatile long nextAttemptAt;
+
+    /**
+     * Creates a new {@link BanOutbox} object.
+     *
+     * @param file         the outbox file.
+     * @param sender       sends pending bans to CPAS.
+     * @param errorHandler told about errors that happen off the calling thread.
+     */
+    public BanOutbox(@Nonnull Path file, @Nonnull Sender sender, @Nonnull Consumer<Exception> errorHandler) {
+        this.file = file;
+        this.sender = sender;
+        this.errorHandler = errorHandler;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable->{
+            final Thread thread = new Thread(runnable, "CPAS Ban Outbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sends a pending ban to CPAS through the {@link CpasClient}.
+     *
+     * @param ban      the ban to send.
+     * @param response called with the CPAS response.
+     */
+    public static void sendToCpas(@Nonnull PendingBan ban, @Nonnull Cpas.ProcessResponse<SuccessResponseModel> response) {
+        CpasClient.getInstance().banUser(ban.getGameId(), ban.getName(), ban.getBannerId(), ban.getAdmins(),
+                ban.getDuration(), ban.getReason(), RequestPriority.BACKGROUND, response);
+    }
+
+    /**
+     * Opens the outbox file, loads the bans left from the last run and starts sending them.
+     *
+     * @throws IOException if the file could not be opened or is not an outbox file.
+     */
+    public void open() throws IOException {
+        synchronized(lock) {
+            if (channel != null) {
+                return;
+            }
+            final Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            final byte[] data = Files.exists(file) ? Files.readAllBytes(file) : new byte[0];
+            final long validLength = load(data);
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (validLength < HEADER_SIZE) {
+                channel.truncate(0);
+                writeFully(channel, header());
+            } else {
+                // Drop a torn record left by a crash
+                channel.truncate(validLength);
+            }
+            channel.position(channel.size());
+            channel.force(true);
+            if (!pending.isEmpty()) {
+                scheduleDelivery(0);
+            }
+        }
+    }
+
+    /**
+     * Adds a ban to the outbox. The ban is written to the file before this returns and synced to disk shortly after.
+     *
+     * @param gameId   the game id of the player to ban.
+     * @param name     the name of the player to ban.
+     * @param bannerId the game id of the banning admin, empty for the default admin.
+     * @param admins   the game ids of the admins on the server.
+     * @param duration the ban duration in minutes.
+     * @param reason   the ban reason.
+     * @return the pending ban.
+     * @throws IOException if the ban could not be written.
+     */
+    @Nonnull
+    public PendingBan enqueue(@Nonnull String gameId, @Nonnull String name, @Nonnull String bannerId,
+                              @Nonnull String[] admins, int duration, @Nonnull String reason) throws IOException {
+        synchronized(lock) {
+            if (channel == null) {
+                throw new IOException("The ban outbox is not open");
+            }
+            final PendingBan ban = new PendingBan(nextSequence, System.currentTimeMillis(), gameId, name, bannerId,
+                    admins, duration, reason);
+            writeFully(channel, encodeBan(ban));
+            nextSequence++;
+            pending.addLast(ban);
+            scheduleFlush();
+            if (!deliveryScheduled) {
+                scheduleDelivery(0);
+            }
+            return ban;
+        }
+    }
+
+    /**
+     * @param listener called with each ban once CPAS has accepted it, on the outbox thread.
+     */
+    public void addAckListener(@Nonnull Consumer<PendingBan> listener) {
+        ackListeners.add(listener);
+    }
+
+    /**
+     * @param gameId the game id of a player.
+     * @return true if the outbox has a ban for the player.
+     */
+    public boolean isPending(@Nonnull String gameId) {
+        synchronized(lock) {
+            for (PendingBan ban : pending) {
+                if (ban.getGameId().equals(gameId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @return the bans CPAS has not accepted yet, oldest first.
+     */
+    @Nonnull
+    public List<PendingBan> getPending() {
+        synchronized(lock) {
+            return new ArrayList<>(pending);
+        }
+    }
+
+    /**
+     * @return the number of bans CPAS has not accepted yet.
+     */
+    public int getQueueDepth() {
+        synchronized(lock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * @return the bans that were given up on, oldest first.
+     */
+    @Nonnull
+    public List<DeadLetter> getDeadLetters() {
+        synchronized(lock) {
+            return new ArrayList<>(deadLetters);
+        }
+    }
+
+    /**
+     * @return the number of bans that were given up on.
+     */
+    public int getDeadLetterCount() {
+        synchronized(lock) {
+            return deadLetters.size();
+        }
+    }
+
+    /**
+     * Moves every dead letter back in front of the pending bans so they are sent again, in the order they were made.
+     *
+     * @return the number of bans that were moved back.
+     * @throws IOException if the file could not be rewritten.
+     */
+    public int requeueDeadLetters() throws IOException {
+        synchronized(lock) {
+            if (channel == null) {
+                throw new IOException("The ban outbox is not open");
+            }
+            final int requeued = deadLetters.size();
+            if (requeued == 0) {
+                return 0;
+            }
+            for (Iterator<DeadLetter> iterator = deadLetters.descendingIterator(); iterator.hasNext(); ) {
+                pending.addFirst(iterator.next().getBan());
+            }
+            deadLetters.clear();
+            attempts = 0;
+            // The dead letter markers are dropped with the rewrite
+            compact();
+            if (!deliveryScheduled) {
+                scheduleDelivery(0);
+            }
+            return requeued;
+        }
+    }
+
+    /**
+     * @return the number of bans CPAS has accepted.
+     */
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    /**
+     * @return the number of attempts that failed.
+     */
+    public long getFailedAttempts() {
+        return failedAttempts.get();
+    }
+
+    /**
+     * @return the number of times the file was synced to disk.
+     */
+    public long getFsyncs() {
+        return fsyncs.get();
+    }
+
+    /**
+     * @return when the next attempt is made, in milliseconds since the epoch.
+     */
+    public long getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    /**
+     * Syncs the file and stops sending bans. Bans that were not accepted are sent again when the outbox is next opened.
+     *
+     * @throws IOException if the file could not be synced or closed.
+     */
+    @Override
+    public void close() throws IOException {
+        // The file is closed before the thread is interrupted, an interrupt in the middle of a write or sync would
+        // close the channel under us
+        try {
+            synchronized(lock) {
+                if (channel != null) {
+                    try {
+                        channel.force(true);
+                    } finally {
+                        channel.close();
+                        channel = null;
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Syncs appended records to disk shortly. Must be called while holding {@link #lock}.
+     */
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            executor.schedule(this::flush, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Syncs appended records to disk.
+     */
+    private void flush() {
+        synchronized(lock) {
+            flushScheduled = false;
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.force(false);
+                fsyncs.incrementAndGet();
+            } catch (IOException e) {
+                errorHandler.accept(e);
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #lock}.
+     *
+     * @param delayMillis how long to wait before the next attempt.
+     */
+    private void scheduleDelivery(long delayMillis) {
+        deliveryScheduled = true;
+        nextAttemptAt = System.currentTimeMillis() + delayMillis;
+        try {
+            executor.schedule(this::deliverHead, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Closed, the ban is sent on the next run
+            deliveryScheduled = false;
+        }
+    }
+
+    /**
+     * Sends the oldest ban to CPAS.
+     */
+    private void deliverHead() {
+        final PendingBan head;
+        synchronized(lock) {
+            head = pending.peekFirst();
+            if (head == null || channel == null) {
+                deliveryScheduled = false;
+                return;
+            }
+        }
+        try {
+            sender.send(head, new ProcessDeliveryResponse(head));
+        } catch (RuntimeException e) {
+            errorHandler.accept(e);
+            onDeliveryFailed();
+        }
+    }
+
+    /**
+     * Removes an accepted ban, marks it as accepted in the file and moves on to the next ban. The file is rewritten
+     * once the accepted bans make up at least half of it.
+     *
+     * @param ban the ban CPAS accepted.
+     */
+    private void acknowledge(@Nonnull PendingBan ban) {
+        synchronized(lock) {
+            attempts = 0;
+            pending.remove(ban);
+            delivered.incrementAndGet();
+            try {
+                if (pending.isEmpty() && deadLetters.isEmpty()) {
+                    compact();
+                } else if (channel != null) {
+                    writeFully(channel, encodeAccepted(ban));
+                    staleRecords += 2;
+                    if (staleRecords >= Math.max(MIN_COMPACTION_RECORDS, pending.size() + 2 * deadLetters.size())) {
+                        compact();
+                    } else {
+                        scheduleFlush();
+                    }
+                }
+            } catch (IOException e) {
+                errorHandler.accept(e);
+            }
+            scheduleDelivery(0);
+        }
+        for (Consumer<PendingBan> listener : ackListeners) {
+            try {
+                listener.accept(ban);
+            } catch (RuntimeException e) {
+                errorHandler.accept(e);
+            }
+        }
+    }
+
+    /**
+     * Schedules the next attempt for the oldest ban, the wait doubles with each failure up to
+     * {@link #MAX_BACKOFF_MILLIS}.
+     */
+    private void onDeliveryFailed() {
+        synchronized(lock) {
+            attempts++;
+            failedAttempts.incrementAndGet();
+            scheduleDelivery(Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(attempts - 1, 20)));
+        }
+    }
+
+    /**
+     * Moves a ban CPAS will not take to the dead letters and moves on to the next ban.
+     *
+     * @param ban    the ban to give up on.
+     * @param reason why the ban was given up on.
+     */
+    private void deadLetter(@Nonnull PendingBan ban, @Nonnull String reason) {
+        synchronized(lock) {
+            attempts = 0;
+            if (!pending.remove(ban)) {
+                return;
+            }
+            final DeadLetter deadLetter = new DeadLetter(ban, System.currentTimeMillis(), reason);
+            addDeadLetter(deadLetter);
+            errorHandler.accept(new IllegalStateException("Gave up on the ban of " + ban.getName() + ": " + reason));
+            if (channel != null) {
+                try {
+                    writeFully(channel, encodeDeadLetter(deadLetter));
+                    channel.force(false);
+                    fsyncs.incrementAndGet();
+                } catch (IOException e) {
+                    errorHandler.accept(e);
+                }
+            }
+            scheduleDelivery(0);
+        }
+    }
+
+    /**
+     * Adds a dead letter and drops the oldest one if there are too many, its records stay in the file until it is
+     * rewritten. Must be called while holding {@link #lock}.
+     *
+     * @param deadLetter the dead letter to add.
+     */
+    private void addDeadLetter(@Nonnull DeadLetter deadLetter) {
+        deadLetters.addLast(deadLetter);
+        if (deadLetters.size() > MAX_DEAD_LETTERS) {
+            final DeadLetter dropped = deadLetters.removeFirst();
+            staleRecords += 2;
+            errorHandler.accept(new IllegalStateException("Dropped the ban of " + dropped.getBan().getName() + " ("
+                    + dropped.getBan().getReason().trim() + "), more than " + MAX_DEAD_LETTERS
+                    + " bans were given up on"));
+        }
+    }
+
+    /**
+     * Rewrites the file with only the pending bans. Must be called while holding {@link #lock}.
+     *
+     * @throws IOException if the file could not be rewritten.
+     */
+    private void compact() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        staleRecords = 0;
+        if (pending.isEmpty() && deadLetters.isEmpty()) {
+            channel.truncate(0);
+            channel.position(0);
+            writeFully(channel, header());
+            channel.force(false);
+            fsyncs.incrementAndGet();
+            return;
+        }
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, header());
+            for (DeadLetter deadLetter : deadLetters) {
+                writeFully(out, encodeBan(deadLetter.getBan()));
+                writeFully(out, encodeDeadLetter(deadLetter));
+            }
+            for (PendingBan ban : pending) {
+                writeFully(out, encodeBan(ban));
+            }
+            out.force(true);
+        }
+        fsyncs.incrementAndGet();
+        channel.close();
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        }
+    }
+
+    /**
+     * Loads the bans from the contents of the outbox file. Must be called while holding {@link #lock}.
+     *
+     * @param data the contents of the file.
+     * @return the length of the valid part of the file.
+     * @throws IOException if the file is not an outbox file.
+     */
+    private long load(@Nonnull byte[] data) throws IOException {
+        if (data.length < HEADER_SIZE) {
+            return 0;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException(file + " is not a ban outbox file");
+        }
+        if (buffer.getInt() != VERSION) {
+            throw new IOException(file + " is not a ban outbox file");
+        }
+        long validLength = HEADER_SIZE;
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            final int length = buffer.getInt();
+            final int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                break;
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(data, buffer.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, buffer.position(), length));
+            final byte type = in.readByte();
+            if (type == RECORD_BAN) {
+                final PendingBan ban = PendingBan.read(in);
+                pending.addLast(ban);
+                nextSequence = Math.max(nextSequence, ban.getSequence() + 1);
+            } else if (type == RECORD_DEAD_LETTER) {
+                final long sequence = in.readLong();
+                final long failedAt = in.readLong();
+                final String reason = in.readUTF();
+                for (Iterator<PendingBan> iterator = pending.iterator(); iterator.hasNext(); ) {
+                    final PendingBan ban = iterator.next();
+                    if (ban.getSequence() == sequence) {
+                        iterator.remove();
+                        addDeadLetter(new DeadLetter(ban, failedAt, reason));
+                        break;
+                    }
+                }
+            } else if (type == RECORD_ACCEPTED) {
+                final long sequence = in.readLong();
+                pending.removeIf(ban->ban.getSequence() == sequence);
+                staleRecords += 2;
+            } else {
+                throw new IOException(file + " has a record of unknown type " + type);
+            }
+            buffer.position(buffer.position() + length);
+            validLength = buffer.position();
+        }
+        return validLength;
+    }
+
+    /**
+     * @return the file header.
+     */
+    @Nonnull
+    private static ByteBuffer header() {
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        buffer.putInt(MAGIC).putInt(VERSION).flip();
+        return buffer;
+    }
+
+    /**
+     * @param ban the ban to encode.
+     * @return the record for the ban.
+     * @throws IOException if the ban could not be encoded.
+     */
+    @Nonnull
+    private static ByteBuffer encodeBan(@Nonnull PendingBan ban) throws IOException {
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream(128);
+        final DataOutputStream out = new DataOutputStream(payload);
+        out.writeByte(RECORD_BAN);
+        ban.write(out);
+        return record(payload.toByteArray());
+    }
+
+    /**
+     * @param deadLetter the dead letter to encode.
+     * @return the record that moves the ban to the dead letters.
+     * @throws IOException if the marker could not be encoded.
+     */
+    @Nonnull
+    private static ByteBuffer encodeDeadLetter(@Nonnull DeadLetter deadLetter) throws IOException {
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+        final DataOutputStream out = new DataOutputStream(payload);
+        out.writeByte(RECORD_DEAD_LETTER);
+        out.writeLong(deadLetter.getBan().getSequence());
+        out.writeLong(deadLetter.getFailedAt());
+        out.writeUTF(deadLetter.getReason());
+        return record(payload.toByteArray());
+    }
+
+    /**
+     * @param ban the ban CPAS accepted.
+     * @return the record that removes the ban.
+     * @throws IOException if the marker could not be encoded.
+     */
+    @Nonnull
+    private static ByteBuffer encodeAccepted(@Nonnull PendingBan ban) throws IOException {
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream(9);
+        final DataOutputStream out = new DataOutputStream(payload);
+        out.writeByte(RECORD_ACCEPTED);
+        out.writeLong(ban.getSequence());
+        return record(payload.toByteArray());
+    }
+
+    /**
+     * @param bytes the payload of the record.
+     * @return the record, the payload with its length and checksum in front.
+     */
+    @Nonnull
+    private static ByteBuffer record(@Nonnull byte[] bytes) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        final ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + bytes.length);
+        buffer.putInt(bytes.length).putInt((int) crc.getValue()).put(bytes).flip();
+        return buffer;
+    }
+
+    /**
+     * @param channel where to write.
+     * @param buffer  what to write.
+     * @throws IOException if the buffer could not be written.
+     */
+    private static void writeFully(@Nonnull FileChannel channel, @Nonnull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Handles the CPAS response for a pending ban.
+     */
+    private class ProcessDeliveryResponse implements Cpas.ProcessResponse<SuccessResponseModel> {
+
+        /**
+         * The ban that was sent.
+         */
+        private final PendingBan ban;
+
+        /**
+         * Creates a new {@link ProcessDeliveryResponse} object.
+         *
+         * @param ban the ban that was sent.
+         */
+        ProcessDeliveryResponse(@Nonnull PendingBan ban) {
+            this.ban = ban;
+        }
+
+        @Override
+        public void process(SuccessResponseModel response, String errorMessage) {
+            // Only an answer from CPAS that says no is final, anything else may work on a later attempt
+            final boolean answered = errorMessage == null && response != null;
+            final Runnable next;
+            if (answered && response.success) {
+                next = ()->acknowledge(ban);
+            } else if (answered) {
+                next = ()->deadLetter(ban, "Refused by CPAS");
+            } else {
+                next = BanOutbox.this::onDeliveryFailed;
+            }
+            try {
+                executor.execute(next);
+            } catch (RejectedExecutionException e) {
+                // Closed, the ban is sent again on the next run
+            }
+        }
+
+        @Override
+        public Class<SuccessResponseModel> getModelClass() {
+            return SuccessResponseModel.class;
+        }
+    }
+
+    /**
+     * A ban that was given up on.
+     */
+    public static final class DeadLetter {
+
+        /**
+         * The ban.
+         */
+        private final PendingBan ban;
+
+        /**
+         * When the ban was given up on, in milliseconds since the epoch.
+         */
+        private final long failedAt;
+
+        /**
+         * Why the ban was given up on.
+         */
+        private final String reason;
+
+        /**
+         * Creates a new {@link DeadLetter} object.
+         *
+         * @param ban      the ban.
+         * @param failedAt when the ban was given up on, in milliseconds since the epoch.
+         * @param reason   why the ban was given up on.
+         */
+        DeadLetter(@Nonnull PendingBan ban, long failedAt, @Nonnull String reason) {
+            this.ban = ban;
+            this.failedAt = failedAt;
+            this.reason = reason;
+        }
+
+        /**
+         * @return the ban.
+         */
+        @Nonnull
+        public PendingBan getBan() {
+            return ban;
+        }
+
+        /**
+         * @return when the ban was given up on, in milliseconds since the epoch.
+         */
+        public long getFailedAt() {
+            return failedAt;
+        }
+
+        /**
+         * @return why the ban was given up on.
+         */
+        @Nonnull
+        public String getReason() {
+            return reason;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.outbox;
+
+import javax.annotation.Nonnull;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A ban that has not been accepted by CPAS yet.
+ */
+public final class PendingBan {
+
+    /**
+     * The position of this ban in the outbox.
+     */
+    private final long sequence;
+
+    /**
+     * When this ban was made, in milliseconds since the epoch.
+     */
+    private final long createdAt;
+
+    /**
+     * The game id of the banned player.
+     */
+    private final String gameId;
+
+    /**
+     * The name of the banned player.
+     */
+    private final String name;
+
+    /**
+     * The game id of the banning admin, empty for the default admin.
+     */
+    private final String bannerId;
+
+    /**
+     * The game ids of the admins on the server when the ban was made.
+     */
+    private final String[] admins;
+
+    /**
+     * The ban duration in minutes.
+     */
+    private final int duration;
+
+    /**
+     * The ban reason.
+     */
+    private final String reason;
+
+    /**
+     * Creates a new {@link PendingBan} object.
+     *
+     * @param sequence  the position of this ban in the outbox.
+     * @param createdAt when this ban was made, in milliseconds since the epoch.
+     * @param gameId    the game id of the banned player.
+     * @param name      the name of the banned player.
+     * @param bannerId  the game id of the banning admin, empty for the default admin.
+     * @param admins    the game ids of the admins on the server when the ban was made.
+     * @param duration  the ban duration in minutes.
+     * @param reason    the ban reason.
+     */
+    PendingBan(long sequence, long createdAt, @Nonnull String gameId, @Nonnull String name, @Nonnull String bannerId,
+               @Nonnull String[] admins, int duration, @Nonnull String reason) {
+        this.sequence = sequence;
+        this.createdAt = createdAt;
+        this.gameId = gameId;
+        this.name = name;
+        this.bannerId = bannerId;
+        this.admins = admins.clone();
+        this.duration = duration;
+        this.reason = reason;
+    }
+
+    /**
+     * Writes this ban to an outbox record.
+     *
+     * @param out where to write the ban.
+     * @throws IOException if the ban could not be written.
+     */
+    void write(@Nonnull DataOutput out) throws IOException {
+        out.writeLong(sequence);
+        out.writeLong(createdAt);
+        out.writeUTF(gameId);
+        out.writeUTF(name);
+        out.writeUTF(bannerId);
+        out.writeInt(admins.length);
+        for (String admin : admins) {
+            out.writeUTF(admin);
+        }
+        out.writeInt(duration);
+        out.writeUTF(reason);
+    }
+
+    /**
+     * Reads a ban from an outbox record.
+     *
+     * @param in where to read the ban from.
+     * @return the ban.
+     * @throws IOException if the ban could not be read.
+     */
+    @Nonnull
+    static PendingBan read(@Nonnull DataInput in) throws IOException {
+        final long sequence = in.readLong();
+        final long createdAt = in.readLong();
+        final String gameId = in.readUTF();
+        final String name = in.readUTF();
+        final String bannerId = in.readUTF();
+        final int adminCount = in.readInt();
+        if (adminCount < 0 || adminCount > 1024) {
+            throw new IOException("Invalid admin count " + adminCount);
+        }
+        final String[] admins = new String[adminCount];
+        for (int i = 0; i < adminCount; i++) {
+            admins[i] = in.readUTF();
+        }
+        final int duration = in.readInt();
+        final String reason = in.readUTF();
+        return new PendingBan(sequence, createdAt, gameId, name, bannerId, admins, duration, reason);
+    }
+
+    /**
+     * @return the position of this ban in the outbox.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return when this ban was made, in milliseconds since the epoch.
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return the game id of the banned player.
+     */
+    @Nonnull
+    public String getGameId() {
+        return gameId;
+    }
+
+    /**
+     * @return the name of the banned player.
+     */
+    @Nonnull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the game id of the banning admin, empty for the default admin.
+     */
+    @Nonnull
+    public String getBannerId() {
+        return bannerId;
+    }
+
+    /**
+     * @return the game ids of the admins on the server when the ban was made.
+     */
+    @Nonnull
+    public String[] getAdmins() {
+        return admins.clone();
+    }
+
+    /**
+     * @return the ban duration in minutes.
+     */
+    public int getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return the ban reason.
+     */
+    @Nonnull
+    public String getReason() {
+        return reason;
+    }
+}
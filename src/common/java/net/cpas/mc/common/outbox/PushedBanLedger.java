@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.outbox;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Remembers which local bans have already been handed over to CPAS, by a fingerprint of the ban. A ban that changes
+ * gets a new fingerprint and is pushed again. The fingerprints are saved to a file so a restart does not push every
+ * local ban again.
+ */
+public class PushedBanLedger {
+
+    /**
+     * Marks the file as a pushed ban ledger.
+     */
+    private static final int MAGIC = 0x4350424C;
+
+    /**
+     * The ledger file.
+     */
+    private final Path file;
+
+    /**
+     * The fingerprints of the bans that were pushed.
+     */
+    private final Set<Long> pushed = new HashSet<>();
+
+    /**
+     * True if the fingerprints changed since they were last saved.
+     */
+    private boolean dirty;
+
+    /**
+     * Creates a new {@link PushedBanLedger} object.
+     *
+     * @param file the ledger file.
+     */
+    public PushedBanLedger(@Nonnull Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @param gameId        the game id of the banned player.
+     * @param startMillis   when the ban started, in milliseconds since the epoch.
+     * @param expiresMillis when the ban expires, in milliseconds since the epoch, or -1 if it is permanent.
+     * @param reason        the ban reason.
+     * @return the fingerprint of the ban.
+     */
+    public static long fingerprint(@Nonnull UUID gameId, long startMillis, long expiresMillis, @Nonnull String reason) {
+        // 64 bit FNV-1a over every field of the ban
+        long hash = 0xCBF29CE484222325L;
+        hash = mix(hash, gameId.getMostSignificantBits());
+        hash = mix(hash, gameId.getLeastSignificantBits());
+        hash = mix(hash, startMillis);
+        hash = mix(hash, expiresMillis);
+        for (byte b : reason.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    /**
+     * @param hash  the hash so far.
+     * @param value the value to add to the hash.
+     * @return the new hash.
+     */
+    private static long mix(long hash, long value) {
+        for (int i = 0; i < Long.BYTES; i++) {
+            hash = (hash ^ ((value >>> (i * 8)) & 0xFF)) * 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Loads the fingerprints saved by the last run. A missing or damaged file leaves the ledger empty.
+     *
+     * @throws IOException if the file could not be read.
+     */
+    public synchronized void load() throws IOException {
+        pushed.clear();
+        dirty = false;
+        if (!Files.exists(file)) {
+            return;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+            return;
+        }
+        final int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / Long.BYTES) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            pushed.add(buffer.getLong());
+        }
+    }
+
+    /**
+     * @param fingerprint the fingerprint of a ban.
+     * @return true if the ban was already pushed.
+     */
+    public synchronized boolean isPushed(long fingerprint) {
+        return pushed.contains(fingerprint);
+    }
+
+    /**
+     * @param fingerprint the fingerprint of a ban that was pushed.
+     */
+    public synchronized void markPushed(long fingerprint) {
+        dirty |= pushed.add(fingerprint);
+    }
+
+    /**
+     * Forgets every ban that no longer exists locally, so the ledger does not grow forever.
+     *
+     * @param live the fingerprints of the local bans that still exist.
+     */
+    public synchronized void retain(@Nonnull Collection<Long> live) {
+        dirty |= pushed.retainAll(live);
+    }
+
+    /**
+     * @return the number of bans in the ledger.
+     */
+    public synchronized int size() {
+        return pushed.size();
+    }
+
+    /**
+     * Saves the fingerprints if they changed, replacing the file in one step.
+     *
+     * @throws IOException if the file could not be written.
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(8 + pushed.size() * Long.BYTES);
+        buffer.putInt(MAGIC).putInt(pushed.size());
+        for (long fingerprint : pushed) {
+            buffer.putLong(fingerprint);
+        }
+        final Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temporary, buffer.array());
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.permission;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Brings a player's groups in line with the groups CPAS says they should have by writing only the differences,
+ * instead of clearing every configured group and applying the correct ones again. Group names are compared without
+ * case.
+ */
+public class PermissionSyncEngine {
+
+    /**
+     * Writes group changes to a permission backend.
+     */
+    public interface GroupWriter {
+
+        /**
+         * @param group the group to give the player.
+         */
+        void addGroup(@Nonnull String group);
+
+        /**
+         * @param group the group to take from the player.
+         */
+        void removeGroup(@Nonnull String group);
+    }
+
+    /**
+     * The number of group writes that were made.
+     */
+    private final AtomicLong appliedWrites = new AtomicLong();
+
+    /**
+     * The number of group writes that clear-and-reapply would have made but were not needed.
+     */
+    private final AtomicLong skippedWrites = new AtomicLong();
+
+    /**
+     * Works out the group changes for a player.
+     *
+     * @param desired the groups the player should have.
+     * @param current the groups the player has right now.
+     * @param managed true for groups this plugin is responsible for. Unmanaged groups are never removed.
+     * @return the changes to apply.
+     */
+    @Nonnull
+    public SyncPlan plan(@Nonnull Collection<String> desired, @Nonnull Collection<String> current,
+                         @Nonnull Predicate<String> managed) {
+        final Map<String, String> currentByKey = new HashMap<>();
+        for (String group : current) {
+            currentByKey.put(group.toLowerCase(Locale.ROOT), group);
+        }
+        final Set<String> desiredKeys = new HashSet<>();
+        final List<String> additions = new ArrayList<>();
+        for (String group : desired) {
+            final String key = group.toLowerCase(Locale.ROOT);
+            if (desiredKeys.add(key) && !currentByKey.containsKey(key)) {
+                additions.add(group);
+            }
+        }
+        final List<String> removals = new ArrayList<>();
+        for (Map.Entry<String, String> kvp : currentByKey.entrySet()) {
+            if (!desiredKeys.contains(kvp.getKey()) && managed.test(kvp.getValue())) {
+                removals.add(kvp.getValue());
+            }
+        }
+        return new SyncPlan(additions, removals);
+    }
+
+    /**
+     * Applies a plan and records how many writes were saved.
+     *
+     * @param plan        the changes to apply.
+     * @param writer      writes the changes to the permission backend.
+     * @param naiveWrites the number of writes clear-and-reapply would have made for the same player.
+     */
+    public void apply(@Nonnull SyncPlan plan, @Nonnull GroupWriter writer, int naiveWrites) {
+        for (String group : plan.getRemovals()) {
+            writer.removeGroup(group);
+        }
+        for (String group : plan.getAdditions()) {
+            writer.addGroup(group);
+        }
+        record(plan, naiveWrites);
+    }
+
+    /**
+     * Records the writes of a plan that was applied by other means, for example in a single backend transaction.
+     *
+     * @param plan        the changes that were applied.
+     * @param naiveWrites the number of writes clear-and-reapply would have made for the same player.
+     */
+    public void record(@Nonnull SyncPlan plan, int naiveWrites) {
+        appliedWrites.addAndGet(plan.size());
+        skippedWrites.addAndGet(Math.max(0, naiveWrites - plan.size()));
+    }
+
+    /**
+     * @return the number of group writes that were made.
+     */
+    public long getAppliedWrites() {
+        return appliedWrites.get();
+    }
+
+    /**
+     * @return the number of group writes that clear-and-reapply would have made but were not needed.
+     */
+    public long getSkippedWrites() {
+        return skippedWrites.get();
+    }
+
+    /**
+     * The group changes for a single player.
+     */
+    public static final class SyncPlan {
+
+        /**
+         * The groups to give the player.
+         */
+        private final List<String> additions;
+
+        /**
+         * The groups to take from the player.
+         */
+        private final List<String> removals;
+
+        /**
+         * Creates a new {@link SyncPlan} object.
+         *
+         * @param additions the groups to give the player.
+         * @param removals  the groups to take from the player.
+         */
+        SyncPlan(@Nonnull List<String> additions, @Nonnull List<String> removals) {
+            this.additions = Collections.unmodifiableList(additions);
+            this.removals = Collections.unmodifiableList(removals);
+        }
+
+        /**
+         * @return the groups to give the player.
+         */
+        @Nonnull
+        public List<String> getAdditions() {
+            return additions;
+        }
+
+        /**
+         * @return the groups to take from the player.
+         */
+        @Nonnull
+        public List<String> getRemovals() {
+            return removals;
+        }
+
+        /**
+         * @return the number of writes in this plan.
+         */
+        public int size() {
+            return additions.size() + removals.size();
+        }
+
+        /**
+         * @return true if the player's groups are already correct.
+         */
+        public boolean isEmpty() {
+            return additions.isEmpty() && removals.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,538 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.profile;
+
+import net.cpas.model.CpasGroupModel;
+import net.cpas.model.DsInfoModel;
+import net.cpas.model.InfoModel;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the last known CPAS info of every player on disk so it survives restarts. The file is a hash table of fixed
+ * size records that is memory mapped, opening it only reads the header and a lookup only touches the pages of the
+ * records it probes, so a large file costs nothing at startup. Each record carries a checksum, a record that was torn
+ * by a crash is treated as missing.
+ */
+public class ProfileSnapshotStore implements Closeable {
+
+    /**
+     * Marks the file as a profile snapshot store.
+     */
+    private static final int MAGIC = 0x43505053;
+
+    /**
+     * The version of the file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The size of the file header in bytes.
+     */
+    private static final int HEADER_SIZE = 32;
+
+    /**
+     * The size of a record in bytes.
+     */
+    private static final int RECORD_SIZE = 512;
+
+    /**
+     * The size of the fixed part of a record: the {@link UUID}, the checksum and the payload length.
+     */
+    private static final int RECORD_HEADER_SIZE = 22;
+
+    /**
+     * The largest payload a record can hold.
+     */
+    private static final int MAX_PAYLOAD = RECORD_SIZE - RECORD_HEADER_SIZE;
+
+    /**
+     * The number of records a new file has room for.
+     */
+    private static final int INITIAL_CAPACITY = 4096;
+
+    /**
+     * Where the header keeps the number of records the file has room for.
+     */
+    private static final int CAPACITY_OFFSET = 8;
+
+    /**
+     * Where the header keeps the number of records in use.
+     */
+    private static final int COUNT_OFFSET = 12;
+
+    /**
+     * The store file.
+     */
+    private final Path file;
+
+    /**
+     * The mapped store file, null until opened.
+     */
+    private MappedByteBuffer buffer;
+
+    /**
+     * The number of records the file has room for.
+     */
+    private int capacity;
+
+    /**
+     * The number of records in use.
+     */
+    private int count;
+
+    /**
+     * The number of lookups that found a snapshot.
+     */
+    private long hits;
+
+    /**
+     * The number of lookups that found nothing.
+     */
+    private long misses;
+
+    /**
+     * The number of snapshots written.
+     */
+    private long writes;
+
+    /**
+     * Creates a new {@link ProfileSnapshotStore} object.
+     *
+     * @param file the store file.
+     */
+    public ProfileSnapshotStore(@Nonnull Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Maps the store file, creating it if it does not exist. Only the header is read. A file that is not a profile
+     * snapshot store is moved aside and a new one is started.
+     *
+     * @throws IOException if the file could not be created or mapped.
+     */
+    public synchronized void open() throws IOException {
+        final Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        if (Files.exists(file) && !hasValidHeader(file)) {
+            Files.move(file, file.resolveSibling(file.getFileName() + ".corrupt"), StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (!Files.exists(file)) {
+            create(file, INITIAL_CAPACITY).force();
+        }
+        buffer = map(file);
+        capacity = buffer.getInt(CAPACITY_OFFSET);
+        count = buffer.getInt(COUNT_OFFSET);
+    }
+
+    /**
+     * @param playerUUID the player.
+     * @return the last known info of the player or null if there is none.
+     */
+    @Nullable
+    public synchronized InfoModel get(@Nonnull UUID playerUUID) {
+        if (buffer == null) {
+            return null;
+        }
+        final int slot = find(buffer, capacity, playerUUID);
+        if (slot < 0 || isEmpty(buffer, slot)) {
+            misses++;
+            return null;
+        }
+        final InfoModel infoModel = decode(buffer, slot, playerUUID);
+        if (infoModel == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return infoModel;
+    }
+
+    /**
+     * Saves the info of a player, replacing what was saved before.
+     *
+     * @param playerUUID the player.
+     * @param infoModel  the info of the player.
+     * @throws IOException if the file had to grow and could not.
+     */
+    public synchronized void put(@Nonnull UUID playerUUID, @Nonnull InfoModel infoModel) throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        final byte[] payload = encode(infoModel);
+        int slot = find(buffer, capacity, playerUUID);
+        if (slot < 0 || isEmpty(buffer, slot)) {
+            if ((count + 1) * 4 > capacity * 3) {
+                grow();
+                slot = find(buffer, capacity, playerUUID);
+            }
+            count++;
+            buffer.putInt(COUNT_OFFSET, count);
+        }
+        write(buffer, slot, playerUUID, payload);
+        writes++;
+    }
+
+    /**
+     * @return the number of players with a snapshot.
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @return the number of lookups that found a snapshot.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that found nothing.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of snapshots written.
+     */
+    public synchronized long getWrites() {
+        return writes;
+    }
+
+    /**
+     * Writes the mapped records out to the file.
+     */
+    @Override
+    public synchronized void close() {
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+        }
+    }
+
+    /**
+     * Moves every record to a new file with twice the room and maps it in place of the old one.
+     *
+     * @throws IOException if the new file could not be written.
+     */
+    private void grow() throws IOException {
+        final int grownCapacity = capacity * 2;
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(temporary);
+        final MappedByteBuffer grown = create(temporary, grownCapacity);
+        final byte[] record = new byte[RECORD_SIZE];
+        for (int slot = 0; slot < capacity; slot++) {
+            if (!isEmpty(buffer, slot)) {
+                final UUID playerUUID = new UUID(buffer.getLong(offsetOf(slot)), buffer.getLong(offsetOf(slot) + 8));
+                final int target = find(grown, grownCapacity, playerUUID);
+                buffer.position(offsetOf(slot));
+                buffer.get(record);
+                grown.position(offsetOf(target));
+                grown.put(record);
+            }
+        }
+        grown.putInt(COUNT_OFFSET, count);
+        grown.force();
+        buffer.force();
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        buffer = grown;
+        capacity = grownCapacity;
+    }
+
+    /**
+     * @param target   the file to create.
+     * @param capacity the number of records the file has room for.
+     * @return the mapped file with its header written.
+     * @throws IOException if the file could not be created or mapped.
+     */
+    @Nonnull
+    private static MappedByteBuffer create(@Nonnull Path target, int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) capacity * RECORD_SIZE);
+            mapped.putInt(0, MAGIC);
+            mapped.putInt(4, VERSION);
+            mapped.putInt(CAPACITY_OFFSET, capacity);
+            mapped.putInt(COUNT_OFFSET, 0);
+            return mapped;
+        }
+    }
+
+    /**
+     * @param source the file to map.
+     * @return the mapped file.
+     * @throws IOException if the file could not be mapped.
+     */
+    @Nonnull
+    private static MappedByteBuffer map(@Nonnull Path source) throws IOException {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+    }
+
+    /**
+     * @param source the file to check.
+     * @return true if the file starts with a profile snapshot store header that matches its size.
+     * @throws IOException if the file could not be read.
+     */
+    private static boolean hasValidHeader(@Nonnull Path source) throws IOException {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until the header is full or the file ends
+            }
+            if (header.hasRemaining()) {
+                return false;
+            }
+            final int storedCapacity = header.getInt(CAPACITY_OFFSET);
+            return header.getInt(0) == MAGIC && header.getInt(4) == VERSION && storedCapacity > 0
+                    && Integer.bitCount(storedCapacity) == 1
+                    && channel.size() == HEADER_SIZE + (long) storedCapacity * RECORD_SIZE;
+        }
+    }
+
+    /**
+     * @param slot a slot.
+     * @return where the record of the slot starts in the file.
+     */
+    private static int offsetOf(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    /**
+     * @param mapped the mapped file.
+     * @param slot   a slot.
+     * @return true if the slot holds no record.
+     */
+    private static boolean isEmpty(@Nonnull MappedByteBuffer mapped, int slot) {
+        return mapped.getLong(offsetOf(slot)) == 0 && mapped.getLong(offsetOf(slot) + 8) == 0;
+    }
+
+    /**
+     * @param mapped     the mapped file.
+     * @param capacity   the number of records the file has room for.
+     * @param playerUUID the player.
+     * @return the slot holding the player or the empty slot where they belong, -1 if the file is full.
+     */
+    private static int find(@Nonnull MappedByteBuffer mapped, int capacity, @Nonnull UUID playerUUID) {
+        final long msb = playerUUID.getMostSignificantBits();
+        final long lsb = playerUUID.getLeastSignificantBits();
+        long hash = msb * 0x9E3779B97F4A7C15L ^ lsb;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        int slot = (int) hash & (capacity - 1);
+        for (int probes = 0; probes < capacity; probes++) {
+            final long storedMsb = mapped.getLong(offsetOf(slot));
+            final long storedLsb = mapped.getLong(offsetOf(slot) + 8);
+            if ((storedMsb == msb && storedLsb == lsb) || (storedMsb == 0 && storedLsb == 0)) {
+                return slot;
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Writes a record. The payload goes in before the {@link UUID} so a new record only shows up once it is complete.
+     *
+     * @param mapped     the mapped file.
+     * @param slot       the slot to write.
+     * @param playerUUID the player.
+     * @param payload    the encoded info.
+     */
+    private static void write(@Nonnull MappedByteBuffer mapped, int slot, @Nonnull UUID playerUUID,
+                              @Nonnull byte[] payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        final int offset = offsetOf(slot);
+        mapped.position(offset + RECORD_HEADER_SIZE);
+        mapped.put(payload);
+        mapped.putInt(offset + 16, (int) crc.getValue());
+        mapped.putShort(offset + 20, (short) payload.length);
+        mapped.putLong(offset, playerUUID.getMostSignificantBits());
+        mapped.putLong(offset + 8, playerUUID.getLeastSignificantBits());
+    }
+
+    /**
+     * @param mapped     the mapped file.
+     * @param slot       the slot to read.
+     * @param playerUUID the player.
+     * @return the info in the record or null if the record is damaged.
+     */
+    @Nullable
+    private static InfoModel decode(@Nonnull MappedByteBuffer mapped, int slot, @Nonnull UUID playerUUID) {
+        final int offset = offsetOf(slot);
+        final int length = mapped.getShort(offset + 20) & 0xFFFF;
+        if (length > MAX_PAYLOAD) {
+            return null;
+        }
+        final byte[] payload = new byte[length];
+        mapped.position(offset + RECORD_HEADER_SIZE);
+        mapped.get(payload);
+        final CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        if ((int) crc.getValue() != mapped.getInt(offset + 16)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            final InfoModel infoModel = new InfoModel();
+            infoModel.gameId = playerUUID;
+            infoModel.userId = in.readInt();
+            infoModel.forumName = readNullable(in);
+            if (in.readBoolean()) {
+                infoModel.primaryGroup = new CpasGroupModel(readNullable(in), in.readInt());
+            }
+            infoModel.division = readNullable(in);
+            infoModel.divisionName = readNullable(in);
+            infoModel.dsInfo = new DsInfoModel();
+            infoModel.dsInfo.isDedicatedSupporter = in.readBoolean();
+            infoModel.dsInfo.joinMessage = readNullable(in);
+            final int groupCount = in.readUnsignedShort();
+            infoModel.groups = new ArrayList<>(groupCount);
+            for (int i = 0; i < groupCount; i++) {
+                infoModel.groups.add(new CpasGroupModel(readNullable(in), in.readInt()));
+            }
+            return infoModel;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Encodes the parts of the info the plugin uses. If it does not fit in a record the join message and then
+     * secondary groups are left out.
+     *
+     * @param infoModel the info to encode.
+     * @return the encoded info.
+     */
+    @Nonnull
+    private static byte[] encode(@Nonnull InfoModel infoModel) {
+        final List<CpasGroupModel> groups = infoModel.groups == null ? new ArrayList<>() : new ArrayList<>(infoModel.groups);
+        boolean withJoinMessage = true;
+        while (true) {
+            final byte[] payload = encode(infoModel, groups, withJoinMessage);
+            if (payload.length <= MAX_PAYLOAD) {
+                return payload;
+            }
+            if (withJoinMessage) {
+                withJoinMessage = false;
+            } else if (!groups.isEmpty()) {
+                groups.remove(groups.size() - 1);
+            } else {
+                // Only absurdly long names get here, keep the user id and DS flag
+                final InfoModel essentials = new InfoModel();
+                essentials.userId = infoModel.userId;
+                essentials.dsInfo = infoModel.dsInfo;
+                return encode(essentials, groups, false);
+            }
+        }
+    }
+
+    /**
+     * @param infoModel       the info to encode.
+     * @param groups          the secondary groups to encode.
+     * @param withJoinMessage true to encode the DS join message.
+     * @return the encoded info.
+     */
+    @Nonnull
+    private static byte[] encode(@Nonnull InfoModel infoModel, @Nonnull List<CpasGroupModel> groups,
+                                 boolean withJoinMessage) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(infoModel.userId);
+            writeNullable(out, infoModel.forumName);
+            out.writeBoolean(infoModel.primaryGroup != null);
+            if (infoModel.primaryGroup != null) {
+                writeNullable(out, infoModel.primaryGroup.name);
+                out.writeInt(infoModel.primaryGroup.rank);
+            }
+            writeNullable(out, infoModel.division);
+            writeNullable(out, infoModel.divisionName);
+            out.writeBoolean(infoModel.dsInfo != null && infoModel.dsInfo.isDedicatedSupporter);
+            writeNullable(out, withJoinMessage && infoModel.dsInfo != null ? infoModel.dsInfo.joinMessage : null);
+            out.writeShort(groups.size());
+            for (CpasGroupModel group : groups) {
+                writeNullable(out, group.name);
+                out.writeInt(group.rank);
+            }
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param out   where to write.
+     * @param value the string to write, may be null.
+     * @throws IOException if writing fails.
+     */
+    private static void writeNullable(@Nonnull DataOutputStream out, @Nullable String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    /**
+     * @param in where to read from.
+     * @return the string read, may be null.
+     * @throws IOException if reading fails.
+     */
+    @Nullable
+    private static String readNullable(@Nonnull DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.profile;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The players who logged in most recently, kept across restarts so their data can be fetched before they come back.
+ */
+public class RecentPlayers {
+
+    /**
+     * Marks the file as a saved recent players list.
+     */
+    private static final int MAGIC = 0x43505250;
+
+    /**
+     * The most players kept.
+     */
+    private final int capacity;
+
+    /**
+     * When each player last logged in, least recent first.
+     */
+    private final LinkedHashMap<UUID, Long> lastSeen;
+
+    /**
+     * Creates a new {@link RecentPlayers} object.
+     *
+     * @param capacity the most players kept, the least recent are dropped beyond that.
+     */
+    public RecentPlayers(int capacity) {
+        this.capacity = capacity;
+        this.lastSeen = new LinkedHashMap<UUID, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Long> eldest) {
+                return size() > RecentPlayers.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @param playerUUID the player who logged in.
+     * @param nowMillis  the current time in milliseconds since the epoch.
+     */
+    public synchronized void touch(@Nonnull UUID playerUUID, long nowMillis) {
+        lastSeen.put(playerUUID, nowMillis);
+    }
+
+    /**
+     * @param limit the most players to return.
+     * @return the players who logged in most recently, most recent first.
+     */
+    @Nonnull
+    public synchronized List<UUID> getMostRecent(int limit) {
+        final List<UUID> players = new ArrayList<>(lastSeen.keySet());
+        Collections.reverse(players);
+        return players.size() > limit ? new ArrayList<>(players.subList(0, limit)) : players;
+    }
+
+    /**
+     * @return the number of players kept.
+     */
+    public synchronized int size() {
+        return lastSeen.size();
+    }
+
+    /**
+     * Saves the players, replacing the file in one step.
+     *
+     * @param file where to save the players.
+     * @throws IOException if the file could not be written.
+     */
+    public void save(@Nonnull Path file) throws IOException {
+        final Map<UUID, Long> snapshot;
+        synchronized(this) {
+            snapshot = new LinkedHashMap<>(lastSeen);
+        }
+        final Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<UUID, Long> entry : snapshot.entrySet()) {
+                out.writeLong(entry.getKey().getMostSignificantBits());
+                out.writeLong(entry.getKey().getLeastSignificantBits());
+                out.writeLong(entry.getValue());
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Adds the players saved by {@link #save(Path)}, keeping their order.
+     *
+     * @param file where the players were saved.
+     * @return the number of players read.
+     * @throws IOException if the file could not be read or is not a saved recent players list.
+     */
+    public int load(@Nonnull Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a saved recent players list");
+            }
+            final int count = in.readInt();
+            synchronized(this) {
+                for (int i = 0; i < count; i++) {
+                    final UUID playerUUID = new UUID(in.readLong(), in.readLong());
+                    lastSeen.put(playerUUID, in.readLong());
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.session;
+
+import net.cpas.Cpas;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tracks the CPAS callbacks that are waiting on behalf of an online player. When the player disconnects the callbacks
+ * are cancelled, they let go of the player and do nothing when the response arrives, so a player who left does not get
+ * permissions written or broadcasts sent and is not kept in memory by a slow request. Work that needs the player in the
+ * world, like a join broadcast, can be held back until the player has joined, since CPAS may answer before that.
+ */
+public class SessionTracker {
+
+    /**
+     * How long an action waits for its player to join before it is dropped, for logins that never got that far.
+     */
+    private static final long JOIN_WAIT_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * The sessions of players with callbacks waiting, by player.
+     */
+    private final ConcurrentMap<UUID, Session> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * The number of callbacks cancelled because their player disconnected.
+     */
+    private final AtomicLong cancelledCallbacks = new AtomicLong();
+
+    /**
+     * The number of responses that arrived for a cancelled callback.
+     */
+    private final AtomicLong droppedResponses = new AtomicLong();
+
+    /**
+     * Guards {@link #joinedPlayers} and {@link #joinActions}.
+     */
+    private final Object joinLock = new Object();
+
+    /**
+     * The players who have joined and not disconnected since.
+     */
+    private final Set<UUID> joinedPlayers = new HashSet<>();
+
+    /**
+     * The actions waiting for their player to join, by player.
+     */
+    private final Map<UUID, JoinAction> joinActions = new HashMap<>();
+
+    /**
+     * @param playerUUID the player the callback works on.
+     * @param response   the callback.
+     * @param <T>        the model type of the response.
+     * @return a callback that runs the given one unless the player disconnects first.
+     */
+    @Nonnull
+    public <T> Cpas.ProcessResponse<T> bind(@Nonnull UUID playerUUID, @Nonnull Cpas.ProcessResponse<T> response) {
+        final SessionResponse<T> bound = new SessionResponse<>(response);
+        while (true) {
+            final Session session = sessions.computeIfAbsent(playerUUID, Session::new);
+            if (session.add(bound)) {
+                return bound;
+            }
+            // The session emptied out and is being removed, start a new one
+            sessions.remove(playerUUID, session);
+        }
+    }
+
+    /**
+     * Cancels every callback waiting on behalf of the player and drops the action waiting for them to join.
+     *
+     * @param playerUUID the player who disconnected.
+     * @return the number of callbacks cancelled.
+     */
+    public int end(@Nonnull UUID playerUUID) {
+        synchronized(joinLock) {
+            joinedPlayers.remove(playerUUID);
+            joinActions.remove(playerUUID);
+        }
+        final Session session = sessions.remove(playerUUID);
+        if (session == null) {
+            return 0;
+        }
+        final int cancelled = session.close();
+        cancelledCallbacks.addAndGet(cancelled);
+        return cancelled;
+    }
+
+    /**
+     * Runs an action now if the player has joined, otherwise once they join. An action that is still waiting replaces
+     * the one before it, and is dropped if the player disconnects or never joins.
+     *
+     * @param playerUUID the player the action needs in the world.
+     * @param action     the action.
+     */
+    public void runWhenJoined(@Nonnull UUID playerUUID, @Nonnull Runnable action) {
+        synchronized(joinLock) {
+            if (!joinedPlayers.contains(playerUUID)) {
+                final long now = System.nanoTime();
+                joinActions.values().removeIf(waiting->now - waiting.deferredAt > JOIN_WAIT_NANOS);
+                joinActions.put(playerUUID, new JoinAction(action, now));
+                return;
+            }
+        }
+        action.run();
+    }
+
+    /**
+     * Marks the player as joined and runs the action waiting for them, if any.
+     *
+     * @param playerUUID the player who joined.
+     */
+    public void joined(@Nonnull UUID playerUUID) {
+        final JoinAction waiting;
+        synchronized(joinLock) {
+            joinedPlayers.add(playerUUID);
+            waiting = joinActions.remove(playerUUID);
+        }
+        if (waiting != null) {
+            waiting.action.run();
+        }
+    }
+
+    /**
+     * @return the number of players with callbacks waiting.
+     */
+    public int getActiveSessions() {
+        return sessions.size();
+    }
+
+    /**
+     * @return the number of callbacks cancelled because their player disconnected.
+     */
+    public long getCancelledCallbacks() {
+        return cancelledCallbacks.get();
+    }
+
+    /**
+     * @return the number of responses that arrived for a cancelled callback.
+     */
+    public long getDroppedResponses() {
+        return droppedResponses.get();
+    }
+
+    /**
+     * An action waiting for its player to join.
+     */
+    private static final class JoinAction {
+
+        /**
+         * The action.
+         */
+        private final Runnable action;
+
+        /**
+         * The {@link System#nanoTime()} the action started waiting at.
+         */
+        private final long deferredAt;
+
+        /**
+         * Creates a new {@link JoinAction} object.
+         *
+         * @param action     the action.
+         * @param deferredAt the {@link System#nanoTime()} the action started waiting at.
+         */
+        JoinAction(@Nonnull Runnable action, long deferredAt) {
+            this.action = action;
+            this.deferredAt = deferredAt;
+        }
+    }
+
+    /**
+     * The callbacks waiting on behalf of one player.
+     */
+    private final class Session {
+
+        /**
+         * The player.
+         */
+        private final UUID playerUUID;
+
+        /**
+         * The callbacks waiting, null once the session is closed.
+         */
+        private Set<SessionResponse<?>> pending = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        /**
+         * Creates a new {@link Session} object.
+         *
+         * @param playerUUID the player.
+         */
+        Session(@Nonnull UUID playerUUID) {
+            this.playerUUID = playerUUID;
+        }
+
+        /**
+         * @param response the callback to add.
+         * @return false if the session is closed and the callback was not added.
+         */
+        synchronized boolean add(@Nonnull SessionResponse<?> response) {
+            if (pending == null) {
+                return false;
+            }
+            pending.add(response);
+            response.session = this;
+            return true;
+        }
+
+        /**
+         * Forgets a callback that got its response, closing the session once none are left.
+         *
+         * @param response the callback.
+         */
+        void remove(@Nonnull SessionResponse<?> response) {
+            synchronized(this) {
+                if (pending == null || !pending.remove(response) || !pending.isEmpty()) {
+                    return;
+                }
+                pending = null;
+            }
+            sessions.remove(playerUUID, this);
+        }
+
+        /**
+         * @return the number of callbacks that were still waiting and are now cancelled.
+         */
+        int close() {
+            final Set<SessionResponse<?>> waiting;
+            synchronized(this) {
+                waiting = pending;
+                pending = null;
+            }
+            if (waiting == null) {
+                return 0;
+            }
+            int cancelled = 0;
+            for (SessionResponse<?> response : waiting) {
+                if (response.cancel()) {
+                    cancelled++;
+                }
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * A callback that is dropped if its player disconnects.
+     *
+     * @param <T> the model type of the response.
+     */
+    private final class SessionResponse<T> implements Cpas.ProcessResponse<T> {
+
+        /**
+         * The callback to run, null once it has run or was cancelled so the objects it holds can be collected.
+         */
+        private final AtomicReference<Cpas.ProcessResponse<T>> delegate;
+
+        /**
+         * The model type of the response.
+         */
+        private final Class<T> modelClass;
+
+        /**
+         * The session this callback is part of.
+         */
+        private volatile Session session;
+
+        /**
+         * Creates a new {@link SessionResponse} object.
+         *
+         * @param delegate the callback to run.
+         */
+        SessionResponse(@Nonnull Cpas.ProcessResponse<T> delegate) {
+            this.delegate = new AtomicReference<>(delegate);
+            this.modelClass = delegate.getModelClass();
+        }
+
+        /**
+         * @return true if the callback had not run yet and never will.
+         */
+        boolean cancel() {
+            return delegate.getAndSet(null) != null;
+        }
+
+        @Override
+        public void process(T response, String errorMessage) {
+            final Cpas.ProcessResponse<T> callback = delegate.getAndSet(null);
+            if (callback == null) {
+                droppedResponses.incrementAndGet();
+                return;
+            }
+            final Session current = session;
+            if (current != null) {
+                current.remove(this);
+            }
+            callback.process(response, errorMessage);
+        }
+
+        @Override
+        public Class<T> getModelClass() {
+            return modelClass;
+        }
+    }
+}
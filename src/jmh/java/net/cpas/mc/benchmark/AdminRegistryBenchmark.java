@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.benchmark;
+
+import net.cpas.mc.common.admin.AdminRegistry;
+import net.cpas.model.InfoModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * The admin registry lookups behind {@code getPlayerInfoModel} and the ban rules checked by every ban command.
+ * Lookups are a mix of admins and players who are not, like on a live server.
+ */
+@State (Scope.Benchmark)
+public class AdminRegistryBenchmark {
+
+    /**
+     * The number of players looked up, a power of two.
+     */
+    private static final int LOOKUPS = 1024;
+
+    /**
+     * The rank from which admins can only be banned by the same ranks, the default config value.
+     */
+    private static final int BAN_RANK_THRESHOLD = 60;
+
+    /**
+     * The number of admins online.
+     */
+    @Param ({"10", "60"})
+    public int adminCount;
+
+    /**
+     * The registry, filled with the online admins.
+     */
+    private AdminRegistry registry;
+
+    /**
+     * The players looked up, about a quarter of them admins.
+     */
+    private UUID[] players;
+
+    /**
+     * Builds the registry and the players to look up.
+     */
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        registry = new AdminRegistry();
+        final UUID[] admins = new UUID[adminCount];
+        for (int i = 0; i < adminCount; i++) {
+            final InfoModel admin = Fixtures.infoModel(random, 4);
+            registry.put(admin);
+            admins[i] = admin.gameId;
+        }
+        players = new UUID[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            players[i] = random.nextInt(4) == 0 ? admins[random.nextInt(adminCount)] :
+                    new UUID(random.nextLong(), random.nextLong());
+        }
+    }
+
+    /**
+     * {@code getPlayerInfoModel}.
+     *
+     * @param cursor the player to look up.
+     * @return the admin or null.
+     */
+    @Benchmark
+    public InfoModel getPlayerInfoModel(Cursor cursor) {
+        return registry.get(players[cursor.next()]);
+    }
+
+    /**
+     * {@code checkBanRules} between two players.
+     *
+     * @param cursor the players to check.
+     * @return true if the first player can ban the second.
+     */
+    @Benchmark
+    public boolean checkBanRules(Cursor cursor) {
+        return registry.canBan(players[cursor.next()], players[cursor.next()], BAN_RANK_THRESHOLD);
+    }
+
+    /**
+     * The admins sent along with every ban.
+     *
+     * @return the ids of the top ten admins.
+     */
+    @Benchmark
+    public String[] topAdminIds() {
+        return registry.getTopAdminIds(10);
+    }
+
+    /**
+     * Walks through the players, one per thread so threads do not contend on it.
+     */
+    @State (Scope.Thread)
+    public static class Cursor {
+
+        /**
+         * The index of the last player.
+         */
+        private int index;
+
+        /**
+         * @return the index of the next player.
+         */
+        int next() {
+            index = (index + 1) & (LOOKUPS - 1);
+            return index;
+        }
+    }
+}
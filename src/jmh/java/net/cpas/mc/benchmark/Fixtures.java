@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.benchmark;
+
+import net.cpas.mc.common.group.GroupMappingTable;
+import net.cpas.model.CpasGroupModel;
+import net.cpas.model.DsInfoModel;
+import net.cpas.model.InfoModel;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Builds data shaped like a live server's for the benchmarks. Everything is seeded so runs can be compared.
+ */
+final class Fixtures {
+
+    /**
+     * The primary group ranks of the config, the same ladder the default config ships with.
+     */
+    static final int[] PRIMARY_RANKS = {10, 20, 30, 40, 50, 60, 70, 80, 90, 100};
+
+    /**
+     * The number of secondary groups mapped in the config.
+     */
+    static final int SECONDARY_GROUPS = 24;
+
+    /**
+     * The division tags mapped in the config.
+     */
+    static final String[] DIVISIONS = {"MC", "MED", "DEV", "TF2", "CSG", "ARK", "RUST", "SQD", "PUBG", "BF"};
+
+    /**
+     * The group permission prefix of the config.
+     */
+    static final String PREFIX = "group.";
+
+    /**
+     * Only static methods.
+     */
+    private Fixtures() {
+    }
+
+    /**
+     * @return a group table compiled from a config with every kind of mapping filled in.
+     */
+    @Nonnull
+    static GroupMappingTable groupTable() {
+        final Map<String, String> primary = new HashMap<>();
+        for (int rank : PRIMARY_RANKS) {
+            primary.put(Integer.toString(rank), "primary" + rank);
+        }
+        final Map<String, String> division = new HashMap<>();
+        for (String tag : DIVISIONS) {
+            division.put(tag, "division" + tag);
+        }
+        final Map<String, String> secondary = new HashMap<>();
+        for (int i = 0; i < SECONDARY_GROUPS; i++) {
+            secondary.put(Integer.toString(200 + i), "secondary" + i);
+        }
+        return GroupMappingTable.compile(PREFIX, primary, division, secondary, "nogroup", "ds");
+    }
+
+    /**
+     * @param random     the source of randomness.
+     * @param groupCount the number of CPAS groups the player is in, the first is their primary group.
+     * @return the CPAS info of a player.
+     */
+    @Nonnull
+    static InfoModel infoModel(@Nonnull Random random, int groupCount) {
+        final InfoModel infoModel = new InfoModel();
+        infoModel.userId = 1 + random.nextInt(1_000_000);
+        infoModel.forumName = "Player" + infoModel.userId;
+        infoModel.gameId = new UUID(random.nextLong(), random.nextLong());
+        final int primaryRank = PRIMARY_RANKS[random.nextInt(PRIMARY_RANKS.length)];
+        infoModel.primaryGroup = new CpasGroupModel("Primary " + primaryRank, primaryRank);
+        infoModel.groups = new ArrayList<>(groupCount);
+        infoModel.groups.add(infoModel.primaryGroup);
+        for (int i = 1; i < groupCount; i++) {
+            // About half of a player's other groups are mapped, the rest are forum only groups
+            final int rank = random.nextBoolean() ? 200 + random.nextInt(SECONDARY_GROUPS) : 500 + random.nextInt(500);
+            infoModel.groups.add(new CpasGroupModel("Group " + rank, rank));
+        }
+        infoModel.division = DIVISIONS[random.nextInt(DIVISIONS.length)];
+        infoModel.divisionName = "Division " + infoModel.division;
+        infoModel.dsInfo = new DsInfoModel();
+        infoModel.dsInfo.isDedicatedSupporter = random.nextInt(10) == 0;
+        infoModel.dsInfo.joinMessage = infoModel.dsInfo.isDedicatedSupporter ? "Hello from " + infoModel.forumName : "";
+        return infoModel;
+    }
+
+    /**
+     * @param random the source of randomness.
+     * @param count  the number of groups.
+     * @param prefix the prefix of the mapped groups, Sponge writes permission nodes while Spigot writes group names.
+     * @return the in game groups of a player, a mix of mapped groups and groups other plugins gave them.
+     */
+    @Nonnull
+    static List<String> currentGroups(@Nonnull Random random, int count, @Nonnull String prefix) {
+        final List<String> groups = new ArrayList<>(count);
+        groups.add(prefix + "primary" + PRIMARY_RANKS[random.nextInt(PRIMARY_RANKS.length)]);
+        for (int i = 1; i < count; i++) {
+            switch (random.nextInt(3)) {
+                case 0:
+                    groups.add(prefix + "secondary" + random.nextInt(SECONDARY_GROUPS));
+                    break;
+                case 1:
+                    groups.add(prefix + "division" + DIVISIONS[random.nextInt(DIVISIONS.length)]);
+                    break;
+                default:
+                    groups.add("plugin.group" + random.nextInt(100));
+                    break;
+            }
+        }
+        return groups;
+    }
+}
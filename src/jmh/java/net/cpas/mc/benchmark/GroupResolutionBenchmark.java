@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.benchmark;
+
+import net.cpas.mc.common.group.GroupMappingTable;
+import net.cpas.mc.common.group.GroupResolver;
+import net.cpas.mc.common.permission.PermissionSyncEngine;
+import net.cpas.model.InfoModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Resolves the groups of a logging in player from their CPAS info, the work both platforms do on every login. Both
+ * listeners hand this to {@link GroupResolver}, so the benchmark runs the same resolver and
+ * {@link PermissionSyncEngine} plan, set up the way each platform sets it up from its config.
+ */
+@State (Scope.Thread)
+public class GroupResolutionBenchmark {
+
+    /**
+     * The number of players cycled through, so one player's data does not stay hot in the cache.
+     */
+    private static final int PLAYERS = 1024;
+
+    /**
+     * The number of CPAS groups each player is in.
+     */
+    @Param ({"4", "12"})
+    public int groupCount;
+
+    /**
+     * The resolver as Sponge builds it, on permission nodes with every group type in use.
+     */
+    private GroupResolver spongeResolver;
+
+    /**
+     * The resolver as Spigot builds it, on group names without the no group.
+     */
+    private GroupResolver spigotResolver;
+
+    /**
+     * Only used to plan, nothing is applied.
+     */
+    private PermissionSyncEngine syncEngine;
+
+    /**
+     * The CPAS info of the players.
+     */
+    private InfoModel[] players;
+
+    /**
+     * The permission nodes each player has on Sponge.
+     */
+    private List<String>[] spongeGroups;
+
+    /**
+     * The groups each player has on Spigot.
+     */
+    private List<String>[] spigotGroups;
+
+    /**
+     * The player of the next invocation.
+     */
+    private int next;
+
+    /**
+     * Builds the players.
+     */
+    @Setup
+    @SuppressWarnings ({"unchecked", "rawtypes"})
+    public void setUp() {
+        final Random random = new Random(42);
+        final GroupMappingTable table = Fixtures.groupTable();
+        spongeResolver = new GroupResolver(table, GroupResolver.Naming.NODE, true, true, true, true, true);
+        spigotResolver = new GroupResolver(table, GroupResolver.Naming.GROUP, true, false, true, true, true);
+        syncEngine = new PermissionSyncEngine();
+        players = new InfoModel[PLAYERS];
+        spongeGroups = new List[PLAYERS];
+        spigotGroups = new List[PLAYERS];
+        for (int i = 0; i < PLAYERS; i++) {
+            players[i] = Fixtures.infoModel(random, groupCount);
+            spongeGroups[i] = Fixtures.currentGroups(random, groupCount, Fixtures.PREFIX);
+            spigotGroups[i] = Fixtures.currentGroups(random, groupCount, "");
+        }
+    }
+
+    /**
+     * The Sponge login: resolves the desired nodes and plans the writes.
+     *
+     * @return the plan.
+     */
+    @Benchmark
+    public PermissionSyncEngine.SyncPlan spongeLoginGroups() {
+        final int player = nextPlayer();
+        final Set<String> desired = spongeResolver.resolve(players[player], true);
+        return syncEngine.plan(desired, spongeGroups[player], spongeResolver.managed(true));
+    }
+
+    /**
+     * The Spigot login: resolves the desired groups, keeps everyone in default and plans the writes.
+     *
+     * @return the plan.
+     */
+    @Benchmark
+    public PermissionSyncEngine.SyncPlan spigotLoginGroups() {
+        final int player = nextPlayer();
+        final Set<String> desired = spigotResolver.resolve(players[player], true);
+        desired.add("default");
+        return syncEngine.plan(desired, spigotGroups[player], spigotResolver.managed(true));
+    }
+
+    /**
+     * {@link GroupResolver#isManaged(String, boolean)} over every group of a player, which ignores case on Spigot.
+     *
+     * @return the number of the player's groups that are managed.
+     */
+    @Benchmark
+    public int spigotIsManaged() {
+        int managed = 0;
+        for (String group : spigotGroups[nextPlayer()]) {
+            if (spigotResolver.isManaged(group, true)) {
+                managed++;
+            }
+        }
+        return managed;
+    }
+
+    /**
+     * @return the index of the next player.
+     */
+    private int nextPlayer() {
+        next = (next + 1) & (PLAYERS - 1);
+        return next;
+    }
+}
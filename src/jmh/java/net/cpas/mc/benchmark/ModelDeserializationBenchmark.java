@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.cpas.model.BanHistoryModel;
+import net.cpas.model.BanInfoModel;
+import net.cpas.model.CpasBanModel;
+import net.cpas.model.InfoModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson deserialization of the CPAS responses the plugin handles most. The payloads are written from the models
+ * with the same mapper, so they follow whatever property names the CpasLibrary models declare.
+ */
+public class ModelDeserializationBenchmark {
+
+    /**
+     * The mapper, shared by every payload.
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * @param payload a getInfo response.
+     * @return the player info.
+     *
+     * @throws IOException if the payload could not be read.
+     */
+    @Benchmark
+    public InfoModel infoModel(InfoPayload payload) throws IOException {
+        return MAPPER.readValue(payload.bytes, InfoModel.class);
+    }
+
+    /**
+     * @param payload a getBanInfo response.
+     * @return the ban info.
+     *
+     * @throws IOException if the payload could not be read.
+     */
+    @Benchmark
+    public BanInfoModel banInfoModel(BanInfoPayload payload) throws IOException {
+        return MAPPER.readValue(payload.bytes, BanInfoModel.class);
+    }
+
+    /**
+     * @param payload a getBanHistory response.
+     * @return the ban history.
+     *
+     * @throws IOException if the payload could not be read.
+     */
+    @Benchmark
+    public BanHistoryModel banHistoryModel(BanHistoryPayload payload) throws IOException {
+        return MAPPER.readValue(payload.bytes, BanHistoryModel.class);
+    }
+
+    /**
+     * A getInfo response.
+     */
+    @State (Scope.Benchmark)
+    public static class InfoPayload {
+
+        /**
+         * The number of CPAS groups of the player.
+         */
+        @Param ({"4", "12"})
+        public int groupCount;
+
+        /**
+         * The response body.
+         */
+        byte[] bytes;
+
+        /**
+         * Writes the payload.
+         *
+         * @throws JsonProcessingException if the model could not be written.
+         */
+        @Setup
+        public void setUp() throws JsonProcessingException {
+            bytes = MAPPER.writeValueAsBytes(Fixtures.infoModel(new Random(42), groupCount));
+        }
+    }
+
+    /**
+     * A getBanInfo response.
+     */
+    @State (Scope.Benchmark)
+    public static class BanInfoPayload {
+
+        /**
+         * The response body.
+         */
+        byte[] bytes;
+
+        /**
+         * Writes the payload.
+         *
+         * @throws JsonProcessingException if the model could not be written.
+         */
+        @Setup
+        public void setUp() throws JsonProcessingException {
+            final BanInfoModel banInfo = new BanInfoModel();
+            banInfo.duration = 1440;
+            banInfo.reason = "Repeated rule violations after several warnings";
+            bytes = MAPPER.writeValueAsBytes(banInfo);
+        }
+    }
+
+    /**
+     * A getBanHistory response.
+     */
+    @State (Scope.Benchmark)
+    public static class BanHistoryPayload {
+
+        /**
+         * The number of bans, the default and a large /cpas banhistory count.
+         */
+        @Param ({"5", "50"})
+        public int banCount;
+
+        /**
+         * The response body.
+         */
+        byte[] bytes;
+
+        /**
+         * Writes the payload.
+         *
+         * @throws JsonProcessingException if the model could not be written.
+         */
+        @Setup
+        public void setUp() throws JsonProcessingException {
+            final Random random = new Random(42);
+            final long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+            final BanHistoryModel banHistory = new BanHistoryModel();
+            banHistory.bans = new ArrayList<>(banCount);
+            for (int i = 0; i < banCount; i++) {
+                final CpasBanModel ban = new CpasBanModel();
+                ban.banDateSeconds = (int) (now - TimeUnit.DAYS.toSeconds(random.nextInt(1000)));
+                ban.length = random.nextInt(4) == 0 ? 0 : 60 * (1 + random.nextInt(72));
+                ban.duration = ban.length == 0 ? -1 : random.nextInt(ban.length + 1);
+                ban.reason = "Ban reason " + i;
+                banHistory.bans.add(ban);
+            }
+            bytes = MAPPER.writeValueAsBytes(banHistory);
+        }
+    }
+}
@@ -2,9 +2,12 @@ package net.cpas.mc.commands;
 
 import lombok.NonNull;
 import net.cpas.Cpas;
+import net.cpas.mc.common.auth.AuthDecision;
+import net.cpas.mc.common.client.CpasClient;
+import net.cpas.mc.common.client.RequestPriority;
+import net.cpas.mc.common.metrics.TickProfiler;
 import net.cpas.mc.main.Instance;
 import net.cpas.mc.main.MinecraftCpas;
-import net.cpas.model.InfoModel;
 import net.cpas.model.SuccessResponseModel;
 import org.bukkit.BanList;
 import org.bukkit.Bukkit;
@@ -13,8 +16,11 @@ import org.bukkit.entity.Player;
 import org.mineacademy.fo.Common;
 import org.mineacademy.fo.command.SimpleCommand;
 
-import java.util.Arrays;
+import java.io.IOException;
+import java.util.Date;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 public class BanCommand extends SimpleCommand {
 
@@ -36,6 +42,12 @@ public class BanCommand extends SimpleCommand {
 
     @Override
     public void onCommand() {
+        try(TickProfiler.Section ignored = instance.getTickProfiler().section("/ban").start()) {
+            ban();
+        }
+    }
+
+    private void ban() {
         Player banner = getPlayer();
         OfflinePlayer bannedOffline = Bukkit.getOfflinePlayer(args[0]);
         Player banned = bannedOffline.getPlayer();
@@ -53,14 +65,15 @@ public class BanCommand extends SimpleCommand {
         int duration = Integer.parseInt(args[1]);
 
         if(checkBanRules(banner, banned)) {
-            Cpas.getInstance().banUser(
+            CpasClient.getInstance().banUser(
                     banned.getUniqueId().toString(),
                     banned.getName(),
                     banner.getUniqueId().toString(),
                     admins,
                     duration,
                     reason,
-                    new ProcessBanResponse(instance, banner, banned, reason, duration)
+                    RequestPriority.INTERACTIVE,
+                    instance.onMainThread(new ProcessBanResponse(instance, banner, banned, admins, reason, duration))
             );
 
             Common.tell(banner, "&cMAUL &8\u00BB &7Player has successfully been banned");
@@ -74,65 +87,63 @@ public class BanCommand extends SimpleCommand {
 
     }
     private String[] getAdminList() {
-        int current = 0;
-        String[] admins = new String[10];
-        Arrays.fill(admins, "");
-        for(InfoModel infoModel : instance.getAdminPlayerCache()) {
-            if(current < 10) {
-                admins[current++] = infoModel.gameId.toString();
-            }
-            else {
-                break;
-            }
-        }
-        return admins;
+        return instance.getAdminRegistry().getTopAdminIds(10);
     }
 
     private boolean checkBanRules(Player admin, Player player) {
-        InfoModel adminInfoModel = null;
-        InfoModel playerInfoModel = null;
-
-        for(InfoModel infoModel : instance.getAdminPlayerCache()) {
-            if(infoModel.gameId.equals(admin.getUniqueId())) {
-                adminInfoModel = infoModel;
-            }
-            if(infoModel.gameId.equals(player.getUniqueId())) {
-                playerInfoModel = infoModel;
-            }
-        }
-        if(playerInfoModel == null) {
-            return true;
-        }
-        else if(adminInfoModel == null) {
-            return false;
-        }
-        final int cutOff = instance.retrieveConfig().getBanRankThreshold();
-        if(playerInfoModel.primaryGroup.rank >= cutOff && adminInfoModel.primaryGroup.rank < cutOff) {
-            return false;
-        }
-        return true;
+        return instance.getAdminRegistry().canBan(admin.getUniqueId(), player.getUniqueId(), instance.retrieveConfig().getBanRankThreshold());
     }
 
     private static class ProcessBanResponse implements Cpas.ProcessResponse<SuccessResponseModel> {
         private final MinecraftCpas instance;
         private final Player admin;
         private final Player player;
+        private final String[] admins;
         private final String reason;
         private final int duration;
 
-        ProcessBanResponse(@NonNull MinecraftCpas instance, @NonNull Player admin, @NonNull Player player, @NonNull String reason, int duration) {
+        ProcessBanResponse(@NonNull MinecraftCpas instance, @NonNull Player admin, @NonNull Player player, @NonNull String[] admins, @NonNull String reason, int duration) {
             this.instance = instance;
             this.admin = admin;
             this.player = player;
+            this.admins = admins;
             this.reason = reason;
             this.duration = duration;
         }
 
         @Override
         public void process(SuccessResponseModel successResponseModel, String errorResponse) {
-            if(errorResponse != null || !successResponseModel.success) {
+            //Only a failure to reach CPAS is worth queueing, a ban CPAS answered no to would be refused again
+            final boolean answered = errorResponse == null && successResponseModel != null;
+            final boolean rejected = answered && !successResponseModel.success;
+            //The cached verdict for this player is stale either way, the ban index gets the new ban once CPAS took it
+            //or it is safely in the outbox, a ban CPAS refused is not indexed
+            instance.getBanVerdictCache().invalidate(player.getUniqueId());
+            if(rejected) {
+                instance.getLogger().warning("Ban was refused by CPAS! Admin: " + admin.getDisplayName() + " | Banned: " + player.getDisplayName());
+                Common.tell(admin, "&cMAUL &8\u00BB &7CPAS refused that ban, please contact Tech to fix it. In the meantime, use a local ban (essentials) on the hub.");
+            }
+            else if(answered) {
+                instance.getLocalBanIndex().update(player.getUniqueId(), AuthDecision.fromBanCommand(duration, reason, AuthDecision.Source.REMOTE));
+            }
+            if(!answered) {
                 instance.getLogger().warning("Ban was not executed correctly! Admin: " + admin.getDisplayName() + " | Banned: " + player.getDisplayName());
-                Common.tell(admin, "&cMAUL &8\u00BB &7That ban didn't go through, please contact Tech to fix it. In the meantime, use a local ban (essentials) on the hub.");
+
+                /*
+                The ban is written to the outbox so it reaches CPAS once it is back, even if the
+                server restarts in between. Until then a local ban keeps the player out.
+                 */
+                try {
+                    instance.getBanOutbox().enqueue(player.getUniqueId().toString(), player.getName(), admin.getUniqueId().toString(), admins, duration, reason);
+                    instance.getLocalBanIndex().update(player.getUniqueId(), AuthDecision.fromBanCommand(duration, reason, AuthDecision.Source.PENDING));
+                    final Date expires = AuthDecision.isPermanentBan(duration) ? null : new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(duration));
+                    Bukkit.getBanList(BanList.Type.NAME).addBan(player.getName(), reason, expires, admin.getName());
+                    Common.tell(admin, "&cMAUL &8\u00BB &7CPAS couldn't be reached, the ban has been queued and will be sent when it is back.");
+                }
+                catch(IOException e) {
+                    instance.getLogger().log(Level.SEVERE, "Could not queue the ban of " + player.getName(), e);
+                    Common.tell(admin, "&cMAUL &8\u00BB &7That ban didn't go through, please contact Tech to fix it. In the meantime, use a local ban (essentials) on the hub.");
+                }
             }
 
             String kickMessage = Common.colorize("&cYou were banned from this server, please reconnect for more information.");
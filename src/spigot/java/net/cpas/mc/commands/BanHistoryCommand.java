@@ -2,6 +2,9 @@ package net.cpas.mc.commands;
 
 import lombok.NonNull;
 import net.cpas.Cpas;
+import net.cpas.mc.common.client.CpasClient;
+import net.cpas.mc.common.client.RequestPriority;
+import net.cpas.mc.common.metrics.TickProfiler;
 import net.cpas.mc.main.Instance;
 import net.cpas.mc.main.MinecraftCpas;
 import net.cpas.model.BanHistoryModel;
@@ -32,14 +35,21 @@ public class BanHistoryCommand extends SimpleCommand {
 
     @Override
     public void onCommand() {
+        try(TickProfiler.Section ignored = instance.getTickProfiler().section("/history").start()) {
+            showHistory();
+        }
+    }
+
+    private void showHistory() {
         String playerName = args[0];
         int entries = Integer.parseInt(args[1]);
         Player player = Bukkit.getPlayer(playerName);
 
-        Cpas.getInstance().getBanHistory(
+        CpasClient.getInstance().getBanHistory(
                 player.getUniqueId().toString(),
                 entries,
-                new ProcessBanHistoryResponse(instance, getPlayer(), player)
+                RequestPriority.INTERACTIVE,
+                instance.onMainThread(new ProcessBanHistoryResponse(instance, getPlayer(), player))
         );
 
         Common.tell(getPlayer(), "&8&l-------------------------------------");
@@ -0,0 +1,143 @@
+package net.cpas.mc.commands;
+
+import net.cpas.mc.common.client.CircuitBreaker;
+import net.cpas.mc.common.client.ConcurrencyLimiter;
+import net.cpas.mc.common.client.CpasClient;
+import net.cpas.mc.common.client.RequestPriority;
+import net.cpas.mc.common.metrics.EndpointStats;
+import net.cpas.mc.common.metrics.LatencyHistogram;
+import net.cpas.mc.common.metrics.TickProfiler;
+import net.cpas.mc.common.outbox.BanOutbox;
+import net.cpas.mc.common.session.SessionTracker;
+import net.cpas.mc.main.Instance;
+import org.bukkit.entity.Player;
+import org.mineacademy.fo.Common;
+import org.mineacademy.fo.command.SimpleCommand;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+public class CpasCommand extends SimpleCommand {
+
+    public CpasCommand() {
+        super("cpas");
+        setDescription("Shows the state of the CPAS connection");
+        setUsage("/cpas [status|stats|requeue]");
+    }
+
+    @Override
+    public void onCommand() {
+        try(TickProfiler.Section ignored = new Instance().getInstance().getTickProfiler().section("/cpas").start()) {
+            showCpas();
+        }
+    }
+
+    private void showCpas() {
+        Player sender = getPlayer();
+
+        /* A bare /cpas shows the status */
+        if(args.length > 0 && args[0].equalsIgnoreCase("stats")) {
+            sendStats(sender);
+            return;
+        }
+        else if(args.length > 0 && args[0].equalsIgnoreCase("requeue")) {
+            requeue(sender);
+            return;
+        }
+        else if(args.length > 0 && !args[0].equalsIgnoreCase("status")) {
+            Common.tell(sender, "&cUsage: /cpas [status|stats|requeue]");
+            return;
+        }
+
+        Common.tell(sender, "&8&l---------------[ &cCPAS &7Status &8&l]---------------");
+        for(CircuitBreaker breaker : CpasClient.getInstance().getBreakers()) {
+            Common.tell(sender, "&c" + breaker.getName() + ": " + colorOf(breaker.getState()) + breaker.getState()
+                    + " &7for " + TimeUnit.MILLISECONDS.toSeconds(breaker.getMillisInState()) + "s, "
+                    + breaker.getConsecutiveFailures() + " failures in a row, "
+                    + breaker.getRejectedRequests() + " refused, opened " + breaker.getTrips() + " times");
+        }
+        ConcurrencyLimiter limiter = CpasClient.getInstance().getLimiter();
+        Common.tell(sender, "&cRequests: &7" + limiter.getInFlight() + "/" + limiter.getLimit() + " in flight, "
+                + limiter.getQueueDepth() + " queued, cut " + limiter.getDecreases() + " times");
+        for(CpasClient.Endpoint endpoint : CpasClient.Endpoint.values()) {
+            ConcurrencyLimiter.Latency latency = CpasClient.getInstance().getLatency(endpoint);
+            Common.tell(sender, "&c" + latency.getName() + " latency: &7" + latency.getRecentMillis() + "ms recent, "
+                    + latency.getBaselineMillis() + "ms usual");
+        }
+        Common.tell(sender, "&cQueue wait: &7max " + limiter.getMaxQueueWaitMillis() + "ms, total "
+                + limiter.getTotalQueueWaitMillis() + "ms over " + limiter.getQueuedRequests() + " requests");
+        Common.tell(sender, "&cQueued: &7" + limiter.getQueueDepth(RequestPriority.AUTH) + " auth, "
+                + limiter.getQueueDepth(RequestPriority.INTERACTIVE) + " interactive, "
+                + limiter.getQueueDepth(RequestPriority.BACKGROUND) + " background");
+        BanOutbox banOutbox = new Instance().getInstance().getBanOutbox();
+        Common.tell(sender, "&cBan outbox: &7" + banOutbox.getQueueDepth() + " waiting, "
+                + banOutbox.getDeadLetterCount() + " given up on");
+        for(BanOutbox.DeadLetter deadLetter : banOutbox.getDeadLetters()) {
+            Common.tell(sender, "&7 - " + deadLetter.getBan().getName() + " (" + deadLetter.getBan().getReason().trim() + "): " + deadLetter.getReason());
+        }
+        SessionTracker sessionTracker = new Instance().getInstance().getSessionTracker();
+        Common.tell(sender, "&cSessions: &7" + sessionTracker.getActiveSessions() + " waiting on CPAS, "
+                + sessionTracker.getCancelledCallbacks() + " callbacks cancelled, "
+                + sessionTracker.getDroppedResponses() + " late responses dropped");
+        Common.tell(sender, "&8&l---------------------------------------------");
+    }
+
+    /* Sends the bans CPAS refused again, once whatever made CPAS refuse them is fixed */
+    private static void requeue(Player sender) {
+        if(!sender.hasPermission("cpas.requeue")) {
+            Common.tell(sender, "&cYou do not have permission to requeue bans");
+            return;
+        }
+        try {
+            int requeued = new Instance().getInstance().getBanOutbox().requeueDeadLetters();
+            Common.tell(sender, "&cCPAS &8\u00BB &7" + requeued + " bans given up on will be sent to CPAS again");
+        }
+        catch(IOException e) {
+            Common.tell(sender, "&cCould not requeue the bans given up on: " + e.getMessage());
+        }
+    }
+
+    private static void sendStats(Player sender) {
+        Common.tell(sender, "&8&l---------------[ &cCPAS &7Stats &8&l]---------------");
+        Common.tell(sender, "&7Latency in ms as p50 / p99 / p999");
+        for(EndpointStats stats : CpasClient.getInstance().getStats()) {
+            Common.tell(sender, "&c" + stats.getName() + ": &7" + stats.getResponses() + " responses, "
+                    + String.format("%.1f", stats.getErrorRate() * 100) + "% errors");
+            if(stats.getResponses() > 0) {
+                Common.tell(sender, "&7  queue " + format(stats.getQueueWait()) + "  network " + format(stats.getNetwork())
+                        + "  callback " + format(stats.getCallback()));
+            }
+        }
+        TickProfiler tickProfiler = new Instance().getInstance().getTickProfiler();
+        double ticks = Math.max(1, Math.min(tickProfiler.getTicks(), tickProfiler.getWindowTicks()));
+        Common.tell(sender, "&cServer thread: &7" + String.format("%.3f", tickProfiler.getWindowNanos() / ticks / 1_000_000)
+                + "ms per tick over the last minute, worst tick " + String.format("%.2f", tickProfiler.getWorstTickNanos() / 1_000_000.0)
+                + "ms, " + tickProfiler.getOverBudgetTicks() + " ticks over budget");
+        for(TickProfiler.Section section : tickProfiler.getSections()) {
+            if(section.getCalls() > 0) {
+                Common.tell(sender, "&7  " + section.getName() + ": " + String.format("%.3f", section.getWindowNanos() / ticks / 1_000_000)
+                        + "ms per tick, " + section.getCalls() + " calls");
+            }
+        }
+        Common.tell(sender, "&8&l---------------------------------------------");
+    }
+
+    private static String format(LatencyHistogram histogram) {
+        return String.format("%.1f / %.1f / %.1f",
+                histogram.getPercentileMicros(50) / 1000.0,
+                histogram.getPercentileMicros(99) / 1000.0,
+                histogram.getPercentileMicros(99.9) / 1000.0);
+    }
+
+    private static String colorOf(CircuitBreaker.State state) {
+        switch(state) {
+            case CLOSED:
+                return "&a";
+            case HALF_OPEN:
+                return "&e";
+            default:
+                return "&c";
+        }
+    }
+
+}
@@ -2,6 +2,9 @@ package net.cpas.mc.commands;
 
 import lombok.NonNull;
 import net.cpas.Cpas;
+import net.cpas.mc.common.client.CpasClient;
+import net.cpas.mc.common.client.RequestPriority;
+import net.cpas.mc.common.metrics.TickProfiler;
 import net.cpas.mc.main.Instance;
 import net.cpas.mc.main.MinecraftCpas;
 import net.cpas.model.InfoModel;
@@ -26,10 +29,36 @@ public class InfoCommand extends SimpleCommand {
 
     @Override
     public void onCommand() {
+        try(TickProfiler.Section ignored = instance.getTickProfiler().section("/info").start()) {
+            showInfo();
+        }
+    }
+
+    private void showInfo() {
         Player sender = getPlayer();
         Player target = Bukkit.getPlayer(args[0]);
 
-        Cpas.getInstance().getInfo(target.getUniqueId().toString(), false, new ProcessInfoResponse(instance, sender, target));
+        //Recent info is shown right away, if it is getting old it is refreshed in the background
+        final InfoModel cachedInfoModel = instance.getInfoModelCache().get(target.getUniqueId());
+        if(cachedInfoModel != null) {
+            sendInfo(sender, cachedInfoModel);
+            return;
+        }
+
+        CpasClient.getInstance().getInfo(target.getUniqueId().toString(), false, RequestPriority.INTERACTIVE, instance.onMainThread(new ProcessInfoResponse(instance, sender, target)));
+    }
+
+    private static void sendInfo(Player sender, InfoModel infoModel) {
+        Common.tell(sender, "&8&l---------------[ &c" + sender.getName() + " &7Info &8&l]---------------");
+        if(infoModel.userId > 0) {
+            Common.tell(sender, "&7");
+            Common.tell(sender, "&cForum Name: &7" + infoModel.forumName);
+            Common.tell(sender, "&cRank: &7" + infoModel.primaryGroup.name);
+            Common.tell(sender, "&cDivision: &7" + infoModel.divisionName);
+            Common.tell(sender, "Dedicated Supporter: &7" + infoModel.dsInfo.isDedicatedSupporter);
+            Common.tell(sender, "&7");
+            Common.tell(sender, "&8&l---------------------------------------------");
+        }
     }
 
     private static class ProcessInfoResponse implements Cpas.ProcessResponse<InfoModel> {
@@ -51,16 +80,8 @@ public class InfoCommand extends SimpleCommand {
                 return;
             }
 
-            Common.tell(sender, "&8&l---------------[ &c" + sender.getName() + " &7Info &8&l]---------------");
-            if(infoModel.userId > 0) {
-                Common.tell(sender, "&7");
-                Common.tell(sender, "&cForum Name: &7" + infoModel.forumName);
-                Common.tell(sender, "&cRank: &7" + infoModel.primaryGroup.name);
-                Common.tell(sender, "&cDivision: &7" + infoModel.divisionName);
-                Common.tell(sender, "Dedicated Supporter: &7" + infoModel.dsInfo.isDedicatedSupporter);
-                Common.tell(sender, "&7");
-                Common.tell(sender, "&8&l---------------------------------------------");
-            }
+            instance.getInfoModelCache().put(target.getUniqueId(), infoModel);
+            sendInfo(sender, infoModel);
         }
 
         @Override
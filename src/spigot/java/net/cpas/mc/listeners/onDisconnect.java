@@ -1,8 +1,8 @@
 package net.cpas.mc.listeners;
 
+import net.cpas.mc.common.metrics.TickProfiler;
 import net.cpas.mc.main.Instance;
 import net.cpas.mc.main.MinecraftCpas;
-import net.cpas.model.InfoModel;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
@@ -19,12 +19,14 @@ public class onDisconnect implements Listener {
 
     @EventHandler
     public void onDisconnect(PlayerQuitEvent event) {
-        final Player player = event.getPlayer();
+        try(TickProfiler.Section ignored = instance.getTickProfiler().section("onDisconnect").start()) {
+            final Player player = event.getPlayer();
 
-        if(player.isOnline()) {
-            final InfoModel adminInfoModel = instance.getPlayerInfoModel(player.getUniqueId());
-            if(adminInfoModel != null) {
-                instance.getAdminPlayerCache().remove(adminInfoModel);
+            /* Anything still waiting on CPAS for them would only write permissions for nobody */
+            instance.getSessionTracker().end(player.getUniqueId());
+
+            if(player.isOnline()) {
+                instance.getAdminRegistry().remove(player.getUniqueId());
             }
         }
     }
@@ -3,34 +3,84 @@ package net.cpas.mc.listeners;
 import com.bekvon.bukkit.residence.commands.message;
 import lombok.NonNull;
 import net.cpas.Cpas;
+import net.cpas.mc.common.client.CpasClient;
+import net.cpas.mc.common.client.RequestPriority;
 import net.cpas.mc.main.Instance;
+import net.cpas.mc.common.auth.AuthDecision;
+import net.cpas.mc.common.group.GroupResolver;
+import net.cpas.mc.common.jfr.LoginEvents;
+import net.cpas.mc.common.jfr.LoginStage;
+import net.cpas.mc.common.metrics.TickProfiler;
 import net.cpas.mc.main.MinecraftCpas;
+import net.cpas.mc.permissions.PermissionBackend;
 import net.cpas.mc.storage.Config;
 import net.cpas.model.BanInfoModel;
 import net.cpas.model.CpasGroupModel;
 import net.cpas.model.InfoModel;
-import net.milkbowl.vault.permission.Permission;
+import org.bukkit.BanEntry;
+import org.bukkit.BanList;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerLoginEvent;
 import org.mineacademy.fo.Common;
-import org.mineacademy.fo.collection.SerializedMap;
 
 import javax.naming.Context;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import java.util.logging.Level;
 
 public class onLogin implements Listener {
 
+    //How long a connecting player waits for the server thread to read the ban list
+    private static final long BAN_LIST_WAIT_MILLIS = 500;
+
+    /*
+    Ban gating happens here, before the player gets anywhere near the world. This event is
+    fired off the server thread, so we can afford to wait on CPAS, but only up to the
+    configured deadline. The local ban index and recent verdicts are checked before CPAS,
+    and the server's own ban list is checked whenever CPAS doesn't ban the player.
+     */
+    @EventHandler(priority = EventPriority.HIGH)
+    public void onPreLogin(@NonNull AsyncPlayerPreLoginEvent event) {
+        if(event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+        final MinecraftCpas pluginInstance = new Instance().getInstance();
+        final String playerName = event.getName();
+        final LoginEvents.Span authCheck = LoginEvents.begin(LoginStage.AUTH_CHECK);
+        final AuthDecision decision = pluginInstance.getAuthDecisionEngine().decide(event.getUniqueId(), onLogin::requestBanInfo,
+                uuid->decideFromBanList(pluginInstance, playerName));
+        authCheck.end(event.getUniqueId(), decision.isBanned() ? "banned" : "allowed", decision.getSource().name());
+        if(decision.isBanned()) {
+            event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_BANNED, getBanMessage(decision));
+        }
+    }
+
     @EventHandler
     public void onLogin(@NonNull PlayerLoginEvent event) {
+        //Runs on the server thread, so the time it takes is accounted for by the tick profiler
+        try(TickProfiler.Section ignored = new Instance().getInstance().getTickProfiler().section("onLogin").start()) {
+            handleLogin(event);
+        }
+    }
+
+    private void handleLogin(PlayerLoginEvent event) {
         /*
         This is run everytime a player logs in (obviously), here I will pretty much
         get check if the player is online (which should almost always occur), and then pretty much handles all the
         info CPAS gives the plugin (from the response). Things I accomplish here are:
-        - Takes away all roles (that are a role in the config)
+        - Takes away any role (that is a role in the config) the player should no longer have
         - Gives primary role (mod, admin, leadership, etc)
         - Gives division role (mc, media, etc)
         - Gives secondary role if applicable (Event coordinator, recruitment coordinator, etc)
@@ -45,36 +95,81 @@ public class onLogin implements Listener {
          */
 
         if(event.getPlayer().isOnline()) {
-            //checks if player is banned
-            Cpas.getInstance().getBanInfo(playerUUID.toString(), new ProcessBanInfoResponse(instance.getInstance(), event));
+            //The ban check already ran in onPreLogin, this only uses the verdict it left behind and never waits on CPAS
+            //Peeked so the lookup in onPreLogin is the only one counted in the cache stats
+            final AuthDecision resolvedVerdict = instance.getInstance().getBanVerdictCache().peek(playerUUID);
+            if(resolvedVerdict != null && resolvedVerdict.isBanned()) {
+                event.disallow(PlayerLoginEvent.Result.KICK_BANNED, getBanMessage(resolvedVerdict));
+                return;
+            }
+            instance.getInstance().getRecentPlayers().touch(playerUUID, System.currentTimeMillis());
             //loads a player
-            Cpas.getInstance().getInfo(playerUUID.toString(), playerAddress.getHostAddress(), false, new ProcessInfoModelResponse(instance.getInstance(), playerUUID, event.getPlayer(), true, event) {
-
-            });
+            CpasClient.getInstance().getInfo(playerUUID.toString(), playerAddress.getHostAddress(), false, RequestPriority.AUTH, instance.getInstance().onMainThread(instance.getInstance().getSessionTracker().bind(playerUUID, new ProcessInfoModelResponse(instance.getInstance(), playerUUID, true))));
         }
     }
 
+    private static CompletableFuture<AuthDecision> requestBanInfo(UUID playerUUID) {
+        final CompletableFuture<AuthDecision> remoteVerdict = new CompletableFuture<>();
+        CpasClient.getInstance().getBanInfo(playerUUID.toString(), RequestPriority.AUTH, new ProcessBanInfoResponse(remoteVerdict));
+        return remoteVerdict;
+    }
 
-    public static class ProcessBanInfoResponse implements Cpas.ProcessResponse<BanInfoModel> {
-        private final MinecraftCpas pluginInstance;
-        private final PlayerLoginEvent event;
+    /*
+    The server's own ban list isn't safe to read off the server thread, so the read is handed
+    to it. If the server thread doesn't get to it in time the player is let through, the ban
+    index and CPAS have had their say by then.
+     */
+    private static AuthDecision decideFromBanList(MinecraftCpas pluginInstance, String playerName) {
+        final Future<BanEntry> pending = Bukkit.getScheduler().callSyncMethod(pluginInstance, ()->Bukkit.getBanList(BanList.Type.NAME).getBanEntry(playerName));
+        final BanEntry banEntry;
+        try {
+            banEntry = pending.get(BAN_LIST_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        catch(TimeoutException e) {
+            pending.cancel(false);
+            return null;
+        }
+        catch(ExecutionException e) {
+            return null;
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if(banEntry == null) {
+            return null;
+        }
+        final Date expiration = banEntry.getExpiration();
+        if(expiration == null) {
+            return AuthDecision.banned(-1, banEntry.getReason(), AuthDecision.Source.FALLBACK);
+        }
+        final long millisLeft = expiration.getTime() - System.currentTimeMillis();
+        if(millisLeft <= 0) {
+            return null;
+        }
+        return AuthDecision.banned((int) Math.max(1, TimeUnit.MILLISECONDS.toMinutes(millisLeft + 59_999)), banEntry.getReason(), AuthDecision.Source.FALLBACK);
+    }
 
+    public static String getBanMessage(AuthDecision decision) {
+        if(decision.isPermanent()) {
+            return Common.colorize("&cYou are currently banned from this server\n\n&cReason: &f" + decision.getReason() + "\n&cDuration: &fPermanent\n\n&7Contest at: https://edge-gamers.com/");
+        }
+        return Common.colorize("&cYou are currently banned from this server\n\n&cReason &f" + decision.getReason() + "\n&cDuration: &f" + decision.getDuration() + " minute(s)\n\n&7Contest at: https://edge-gamers.com/");
+    }
 
-        public ProcessBanInfoResponse(@NonNull MinecraftCpas pluginInstance, @NonNull PlayerLoginEvent event) {
-            this.pluginInstance = pluginInstance;
-            this.event = event;
+    /*
+    Completes the pending verdict once CPAS answers, or with null if it couldn't
+     */
+    private static class ProcessBanInfoResponse implements Cpas.ProcessResponse<BanInfoModel> {
+        private final CompletableFuture<AuthDecision> verdict;
+
+        ProcessBanInfoResponse(CompletableFuture<AuthDecision> verdict) {
+            this.verdict = verdict;
         }
 
         @Override
         public void process(BanInfoModel response, String errorMessage) {
-            if(errorMessage == null && response.duration == -1) {
-                String permMessage = Common.colorize("&cYou are currently banned from this server\n\n&cReason: &f" + response.reason + "\n&cDuration: &fPermanent\n\n&7Contest at: https://edge-gamers.com/");
-                event.getPlayer().kickPlayer(permMessage);
-            }
-            else if(response.duration > 0) {
-                String tempMessage = Common.colorize("&cYou are currently banned from this server\n\n&cReason &f" + response.reason + "\n&cDuration: &f" + response.duration + " minute(s)\n\n&7Contest at: https://edge-gamers.com/");
-                event.getPlayer().kickPlayer(tempMessage);
-            }
+            verdict.complete(errorMessage != null ? null : AuthDecision.fromBanInfo(response, AuthDecision.Source.REMOTE));
         }
 
         @Override
@@ -83,10 +178,6 @@ public class onLogin implements Listener {
         }
     }
 
-
-
-
-
     public static class ProcessInfoModelResponse implements Cpas.ProcessResponse<InfoModel> {
         /*
         Initializing all params
@@ -94,14 +185,15 @@ public class onLogin implements Listener {
         private static final Set<Context> context = new HashSet<>();
         private final MinecraftCpas pluginInstance;
         private final UUID playerUUID;
-        private final Player player;
         private final boolean login;
+        private final LoginEvents.Span infoFetch;
 
-        protected ProcessInfoModelResponse(@NonNull MinecraftCpas pluginInstance, @NonNull UUID playerUUID, @NonNull Player player, boolean login, PlayerLoginEvent event) {
+        protected ProcessInfoModelResponse(@NonNull MinecraftCpas pluginInstance, @NonNull UUID playerUUID, boolean login) {
             this.pluginInstance = pluginInstance;
             this.playerUUID = playerUUID;
-            this.player = player;
             this.login = login;
+            //Ends once the response is handed to us on the server thread, so the wait for a tick is included
+            this.infoFetch = login ? LoginEvents.begin(LoginStage.INFO_FETCH) : LoginEvents.NONE;
         }
 
         private boolean checkContainingGroups(List<CpasGroupModel> groups, CpasGroupModel group) {
@@ -122,28 +214,41 @@ public class onLogin implements Listener {
         @Override
         public void process(InfoModel response, String errorMessage) {
             if(errorMessage != null) {
+                //CPAS couldn't be reached, go with what it told us about them last time
+                final InfoModel snapshot = pluginInstance.getProfileSnapshotStore().get(playerUUID);
+                infoFetch.end(playerUUID, snapshot != null ? "snapshot" : "failed", errorMessage);
+                if(snapshot != null) {
+                    apply(snapshot);
+                }
                 return;
             }
+            infoFetch.end(playerUUID, "fetched", null);
 
-            final CpasGroupModel atLeastAdminGroup = pluginInstance.retrieveConfig().getAtLeastAdminGroup();
-            //remove admin from list just in case they are in it
-            final InfoModel adminInfoModel = pluginInstance.getPlayerInfoModel(playerUUID);
-            if(adminInfoModel != null) {
-                pluginInstance.getAdminPlayerCache().remove(adminInfoModel);
+            pluginInstance.getInfoModelCache().put(playerUUID, response);
+            try {
+                pluginInstance.getProfileSnapshotStore().put(playerUUID, response);
             }
-            //adds an admin to the list
-            if(checkContainingGroups(response.groups, atLeastAdminGroup)) {
-                pluginInstance.getAdminPlayerCache().add(response);
+            catch(IOException e) {
+                pluginInstance.getLogger().log(Level.WARNING, "Could not save the profile snapshot of " + playerUUID, e);
             }
+            apply(response);
+        }
 
-            /*
-            I played with the idea of hooking into LuckPerms specifically, however it was a bit
-            too complicated for what I need done. Vault is one of the most downloaded (if not THE most downloaded)
-            economy/permissions API plugins, so it would be rare to have a plugin that isn't using Vault.
-             */
+        private void apply(InfoModel response) {
+            final CpasGroupModel atLeastAdminGroup = pluginInstance.retrieveConfig().getAtLeastAdminGroup();
+            //adds or refreshes an admin, otherwise removes them just in case they are in the registry
+            if(checkContainingGroups(response.groups, atLeastAdminGroup)) {
+                pluginInstance.getAdminRegistry().put(response);
+            }
+            else {
+                pluginInstance.getAdminRegistry().remove(playerUUID);
+            }
 
-            final Permission permission = pluginInstance.getPerms();
             final Player player = Bukkit.getPlayer(playerUUID);
+            if(player == null) {
+                //They left before CPAS answered
+                return;
+            }
 
             /*
             Here we set their name to their forum name if they are not DS
@@ -151,25 +256,27 @@ public class onLogin implements Listener {
              */
 
             if(response.primaryGroup.rank > 60 || response.dsInfo.isDedicatedSupporter) {
-                Bukkit.getPlayer(playerUUID).setDisplayName(response.forumName);
-                Bukkit.getPlayer(playerUUID).setCustomName(response.forumName);
-                Bukkit.getPlayer(playerUUID).setCustomNameVisible(true);
+                player.setDisplayName(response.forumName);
+                player.setCustomName(response.forumName);
+                player.setCustomNameVisible(true);
             }
 
             /*
-            Here I go through the player's groups, and if that group is defined in pretty much any
-            of the config role lists, I remove them.
+            Here I work out every group the player should have, then compare that with the
+            groups they already have. Only the differences are written, so a player whose
+            groups haven't changed since last login costs no permission writes at all.
              */
 
-            String[] groups = permission.getPlayerGroups(player);
             final Config config = pluginInstance.retrieveConfig();
-            for(String group : groups) {
-                if(checkIfRole(group, config)) {
-                    //After the check, if the group exists in the config
-                    //we remove it.
-                    permission.playerRemoveGroup(player, group);
-                }
-            }
+            final GroupResolver groupResolver = config.getGroupResolver();
+
+            /*
+            The primary, division and secondary groups (and DS on login) come from the
+            group resolver, which Sponge uses as well, so both platforms map CPAS ranks
+            to groups the same way and honour the same use* switches in the config.
+             */
+
+            final Set<String> desired = groupResolver.resolve(response, login);
 
             /*
             In theory this really isn't needed unless you have LuckPerms installed.
@@ -178,139 +285,46 @@ public class onLogin implements Listener {
             we want to keep that here.
              */
 
-            permission.playerAddGroup(player, "default");
+            desired.add("default");
 
             /*
-            Here we get the primary rank from CPAS, and if the config has that
-            primary group as a key, we then get the value at that key, and set
-            the player's group to that group.
-
-            The primary group function will be defined in the LuckPerms
-            or whatever permission handler the server will use. This plugin will NOT
-            handle that as it most likely will cause conflict.
+            Anything the resolver manages (the enabled role lists, and DS on login) that the
+            player has but shouldn't is removed, everything else they have is left alone. This
+            goes through the permission backend, which talks to LuckPerms directly when it is
+            installed (one save per login) and falls back to Vault otherwise.
              */
 
-            final SerializedMap primaryMap = config.getPrimaryGroups();
-            for(String rank : primaryMap.keySet()) {
-                if(isMemberOfGroup(response,Integer.parseInt(rank))) {
-                    permission.playerAddGroup(player, primaryMap.getString(rank));
+            final Predicate<String> managed = groupResolver.managed(login);
+            final LoginEvents.Span permissionSync = login ? LoginEvents.begin(LoginStage.PERMISSION_SYNC) : LoginEvents.NONE;
+            final PermissionBackend backend = pluginInstance.getPermissionBackend();
+            final String playerName = player.getName();
+            /* LuckPerms saves off the server thread, the stage only ends once the groups are saved */
+            backend.applyGroups(player, desired, managed).whenComplete((changed, throwable)->{
+                if(throwable != null) {
+                    Bukkit.getLogger().log(Level.WARNING, "Could not save groups for " + playerName + " to " + backend.getName(), throwable);
+                    permissionSync.end(playerUUID, "failed", String.valueOf(throwable));
                 }
-            }
-
-            /*
-            Here we give back the dedicated supporter rank (set in the config)
-            to a player if CPAS tells up they are a dedicated supporter.
-
-            ONLY IF it is enabled in Config
-             */
+                else {
+                    permissionSync.end(playerUUID, changed ? "changed" : "unchanged", backend.getName());
+                }
+            });
 
-            if(pluginInstance.retrieveConfig().isUseDsGroup() && login) {
+            if(config.isUseDsGroup() && login) {
+                final LoginEvents.Span dsBroadcast = LoginEvents.begin(LoginStage.DS_BROADCAST);
                 if(response.dsInfo.isDedicatedSupporter) {
-                    permission.playerAddGroup(player,config.getDsGroup());
                     Common.broadcast("&8&l(&a+&8&l) &7" + player.getDisplayName() + " &8- &7" + response.dsInfo.joinMessage);
                 }
                 else {
-                    permission.playerRemoveGroup(player, config.getDsGroup());
                     Common.broadcast("&8&l(&a+&8&l) &7 " + player.getDisplayName());
                 }
-            }
-
-            /*
-            Here we get the map of the secondary groups, and if
-            the key is defined for the integer of the rank
-            we give the role associated with that
-            key.
-             */
-
-            final SerializedMap secondaryMap = config.getSecondaryGroups();
-            for(String rank : secondaryMap.keySet()) {
-                if(isMemberOfGroup(response, Integer.parseInt(rank))) {
-                    permission.playerAddGroup(player, secondaryMap.getString(rank));
-                }
-            }
-
-            /*
-            Here we get the map of the division groups, and if
-            a key is defined for the integer of the rank,
-            we give the role associated with that key.
-             */
-
-            final SerializedMap divisionMap = config.getDivisionGroups();
-            for(String rank : divisionMap.keySet()) {
-                if(isMemberOfGroup(response, Integer.parseInt(rank))) {
-                    permission.playerAddGroup(player, divisionMap.getString(rank));
-                }
+                dsBroadcast.end(playerUUID, response.dsInfo.isDedicatedSupporter ? "supporter" : "regular", null);
             }
 
     }
 
-    private boolean isMemberOfGroup(InfoModel response, int rank) {
-        for(CpasGroupModel group : response.groups) {
-            if(group.rank == rank) {
-                return true;
-            }
-        }
-        return false;
-     }
-
     @Override
         public Class<InfoModel> getModelClass() {
             return InfoModel.class;
     }
-
-    public boolean checkIfRole(String group, Config config) {
-            /*
-            This pretty much just takes a group a player has, and iterates through all defined roles
-            in the config, and if they match, it returns true
-             */
-
-           /*
-           This gets all the keys defined in PrimaryGroups in the config
-           and iterates through them, finding the value associated with each.
-           It then checks if that group is equal to the parameter group, and if so
-           returns true.
-            */
-            Set<String> primaryKeys = config.getPrimaryGroups().keySet();
-            for(String key : primaryKeys) {
-                if(config.getPrimaryGroups().getString(key).equalsIgnoreCase(group)) {
-                    return true;
-                }
-            }
-
-            /*
-           This gets all the keys defined in SecondaryGroups in the config
-           and iterates through them, finding the value associated with each.
-           It then checks if that group is equal to the parameter group, and if so
-           returns true.
-            */
-
-            Set<String> secondaryKeys = config.getSecondaryGroups().keySet();
-            for(String key : secondaryKeys) {
-                if(config.getSecondaryGroups().getString(key).equalsIgnoreCase(group)) {
-                    return true;
-                }
-            }
-
-            /*
-           This gets all the keys defined in DivisionGroups in the config
-           and iterates through them, finding the value associated with each.
-           It then checks if that group is equal to the parameter group, and if so
-           returns true.
-           */
-
-            Set<String> divisionKeys = config.getDivisionGroups().keySet();
-            for(String key : divisionKeys) {
-                if(config.getDivisionGroups().getString(key).equalsIgnoreCase(group)) {
-                    return true;
-                }
-            }
-
-            /*
-            If all those checks fail, we will return false assuming we checked all of the ones they
-            wanted removed
-             */
-
-            return false;
-    }
     }
-}
\ No newline at end of file
+}
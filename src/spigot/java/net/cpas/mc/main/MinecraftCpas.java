@@ -32,27 +32,70 @@ package net.cpas.mc.main;
 
 import net.cpas.mc.commands.BanCommand;
 import net.cpas.mc.commands.BanHistoryCommand;
+import net.cpas.mc.commands.CpasCommand;
 import net.cpas.mc.commands.InfoCommand;
+import net.cpas.mc.common.admin.AdminRegistry;
+import net.cpas.mc.common.auth.AuthDecisionEngine;
+import net.cpas.mc.common.ban.BanIndexRevalidator;
+import net.cpas.mc.common.ban.LocalBanIndex;
+import net.cpas.Cpas;
+import net.cpas.mc.common.client.CpasClient;
+import net.cpas.mc.common.client.RequestPriority;
+import net.cpas.mc.common.cache.BanVerdictCache;
+import net.cpas.mc.common.cache.CacheWarmer;
+import net.cpas.mc.common.cache.InfoModelCache;
+import net.cpas.mc.common.concurrent.ExecutorProcessResponse;
+import net.cpas.mc.common.metrics.MetricsExporter;
+import net.cpas.mc.common.metrics.PluginMetrics;
+import net.cpas.mc.common.metrics.TickProfiler;
+import net.cpas.mc.common.outbox.BanOutbox;
+import net.cpas.mc.common.permission.PermissionSyncEngine;
+import net.cpas.mc.common.profile.ProfileSnapshotStore;
+import net.cpas.mc.common.profile.RecentPlayers;
+import net.cpas.mc.common.session.SessionTracker;
 import net.cpas.mc.listeners.onDisconnect;
 import net.cpas.mc.listeners.onLogin;
+import net.cpas.mc.permissions.LuckPermsPermissionBackend;
+import net.cpas.mc.permissions.PermissionBackend;
+import net.cpas.mc.permissions.VaultPermissionBackend;
+import net.cpas.mc.scheduler.MainThreadExecutor;
+import net.cpas.mc.scheduler.ServerTimings;
 import net.cpas.mc.storage.Config;
 import net.cpas.model.InfoModel;
-import net.luckperms.api.LuckPerms;
 import net.milkbowl.vault.economy.Economy;
 import net.milkbowl.vault.permission.Permission;
+import org.bukkit.BanList;
 import org.bukkit.Bukkit;
 import org.bukkit.event.EventHandler;
 import org.bukkit.plugin.RegisteredServiceProvider;
 import org.mineacademy.fo.plugin.SimplePlugin;
 
-import java.util.TreeSet;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 public class MinecraftCpas extends SimplePlugin {
 
     private Config config;
-    private TreeSet<InfoModel> adminPlayerCache;
+    private final AdminRegistry adminRegistry = new AdminRegistry();
+    private final PermissionSyncEngine permissionSyncEngine = new PermissionSyncEngine();
+    private final LocalBanIndex localBanIndex = new LocalBanIndex();
+    private final SessionTracker sessionTracker = new SessionTracker();
+    private final RecentPlayers recentPlayers = new RecentPlayers(500);
     private Permission perms;
+    private PermissionBackend permissionBackend;
+    private BanVerdictCache banVerdictCache;
+    private AuthDecisionEngine authDecisionEngine;
+    private InfoModelCache infoModelCache;
+    private MainThreadExecutor mainThreadExecutor;
+    private BanOutbox banOutbox;
+    private ProfileSnapshotStore profileSnapshotStore;
+    private CacheWarmer cacheWarmer;
+    private MetricsExporter metricsExporter;
+    private TickProfiler tickProfiler;
     private MinecraftCpas main;
 
     @Override
@@ -62,9 +105,6 @@ public class MinecraftCpas extends SimplePlugin {
         Instance instance = new Instance();
         instance.setInstance(this);
 
-        //Sets up admin player cache
-        adminPlayerCache = new TreeSet<>((o1, o2)->o2.primaryGroup.rank - o1.primaryGroup.rank);
-
         //Loads in vault
         if(getServer().getPluginManager().getPlugin("Vault") == null) {
             getLogger().warning("Whoops! You need to download vault for this plugin to work! Please download it and restart the server!");
@@ -79,16 +119,100 @@ public class MinecraftCpas extends SimplePlugin {
             perms = rsp.getProvider();
         }
 
+        //Uses LuckPerms directly when it's installed so each login is saved in one go, Vault otherwise.
+        //The LuckPerms API isn't shaded, so its classes are only touched once the plugin is known to be there
+        if(getServer().getPluginManager().getPlugin("LuckPerms") != null) {
+            permissionBackend = LuckPermsPermissionBackend.create(getServer().getServicesManager(), permissionSyncEngine);
+        }
+        if(permissionBackend == null) {
+            permissionBackend = new VaultPermissionBackend(perms, permissionSyncEngine);
+        }
+        getLogger().info("Using " + permissionBackend.getName() + " for group assignment");
+
         getLogger().info("Loading configuration file...");
         //Loads new config
         config = new Config();
         getLogger().info("Done!");
 
+        //Sets up the ban verdict cache, TTLs are read on every use
+        banVerdictCache = new BanVerdictCache(
+                ()->TimeUnit.SECONDS.toMillis(config.getBanPositiveTtl()),
+                ()->TimeUnit.SECONDS.toMillis(config.getBanNegativeTtl()),
+                ()->config.getBanCacheSize());
+
+        //Decides bans on pre-login, CPAS is only waited on until the configured deadline
+        authDecisionEngine = new AuthDecisionEngine(()->config.getAuthDecisionDeadline(), banVerdictCache, localBanIndex);
+
+        //Bans seen last run are enforced straight away, CPAS still confirms them in the background
+        try {
+            localBanIndex.load(getBanIndexFile());
+        }
+        catch(IOException e) {
+            getLogger().log(Level.SEVERE, "Could not load the local ban index, it will be filled again from CPAS", e);
+        }
+
+        //Sets up the info cache, filled on login and served to /info
+        infoModelCache = new InfoModelCache(
+                ()->TimeUnit.MINUTES.toMillis(config.getInfoFreshTime()),
+                ()->TimeUnit.MINUTES.toMillis(config.getInfoMaxAge()),
+                2000,
+                (uuid, response)->CpasClient.getInstance().getInfo(uuid.toString(), false, RequestPriority.BACKGROUND, response));
+
+        //Accounts for every millisecond the plugin spends on the server thread, rolled up over the last minute of ticks
+        tickProfiler = new TickProfiler(Thread.currentThread(), 1200, ()->TimeUnit.MILLISECONDS.toNanos(config.getProfilerTickBudget()),
+                ServerTimings::of, message->getLogger().warning(message));
+        Bukkit.getScheduler().runTaskTimer(this, ()->tickProfiler.tick(), 1L, 1L);
+
+        //CPAS callbacks touch Bukkit, so they are handed to the server thread and spread over ticks
+        mainThreadExecutor = new MainThreadExecutor(()->TimeUnit.MILLISECONDS.toNanos(config.getTickBudget()), tickProfiler.section("callbacks"));
+        mainThreadExecutor.start(this);
+
         getLogger().info("Configuring CPAS...");
         //loads CPAS/configs CPAS
         config.configCpas();
         getLogger().info("Done!");
 
+        //Bans CPAS couldn't take are kept on disk and sent again once it is back, the local ban is lifted after that
+        banOutbox = new BanOutbox(new File(getDataFolder(), "ban-outbox.dat").toPath(), BanOutbox::sendToCpas,
+                e->getLogger().log(Level.SEVERE, "Error in the ban outbox", e));
+        banOutbox.addAckListener(ban->mainThreadExecutor.execute(()->Bukkit.getBanList(BanList.Type.NAME).pardon(ban.getName())));
+        try {
+            banOutbox.open();
+            if(banOutbox.getQueueDepth() > 0) {
+                getLogger().info(banOutbox.getQueueDepth() + " bans are waiting to be sent to CPAS");
+            }
+        }
+        catch(IOException e) {
+            getLogger().log(Level.SEVERE, "Could not open the ban outbox, failed bans will only be kept locally", e);
+        }
+
+        //Last known CPAS info of every player, only the header is read here, snapshots are read when needed
+        profileSnapshotStore = new ProfileSnapshotStore(new File(getDataFolder(), "profiles.dat").toPath());
+        try {
+            profileSnapshotStore.open();
+        }
+        catch(IOException e) {
+            getLogger().log(Level.SEVERE, "Could not open the profile snapshot store, players will only be known once CPAS answers", e);
+        }
+
+        try {
+            recentPlayers.load(getRecentPlayersFile());
+        }
+        catch(IOException e) {
+            getLogger().log(Level.SEVERE, "Could not load the recent players, the caches will not be warmed", e);
+        }
+
+        //Fetches the regulars in the background, 10 a second for at most a minute, so their logins find warm caches
+        cacheWarmer = new CacheWarmer(recentPlayers.getMostRecent(500), banVerdictCache, localBanIndex, infoModelCache,
+                profileSnapshotStore, 10, TimeUnit.MINUTES.toMillis(1), e->getLogger().log(Level.WARNING, "Error while warming the caches", e));
+        cacheWarmer.start();
+
+        //Checks a few indexed bans with CPAS every 30 seconds so bans lifted on the web are noticed
+        Bukkit.getScheduler().runTaskTimerAsynchronously(this, new BanIndexRevalidator(localBanIndex, banVerdictCache, 20), 600L, 600L);
+
+        //Drops temporary bans from the index as they run out
+        Bukkit.getScheduler().runTaskTimerAsynchronously(this, ()->localBanIndex.expire(System.currentTimeMillis()), 20L, 20L);
+
         getLogger().info("Attempting to load listeners...");
         //Load listeners here:
         registerEvents(new onDisconnect());
@@ -100,33 +224,150 @@ public class MinecraftCpas extends SimplePlugin {
         registerCommand(new BanCommand());
         registerCommand(new InfoCommand());
         registerCommand(new BanHistoryCommand());
+        registerCommand(new CpasCommand());
         getLogger().info("Done!");
 
+        //Serves the metrics to Prometheus, only on the configured local address
+        if(config.isMetricsEnabled()) {
+            metricsExporter = new MetricsExporter(config.getMetricsHost(), config.getMetricsPort(),
+                    new PluginMetrics(banVerdictCache, infoModelCache, adminRegistry, localBanIndex, banOutbox, permissionSyncEngine, sessionTracker, tickProfiler));
+            try {
+                metricsExporter.start();
+                getLogger().info("Serving metrics on " + config.getMetricsHost() + ":" + config.getMetricsPort());
+            }
+            catch(IOException e) {
+                getLogger().log(Level.SEVERE, "Could not start the metrics endpoint", e);
+            }
+        }
+
         getLogger().info("Plugin has been enabled!");
     }
 
+    @Override
+    public void onPluginStop() {
+        if(cacheWarmer != null) {
+            cacheWarmer.stop();
+        }
+        if(metricsExporter != null) {
+            metricsExporter.close();
+        }
+        //Queued CPAS callbacks can still ban, queue bans in the outbox and update the index, so they run before any of that is closed
+        if(mainThreadExecutor != null) {
+            mainThreadExecutor.stop();
+        }
+        try {
+            localBanIndex.save(getBanIndexFile());
+        }
+        catch(IOException e) {
+            getLogger().log(Level.SEVERE, "Could not save the local ban index", e);
+        }
+        if(banOutbox != null) {
+            try {
+                banOutbox.close();
+            }
+            catch(IOException e) {
+                getLogger().log(Level.SEVERE, "Could not close the ban outbox", e);
+            }
+        }
+        if(profileSnapshotStore != null) {
+            profileSnapshotStore.close();
+        }
+        try {
+            recentPlayers.save(getRecentPlayersFile());
+        }
+        catch(IOException e) {
+            getLogger().log(Level.SEVERE, "Could not save the recent players", e);
+        }
+    }
+
     public Config retrieveConfig() {
         return config;
     }
 
     public InfoModel getPlayerInfoModel(UUID uuid) {
-        for(InfoModel infoModel : this.getAdminPlayerCache()) {
-            if(infoModel.gameId.equals(uuid)) {
-                return infoModel;
-            }
-        }
-        return null;
+        return adminRegistry.get(uuid);
     }
 
     public MinecraftCpas getMain() {
         return main;
     }
 
-    public TreeSet<InfoModel> getAdminPlayerCache() {
-        return adminPlayerCache;
+    public AdminRegistry getAdminRegistry() {
+        return adminRegistry;
+    }
+
+    public PermissionSyncEngine getPermissionSyncEngine() {
+        return permissionSyncEngine;
     }
 
     public Permission getPerms() {
         return perms;
     }
+
+    public PermissionBackend getPermissionBackend() {
+        return permissionBackend;
+    }
+
+    public BanVerdictCache getBanVerdictCache() {
+        return banVerdictCache;
+    }
+
+    public AuthDecisionEngine getAuthDecisionEngine() {
+        return authDecisionEngine;
+    }
+
+    public InfoModelCache getInfoModelCache() {
+        return infoModelCache;
+    }
+
+    private Path getBanIndexFile() {
+        return new File(getDataFolder(), "ban-index.dat").toPath();
+    }
+
+    public LocalBanIndex getLocalBanIndex() {
+        return localBanIndex;
+    }
+
+    public SessionTracker getSessionTracker() {
+        return sessionTracker;
+    }
+
+    public BanOutbox getBanOutbox() {
+        return banOutbox;
+    }
+
+    public ProfileSnapshotStore getProfileSnapshotStore() {
+        return profileSnapshotStore;
+    }
+
+    private Path getRecentPlayersFile() {
+        return new File(getDataFolder(), "recent-players.dat").toPath();
+    }
+
+    public RecentPlayers getRecentPlayers() {
+        return recentPlayers;
+    }
+
+    public CacheWarmer getCacheWarmer() {
+        return cacheWarmer;
+    }
+
+    public MetricsExporter getMetricsExporter() {
+        return metricsExporter;
+    }
+
+    public TickProfiler getTickProfiler() {
+        return tickProfiler;
+    }
+
+    public MainThreadExecutor getMainThreadExecutor() {
+        return mainThreadExecutor;
+    }
+
+    /*
+    Wraps a CPAS callback so it is processed on the server thread instead of the HTTP thread
+     */
+    public <T> Cpas.ProcessResponse<T> onMainThread(Cpas.ProcessResponse<T> response) {
+        return new ExecutorProcessResponse<>(mainThreadExecutor, response);
+    }
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.permissions;
+
+import net.cpas.mc.common.permission.PermissionSyncEngine;
+import net.luckperms.api.LuckPerms;
+import net.luckperms.api.model.user.User;
+import net.luckperms.api.node.Node;
+import net.luckperms.api.node.types.InheritanceNode;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.RegisteredServiceProvider;
+import org.bukkit.plugin.ServicesManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/*
+Talks to LuckPerms directly. All group changes for a player are made on one loaded copy of the
+user inside UserManager.modifyUser, which LuckPerms saves once and off the calling thread,
+so a login costs a single storage write instead of one per group.
+ */
+public class LuckPermsPermissionBackend implements PermissionBackend {
+
+    private final LuckPerms luckPerms;
+    private final PermissionSyncEngine syncEngine;
+
+    public LuckPermsPermissionBackend(LuckPerms luckPerms, PermissionSyncEngine syncEngine) {
+        this.luckPerms = luckPerms;
+        this.syncEngine = syncEngine;
+    }
+
+    /*
+    Looks LuckPerms up in the services manager. Only call this once the LuckPerms plugin is
+    known to be loaded, this class links against its API. Returns null if LuckPerms hasn't
+    registered its service.
+     */
+    public static PermissionBackend create(ServicesManager servicesManager, PermissionSyncEngine syncEngine) {
+        final RegisteredServiceProvider<LuckPerms> provider = servicesManager.getRegistration(LuckPerms.class);
+        if(provider == null) {
+            return null;
+        }
+        return new LuckPermsPermissionBackend(provider.getProvider(), syncEngine);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> applyGroups(Player player, Collection<String> desired, Predicate<String> managed) {
+        /* Set on the LuckPerms thread, read once the user is saved */
+        final AtomicBoolean changed = new AtomicBoolean();
+        return luckPerms.getUserManager().modifyUser(player.getUniqueId(), user->changed.set(apply(user, desired, managed)))
+                .thenApply(ignored->changed.get());
+    }
+
+    private boolean apply(User user, Collection<String> desired, Predicate<String> managed) {
+        /*
+        Only global parents count, the same ones Vault would have given or taken
+         */
+        final List<String> current = new ArrayList<>();
+        int heldManaged = 0;
+        for(Node node : user.getNodes()) {
+            if(node instanceof InheritanceNode && node.getContexts().isEmpty()) {
+                final String group = ((InheritanceNode) node).getGroupName();
+                current.add(group);
+                if(managed.test(group)) {
+                    heldManaged++;
+                }
+            }
+        }
+        final PermissionSyncEngine.SyncPlan plan = syncEngine.plan(desired, current, managed);
+        syncEngine.apply(plan, new PermissionSyncEngine.GroupWriter() {
+            @Override
+            public void addGroup(String group) {
+                user.data().add(InheritanceNode.builder(group).build());
+            }
+
+            @Override
+            public void removeGroup(String group) {
+                user.data().remove(InheritanceNode.builder(group).build());
+            }
+        }, heldManaged + desired.size());
+        return !plan.isEmpty();
+    }
+
+    @Override
+    public String getName() {
+        return "LuckPerms";
+    }
+}
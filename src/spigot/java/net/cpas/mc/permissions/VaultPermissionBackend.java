@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.permissions;
+
+import net.cpas.mc.common.permission.PermissionSyncEngine;
+import net.milkbowl.vault.permission.Permission;
+import org.bukkit.entity.Player;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+
+/*
+Fallback backend, every group change goes through Vault and is saved on its own.
+ */
+public class VaultPermissionBackend implements PermissionBackend {
+
+    private final Permission permission;
+    private final PermissionSyncEngine syncEngine;
+
+    public VaultPermissionBackend(Permission permission, PermissionSyncEngine syncEngine) {
+        this.permission = permission;
+        this.syncEngine = syncEngine;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> applyGroups(Player player, Collection<String> desired, Predicate<String> managed) {
+        final String[] current = permission.getPlayerGroups(player);
+        int heldManaged = 0;
+        for(String group : current) {
+            if(managed.test(group)) {
+                heldManaged++;
+            }
+        }
+        final PermissionSyncEngine.SyncPlan plan = syncEngine.plan(desired, Arrays.asList(current), managed);
+        syncEngine.apply(plan, new PermissionSyncEngine.GroupWriter() {
+            @Override
+            public void addGroup(String group) {
+                permission.playerAddGroup(player, group);
+            }
+
+            @Override
+            public void removeGroup(String group) {
+                permission.playerRemoveGroup(player, group);
+            }
+        }, heldManaged + desired.size());
+        /* Vault saves every change before it returns */
+        return CompletableFuture.completedFuture(!plan.isEmpty());
+    }
+
+    @Override
+    public String getName() {
+        return "Vault (" + permission.getName() + ")";
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.scheduler;
+
+import net.cpas.mc.common.metrics.TickProfiler;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+/*
+Queues work from other threads (mostly CPAS callbacks) and runs it on the server thread.
+Every tick the queue is drained until it is empty or the tick budget is used up, whatever is
+left waits for the next tick. That way a burst of 200 logins is spread over a few ticks
+instead of landing in one big spike.
+ */
+public class MainThreadExecutor implements Executor {
+
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong tasksRun = new AtomicLong();
+    private final AtomicLong deferredTicks = new AtomicLong();
+    private final LongSupplier tickBudgetNanos;
+    private final TickProfiler.Section section;
+    private volatile int maxQueueDepth;
+    private BukkitTask task;
+
+    public MainThreadExecutor(LongSupplier tickBudgetNanos, TickProfiler.Section section) {
+        this.tickBudgetNanos = tickBudgetNanos;
+        this.section = section;
+    }
+
+    public void start(Plugin plugin) {
+        if(task == null) {
+            task = Bukkit.getScheduler().runTaskTimer(plugin, this::drain, 1L, 1L);
+        }
+    }
+
+    /*
+    Runs whatever is left so nothing queued is lost when the plugin disables
+     */
+    public void stop() {
+        if(task != null) {
+            task.cancel();
+            task = null;
+        }
+        Runnable command;
+        while((command = queue.poll()) != null) {
+            queueDepth.decrementAndGet();
+            run(command);
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if(Bukkit.isPrimaryThread() && queue.isEmpty()) {
+            //Already on the server thread and nothing is waiting in front of it
+            run(command);
+            return;
+        }
+        queue.add(command);
+        final int depth = queueDepth.incrementAndGet();
+        if(depth > maxQueueDepth) {
+            maxQueueDepth = depth;
+        }
+    }
+
+    private void drain() {
+        //At least one task runs every tick, even with a budget of 0
+        final long deadline = System.nanoTime() + tickBudgetNanos.getAsLong();
+        Runnable command;
+        do {
+            command = queue.poll();
+            if(command == null) {
+                return;
+            }
+            queueDepth.decrementAndGet();
+            run(command);
+        } while(System.nanoTime() - deadline < 0);
+        if(!queue.isEmpty()) {
+            deferredTicks.incrementAndGet();
+        }
+    }
+
+    private void run(Runnable command) {
+        try(TickProfiler.Section ignored = section.start()) {
+            command.run();
+        }
+        catch(RuntimeException e) {
+            Bukkit.getLogger().log(Level.SEVERE, "[CpasMinecraft] Error while running a CPAS callback", e);
+        }
+        tasksRun.incrementAndGet();
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public long getTasksRun() {
+        return tasksRun.get();
+    }
+
+    /*
+    Ticks that ran out of budget before the queue was empty
+     */
+    public long getDeferredTicks() {
+        return deferredTicks.get();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.scheduler;
+
+import net.cpas.mc.common.metrics.TickProfiler;
+import org.spigotmc.CustomTimingsHandler;
+
+/*
+Feeds tick profiler sections into Spigot's timings so they show up in /timings as well.
+Plain CraftBukkit has no timings, there the sections are only counted by the profiler.
+ */
+public final class ServerTimings {
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private ServerTimings() {
+    }
+
+    public static TickProfiler.PlatformTiming of(String name) {
+        if(!AVAILABLE) {
+            return TickProfiler.PlatformTiming.NONE;
+        }
+        final CustomTimingsHandler handler = new CustomTimingsHandler("CpasMinecraft - " + name);
+        return new TickProfiler.PlatformTiming() {
+            @Override
+            public void start() {
+                handler.startTiming();
+            }
+
+            @Override
+            public void stop() {
+                handler.stopTiming();
+            }
+        };
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("org.spigotmc.CustomTimingsHandler");
+            return true;
+        }
+        catch(ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
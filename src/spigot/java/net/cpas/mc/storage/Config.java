@@ -1,10 +1,16 @@
 package net.cpas.mc.storage;
 
 import net.cpas.Cpas;
+import net.cpas.mc.common.group.GroupMappingTable;
+import net.cpas.mc.common.group.GroupResolver;
 import net.cpas.model.CpasGroupModel;
+import org.bukkit.Bukkit;
 import org.mineacademy.fo.collection.SerializedMap;
 import org.mineacademy.fo.settings.YamlConfig;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class Config extends YamlConfig {
 
     private CpasGroupModel atLeastAdminGroup;
@@ -12,6 +18,7 @@ public class Config extends YamlConfig {
     private String apiKey;
     private String serverIP;
     private String port;
+    private int authDecisionDeadline;
     private String groupsPrefix;
     private boolean usePrimaryGroups;
     private SerializedMap primaryGroups;
@@ -27,6 +34,18 @@ public class Config extends YamlConfig {
     private boolean overrideBanCommand;
     private int banHistoryCount;
     private int banRankThreshold;
+    private int banPositiveTtl;
+    private int banNegativeTtl;
+    private int banCacheSize;
+    private int infoFreshTime;
+    private int infoMaxAge;
+    private int tickBudget;
+    private boolean metricsEnabled;
+    private String metricsHost;
+    private int metricsPort;
+    private int profilerTickBudget;
+    private GroupMappingTable groupMappingTable;
+    private GroupResolver groupResolver;
 
     public Config() {
         //Loads a new Configuration file. If it doesn't exist, it will create a new one
@@ -46,6 +65,7 @@ public class Config extends YamlConfig {
         apiKey = getString("CPAS.apiKey");
         serverIP = getString("CPAS.serverIP");
         port = getString("CPAS.port");
+        authDecisionDeadline = getInteger("CPAS.authDecisionDeadline");
         groupsPrefix = getString("CPAS.groupsPrefix");
         usePrimaryGroups = getBoolean("CPAS.usePrimaryGroups");
         primaryGroups = getMap("CPAS.primaryGroups");
@@ -60,6 +80,34 @@ public class Config extends YamlConfig {
         overrideBanCommand = getBoolean("commands.overrideBanCommand");
         banHistoryCount = getInteger("commands.banHistoryCount");
         banRankThreshold = getInteger("commands.banRankThreshold");
+        banPositiveTtl = getInteger("cache.banPositiveTtl");
+        banNegativeTtl = getInteger("cache.banNegativeTtl");
+        banCacheSize = getInteger("cache.banCacheSize");
+        infoFreshTime = getInteger("cache.infoFreshTime");
+        infoMaxAge = getInteger("cache.infoMaxAge");
+        tickBudget = getInteger("scheduler.tickBudget");
+        metricsEnabled = getBoolean("metrics.enabled");
+        metricsHost = getString("metrics.host");
+        metricsPort = getInteger("metrics.port");
+        profilerTickBudget = getInteger("profiler.tickBudget");
+
+        //Compiles the group maps once so logins don't have to parse them
+        groupMappingTable = GroupMappingTable.compile(groupsPrefix, toStringMap(primaryGroups),
+                toStringMap(divisionGroups), toStringMap(secondaryGroups), noGroupGroup, dsGroup);
+        for(String invalidKey : groupMappingTable.getInvalidKeys()) {
+            Bukkit.getLogger().warning("[CpasMinecraft] Ignoring invalid group mapping CPAS." + invalidKey);
+        }
+        //Everyone keeps 'default' on Spigot (see onLogin), so the no group isn't handed out or taken away here
+        groupResolver = new GroupResolver(groupMappingTable, GroupResolver.Naming.GROUP, usePrimaryGroups, false,
+                useDivisionGroups, useSecondaryGroups, useDsGroup);
+    }
+
+    private static Map<String, String> toStringMap(SerializedMap groups) {
+        final Map<String, String> map = new HashMap<>();
+        for(String key : groups.keySet()) {
+            map.put(key, groups.getString(key));
+        }
+        return map;
     }
 
     public void configCpas() {
@@ -86,6 +134,10 @@ public class Config extends YamlConfig {
         return port;
     }
 
+    public int getAuthDecisionDeadline() {
+        return authDecisionDeadline;
+    }
+
     public String getGroupsPrefix() {
         return groupsPrefix;
     }
@@ -145,4 +197,52 @@ public class Config extends YamlConfig {
     public int getBanRankThreshold() {
         return banRankThreshold;
     }
+
+    public int getBanPositiveTtl() {
+        return banPositiveTtl;
+    }
+
+    public int getBanNegativeTtl() {
+        return banNegativeTtl;
+    }
+
+    public int getBanCacheSize() {
+        return banCacheSize;
+    }
+
+    public int getInfoFreshTime() {
+        return infoFreshTime;
+    }
+
+    public int getInfoMaxAge() {
+        return infoMaxAge;
+    }
+
+    public int getTickBudget() {
+        return tickBudget;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    public String getMetricsHost() {
+        return metricsHost;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public int getProfilerTickBudget() {
+        return profilerTickBudget;
+    }
+
+    public GroupMappingTable getGroupMappingTable() {
+        return groupMappingTable;
+    }
+
+    public GroupResolver getGroupResolver() {
+        return groupResolver;
+    }
 }
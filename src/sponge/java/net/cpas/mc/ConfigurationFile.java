@@ -32,6 +32,8 @@ package net.cpas.mc;
 
 import net.cpas.Cpas;
 import net.cpas.mc.commands.BanHistoryCommand;
+import net.cpas.mc.common.group.GroupMappingTable;
+import net.cpas.mc.common.group.GroupResolver;
 import com.google.common.base.Preconditions;
 import net.cpas.model.CpasGroupModel;
 import ninja.leaping.configurate.commented.CommentedConfigurationNode;
@@ -41,6 +43,7 @@ import org.spongepowered.api.asset.Asset;
 import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 
@@ -171,6 +174,76 @@ public class ConfigurationFile {
      */
     private int banRankThreshold;
 
+    /**
+     * The primary, division and secondary groups compiled into lookup tables.
+     */
+    private GroupMappingTable groupMappingTable;
+
+    /**
+     * Works out the groups of a player from the group tables and the use flags.
+     */
+    private GroupResolver groupResolver;
+
+    /**
+     * The number of milliseconds to wait for CPAS to answer a ban check before deciding locally.
+     */
+    private long authDecisionDeadline;
+
+    /**
+     * The number of seconds between local ban sync runs.
+     */
+    private long localBanSyncInterval;
+
+    /**
+     * The maximum number of local bans pushed to CPAS per sync run.
+     */
+    private int localBanSyncBatchSize;
+
+    /**
+     * True if the Prometheus metrics endpoint should be served.
+     */
+    private boolean metricsEnabled;
+
+    /**
+     * The host the metrics endpoint is bound to.
+     */
+    private String metricsHost;
+
+    /**
+     * The port the metrics endpoint is bound to.
+     */
+    private int metricsPort;
+
+    /**
+     * The milliseconds of a tick the plugin may use on the server thread before the tick is flagged.
+     */
+    private int profilerTickBudget;
+
+    /**
+     * The number of seconds a banned verdict from CPAS is reused.
+     */
+    private long banPositiveTtl;
+
+    /**
+     * The number of seconds a not banned verdict from CPAS is reused.
+     */
+    private long banNegativeTtl;
+
+    /**
+     * The maximum number of CPAS ban verdicts to keep.
+     */
+    private int banCacheSize;
+
+    /**
+     * The number of minutes cached player info is used without refreshing it.
+     */
+    private long infoFreshTime;
+
+    /**
+     * The number of minutes cached player info is used at all, refreshing it in the background.
+     */
+    private long infoMaxAge;
+
     /**
      * Creates a new {@link ConfigurationFile} object.
      */
@@ -259,6 +332,37 @@ public class ConfigurationFile {
         noGroupGroup = config.getNode("cpas", "noGroupGroup").getString();
         groupsPrefix = config.getNode("cpas", "groupsPrefix").getString();
         banRankThreshold = config.getNode("commands", "banRankThreshold").getInt();
+        authDecisionDeadline = config.getNode("cpas", "authDecisionDeadline").getLong(1500);
+        groupMappingTable = GroupMappingTable.compile(groupsPrefix, toStringMap(primaryGroups),
+                toStringMap(divisionGroups), toStringMap(secondaryGroups), noGroupGroup, dsGroup);
+        for (String invalidKey : groupMappingTable.getInvalidKeys()) {
+            pluginInstance.getLogger().warn("Ignoring invalid group mapping cpas." + invalidKey);
+        }
+        groupResolver = new GroupResolver(groupMappingTable, GroupResolver.Naming.NODE, usePrimaryGroups, useNoGroup,
+                useDivisionGroups, useSecondaryGroups, useDsGroup);
+        banPositiveTtl = config.getNode("cache", "banPositiveTtl").getLong(300);
+        banNegativeTtl = config.getNode("cache", "banNegativeTtl").getLong(60);
+        banCacheSize = config.getNode("cache", "banCacheSize").getInt(10000);
+        infoFreshTime = config.getNode("cache", "infoFreshTime").getLong(2);
+        infoMaxAge = config.getNode("cache", "infoMaxAge").getLong(30);
+        localBanSyncInterval = Math.max(1, config.getNode("sync", "localBanInterval").getLong(60));
+        localBanSyncBatchSize = config.getNode("sync", "localBanBatchSize").getInt(10);
+        metricsEnabled = config.getNode("metrics", "enabled").getBoolean(false);
+        metricsHost = config.getNode("metrics", "host").getString("127.0.0.1");
+        metricsPort = config.getNode("metrics", "port").getInt(9464);
+        profilerTickBudget = config.getNode("profiler", "tickBudget").getInt(5);
+    }
+
+    /**
+     * @param nodes the config nodes to convert.
+     * @return the string values of the nodes keyed by the string form of their keys.
+     */
+    private static Map<String, String> toStringMap(@Nonnull Map<Object, ? extends CommentedConfigurationNode> nodes) {
+        final Map<String, String> map = new HashMap<>();
+        for (Map.Entry<Object, ? extends CommentedConfigurationNode> kvp : nodes.entrySet()) {
+            map.put(kvp.getKey().toString(), kvp.getValue().getString());
+        }
+        return map;
     }
 
     /**
@@ -413,4 +517,107 @@ public class ConfigurationFile {
     public int getBanRankThreshold() {
         return banRankThreshold;
     }
+
+    /**
+     * @return the number of milliseconds to wait for CPAS to answer a ban check before deciding locally.
+     */
+    public long getAuthDecisionDeadline() {
+        return authDecisionDeadline;
+    }
+
+    /**
+     * @return the number of seconds a banned verdict from CPAS is reused.
+     */
+    public long getBanPositiveTtl() {
+        return banPositiveTtl;
+    }
+
+    /**
+     * @return the number of seconds a not banned verdict from CPAS is reused.
+     */
+    public long getBanNegativeTtl() {
+        return banNegativeTtl;
+    }
+
+    /**
+     * @return the maximum number of CPAS ban verdicts to keep.
+     */
+    public int getBanCacheSize() {
+        return banCacheSize;
+    }
+
+    /**
+     * @return the number of minutes cached player info is used without refreshing it.
+     */
+    public long getInfoFreshTime() {
+        return infoFreshTime;
+    }
+
+    /**
+     * @return the number of minutes cached player info is used at all, refreshing it in the background.
+     */
+    public long getInfoMaxAge() {
+        return infoMaxAge;
+    }
+
+    /**
+     * @return the number of seconds between local ban sync runs.
+     */
+    public long getLocalBanSyncInterval() {
+        return localBanSyncInterval;
+    }
+
+    /**
+     * @return the maximum number of local bans pushed to CPAS per sync run.
+     */
+    public int getLocalBanSyncBatchSize() {
+        return localBanSyncBatchSize;
+    }
+
+    /**
+     * @return true if the Prometheus metrics endpoint should be served.
+     */
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * @return the host the metrics endpoint is bound to.
+     */
+    @Nonnull
+    public String getMetricsHost() {
+        return metricsHost;
+    }
+
+    /**
+     * @return the port the metrics endpoint is bound to.
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * @return the milliseconds of a tick the plugin may use on the server thread before the tick is flagged.
+     */
+    public int getProfilerTickBudget() {
+        return profilerTickBudget;
+    }
+
+    /**
+     * @return the primary, division and secondary groups compiled into lookup tables.
+     */
+    @Nonnull
+    public GroupMappingTable getGroupMappingTable() {
+        Preconditions.checkNotNull(groupMappingTable, "groupMappingTable");
+        return groupMappingTable;
+    }
+
+    /**
+     * @return works out the permission nodes of a player from the group tables and the use flags.
+     */
+    @Nonnull
+    public GroupResolver getGroupResolver() {
+        Preconditions.checkNotNull(groupResolver, "groupResolver");
+        return groupResolver;
+    }
 }
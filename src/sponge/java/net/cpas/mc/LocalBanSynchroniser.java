@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc;
+
+import net.cpas.mc.common.outbox.BanOutbox;
+import net.cpas.mc.common.outbox.PendingBan;
+import net.cpas.mc.common.outbox.PushedBanLedger;
+import org.spongepowered.api.entity.living.player.User;
+import org.spongepowered.api.service.ban.BanService;
+import org.spongepowered.api.text.Text;
+import org.spongepowered.api.util.ban.Ban;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes local bans to CPAS. Only bans that are new or changed since they were last pushed are sent, oldest first and
+ * at most a configured number per run. Bans are handed to the {@link BanOutbox}, which sends them and lifts the local
+ * ban once CPAS has it.
+ *
+ * @author agent6262
+ */
+public class LocalBanSynchroniser implements Runnable {
+
+    /**
+     * The {@link MinecraftCpas} instance.
+     */
+    private final MinecraftCpas pluginInstance;
+
+    /**
+     * The local bans that were already pushed.
+     */
+    private final PushedBanLedger ledger;
+
+    /**
+     * The number of local bans pushed.
+     */
+    private final AtomicLong pushedBans = new AtomicLong();
+
+    /**
+     * The number of local bans still waiting to be pushed after the last run.
+     */
+    private volatile int waitingBans;
+
+    /**
+     * How long the oldest local ban CPAS does not have yet has been waiting, in milliseconds.
+     */
+    private volatile long syncLag;
+
+    /**
+     * Creates a new {@link LocalBanSynchroniser} object.
+     *
+     * @param pluginInstance the {@link MinecraftCpas} instance.
+     * @param ledger         the local bans that were already pushed.
+     */
+    LocalBanSynchroniser(@Nonnull MinecraftCpas pluginInstance, @Nonnull PushedBanLedger ledger) {
+        this.pluginInstance = pluginInstance;
+        this.ledger = ledger;
+    }
+
+    @Override
+    public void run() {
+        final BanService banService = pluginInstance.getBanService();
+        final BanOutbox banOutbox = pluginInstance.getBanOutbox();
+        if (banService == null) {
+            return;
+        }
+        final Instant now = Instant.now();
+        final Set<Long> live = new HashSet<>();
+        final List<Ban.Profile> candidates = new ArrayList<>();
+        for (Ban.Profile ban : banService.getProfileBans()) {
+            // Expired bans are not pushed
+            if (ban.getExpirationDate().isPresent() && !ban.getExpirationDate().get().isAfter(now)) {
+                continue;
+            }
+            final long fingerprint = fingerprint(ban);
+            live.add(fingerprint);
+            if (ledger.isPushed(fingerprint)) {
+                continue;
+            }
+            // Bans that failed on CPAS are already in the outbox
+            if (banOutbox.isPending(ban.getProfile().getUniqueId().toString())) {
+                ledger.markPushed(fingerprint);
+                continue;
+            }
+            candidates.add(ban);
+        }
+        ledger.retain(live);
+
+        // Push the oldest bans first, a limited number per run
+        candidates.sort(Comparator.comparing(Ban::getCreationDate));
+        final int batchSize = Math.min(candidates.size(), pluginInstance.getConfig().getLocalBanSyncBatchSize());
+        int pushed = 0;
+        for (; pushed < batchSize; pushed++) {
+            final Ban.Profile ban = candidates.get(pushed);
+            try {
+                banOutbox.enqueue(ban.getProfile().getUniqueId().toString(),
+                        ban.getProfile().getName().orElse("INTERNAL ERROR"),
+                        getBannerId(ban),
+                        new String[]{""},
+                        getDurationMinutes(ban, now),
+                        ban.getReason().orElse(Text.of("INTERNAL ERROR")).toPlain());
+            } catch (IOException e) {
+                pluginInstance.getLogger().error("Could not queue local ban of " + ban.getProfile().getUniqueId() + ".", e);
+                break;
+            }
+            ledger.markPushed(fingerprint(ban));
+            pushedBans.incrementAndGet();
+        }
+        waitingBans = candidates.size() - pushed;
+
+        // The lag is the age of the oldest ban CPAS does not have, either not pushed yet or still in the outbox
+        long oldest = now.toEpochMilli();
+        if (pushed < candidates.size()) {
+            oldest = Math.min(oldest, candidates.get(pushed).getCreationDate().toEpochMilli());
+        }
+        for (PendingBan pendingBan : banOutbox.getPending()) {
+            oldest = Math.min(oldest, pendingBan.getCreatedAt());
+        }
+        syncLag = now.toEpochMilli() - oldest;
+
+        try {
+            ledger.save();
+        } catch (IOException e) {
+            pluginInstance.getLogger().error("Could not save the pushed local bans.", e);
+        }
+        if (pushed > 0 || waitingBans > 0) {
+            pluginInstance.getLogger().info(String.format("Pushed %d local bans to CPAS, %d waiting, sync lag %d seconds.",
+                    pushed, waitingBans, syncLag / 1000));
+        }
+    }
+
+    /**
+     * @param ban the local ban.
+     * @return the fingerprint of the ban, it changes if any part of the ban changes.
+     */
+    private static long fingerprint(@Nonnull Ban.Profile ban) {
+        return PushedBanLedger.fingerprint(ban.getProfile().getUniqueId(),
+                ban.getCreationDate().toEpochMilli(),
+                ban.getExpirationDate().map(Instant::toEpochMilli).orElse(-1L),
+                ban.getReason().map(Text::toPlain).orElse(""));
+    }
+
+    /**
+     * @param ban the local ban.
+     * @return the game id of the banning admin, empty for the default admin.
+     */
+    @Nonnull
+    private static String getBannerId(@Nonnull Ban.Profile ban) {
+        if (ban.getBanCommandSource().isPresent() && ban.getBanCommandSource().get() instanceof User) {
+            return ((User) ban.getBanCommandSource().get()).getUniqueId().toString();
+        }
+        return "";
+    }
+
+    /**
+     * @param ban the local ban.
+     * @param now the current time.
+     * @return the remaining ban duration in minutes, 0 if the ban is permanent.
+     */
+    private static int getDurationMinutes(@Nonnull Ban.Profile ban, @Nonnull Instant now) {
+        if (!ban.getExpirationDate().isPresent()) {
+            return 0;
+        }
+        final long secondsLeft = ban.getExpirationDate().get().getEpochSecond() - now.getEpochSecond();
+        return (int) Math.max(1, (secondsLeft + 59) / 60);
+    }
+
+    /**
+     * @return the number of local bans pushed.
+     */
+    public long getPushedBans() {
+        return pushedBans.get();
+    }
+
+    /**
+     * @return the number of local bans still waiting to be pushed after the last run.
+     */
+    public int getWaitingBans() {
+        return waitingBans;
+    }
+
+    /**
+     * @return how long the oldest local ban CPAS does not have yet has been waiting, in milliseconds.
+     */
+    public long getSyncLag() {
+        return syncLag;
+    }
+}
@@ -30,11 +30,30 @@
  */
 package net.cpas.mc;
 
-import net.cpas.Cpas;
+import co.aikar.timings.Timing;
+import co.aikar.timings.Timings;
 import net.cpas.mc.commands.CommandRegistrar;
+import net.cpas.mc.common.admin.AdminRegistry;
+import net.cpas.mc.common.auth.AuthDecisionEngine;
+import net.cpas.mc.common.ban.BanIndexRevalidator;
+import net.cpas.mc.common.ban.LocalBanIndex;
+import net.cpas.mc.common.cache.BanVerdictCache;
+import net.cpas.mc.common.cache.CacheWarmer;
+import net.cpas.mc.common.cache.InfoModelCache;
+import net.cpas.mc.common.client.CpasClient;
+import net.cpas.mc.common.client.RequestPriority;
+import net.cpas.mc.common.metrics.MetricsExporter;
+import net.cpas.mc.common.metrics.PluginMetrics;
+import net.cpas.mc.common.metrics.TickProfiler;
+import net.cpas.mc.common.outbox.BanOutbox;
+import net.cpas.mc.common.outbox.PendingBan;
+import net.cpas.mc.common.outbox.PushedBanLedger;
+import net.cpas.mc.common.permission.PermissionSyncEngine;
+import net.cpas.mc.common.profile.ProfileSnapshotStore;
+import net.cpas.mc.common.profile.RecentPlayers;
+import net.cpas.mc.common.session.SessionTracker;
 import net.cpas.mc.events.EventRegistrar;
 import net.cpas.model.InfoModel;
-import net.cpas.model.SuccessResponseModel;
 import ninja.leaping.configurate.commented.CommentedConfigurationNode;
 import ninja.leaping.configurate.loader.ConfigurationLoader;
 import org.slf4j.Logger;
@@ -43,23 +62,21 @@ import org.spongepowered.api.GameState;
 import org.spongepowered.api.Sponge;
 import org.spongepowered.api.config.ConfigDir;
 import org.spongepowered.api.config.DefaultConfig;
-import org.spongepowered.api.entity.living.player.User;
 import org.spongepowered.api.event.Listener;
 import org.spongepowered.api.event.game.state.GameInitializationEvent;
 import org.spongepowered.api.event.game.state.GamePreInitializationEvent;
+import org.spongepowered.api.event.game.state.GameStoppingServerEvent;
 import org.spongepowered.api.plugin.Plugin;
 import org.spongepowered.api.plugin.PluginContainer;
 import org.spongepowered.api.profile.GameProfile;
 import org.spongepowered.api.scheduler.Task;
 import org.spongepowered.api.service.ban.BanService;
 import org.spongepowered.api.service.permission.PermissionService;
-import org.spongepowered.api.text.Text;
-import org.spongepowered.api.util.ban.Ban;
 
+import javax.annotation.Nonnull;
 import javax.inject.Inject;
+import java.io.IOException;
 import java.nio.file.Path;
-import java.time.Instant;
-import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -73,6 +90,36 @@ import java.util.concurrent.TimeUnit;
 @Plugin (id = "cpas", name = "Minecraft Cpas", version = "1.3.1", description = "The Minecraft cpas server endpoint.")
 public class MinecraftCpas {
 
+    /**
+     * The maximum number of players to keep CPAS info for.
+     */
+    private static final int INFO_CACHE_SIZE = 2000;
+
+    /**
+     * The number of indexed bans checked with CPAS every 30 seconds.
+     */
+    private static final int BAN_INDEX_REVALIDATION_BATCH = 20;
+
+    /**
+     * The number of recent players remembered for warming the caches at startup.
+     */
+    private static final int RECENT_PLAYERS_SIZE = 500;
+
+    /**
+     * The number of players the cache warmer fetches per second.
+     */
+    private static final int CACHE_WARMER_RATE = 10;
+
+    /**
+     * How long the cache warmer may run for after startup.
+     */
+    private static final long CACHE_WARMER_BUDGET_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * The number of ticks the tick profiler keeps rolling totals for, a minute at 20 ticks per second.
+     */
+    private static final int TICK_PROFILER_WINDOW = 1200;
+
     /**
      * Loads the config from the file. call {@link ConfigurationLoader#load()} to refresh the
      * current config.
@@ -117,9 +164,29 @@ public class MinecraftCpas {
     private Game game;
 
     /**
-     * Stores a cache of InfoModels when a player connects if they are an admin.
+     * Stores the InfoModels of the admins on the server, filled when a player connects if they are an admin.
      */
-    private TreeSet<InfoModel> adminPlayerCache;
+    private final AdminRegistry adminRegistry = new AdminRegistry();
+
+    /**
+     * Applies CPAS groups to players by writing only the nodes that changed.
+     */
+    private final PermissionSyncEngine permissionSyncEngine = new PermissionSyncEngine();
+
+    /**
+     * The local copy of active bans, checked before CPAS when a player connects.
+     */
+    private final LocalBanIndex localBanIndex = new LocalBanIndex();
+
+    /**
+     * Tracks the CPAS callbacks waiting on behalf of online players.
+     */
+    private final SessionTracker sessionTracker = new SessionTracker();
+
+    /**
+     * The players who logged in most recently.
+     */
+    private final RecentPlayers recentPlayers = new RecentPlayers(RECENT_PLAYERS_SIZE);
 
     /**
      * Config wrapper for the base sponge {@link CommentedConfigurationNode}.
@@ -136,6 +203,51 @@ public class MinecraftCpas {
      */
     private PermissionService permissionService;
 
+    /**
+     * Recent CPAS ban verdicts.
+     */
+    private BanVerdictCache banVerdictCache;
+
+    /**
+     * Decides if connecting players are banned.
+     */
+    private AuthDecisionEngine authDecisionEngine;
+
+    /**
+     * Recent CPAS player info, filled on login.
+     */
+    private InfoModelCache infoModelCache;
+
+    /**
+     * Bans that could not be sent to CPAS yet, kept on disk until CPAS accepts them.
+     */
+    private BanOutbox banOutbox;
+
+    /**
+     * Pushes new or changed local bans to CPAS.
+     */
+    private LocalBanSynchroniser localBanSynchroniser;
+
+    /**
+     * The last known CPAS info of every player, kept across restarts.
+     */
+    private ProfileSnapshotStore profileSnapshotStore;
+
+    /**
+     * Fetches the data of recent players after startup.
+     */
+    private CacheWarmer cacheWarmer;
+
+    /**
+     * Serves the plugin metrics to Prometheus, null unless enabled in the config.
+     */
+    private MetricsExporter metricsExporter;
+
+    /**
+     * Accounts for the time the plugin spends on the server thread.
+     */
+    private TickProfiler tickProfiler;
+
     /**
      * The {@link GamePreInitializationEvent} is triggered. During this state, the plugin gets ready for
      * initialization. Access to a default logger instance and access to information regarding
@@ -149,8 +261,40 @@ public class MinecraftCpas {
         config.initialize(this);
         config.loadConfig();
 
-        //Order descending
-        adminPlayerCache = new TreeSet<>((o1, o2)->o2.primaryGroup.rank - o1.primaryGroup.rank);
+        banVerdictCache = new BanVerdictCache(
+                ()->TimeUnit.SECONDS.toMillis(config.getBanPositiveTtl()),
+                ()->TimeUnit.SECONDS.toMillis(config.getBanNegativeTtl()),
+                config::getBanCacheSize);
+        authDecisionEngine = new AuthDecisionEngine(config::getAuthDecisionDeadline, banVerdictCache, localBanIndex);
+        try {
+            localBanIndex.load(privateConfigDir.resolve("ban-index.dat"));
+        } catch (IOException e) {
+            logger.error("Could not load the local ban index, it will be filled again from CPAS.", e);
+        }
+        infoModelCache = new InfoModelCache(
+                ()->TimeUnit.MINUTES.toMillis(config.getInfoFreshTime()),
+                ()->TimeUnit.MINUTES.toMillis(config.getInfoMaxAge()),
+                INFO_CACHE_SIZE,
+                (uuid, response)->CpasClient.getInstance().getInfo(uuid.toString(), false, RequestPriority.BACKGROUND, response));
+        banOutbox = new BanOutbox(privateConfigDir.resolve("ban-outbox.dat"), BanOutbox::sendToCpas,
+                e->logger.error("Error in the ban outbox.", e));
+        // Acks arrive on the outbox thread, the ban service is only touched from the server thread
+        banOutbox.addAckListener(ban->Task.builder()
+                .name("CPAS local ban removal")
+                .execute(()->removeLocalBan(ban))
+                .submit(this));
+        // Only maps the file, snapshots are read when a player needs one
+        profileSnapshotStore = new ProfileSnapshotStore(privateConfigDir.resolve("profiles.dat"));
+        try {
+            profileSnapshotStore.open();
+        } catch (IOException e) {
+            logger.error("Could not open the profile snapshot store, players will only be known once CPAS answers.", e);
+        }
+        try {
+            recentPlayers.load(privateConfigDir.resolve("recent-players.dat"));
+        } catch (IOException e) {
+            logger.error("Could not load the recent players, the caches will not be warmed.", e);
+        }
     }
 
     /**
@@ -161,14 +305,71 @@ public class MinecraftCpas {
      */
     @Listener
     public void onGameInitialization(GameInitializationEvent event) {
+        // Listeners and commands take their sections from the profiler, so it has to exist before they are registered
+        tickProfiler = new TickProfiler(Thread.currentThread(), TICK_PROFILER_WINDOW,
+                ()->TimeUnit.MILLISECONDS.toNanos(config.getProfilerTickBudget()), this::createTiming, logger::warn);
+        Task.builder()
+                .intervalTicks(1)
+                .name("CPAS tick profiler")
+                .execute(()->tickProfiler.tick())
+                .submit(this);
         CommandRegistrar.register(this);
         EventRegistrar.register(this);
 
+        // Start sending bans left over from the last run, CPAS is configured by now
+        try {
+            banOutbox.open();
+            if (banOutbox.getQueueDepth() > 0) {
+                logger.info(banOutbox.getQueueDepth() + " bans are waiting to be sent to CPAS.");
+            }
+        } catch (IOException e) {
+            logger.error("Could not open the ban outbox, failed bans will only be kept locally.", e);
+        }
+
+        final PushedBanLedger pushedBanLedger = new PushedBanLedger(privateConfigDir.resolve("pushed-bans.dat"));
+        try {
+            pushedBanLedger.load();
+        } catch (IOException e) {
+            logger.error("Could not load the pushed local bans, every local ban will be pushed again.", e);
+        }
+        localBanSynchroniser = new LocalBanSynchroniser(this, pushedBanLedger);
         Task.builder()
                 .async()
                 .delay(1, TimeUnit.MINUTES)
-                .interval(15, TimeUnit.MINUTES)
-                .execute(new RunLocalBanProcess(this));
+                .interval(config.getLocalBanSyncInterval(), TimeUnit.SECONDS)
+                .name("CPAS local ban sync")
+                .execute(localBanSynchroniser)
+                .submit(this);
+        Task.builder()
+                .async()
+                .delay(30, TimeUnit.SECONDS)
+                .interval(30, TimeUnit.SECONDS)
+                .name("CPAS ban index revalidation")
+                .execute(new BanIndexRevalidator(localBanIndex, banVerdictCache, BAN_INDEX_REVALIDATION_BATCH))
+                .submit(this);
+        Task.builder()
+                .async()
+                .interval(1, TimeUnit.SECONDS)
+                .name("CPAS ban index expiry")
+                .execute(()->localBanIndex.expire(System.currentTimeMillis()))
+                .submit(this);
+        // Fetch the regulars in the background so their logins find warm caches, this does not wait for it
+        cacheWarmer = new CacheWarmer(recentPlayers.getMostRecent(RECENT_PLAYERS_SIZE), banVerdictCache,
+                localBanIndex, infoModelCache, profileSnapshotStore, CACHE_WARMER_RATE, CACHE_WARMER_BUDGET_MILLIS,
+                e->logger.error("Error while warming the caches.", e));
+        cacheWarmer.start();
+
+        if (config.isMetricsEnabled()) {
+            metricsExporter = new MetricsExporter(config.getMetricsHost(), config.getMetricsPort(),
+                    new PluginMetrics(banVerdictCache, infoModelCache, adminRegistry, localBanIndex, banOutbox,
+                            permissionSyncEngine, sessionTracker, tickProfiler));
+            try {
+                metricsExporter.start();
+                logger.info("Serving metrics on " + config.getMetricsHost() + ":" + config.getMetricsPort() + ".");
+            } catch (IOException e) {
+                logger.error("Could not start the metrics endpoint.", e);
+            }
+        }
     }
 
     /**
@@ -214,10 +415,88 @@ public class MinecraftCpas {
     }
 
     /**
-     * @return a set of the {@link InfoModel}s for all the current admins on the server
+     * The {@link GameStoppingServerEvent} is triggered. The local ban index and recent players are saved and the ban
+     * outbox and profile snapshots are synced to disk so they are there on the next start.
+     *
+     * @param event Represents {@link GameState#SERVER_STOPPING} event.
+     */
+    @Listener
+    public void onGameStoppingServer(GameStoppingServerEvent event) {
+        try {
+            localBanIndex.save(privateConfigDir.resolve("ban-index.dat"));
+        } catch (IOException e) {
+            logger.error("Could not save the local ban index.", e);
+        }
+        try {
+            banOutbox.close();
+        } catch (IOException e) {
+            logger.error("Could not close the ban outbox.", e);
+        }
+        profileSnapshotStore.close();
+        cacheWarmer.stop();
+        if (metricsExporter != null) {
+            metricsExporter.close();
+        }
+        try {
+            recentPlayers.save(privateConfigDir.resolve("recent-players.dat"));
+        } catch (IOException e) {
+            logger.error("Could not save the recent players.", e);
+        }
+    }
+
+    /**
+     * Lifts the local ban that stood in for a ban CPAS has now accepted.
+     *
+     * @param ban the ban CPAS accepted.
+     */
+    private void removeLocalBan(@Nonnull PendingBan ban) {
+        final BanService banService = getBanService();
+        if (banService == null) {
+            return;
+        }
+        final UUID uuid;
+        try {
+            uuid = UUID.fromString(ban.getGameId());
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        banService.getBanFor(GameProfile.of(uuid)).ifPresent(banService::removeBan);
+    }
+
+    /**
+     * Feeds a tick profiler section into Sponge's timings so it shows up in /timings as well.
+     *
+     * @param name the name of the section.
+     * @return the Sponge timing of the section.
+     */
+    @Nonnull
+    private TickProfiler.PlatformTiming createTiming(@Nonnull String name) {
+        final Timing timing = Timings.of(this, name);
+        return new TickProfiler.PlatformTiming() {
+            @Override
+            public void start() {
+                timing.startTiming();
+            }
+
+            @Override
+            public void stop() {
+                timing.stopTiming();
+            }
+        };
+    }
+
+    /**
+     * @return the {@link AdminRegistry} of all the current admins on the server
      */
-    public TreeSet<InfoModel> getAdminPlayerCache() {
-        return adminPlayerCache;
+    public AdminRegistry getAdminRegistry() {
+        return adminRegistry;
+    }
+
+    /**
+     * @return the {@link PermissionSyncEngine} used to apply CPAS groups to players.
+     */
+    public PermissionSyncEngine getPermissionSyncEngine() {
+        return permissionSyncEngine;
     }
 
     /**
@@ -228,130 +507,116 @@ public class MinecraftCpas {
     }
 
     /**
-     * @return The {@link BanService} for this plugin to use.
+     * @return The {@link BanVerdictCache} holding recent CPAS ban verdicts.
      */
-    public BanService getBanService() {
-        if (this.banService == null) {
-            Sponge.getServiceManager().provide(BanService.class).ifPresent(banService1->this.banService = banService1);
-        }
-        return this.banService;
+    public BanVerdictCache getBanVerdictCache() {
+        return banVerdictCache;
     }
 
     /**
-     * @return The {@link PermissionService} for this plugin to use.
+     * @return The {@link AuthDecisionEngine} that decides if connecting players are banned.
      */
-    public PermissionService getPermissionService() {
-        if (this.permissionService == null) {
-            Sponge.getServiceManager().provide(PermissionService.class).ifPresent(permissionService1->this.permissionService = permissionService1);
-        }
-        return this.permissionService;
+    public AuthDecisionEngine getAuthDecisionEngine() {
+        return authDecisionEngine;
     }
 
     /**
-     * Get the admin {@link InfoModel} from a {@link UUID}
-     *
-     * @param uuid the {@link UUID} of a potential admin
-     * @return {@link InfoModel} of the admin or null if not present
+     * @return The {@link InfoModelCache} holding recent CPAS player info.
      */
-    public InfoModel getPlayerInfoModel(UUID uuid) {
-        for (InfoModel infoModel : this.getAdminPlayerCache()) {
-            if (infoModel.gameId.equals(uuid))
-                return infoModel;
-        }
-        return null;
+    public InfoModelCache getInfoModelCache() {
+        return infoModelCache;
     }
 
     /**
-     * Class that attempts to push local bans to CPAS web.
+     * @return The {@link BanOutbox} holding bans CPAS has not accepted yet.
      */
-    private static class RunLocalBanProcess implements Runnable {
+    public BanOutbox getBanOutbox() {
+        return banOutbox;
+    }
 
-        /**
-         * the {@link MinecraftCpas} instance.
-         */
-        private final MinecraftCpas pluginInstance;
+    /**
+     * @return The {@link LocalBanSynchroniser} that pushes local bans to CPAS.
+     */
+    public LocalBanSynchroniser getLocalBanSynchroniser() {
+        return localBanSynchroniser;
+    }
 
-        /**
-         * Creates a new {@link RunLocalBanProcess} object.
-         *
-         * @param pluginInstance the {@link MinecraftCpas} instance.
-         */
-        RunLocalBanProcess(MinecraftCpas pluginInstance) {
-            this.pluginInstance = pluginInstance;
-        }
+    /**
+     * @return The {@link ProfileSnapshotStore} holding the last known CPAS info of every player.
+     */
+    public ProfileSnapshotStore getProfileSnapshotStore() {
+        return profileSnapshotStore;
+    }
 
-        @Override
-        public void run() {
-            final BanService banService = pluginInstance.getBanService();
-            for (Ban.Profile ban : banService.getProfileBans()) {
-                // Set the duration
-                final long duration;
-                if (ban.getExpirationDate().isPresent()) {
-                    duration = ban.getExpirationDate().get().getEpochSecond() - Instant.now().getEpochSecond();
-                } else {
-                    duration = 0;
-                }
-                // Only push bans that are permanent or still have time left
-                if (ban.isIndefinite() || duration > 0) {
-                    //Set the banner id
-                    final String bannerId;
-                    if (ban.getBanCommandSource().isPresent()) {
-                        bannerId = (ban.getBanCommandSource().get() instanceof User ? ((User) ban.getBanCommandSource().get()).getUniqueId().toString() : "");
-                    } else {
-                        bannerId = "";
-                    }
-                    final GameProfile profile = ban.getProfile();
-                    // Push ban to cpas
-                    Cpas.getInstance().banUser(
-                            profile.getUniqueId().toString(),
-                            profile.getName().orElse("INTERNAL ERROR"),
-                            bannerId,
-                            new String[]{""},
-                            (int) duration * 60,
-                            ban.getReason().orElse(Text.of("INTERNAL ERROR")).toPlain(),
-                            new ProcessBanResponseFromLocal(ban, pluginInstance));
-                }
-            }
-        }
+    /**
+     * @return The {@link RecentPlayers} holding the players who logged in most recently.
+     */
+    public RecentPlayers getRecentPlayers() {
+        return recentPlayers;
     }
 
     /**
-     * Class that handles the processing of the response from the ban function (from local to cpas)
+     * @return The {@link CacheWarmer} that fetches the data of recent players after startup.
      */
-    private static class ProcessBanResponseFromLocal implements Cpas.ProcessResponse<SuccessResponseModel> {
+    public CacheWarmer getCacheWarmer() {
+        return cacheWarmer;
+    }
 
-        /**
-         * the {@link MinecraftCpas} instance.
-         */
-        private final MinecraftCpas pluginInstance;
+    /**
+     * @return The {@link MetricsExporter} serving the plugin metrics, null unless enabled in the config.
+     */
+    public MetricsExporter getMetricsExporter() {
+        return metricsExporter;
+    }
 
-        /**
-         * The ban to process.
-         */
-        private final Ban ban;
+    /**
+     * @return The {@link TickProfiler} accounting for the time the plugin spends on the server thread.
+     */
+    public TickProfiler getTickProfiler() {
+        return tickProfiler;
+    }
 
-        /**
-         * Creates a new {@link ProcessBanResponseFromLocal} object.
-         *
-         * @param ban            the ban to remove
-         * @param pluginInstance the {@link MinecraftCpas} instance.
-         */
-        ProcessBanResponseFromLocal(Ban ban, MinecraftCpas pluginInstance) {
-            this.pluginInstance = pluginInstance;
-            this.ban = ban;
-        }
+    /**
+     * @return The {@link LocalBanIndex} holding the active bans this server knows about.
+     */
+    public LocalBanIndex getLocalBanIndex() {
+        return localBanIndex;
+    }
 
-        @Override
-        public void process(SuccessResponseModel response, String errorMessage) {
-            if (errorMessage == null && response.success) {
-                final BanService banService = pluginInstance.getGame().getServiceManager().provideUnchecked(BanService.class);
-                banService.removeBan(ban);
-            }
+    /**
+     * @return The {@link SessionTracker} holding the CPAS callbacks waiting on behalf of online players.
+     */
+    public SessionTracker getSessionTracker() {
+        return sessionTracker;
+    }
+
+    /**
+     * @return The {@link BanService} for this plugin to use.
+     */
+    public BanService getBanService() {
+        if (this.banService == null) {
+            Sponge.getServiceManager().provide(BanService.class).ifPresent(banService1->this.banService = banService1);
         }
+        return this.banService;
+    }
 
-        @Override
-        public Class<SuccessResponseModel> getModelClass() {
-            return SuccessResponseModel.class;
+    /**
+     * @return The {@link PermissionService} for this plugin to use.
+     */
+    public PermissionService getPermissionService() {
+        if (this.permissionService == null) {
+            Sponge.getServiceManager().provide(PermissionService.class).ifPresent(permissionService1->this.permissionService = permissionService1);
         }
+        return this.permissionService;
+    }
+
+    /**
+     * Get the admin {@link InfoModel} from a {@link UUID}
+     *
+     * @param uuid the {@link UUID} of a potential admin
+     * @return {@link InfoModel} of the admin or null if not present
+     */
+    public InfoModel getPlayerInfoModel(UUID uuid) {
+        return adminRegistry.get(uuid);
     }
 }
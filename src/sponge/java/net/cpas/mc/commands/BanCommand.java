@@ -32,7 +32,9 @@ package net.cpas.mc.commands;
 
 import net.cpas.Cpas;
 import net.cpas.mc.MinecraftCpas;
-import net.cpas.model.InfoModel;
+import net.cpas.mc.common.auth.AuthDecision;
+import net.cpas.mc.common.client.CpasClient;
+import net.cpas.mc.common.client.RequestPriority;
 import net.cpas.model.SuccessResponseModel;
 import org.spongepowered.api.command.CommandException;
 import org.spongepowered.api.command.CommandResult;
@@ -47,8 +49,8 @@ import org.spongepowered.api.util.ban.Ban;
 import org.spongepowered.api.util.ban.BanTypes;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
 import java.time.Instant;
-import java.util.Arrays;
 
 /**
  * Handle the /cpas ban (or /ban if the configuration allows) command
@@ -75,17 +77,7 @@ public class BanCommand extends BaseCommand {
      * @return the top 10 current admins on the server
      */
     private String[] getAdminList() {
-        int current = 0;
-        String[] admins = new String[NUMBER_OF_ADMINS];
-        Arrays.fill(admins, "");
-        for (InfoModel infoModel : pluginInstance.getAdminPlayerCache()) {
-            if (current < NUMBER_OF_ADMINS) {
-                admins[current++] = infoModel.gameId.toString();
-            } else {
-                break;
-            }
-        }
-        return admins;
+        return pluginInstance.getAdminRegistry().getTopAdminIds(NUMBER_OF_ADMINS);
     }
 
     /**
@@ -99,30 +91,9 @@ public class BanCommand extends BaseCommand {
             return true;
         }
         final User adminUser = (User) src;
-        // Grab the admin and user info
-        InfoModel adminInfoModel = null;
-        InfoModel userInfoModel = null;
-        for (InfoModel infoModel : pluginInstance.getAdminPlayerCache()) {
-            if (infoModel.gameId.equals(adminUser.getUniqueId())) {
-                adminInfoModel = infoModel;
-            }
-            // If user is banning self
-            if (infoModel.gameId.equals(user.getUniqueId())) {
-                userInfoModel = infoModel;
-            }
-        }
-        // If user is null i.e pub yes; if admin is null heck no
-        if (userInfoModel == null) {
-            return true;
-        } else if (adminInfoModel == null) {
-            return false;
-        }
-        // Don't ban if user is higher rank than cut off.
-        final int cutOff = pluginInstance.getConfig().getBanRankThreshold();
-        if (userInfoModel.primaryGroup.rank >= cutOff && adminInfoModel.primaryGroup.rank < cutOff) {
-            return false;
-        }
-        return true;
+        // Pubs can always be banned, admins only by admins and high ranks only by high ranks
+        return pluginInstance.getAdminRegistry().canBan(adminUser.getUniqueId(), user.getUniqueId(),
+                pluginInstance.getConfig().getBanRankThreshold());
     }
 
     @Nonnull
@@ -141,14 +112,16 @@ public class BanCommand extends BaseCommand {
         // If we can't get the Game ID from the banner then we can pass "" for this field. The API call will use the
         // default admin specified in its config as the banning admin
         final String bannerId = (src instanceof User ? ((User) src).getUniqueId().toString() : "");
-        Cpas.getInstance().banUser(
+        final String[] admins = getAdminList();
+        CpasClient.getInstance().banUser(
                 user.getUniqueId().toString(),
                 user.getName(),
                 bannerId,
-                getAdminList(),
+                admins,
                 duration,
                 reason,
-                new ProcessBanResponse(pluginInstance, src, user, reason, duration));
+                RequestPriority.INTERACTIVE,
+                new ProcessBanResponse(pluginInstance, src, user, bannerId, admins, reason, duration));
 
         // Unfortunately we can't guarantee success at this point since the the result of the call will be sent to the
         // user asynchronously, but most of the time it should succeed, and if it doesn't it will print an error message
@@ -186,39 +159,79 @@ public class BanCommand extends BaseCommand {
          */
         private final int duration;
 
+        /**
+         * The game id of the banning admin, empty for the default admin.
+         */
+        private final String bannerId;
+
+        /**
+         * The admins that were on the server when the ban was made.
+         */
+        private final String[] admins;
+
         /**
          * Creates a new {@link ProcessBanResponse} object.
          *
          * @param pluginInstance the {@link MinecraftCpas} instance.
          * @param src            the sender of the command
          * @param user           the {@link User} that was banned
+         * @param bannerId       the game id of the banning admin, empty for the default admin
+         * @param admins         the admins that were on the server when the ban was made
          * @param reason         the reason that the {@link User} was banned
          * @param duration       the duration that the {@link User} was banned
          */
-        ProcessBanResponse(@Nonnull MinecraftCpas pluginInstance, @Nonnull CommandSource src, @Nonnull User user, @Nonnull String reason, int duration) {
+        ProcessBanResponse(@Nonnull MinecraftCpas pluginInstance, @Nonnull CommandSource src, @Nonnull User user,
+                           @Nonnull String bannerId, @Nonnull String[] admins, @Nonnull String reason, int duration) {
             this.pluginInstance = pluginInstance;
             this.src = src;
             this.user = user;
+            this.bannerId = bannerId;
+            this.admins = admins;
             this.reason = reason;
             this.duration = duration;
         }
 
         @Override
         public void process(SuccessResponseModel successResponseModel, String errorResponse) {
-            if (errorResponse != null || !successResponseModel.success) {
+            // Only a failure to reach CPAS is worth queueing, a ban CPAS answered no to would be refused again
+            final boolean answered = errorResponse == null && successResponseModel != null;
+            final boolean rejected = answered && !successResponseModel.success;
+            // The cached verdict for this user is stale either way, the ban index gets the new ban once CPAS took it
+            // or it is safely in the outbox, a ban CPAS refused is not indexed
+            pluginInstance.getBanVerdictCache().invalidate(user.getUniqueId());
+            if (answered && !rejected) {
+                pluginInstance.getLocalBanIndex().update(user.getUniqueId(),
+                        AuthDecision.fromBanCommand(duration, reason, AuthDecision.Source.REMOTE));
+            }
+            if (!answered || rejected) {
                 pluginInstance.getLogger().error(String.format(
                         "%s attempted to ban %s which resulted in the error: %s",
                         src.getName(),
                         user.getUniqueId(),
-                        (errorResponse == null ? "failure" : errorResponse)));
+                        (errorResponse == null ? "refused by CPAS" : errorResponse)));
+
+                if (rejected) {
+                    src.sendMessage(Text.of(TextColors.GRAY, "CPAS refused the ban, it has not been queued."));
+                } else {
+                    // Queue the ban so it reaches CPAS once it is back, even across a restart
+                    try {
+                        pluginInstance.getBanOutbox().enqueue(user.getUniqueId().toString(), user.getName(), bannerId,
+                                admins, duration, reason);
+                        pluginInstance.getLocalBanIndex().update(user.getUniqueId(),
+                                AuthDecision.fromBanCommand(duration, reason, AuthDecision.Source.PENDING));
+                        src.sendMessage(Text.of(TextColors.GRAY, "Failed to ban on CPAS, the ban has been queued and will be sent when CPAS is back."));
+                    } catch (IOException e) {
+                        pluginInstance.getLogger().error("Could not queue the ban of " + user.getUniqueId() + ".", e);
+                    }
+                }
 
-                // Attempt to ban locally
-                src.sendMessage(Text.of(TextColors.GRAY, "Failed to ban on CPAS, Attempting to ban locally..."));
+                // Ban locally until CPAS has the ban
+                src.sendMessage(Text.of(TextColors.GRAY, "Attempting to ban locally..."));
                 final BanService banService = pluginInstance.getBanService();
                 //Minecraft has a bug where the start time is always the same as the end time on a temp ban
                 final Instant start = Instant.now();
                 final Instant end = Instant.now().plusSeconds(duration * 60);
-                final Ban userLocalBan = duration == 0
+                final Ban userLocalBan = AuthDecision.isPermanentBan(duration)
                         ? Ban.builder()
                         .type(BanTypes.PROFILE)
                         .profile(user.getProfile())
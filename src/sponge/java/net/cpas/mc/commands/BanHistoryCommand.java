@@ -37,6 +37,8 @@ import javax.annotation.Nonnull;
 
 import net.cpas.Cpas;
 import net.cpas.mc.MinecraftCpas;
+import net.cpas.mc.common.client.CpasClient;
+import net.cpas.mc.common.client.RequestPriority;
 import net.cpas.model.BanHistoryModel;
 import net.cpas.model.CpasBanModel;
 import org.spongepowered.api.command.CommandException;
@@ -68,9 +70,10 @@ public class BanHistoryCommand extends BaseCommand {
     public CommandResult execute(@Nonnull CommandSource src, @Nonnull CommandContext args) throws CommandException {
         final User user = castArgument(args, "user", User.class);
         src.sendMessage(Text.of(TextColors.GRAY, "Fetching ban history from server..."));
-        Cpas.getInstance().getBanHistory(
+        CpasClient.getInstance().getBanHistory(
                 user.getUniqueId().toString(),
                 pluginInstance.getConfig().numberOfBanHistoryRecords(),
+                RequestPriority.INTERACTIVE,
                 new ProcessBanHistoryResponse(pluginInstance, src, user)
         );
         // Unfortunately we can't guarantee success at this point since the desired information will be sent to the user
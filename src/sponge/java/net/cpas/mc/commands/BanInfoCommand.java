@@ -34,6 +34,9 @@ import javax.annotation.Nonnull;
 
 import net.cpas.Cpas;
 import net.cpas.mc.MinecraftCpas;
+import net.cpas.mc.common.auth.AuthDecision;
+import net.cpas.mc.common.client.CpasClient;
+import net.cpas.mc.common.client.RequestPriority;
 import net.cpas.model.BanInfoModel;
 import org.spongepowered.api.command.CommandException;
 import org.spongepowered.api.command.CommandResult;
@@ -64,7 +67,7 @@ public class BanInfoCommand extends BaseCommand {
     public CommandResult execute(@Nonnull CommandSource src, @Nonnull CommandContext args) throws CommandException {
         src.sendMessage(Text.of(TextColors.GRAY, "Fetching ban info from server..."));
         final User user = castArgument(args, "user", User.class);
-        Cpas.getInstance().getBanInfo(user.getUniqueId().toString(), new ProcessBanInfoResponse(pluginInstance, src, user));
+        CpasClient.getInstance().getBanInfo(user.getUniqueId().toString(), RequestPriority.INTERACTIVE, new ProcessBanInfoResponse(pluginInstance, src, user));
         // Unfortunately we can't guarantee success at this point since the desired information will be sent to the user
         // asynchronously, but most of the time it should succeed, and if it doesn't it will print an error message to
         // the user anyway so we may as well mark it as having succeeded.
@@ -115,6 +118,9 @@ public class BanInfoCommand extends BaseCommand {
                 src.sendMessage(Text.of(TextColors.RED, errorResponse));
                 return;
             }
+            // Keep the local copy of active bans current
+            pluginInstance.getLocalBanIndex().update(user.getUniqueId(),
+                    AuthDecision.fromBanInfo(banInfoModel, AuthDecision.Source.REMOTE));
 
             final Text banInfoMessage;
             if (banInfoModel.duration == 0) {
@@ -32,9 +32,11 @@ package net.cpas.mc.commands;
 
 import com.google.common.base.Preconditions;
 import net.cpas.mc.MinecraftCpas;
+import net.cpas.mc.common.metrics.TickProfiler;
 import org.spongepowered.api.Sponge;
 import org.spongepowered.api.command.CommandManager;
 import org.spongepowered.api.command.args.GenericArguments;
+import org.spongepowered.api.command.spec.CommandExecutor;
 import org.spongepowered.api.command.spec.CommandSpec;
 import org.spongepowered.api.event.game.state.GameInitializationEvent;
 import org.spongepowered.api.text.Text;
@@ -61,7 +63,7 @@ public class CommandRegistrar {
                 .arguments(GenericArguments.userOrSource(Text.of("user")))
                 .description(Text.of("Get info from CPAS about a player or yourself"))
                 .permission("cpas.commands.info")
-                .executor(new InfoCommand(pluginInstance))
+                .executor(profiled(pluginInstance, "/cpas info", new InfoCommand(pluginInstance)))
                 .build();
         final CommandSpec banCommand = CommandSpec.builder()
                 .arguments(GenericArguments.onlyOne(GenericArguments.user(Text.of("user"))),
@@ -69,35 +71,50 @@ public class CommandRegistrar {
                         GenericArguments.remainingJoinedStrings(Text.of("reason")))
                 .description(Text.of("Ban a player from the server"))
                 .permission("cpas.commands.ban")
-                .executor(new BanCommand(pluginInstance))
+                .executor(profiled(pluginInstance, "/cpas ban", new BanCommand(pluginInstance)))
                 .build();
         final CommandSpec banHistoryCommand = CommandSpec.builder()
                 .arguments(GenericArguments.user(Text.of("user")))
                 .description(Text.of("View the ban history of a player"))
                 .permission("cpas.commands.banhistory")
-                .executor(new BanHistoryCommand(pluginInstance))
+                .executor(profiled(pluginInstance, "/cpas banhistory", new BanHistoryCommand(pluginInstance)))
                 .build();
         final CommandSpec banInfoCommand = CommandSpec.builder()
                 .arguments(GenericArguments.user(Text.of("user")))
                 .description(Text.of("View specific info about the current ban for a player (if they are banned)"))
                 .permission("cpas.commands.baninfo")
-                .executor(new BanInfoCommand(pluginInstance))
+                .executor(profiled(pluginInstance, "/cpas baninfo", new BanInfoCommand(pluginInstance)))
                 .build();
         final CommandSpec reloadCommand = CommandSpec.builder()
                 .description(Text.of("Trigger a reload of the CPAS plugin (including the configuration file"))
                 .permission("cpas.commands.reload")
-                .executor(new ReloadCommand(pluginInstance))
+                .executor(profiled(pluginInstance, "/cpas reload", new ReloadCommand(pluginInstance)))
                 .build();
         final CommandSpec versionCommand = CommandSpec.builder()
                 .description(Text.of("Get the current version of the CPAS plugin"))
                 .permission("cpas.commands.version")
-                .executor(new VersionCommand(pluginInstance))
+                .executor(profiled(pluginInstance, "/cpas version", new VersionCommand(pluginInstance)))
                 .build();
         final CommandSpec updateUserCommand = CommandSpec.builder()
                 .arguments(GenericArguments.user(Text.of("user")))
                 .description(Text.of("Updates a users status (fetches user info from CPAS server)."))
                 .permission("cpas.commands.updateuser")
-                .executor(new UpdateUserCommand(pluginInstance))
+                .executor(profiled(pluginInstance, "/cpas updateuser", new UpdateUserCommand(pluginInstance)))
+                .build();
+        final CommandSpec statusCommand = CommandSpec.builder()
+                .description(Text.of("Shows whether each CPAS endpoint is reachable"))
+                .permission("cpas.commands.status")
+                .executor(profiled(pluginInstance, "/cpas status", new StatusCommand(pluginInstance)))
+                .build();
+        final CommandSpec statsCommand = CommandSpec.builder()
+                .description(Text.of("Shows how long CPAS requests take and how often they fail"))
+                .permission("cpas.commands.stats")
+                .executor(profiled(pluginInstance, "/cpas stats", new StatsCommand(pluginInstance)))
+                .build();
+        final CommandSpec requeueCommand = CommandSpec.builder()
+                .description(Text.of("Sends the bans CPAS refused to CPAS again"))
+                .permission("cpas.commands.requeue")
+                .executor(profiled(pluginInstance, "/cpas requeue", new RequeueCommand(pluginInstance)))
                 .build();
         final CommandSpec baseCommand = CommandSpec.builder()
                 .child(infoCommand, "info")
@@ -107,6 +124,9 @@ public class CommandRegistrar {
                 .child(reloadCommand, "reload")
                 .child(versionCommand, "version")
                 .child(updateUserCommand, "updateuser")
+                .child(statusCommand, "status")
+                .child(statsCommand, "stats")
+                .child(requeueCommand, "requeue")
                 .build();
 
         final CommandManager commandManager = Sponge.getCommandManager();
@@ -115,4 +135,22 @@ public class CommandRegistrar {
             commandManager.register(pluginInstance, banCommand, "ban");
         }
     }
+    /**
+     * Wraps a command so the time it spends on the server thread is accounted for by the tick profiler.
+     *
+     * @param pluginInstance the instance of the main plugin class
+     * @param name           the name of the command in the profiler
+     * @param executor       the command
+     * @return the command, timed
+     */
+    @Nonnull
+    private static CommandExecutor profiled(@Nonnull MinecraftCpas pluginInstance, @Nonnull String name,
+                                            @Nonnull CommandExecutor executor) {
+        final TickProfiler.Section section = pluginInstance.getTickProfiler().section(name);
+        return (src, args)->{
+            try (TickProfiler.Section ignored = section.start()) {
+                return executor.execute(src, args);
+            }
+        };
+    }
 }
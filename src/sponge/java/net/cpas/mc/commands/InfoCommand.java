@@ -34,6 +34,8 @@ import javax.annotation.Nonnull;
 
 import net.cpas.Cpas;
 import net.cpas.mc.MinecraftCpas;
+import net.cpas.mc.common.client.CpasClient;
+import net.cpas.mc.common.client.RequestPriority;
 import net.cpas.model.InfoModel;
 import org.spongepowered.api.command.CommandException;
 import org.spongepowered.api.command.CommandResult;
@@ -62,16 +64,37 @@ public class InfoCommand extends BaseCommand {
     @Nonnull
     @Override
     public CommandResult execute(@Nonnull CommandSource src, @Nonnull CommandContext args) throws CommandException {
-        // TODO: If we have cached data about the player that's less than X minutes old, use that instead of making the API request
-        src.sendMessage(Text.of(TextColors.GRAY, "Fetching info from server..."));
         final User user = castArgument(args, "user", User.class);
-        Cpas.getInstance().getInfo(user.getUniqueId().toString(), false, new ProcessInfoResponse(pluginInstance, src, user));
+        // Recent info is shown right away, if it is getting old it is refreshed in the background
+        final InfoModel cachedInfoModel = pluginInstance.getInfoModelCache().get(user.getUniqueId());
+        if (cachedInfoModel != null) {
+            sendInfo(src, user, cachedInfoModel);
+            return CommandResult.success();
+        }
+        src.sendMessage(Text.of(TextColors.GRAY, "Fetching info from server..."));
+        CpasClient.getInstance().getInfo(user.getUniqueId().toString(), false, RequestPriority.INTERACTIVE, new ProcessInfoResponse(pluginInstance, src, user));
         // Unfortunately we can't guarantee success at this point since the desired information will be sent to the user
         // asynchronously, but most of the time it should succeed, and if it doesn't it will print an error message to
         // the user anyway so we may as well mark it as having succeeded.
         return CommandResult.success();
     }
 
+    /**
+     * Sends the CPAS info of a player.
+     *
+     * @param src       the sender of the command
+     * @param user      the {@link User} that info was retrieved for
+     * @param infoModel the CPAS info of the {@link User}
+     */
+    private static void sendInfo(@Nonnull CommandSource src, @Nonnull User user, @Nonnull InfoModel infoModel) {
+        src.sendMessage(Text.of(String.format("%s (%s)", user.getName(), user.getUniqueId())));
+        if (infoModel.userId > 0) {
+            src.sendMessage(Text.of("Forum name: " + infoModel.forumName));
+            src.sendMessage(Text.of("Rank: " + infoModel.primaryGroup.name));
+            src.sendMessage(Text.of("Division: " + infoModel.divisionName));
+        }
+    }
+
     /**
      * Class that handles the processing of the response to the info command
      *
@@ -120,12 +143,8 @@ public class InfoCommand extends BaseCommand {
                 return;
             }
 
-            src.sendMessage(Text.of(String.format("%s (%s)", user.getName(), user.getUniqueId())));
-            if (infoModel.userId > 0) {
-                src.sendMessage(Text.of("Forum name: " + infoModel.forumName));
-                src.sendMessage(Text.of("Rank: " + infoModel.primaryGroup.name));
-                src.sendMessage(Text.of("Division: " + infoModel.divisionName));
-            }
+            pluginInstance.getInfoModelCache().put(user.getUniqueId(), infoModel);
+            sendInfo(src, user, infoModel);
         }
 
         @Override
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.commands;
+
+import javax.annotation.Nonnull;
+
+import net.cpas.mc.MinecraftCpas;
+import net.cpas.mc.common.client.CpasClient;
+import net.cpas.mc.common.metrics.EndpointStats;
+import net.cpas.mc.common.metrics.LatencyHistogram;
+import net.cpas.mc.common.metrics.TickProfiler;
+import org.spongepowered.api.command.CommandException;
+import org.spongepowered.api.command.CommandResult;
+import org.spongepowered.api.command.CommandSource;
+import org.spongepowered.api.command.args.CommandContext;
+import org.spongepowered.api.text.Text;
+import org.spongepowered.api.text.format.TextColors;
+
+/**
+ * Handle the /cpas stats command
+ */
+public class StatsCommand extends BaseCommand {
+
+    /**
+     * Creates a new {@link StatsCommand} object.
+     *
+     * @param pluginInstance the {@link MinecraftCpas} instance.
+     */
+    StatsCommand(@Nonnull MinecraftCpas pluginInstance) {
+        super(pluginInstance);
+    }
+
+    @Nonnull
+    @Override
+    public CommandResult execute(@Nonnull CommandSource src, @Nonnull CommandContext args) throws CommandException {
+        src.sendMessage(Text.of(TextColors.GOLD, "CPAS latency (p50 / p99 / p999 in ms):"));
+        for (EndpointStats stats : CpasClient.getInstance().getStats()) {
+            src.sendMessage(Text.of(TextColors.YELLOW, String.format("%s: %d responses, %.1f%% errors",
+                    stats.getName(), stats.getResponses(), stats.getErrorRate() * 100)));
+            if (stats.getResponses() > 0) {
+                src.sendMessage(Text.of(TextColors.GRAY, "  queue ", format(stats.getQueueWait()),
+                        "  network ", format(stats.getNetwork()),
+                        "  callback ", format(stats.getCallback())));
+            }
+        }
+        final TickProfiler tickProfiler = pluginInstance.getTickProfiler();
+        final double ticks = Math.max(1, Math.min(tickProfiler.getTicks(), tickProfiler.getWindowTicks()));
+        src.sendMessage(Text.of(TextColors.GOLD, String.format(
+                "Server thread: %.3f ms per tick over the last minute, worst tick %.2f ms, %d ticks over budget",
+                tickProfiler.getWindowNanos() / ticks / 1_000_000, tickProfiler.getWorstTickNanos() / 1_000_000.0,
+                tickProfiler.getOverBudgetTicks())));
+        for (TickProfiler.Section section : tickProfiler.getSections()) {
+            if (section.getCalls() > 0) {
+                src.sendMessage(Text.of(TextColors.GRAY, String.format("  %s: %.3f ms per tick, %d calls",
+                        section.getName(), section.getWindowNanos() / ticks / 1_000_000, section.getCalls())));
+            }
+        }
+        return CommandResult.success();
+    }
+
+    /**
+     * @param histogram a latency distribution.
+     * @return the p50, p99 and p999 of the distribution in milliseconds.
+     */
+    @Nonnull
+    private static String format(@Nonnull LatencyHistogram histogram) {
+        return String.format("%.1f / %.1f / %.1f",
+                histogram.getPercentileMicros(50) / 1000.0,
+                histogram.getPercentileMicros(99) / 1000.0,
+                histogram.getPercentileMicros(99.9) / 1000.0);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.commands;
+
+import javax.annotation.Nonnull;
+
+import net.cpas.mc.MinecraftCpas;
+import net.cpas.mc.common.client.CircuitBreaker;
+import net.cpas.mc.common.client.ConcurrencyLimiter;
+import net.cpas.mc.common.client.CpasClient;
+import net.cpas.mc.common.client.RequestPriority;
+import net.cpas.mc.common.outbox.BanOutbox;
+import net.cpas.mc.common.session.SessionTracker;
+import org.spongepowered.api.command.CommandException;
+import org.spongepowered.api.command.CommandResult;
+import org.spongepowered.api.command.CommandSource;
+import org.spongepowered.api.command.args.CommandContext;
+import org.spongepowered.api.text.Text;
+import org.spongepowered.api.text.format.TextColor;
+import org.spongepowered.api.text.format.TextColors;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handle the /cpas status command
+ */
+public class StatusCommand extends BaseCommand {
+
+    /**
+     * Creates a new {@link StatusCommand} object.
+     *
+     * @param pluginInstance the {@link MinecraftCpas} instance.
+     */
+    StatusCommand(@Nonnull MinecraftCpas pluginInstance) {
+        super(pluginInstance);
+    }
+
+    @Nonnull
+    @Override
+    public CommandResult execute(@Nonnull CommandSource src, @Nonnull CommandContext args) throws CommandException {
+        src.sendMessage(Text.of(TextColors.GOLD, "CPAS endpoints:"));
+        for (CircuitBreaker breaker : CpasClient.getInstance().getBreakers()) {
+            final CircuitBreaker.State state = breaker.getState();
+            src.sendMessage(Text.of(TextColors.GRAY, breaker.getName(), ": ", colorOf(state), state,
+                    TextColors.GRAY, String.format(" for %ds, %d failures in a row, %d refused, opened %d times",
+                            TimeUnit.MILLISECONDS.toSeconds(breaker.getMillisInState()),
+                            breaker.getConsecutiveFailures(),
+                            breaker.getRejectedRequests(),
+                            breaker.getTrips())));
+        }
+        final ConcurrencyLimiter limiter = CpasClient.getInstance().getLimiter();
+        src.sendMessage(Text.of(TextColors.GRAY, String.format(
+                "Requests: %d/%d in flight, %d queued, cut %d times, queue wait max %dms, total %dms over %d requests",
+                limiter.getInFlight(),
+                limiter.getLimit(),
+                limiter.getQueueDepth(),
+                limiter.getDecreases(),
+                limiter.getMaxQueueWaitMillis(),
+                limiter.getTotalQueueWaitMillis(),
+                limiter.getQueuedRequests())));
+        for (CpasClient.Endpoint endpoint : CpasClient.Endpoint.values()) {
+            final ConcurrencyLimiter.Latency latency = CpasClient.getInstance().getLatency(endpoint);
+            src.sendMessage(Text.of(TextColors.GRAY, String.format("%s latency: %dms recent, %dms usual",
+                    latency.getName(), latency.getRecentMillis(), latency.getBaselineMillis())));
+        }
+        src.sendMessage(Text.of(TextColors.GRAY, String.format("Queued by priority: %d auth, %d interactive, %d background",
+                limiter.getQueueDepth(RequestPriority.AUTH),
+                limiter.getQueueDepth(RequestPriority.INTERACTIVE),
+                limiter.getQueueDepth(RequestPriority.BACKGROUND))));
+        final BanOutbox banOutbox = pluginInstance.getBanOutbox();
+        src.sendMessage(Text.of(TextColors.GRAY, String.format("Ban outbox: %d waiting, %d given up on",
+                banOutbox.getQueueDepth(),
+                banOutbox.getDeadLetterCount())));
+        for (BanOutbox.DeadLetter deadLetter : banOutbox.getDeadLetters()) {
+            src.sendMessage(Text.of(TextColors.GRAY, String.format(" - %s (%s): %s",
+                    deadLetter.getBan().getName(),
+                    deadLetter.getBan().getReason().trim(),
+                    deadLetter.getReason())));
+        }
+        final SessionTracker sessionTracker = pluginInstance.getSessionTracker();
+        src.sendMessage(Text.of(TextColors.GRAY, String.format(
+                "Player sessions: %d waiting on CPAS, %d callbacks cancelled on disconnect, %d late responses dropped",
+                sessionTracker.getActiveSessions(),
+                sessionTracker.getCancelledCallbacks(),
+                sessionTracker.getDroppedResponses())));
+        return CommandResult.success();
+    }
+
+    /**
+     * @param state the state of a breaker.
+     * @return the color to show the state in.
+     */
+    @Nonnull
+    private static TextColor colorOf(@Nonnull CircuitBreaker.State state) {
+        switch (state) {
+            case CLOSED:
+                return TextColors.GREEN;
+            case HALF_OPEN:
+                return TextColors.YELLOW;
+            default:
+                return TextColors.RED;
+        }
+    }
+}
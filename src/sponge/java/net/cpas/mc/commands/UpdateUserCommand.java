@@ -30,8 +30,9 @@
  */
 package net.cpas.mc.commands;
 
-import net.cpas.Cpas;
 import net.cpas.mc.MinecraftCpas;
+import net.cpas.mc.common.client.CpasClient;
+import net.cpas.mc.common.client.RequestPriority;
 import net.cpas.mc.events.LoginListener;
 import net.cpas.model.InfoModel;
 import org.spongepowered.api.command.CommandException;
@@ -79,8 +80,9 @@ public class UpdateUserCommand extends BaseCommand {
         if (player.isPresent()) {
             final InetSocketAddress playerAddress = player.get().getConnection().getAddress();
             src.sendMessage(Text.of("Attempting to get player info..."));
-            Cpas.getInstance().getInfo(playerUUID.toString(), playerAddress.getAddress().getHostAddress(), false,
-                    new ProcessInfoModelResponse(pluginInstance, playerUUID, player.get(), src));
+            CpasClient.getInstance().getInfo(playerUUID.toString(), playerAddress.getAddress().getHostAddress(), false,
+                    RequestPriority.INTERACTIVE, pluginInstance.getSessionTracker().bind(playerUUID,
+                            new ProcessInfoModelResponse(pluginInstance, playerUUID, src)));
         } else {
             pluginInstance.getLogger().info("Attempted to fire info request for non player.");
         }
@@ -102,12 +104,11 @@ public class UpdateUserCommand extends BaseCommand {
          *
          * @param pluginInstance the {@link MinecraftCpas} instance.
          * @param playerUUID     The {@link UUID} of the player.
-         * @param player         the player {@link Optional} object.
          * @param src            the source command executor which created this callback.
          */
-        ProcessInfoModelResponse(@Nonnull MinecraftCpas pluginInstance, @Nonnull UUID playerUUID, @Nonnull Player player,
+        ProcessInfoModelResponse(@Nonnull MinecraftCpas pluginInstance, @Nonnull UUID playerUUID,
                                  @Nonnull CommandSource src) {
-            super(pluginInstance, playerUUID, player, false);
+            super(pluginInstance, playerUUID, false);
             this.src = src;
         }
 
@@ -32,6 +32,11 @@ package net.cpas.mc.events;
 
 import net.cpas.Cpas;
 import net.cpas.mc.MinecraftCpas;
+import net.cpas.mc.common.auth.AuthDecision;
+import net.cpas.mc.common.client.CpasClient;
+import net.cpas.mc.common.client.RequestPriority;
+import net.cpas.mc.common.jfr.LoginEvents;
+import net.cpas.mc.common.jfr.LoginStage;
 import net.cpas.model.BanInfoModel;
 import org.spongepowered.api.event.Listener;
 import org.spongepowered.api.event.Order;
@@ -42,12 +47,14 @@ import org.spongepowered.api.service.ban.BanService;
 import org.spongepowered.api.text.Text;
 import org.spongepowered.api.text.serializer.TextSerializers;
 import org.spongepowered.api.util.Tristate;
+import org.spongepowered.api.util.ban.Ban;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.time.Instant;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Listens to the {@link ClientConnectionEvent.Auth} event.
@@ -66,19 +73,80 @@ public class AuthListener extends BaseEvent {
     }
 
     /**
-     * Adds players to the cache and gets info on a player form CPAS.
+     * Checks if the player is banned. Bans in the local ban index are enforced right away and confirmed with CPAS in the
+     * background. Recent CPAS verdicts are reused, otherwise CPAS is only waited on until the configured deadline,
+     * after that the local {@link BanService} decides.
      *
      * @param event the {@link ClientConnectionEvent.Auth} event.
      */
     @IsCancelled (Tristate.UNDEFINED)
     @Listener (order = Order.EARLY)
-    public void onAuth(@Nonnull ClientConnectionEvent.Auth event) throws ExecutionException, InterruptedException {
+    public void onAuth(@Nonnull ClientConnectionEvent.Auth event) {
         final UUID playerUUID = event.getProfile().getUniqueId();
 
         //Check if player is banned
-        Cpas.getInstance().getBanInfo(playerUUID.toString(), new ProcessBanInfoResponse(pluginInstance, event))
-                // Holds this thread for the callback to finish before continuing
-                .get();
+        final LoginEvents.Span authCheck = LoginEvents.begin(LoginStage.AUTH_CHECK);
+        final AuthDecision decision = pluginInstance.getAuthDecisionEngine().decide(playerUUID, AuthListener::requestBanInfo,
+                uuid->decideFromBanService(event.getProfile()));
+        authCheck.end(playerUUID, decision.isBanned() ? "banned" : "allowed", decision.getSource().name());
+        if (decision.getSource() == AuthDecision.Source.FALLBACK) {
+            pluginInstance.getLogger().debug("Ban check for " + playerUUID + " was decided locally.");
+        }
+        if (decision.isBanned()) {
+            event.setCancelled(true);
+            event.setMessage(Text.of(getKickText(decision)));
+        }
+    }
+
+    /**
+     * @param playerUUID the {@link UUID} of the connecting player.
+     * @return the pending CPAS verdict for the player.
+     */
+    @Nonnull
+    private static CompletableFuture<AuthDecision> requestBanInfo(@Nonnull UUID playerUUID) {
+        final CompletableFuture<AuthDecision> remoteVerdict = new CompletableFuture<>();
+        CpasClient.getInstance().getBanInfo(playerUUID.toString(), RequestPriority.AUTH, new ProcessBanInfoResponse(remoteVerdict));
+        return remoteVerdict;
+    }
+
+    /**
+     * Minecraft only knows about perm bans so if you want to show time left on temp bans we need this.
+     *
+     * @param userProfile the profile of the connecting player.
+     * @return the decision from the local {@link BanService} or null if the player has no local ban.
+     */
+    @Nullable
+    private AuthDecision decideFromBanService(@Nonnull GameProfile userProfile) {
+        final BanService banService = pluginInstance.getBanService();
+        if (banService == null) {
+            return null;
+        }
+        final Optional<Ban.Profile> optionalBan = banService.getBanFor(userProfile);
+        if (!optionalBan.isPresent()) {
+            return null;
+        }
+        final Ban.Profile ban = optionalBan.get();
+        final String reason = TextSerializers.FORMATTING_CODE.serialize(ban.getReason().orElse(Text.of("")));
+        final Optional<Instant> optionalInstant = ban.getExpirationDate();
+        if (!optionalInstant.isPresent()) {
+            return AuthDecision.banned(-1, reason, AuthDecision.Source.FALLBACK);
+        }
+        final long secondsLeft = optionalInstant.get().getEpochSecond() - Instant.now().getEpochSecond();
+        if (secondsLeft <= 0) {
+            return null;
+        }
+        return AuthDecision.banned((int) Math.max(1, (secondsLeft + 59) / 60), reason, AuthDecision.Source.FALLBACK);
+    }
+
+    /**
+     * @param decision the ban decision.
+     * @return the message to show the banned player.
+     */
+    @Nonnull
+    private static String getKickText(@Nonnull AuthDecision decision) {
+        return decision.isPermanent() ? "You are permanently banned from this server.\nReason: " + decision.getReason() :
+                "You are temporarily banned from this server, your ban will expire in " + decision.getDuration() + " minutes." +
+                        "\nReason: " + decision.getReason();
     }
 
     /**
@@ -87,53 +155,22 @@ public class AuthListener extends BaseEvent {
     private static class ProcessBanInfoResponse implements Cpas.ProcessResponse<BanInfoModel> {
 
         /**
-         * The {@link MinecraftCpas} instance.
-         */
-        private final MinecraftCpas pluginInstance;
-
-        /**
-         * The event to handle on auth.
+         * The verdict to complete once CPAS answers.
          */
-        private final ClientConnectionEvent.Auth event;
+        private final CompletableFuture<AuthDecision> verdict;
 
         /**
          * Creates a new {@link ProcessBanInfoResponse} object.
          *
-         * @param pluginInstance the {@link MinecraftCpas} instance
-         * @param event          the event of the process
+         * @param verdict the verdict to complete once CPAS answers.
          */
-        ProcessBanInfoResponse(@Nonnull MinecraftCpas pluginInstance, @Nonnull ClientConnectionEvent.Auth event) {
-            this.pluginInstance = pluginInstance;
-            this.event = event;
+        ProcessBanInfoResponse(@Nonnull CompletableFuture<AuthDecision> verdict) {
+            this.verdict = verdict;
         }
 
         @Override
         public void process(BanInfoModel response, String errorMessage) {
-            if (errorMessage == null && response.duration != 0) {
-                final String kickText = response.duration < 0 ? "You are permanently banned from this server.\nReason: " +
-                        response.reason :
-                        "You are temporarily banned from this server, your ban will expire in " + response.duration + " minuets." +
-                                "\nReason: " + response.reason;
-                event.setCancelled(true);
-                event.setMessage(Text.of(kickText));
-            } else {
-                //Minecraft only knows about perm bans so if you want to show time left on temp bans we need this
-                final BanService banService = pluginInstance.getBanService();
-                final GameProfile userProfile = event.getProfile();
-                if (banService.isBanned(userProfile)) {
-                    banService.getBanFor(userProfile).ifPresent(profile->{
-                        final Optional<Instant> optionalInstant = profile.getExpirationDate();
-                        final String kickText = optionalInstant.map(instant->
-                                "You are temporarily banned from this server, your ban will expire in: " +
-                                        ((instant.getEpochSecond() - Instant.now().getEpochSecond()) * 60) + " minuets" +
-                                        "\nReason: " + TextSerializers.FORMATTING_CODE.serialize(profile.getReason().orElse(Text.of(""))))
-                                .orElse("You are permanently banned from this server.\nReason: " +
-                                        TextSerializers.FORMATTING_CODE.serialize(profile.getReason().orElse(Text.of(""))));
-                        event.setCancelled(true);
-                        event.setMessage(Text.of(kickText));
-                    });
-                }
-            }
+            verdict.complete(errorMessage != null ? null : AuthDecision.fromBanInfo(response, AuthDecision.Source.REMOTE));
         }
 
         @Override
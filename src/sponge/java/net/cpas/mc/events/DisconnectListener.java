@@ -31,7 +31,7 @@
 package net.cpas.mc.events;
 
 import net.cpas.mc.MinecraftCpas;
-import net.cpas.model.InfoModel;
+import net.cpas.mc.common.metrics.TickProfiler;
 import org.spongepowered.api.entity.living.player.Player;
 import org.spongepowered.api.event.Listener;
 import org.spongepowered.api.event.network.ClientConnectionEvent;
@@ -46,6 +46,11 @@ import java.util.Optional;
  */
 public class DisconnectListener extends BaseEvent {
 
+    /**
+     * Times this listener on the server thread.
+     */
+    private final TickProfiler.Section section;
+
     /**
      * Creates a new {@link DisconnectListener} object.
      *
@@ -53,21 +58,22 @@ public class DisconnectListener extends BaseEvent {
      */
     DisconnectListener(@Nonnull MinecraftCpas pluginInstance) {
         super(pluginInstance);
+        this.section = pluginInstance.getTickProfiler().section("onDisconnect");
     }
 
     /**
-     * Removes players from the cache when they disconnect.
+     * Removes players from the cache and cancels the CPAS callbacks waiting on their behalf when they disconnect.
      *
      * @param event the {@link ClientConnectionEvent.Disconnect} event.
      */
     @Listener
     public void onDisconnect(@Nonnull ClientConnectionEvent.Disconnect event) {
-        final Optional<Player> player = event.getCause().first(Player.class);
-        if (player.isPresent()) {
-            final InfoModel adminInfoModel = pluginInstance.getPlayerInfoModel(player.get().getUniqueId());
-            if (adminInfoModel != null) {
-                pluginInstance.getAdminPlayerCache().remove(adminInfoModel);
-            }
+        try (TickProfiler.Section ignored = section.start()) {
+            final Optional<Player> player = event.getCause().first(Player.class);
+            player.ifPresent(value->{
+                pluginInstance.getAdminRegistry().remove(value.getUniqueId());
+                pluginInstance.getSessionTracker().end(value.getUniqueId());
+            });
         }
     }
 }
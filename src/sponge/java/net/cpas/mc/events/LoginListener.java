@@ -32,9 +32,16 @@ package net.cpas.mc.events;
 
 import net.cpas.Cpas;
 import net.cpas.mc.MinecraftCpas;
+import net.cpas.mc.common.client.CpasClient;
+import net.cpas.mc.common.client.RequestPriority;
+import net.cpas.mc.common.group.GroupResolver;
+import net.cpas.mc.common.jfr.LoginEvents;
+import net.cpas.mc.common.jfr.LoginStage;
+import net.cpas.mc.common.metrics.TickProfiler;
+import net.cpas.mc.common.permission.PermissionSyncEngine;
+import net.cpas.mc.common.profile.ProfileSnapshotStore;
 import net.cpas.model.CpasGroupModel;
 import net.cpas.model.InfoModel;
-import ninja.leaping.configurate.commented.CommentedConfigurationNode;
 import org.spongepowered.api.entity.living.player.Player;
 import org.spongepowered.api.event.Listener;
 import org.spongepowered.api.event.network.ClientConnectionEvent;
@@ -47,16 +54,22 @@ import org.spongepowered.api.text.format.TextColors;
 import org.spongepowered.api.util.Tristate;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.*;
 
 /**
- * Listens to the {@link ClientConnectionEvent.Login} event.
+ * Listens to the {@link ClientConnectionEvent.Login} and {@link ClientConnectionEvent.Join} events.
  *
  * @author agent6262
  */
 public class LoginListener extends BaseEvent {
 
+    /**
+     * Times this listener on the server thread.
+     */
+    private final TickProfiler.Section section;
+
     /**
      * Creates a new {@link BaseEvent} object.
      *
@@ -64,6 +77,7 @@ public class LoginListener extends BaseEvent {
      */
     LoginListener(@Nonnull MinecraftCpas pluginInstance) {
         super(pluginInstance);
+        this.section = pluginInstance.getTickProfiler().section("onLogin");
     }
 
     /**
@@ -73,16 +87,32 @@ public class LoginListener extends BaseEvent {
      */
     @Listener
     public void onLogin(@Nonnull ClientConnectionEvent.Login event) {
-        final UUID playerUUID = event.getProfile().getUniqueId();
-        final InetSocketAddress playerAddress = event.getConnection().getAddress();
-        final Optional<Player> player = event.getCause().first(Player.class);
+        try (TickProfiler.Section ignored = section.start()) {
+            final UUID playerUUID = event.getProfile().getUniqueId();
+            final InetSocketAddress playerAddress = event.getConnection().getAddress();
+            final Optional<Player> player = event.getCause().first(Player.class);
+
+            //Get the player info
+            if (player.isPresent()) {
+                pluginInstance.getRecentPlayers().touch(playerUUID, System.currentTimeMillis());
+                CpasClient.getInstance().getInfo(playerUUID.toString(), playerAddress.getAddress().getHostAddress(), false,
+                        RequestPriority.AUTH, pluginInstance.getSessionTracker().bind(playerUUID,
+                                new ProcessInfoModelResponse(pluginInstance, playerUUID, true)));
+            } else {
+                pluginInstance.getLogger().info("Attempted to fire Login event for non player.");
+            }
+        }
+    }
 
-        //Get the player info
-        if (player.isPresent()) {
-            Cpas.getInstance().getInfo(playerUUID.toString(), playerAddress.getAddress().getHostAddress(), false,
-                    new ProcessInfoModelResponse(pluginInstance, playerUUID, player.get(), true));
-        } else {
-            pluginInstance.getLogger().info("Attempted to fire Login event for non player.");
+    /**
+     * Runs the work that was waiting for the player to be in the world, like the join broadcast.
+     *
+     * @param event the {@link ClientConnectionEvent.Join} event.
+     */
+    @Listener
+    public void onJoin(@Nonnull ClientConnectionEvent.Join event) {
+        try (TickProfiler.Section ignored = section.start()) {
+            pluginInstance.getSessionTracker().joined(event.getTargetEntity().getUniqueId());
         }
     }
 
@@ -107,29 +137,28 @@ public class LoginListener extends BaseEvent {
         private final UUID playerUUID;
 
         /**
-         * The callback player.
+         * States if this is a login callback.
          */
-        private final Player player;
+        private final boolean login;
 
         /**
-         * States if this is a login callback.
+         * Times the info fetch of a login.
          */
-        private final boolean login;
+        private final LoginEvents.Span infoFetch;
 
         /**
          * Creates a new {@link ProcessInfoModelResponse} object.
          *
          * @param pluginInstance the {@link MinecraftCpas} instance.
          * @param playerUUID     The {@link UUID} of the player
-         * @param player         the player {@link Optional} object
          * @param login          states if this is a login callback.
          */
         protected ProcessInfoModelResponse(@Nonnull MinecraftCpas pluginInstance, @Nonnull UUID playerUUID,
-                                           @Nonnull Player player, boolean login) {
+                                           boolean login) {
             this.pluginInstance = pluginInstance;
             this.playerUUID = playerUUID;
-            this.player = player;
             this.login = login;
+            this.infoFetch = login ? LoginEvents.begin(LoginStage.INFO_FETCH) : LoginEvents.NONE;
         }
 
         /**
@@ -148,19 +177,39 @@ public class LoginListener extends BaseEvent {
 
         @Override
         public void process(InfoModel response, String errorMessage) {
+            final ProfileSnapshotStore profileSnapshotStore = pluginInstance.getProfileSnapshotStore();
             if (errorMessage != null) {
+                // CPAS could not be reached, carry on with what it told us about the player last time
+                final InfoModel snapshot = profileSnapshotStore.get(playerUUID);
+                infoFetch.end(playerUUID, snapshot != null ? "snapshot" : "failed", errorMessage);
+                if (snapshot != null) {
+                    apply(snapshot);
+                }
                 return;
             }
+            infoFetch.end(playerUUID, "fetched", null);
 
-            final CpasGroupModel atLeastAdminGroup = pluginInstance.getConfig().getAtLeastAdminGroup();
-            // Remove admin from list just in case they are still in in it.
-            final InfoModel adminInfoModel = pluginInstance.getPlayerInfoModel(playerUUID);
-            if (adminInfoModel != null) {
-                pluginInstance.getAdminPlayerCache().remove(adminInfoModel);
+            pluginInstance.getInfoModelCache().put(playerUUID, response);
+            try {
+                profileSnapshotStore.put(playerUUID, response);
+            } catch (IOException e) {
+                pluginInstance.getLogger().error("Could not save the profile snapshot of " + playerUUID, e);
             }
-            // Add admin to admin list
+            apply(response);
+        }
+
+        /**
+         * Refreshes the admin registry and the permissions of the player from their info.
+         *
+         * @param response the info of the player, from CPAS or the last snapshot of it.
+         */
+        private void apply(@Nonnull InfoModel response) {
+            final CpasGroupModel atLeastAdminGroup = pluginInstance.getConfig().getAtLeastAdminGroup();
+            // Add or refresh the admin, or remove them just in case they are still in the registry.
             if (checkContainingGroups(response.groups, atLeastAdminGroup)) {
-                pluginInstance.getAdminPlayerCache().add(response);
+                pluginInstance.getAdminRegistry().put(response);
+            } else {
+                pluginInstance.getAdminRegistry().remove(playerUUID);
             }
             // Init stuff
             final PermissionService permissionService = pluginInstance.getPermissionService();
@@ -173,91 +222,80 @@ public class LoginListener extends BaseEvent {
                 return;
             }
             final SubjectData playerData = optionalSubject.get().getSubjectData();
-            final String groupsText = pluginInstance.getConfig().getGroupsPrefix();
-
-            // Remove any other primary grpeoups and add primary group just in case
-            if (pluginInstance.getConfig().usePrimaryGroups()) {
-                // Remove any other primary groups
-                final Map<Object, ? extends CommentedConfigurationNode> primaryGroups = pluginInstance.getConfig().getPrimaryGroups();
-                for (Map.Entry<Object, ? extends CommentedConfigurationNode> kvp : primaryGroups.entrySet()) {
-                    // No point in not removing the primary group because it will just get added again anyway.
-                    // Also you can not check if a player has a parent no hasParent() function.
-                    playerData.setPermission(context, groupsText + kvp.getValue().getString(), Tristate.UNDEFINED);
-                }
-                // Add primary group just in case
-                final String strRank = String.valueOf(response.primaryGroup.rank);
-                if (primaryGroups.containsKey(strRank)) {
-                    playerData.setPermission(context, groupsText + primaryGroups.get(strRank).getString(), Tristate.TRUE);
-                    // Remove 'noGroup' if there is a primary group assigned
-                    if (pluginInstance.getConfig().useNoGroup()) {
-                        final String noGroupGroup = pluginInstance.getConfig().getNoGroupGroup();
-                        playerData.setPermission(context, groupsText + noGroupGroup, Tristate.UNDEFINED);
-                    }
-                } else {
-                    // Add 'noGroup' if there is no primary group assigned
-                    if (pluginInstance.getConfig().useNoGroup()) {
-                        final String noGroupGroup = pluginInstance.getConfig().getNoGroupGroup();
-                        playerData.setPermission(context, groupsText + noGroupGroup, Tristate.TRUE);
-                    }
-                }
-            }
-            // Remove any other division groups and add division group just in case
-            if (pluginInstance.getConfig().useDivisionGroups()) {
-                final Map<Object, ? extends CommentedConfigurationNode> divisionGroups = pluginInstance.getConfig().getDivisionGroups();
-                for (Map.Entry<Object, ? extends CommentedConfigurationNode> kvp : divisionGroups.entrySet()) {
-                    // No point in not removing the division group because it will just get added again anyway.
-                    // Also you can not check if a player has a parent, no hasParent() function.
-                    playerData.setPermission(context, groupsText + kvp.getValue().getString(), Tristate.UNDEFINED);
-                }
-                // Add division group just in case
-                if (divisionGroups.containsKey(response.division)) {
-                    playerData.setPermission(context, groupsText + divisionGroups.get(response.division).getString(), Tristate.TRUE);
-                }
-            }
-            // Remove any other secondary groups and add secondary groups just in case
-            if (pluginInstance.getConfig().useSecondaryGroups()) {
-                final Map<Object, ? extends CommentedConfigurationNode> secondaryGroups = pluginInstance.getConfig().getSecondaryGroups();
-                for (Map.Entry<Object, ? extends CommentedConfigurationNode> kvp : secondaryGroups.entrySet()) {
-                    // If you have a group you are not supposed to have it will remove it
-                    // else it will add / re-add any group you should have.
-                    if (isMemberOfGroup(response, Integer.valueOf(kvp.getKey().toString()))) {
-                        playerData.setPermission(context, groupsText + kvp.getValue().getString(), Tristate.TRUE);
-                    } else {
-                        playerData.setPermission(context, groupsText + kvp.getValue().getString(), Tristate.UNDEFINED);
-                    }
+            // Work out which groups the player should have and which groups we are responsible for
+            final GroupResolver groupResolver = pluginInstance.getConfig().getGroupResolver();
+            final Set<String> desired = groupResolver.resolve(response, login);
+            // Read the player's current nodes once and only write the ones that differ
+            final LoginEvents.Span permissionSync = login ? LoginEvents.begin(LoginStage.PERMISSION_SYNC) : LoginEvents.NONE;
+            final List<String> current = new ArrayList<>();
+            for (Map.Entry<String, Boolean> kvp : playerData.getPermissions(context).entrySet()) {
+                if (kvp.getValue()) {
+                    current.add(kvp.getKey());
                 }
             }
-            //Set and remove ds
-            if (login && pluginInstance.getConfig().useDsGroup()) {
-                if (response.dsInfo.isDedicatedSupporter) {
-                    playerData.setPermission(context, groupsText + pluginInstance.getConfig().getDsGroup(), Tristate.TRUE);
-                } else {
-                    playerData.setPermission(context, groupsText + pluginInstance.getConfig().getDsGroup(), Tristate.UNDEFINED);
-                }
+            final PermissionSyncEngine syncEngine = pluginInstance.getPermissionSyncEngine();
+            final PermissionSyncEngine.SyncPlan plan = syncEngine.plan(desired, current, groupResolver.managed(login));
+            syncEngine.apply(plan, new SubjectDataWriter(playerData),
+                    groupResolver.getManagedCount(login) + desired.size());
+            permissionSync.end(playerUUID, plan.isEmpty() ? "unchanged" : "changed", null);
 
-                pluginInstance.getGame().getServer().getBroadcastChannel().send(
-                        Text.of(TextColors.YELLOW, player.getName() + " has joined the game" + (response.dsInfo.isDedicatedSupporter ? " : " + response.dsInfo.joinMessage : "")));
+            // Announce the join, with the ds join message if they have one. CPAS may answer before the player has
+            // joined, so the broadcast waits for the join and is dropped if they disconnect first
+            if (login && pluginInstance.getConfig().useDsGroup()) {
+                pluginInstance.getSessionTracker().runWhenJoined(playerUUID, ()->broadcastJoin(response));
             }
         }
 
         /**
-         * Checks if the given {@link InfoModel} contains a group with the given rank
+         * Announces the join of the player. The player is looked up rather than kept, so a slow response does not hold
+         * on to them.
          *
-         * @param response the {@link InfoModel} to compare to
-         * @param rank     the rank to check
-         * @return true if the {@link InfoModel} contains the given rank
+         * @param response the info of the player.
          */
-        private boolean isMemberOfGroup(InfoModel response, int rank) {
-            for (CpasGroupModel group : response.groups) {
-                if (group.rank == rank)
-                    return true;
+        private void broadcastJoin(@Nonnull InfoModel response) {
+            final Optional<Player> player = pluginInstance.getGame().getServer().getPlayer(playerUUID);
+            if (!player.isPresent()) {
+                return;
             }
-            return false;
+            final LoginEvents.Span dsBroadcast = LoginEvents.begin(LoginStage.DS_BROADCAST);
+            pluginInstance.getGame().getServer().getBroadcastChannel().send(
+                    Text.of(TextColors.YELLOW, player.get().getName() + " has joined the game" + (response.dsInfo.isDedicatedSupporter ? " : " + response.dsInfo.joinMessage : "")));
+            dsBroadcast.end(playerUUID, response.dsInfo.isDedicatedSupporter ? "supporter" : "regular", null);
         }
 
         @Override
         public Class<InfoModel> getModelClass() {
             return InfoModel.class;
         }
+
+        /**
+         * Writes group changes as permission nodes on a player's {@link SubjectData}.
+         */
+        private static class SubjectDataWriter implements PermissionSyncEngine.GroupWriter {
+
+            /**
+             * The data of the player to write to.
+             */
+            private final SubjectData playerData;
+
+            /**
+             * Creates a new {@link SubjectDataWriter} object.
+             *
+             * @param playerData the data of the player to write to.
+             */
+            SubjectDataWriter(@Nonnull SubjectData playerData) {
+                this.playerData = playerData;
+            }
+
+            @Override
+            public void addGroup(@Nonnull String group) {
+                playerData.setPermission(context, group, Tristate.TRUE);
+            }
+
+            @Override
+            public void removeGroup(@Nonnull String group) {
+                playerData.setPermission(context, group, Tristate.UNDEFINED);
+            }
+        }
     }
 }
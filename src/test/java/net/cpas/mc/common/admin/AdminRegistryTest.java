@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.admin;
+
+import net.cpas.model.CpasGroupModel;
+import net.cpas.model.InfoModel;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the rank order, the ban rules and the admin list sent with bans of an {@link AdminRegistry}.
+ */
+public class AdminRegistryTest {
+
+    /**
+     * The rank from which admins can only be banned by the same ranks.
+     */
+    private static final int RANK_THRESHOLD = 50;
+
+    /**
+     * The registry under test.
+     */
+    private AdminRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new AdminRegistry();
+    }
+
+    @Test
+    public void adminsAreRankedHighestFirstAndEqualRanksAreKept() {
+        final InfoModel low = admin(10);
+        final InfoModel high = admin(90);
+        final InfoModel tied = admin(10);
+        registry.put(low);
+        registry.put(high);
+        registry.put(tied);
+
+        final List<InfoModel> ranked = new ArrayList<>(registry.getRankedAdmins());
+        assertEquals(3, ranked.size());
+        assertEquals(high, ranked.get(0));
+        assertEquals(10, ranked.get(2).primaryGroup.rank);
+    }
+
+    @Test
+    public void rankChangeReplacesTheOldEntry() {
+        final InfoModel admin = admin(10);
+        registry.put(admin);
+        final InfoModel promoted = admin(90);
+        promoted.gameId = admin.gameId;
+        registry.put(promoted);
+
+        assertEquals(1, registry.getRankedAdmins().size());
+        assertEquals(90, registry.getRankedAdmins().first().primaryGroup.rank);
+        registry.remove(admin.gameId);
+        assertTrue(registry.getRankedAdmins().isEmpty());
+    }
+
+    @Test
+    public void banRulesFollowTheRankThreshold() {
+        final InfoModel senior = admin(RANK_THRESHOLD);
+        final InfoModel junior = admin(RANK_THRESHOLD - 1);
+        final InfoModel otherJunior = admin(RANK_THRESHOLD - 1);
+        registry.put(senior);
+        registry.put(junior);
+        registry.put(otherJunior);
+        final UUID player = UUID.randomUUID();
+
+        assertTrue(registry.canBan(junior.gameId, player, RANK_THRESHOLD));
+        assertTrue(registry.canBan(junior.gameId, otherJunior.gameId, RANK_THRESHOLD));
+        assertTrue(registry.canBan(senior.gameId, junior.gameId, RANK_THRESHOLD));
+        assertFalse(registry.canBan(junior.gameId, senior.gameId, RANK_THRESHOLD));
+        assertFalse(registry.canBan(player, junior.gameId, RANK_THRESHOLD));
+    }
+
+    @Test
+    public void topAdminIdsArePaddedWithEmptyStrings() {
+        final InfoModel low = admin(10);
+        final InfoModel high = admin(90);
+        registry.put(low);
+        registry.put(high);
+
+        final String[] adminIds = registry.getTopAdminIds(4);
+        assertEquals(4, adminIds.length);
+        assertEquals(high.gameId.toString(), adminIds[0]);
+        assertEquals(low.gameId.toString(), adminIds[1]);
+        assertEquals("", adminIds[2]);
+        assertEquals("", adminIds[3]);
+        assertEquals(1, registry.getTopAdminIds(1).length);
+    }
+
+    /**
+     * @param rank the rank of the primary group.
+     * @return an admin with a new {@link UUID}.
+     */
+    private static InfoModel admin(int rank) {
+        final InfoModel info = new InfoModel();
+        info.gameId = UUID.randomUUID();
+        info.primaryGroup = new CpasGroupModel("Admin", rank);
+        return info;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.ban;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks an {@link ExpiryWheel} against a plain list that is scanned on every step.
+ */
+public class ExpiryWheelTest {
+
+    /**
+     * The number of ticks the top level of the wheel spans, bans further out wait in the overflow list.
+     */
+    private static final long WHEEL_TICKS = 1L << 24;
+
+    @Test
+    public void expiresOnTheTickTheBanRunsOut() {
+        final ExpiryWheel wheel = new ExpiryWheel(1000, 10_000);
+        final UUID player = UUID.randomUUID();
+        wheel.schedule(player, 12_500);
+        assertTrue(wheel.advance(12_999).isEmpty());
+        final List<ExpiryWheel.Expiry> expired = wheel.advance(13_000);
+        assertEquals(1, expired.size());
+        assertEquals(player, expired.get(0).getPlayerUUID());
+        assertEquals(12_500, expired.get(0).getExpiresAtMillis());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void banThatAlreadyRanOutExpiresOnTheNextAdvance() {
+        final ExpiryWheel wheel = new ExpiryWheel(1000, 10_000);
+        wheel.schedule(UUID.randomUUID(), 5_000);
+        assertEquals(1, wheel.size());
+        assertEquals(1, wheel.advance(10_000).size());
+    }
+
+    @Test
+    public void banPastTheTopLevelWaitsInTheOverflow() {
+        final ExpiryWheel wheel = new ExpiryWheel(1, 0);
+        wheel.schedule(UUID.randomUUID(), 3 * WHEEL_TICKS + 17);
+        assertTrue(wheel.advance(3 * WHEEL_TICKS + 16).isEmpty());
+        assertEquals(1, wheel.advance(3 * WHEEL_TICKS + 17).size());
+    }
+
+    @Test
+    public void matchesBruteForce() {
+        final Random random = new Random(7);
+        final long start = 1_000_000;
+        final ExpiryWheel wheel = new ExpiryWheel(1, start);
+        final List<Scheduled> model = new ArrayList<>();
+        long now = start;
+        for (int step = 0; step < 2000; step++) {
+            // Bans on every level of the wheel, past the top level and some that already ran out
+            for (int i = random.nextInt(5); i > 0; i--) {
+                final long delta = (long) Math.pow(2, random.nextDouble() * 26) - 64;
+                final Scheduled scheduled = new Scheduled(UUID.randomUUID(), now + delta);
+                wheel.schedule(scheduled.playerUUID, scheduled.expiresAtMillis);
+                model.add(scheduled);
+            }
+            now += random.nextInt(4) == 0 ? random.nextInt(1 << 16) : random.nextInt(64);
+            final List<String> expected = new ArrayList<>();
+            for (int i = model.size() - 1; i >= 0; i--) {
+                if (model.get(i).expiresAtMillis <= now) {
+                    expected.add(model.remove(i).toString());
+                }
+            }
+            final List<String> actual = new ArrayList<>();
+            for (ExpiryWheel.Expiry expiry : wheel.advance(now)) {
+                actual.add(new Scheduled(expiry.getPlayerUUID(), expiry.getExpiresAtMillis()).toString());
+            }
+            Collections.sort(expected);
+            Collections.sort(actual);
+            assertEquals("step " + step, expected, actual);
+            assertEquals(model.size(), wheel.size());
+        }
+    }
+
+    /**
+     * A ban expiry as the model keeps it.
+     */
+    private static final class Scheduled {
+
+        /**
+         * The banned player.
+         */
+        private final UUID playerUUID;
+
+        /**
+         * When the ban expires, in milliseconds since the epoch.
+         */
+        private final long expiresAtMillis;
+
+        /**
+         * Creates a new {@link Scheduled} object.
+         *
+         * @param playerUUID      the banned player.
+         * @param expiresAtMillis when the ban expires, in milliseconds since the epoch.
+         */
+        Scheduled(UUID playerUUID, long expiresAtMillis) {
+            this.playerUUID = playerUUID;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        @Override
+        public String toString() {
+            return playerUUID + "@" + expiresAtMillis;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.ban;
+
+import net.cpas.mc.common.auth.AuthDecision;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks a {@link LocalBanIndex} against a {@link HashMap}. A small set of players is banned and unbanned over and
+ * over so the open addressing table sees long probe runs that have to be shifted back on every delete.
+ */
+public class LocalBanIndexTest {
+
+    /**
+     * A time well past the creation of the index, so no ban in these tests is already over.
+     */
+    private static final long NOW = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * A directory for saved indexes.
+     */
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("cpas-index");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(directory.resolve("bans.dat"));
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    public void permanentAndTemporaryBans() {
+        final LocalBanIndex index = new LocalBanIndex();
+        final UUID permanent = UUID.randomUUID();
+        final UUID temporary = UUID.randomUUID();
+        index.put(permanent, LocalBanIndex.PERMANENT, "cheating");
+        index.put(temporary, NOW + TimeUnit.MINUTES.toMillis(90), "spam");
+
+        final AuthDecision permanentBan = index.get(permanent, NOW);
+        assertNotNull(permanentBan);
+        assertTrue(permanentBan.isPermanent());
+        assertEquals("cheating", permanentBan.getReason());
+        final AuthDecision temporaryBan = index.get(temporary, NOW + 1);
+        assertNotNull(temporaryBan);
+        assertEquals(90, temporaryBan.getDuration());
+        assertNull(index.get(temporary, NOW + TimeUnit.MINUTES.toMillis(90)));
+        assertNull(index.get(UUID.randomUUID(), NOW));
+    }
+
+    @Test
+    public void removeKeepsTheOtherBansReachable() {
+        final LocalBanIndex index = new LocalBanIndex();
+        final List<UUID> players = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            players.add(UUID.randomUUID());
+            index.put(players.get(i), LocalBanIndex.PERMANENT, "ban " + i);
+        }
+        for (int i = 0; i < 40; i += 2) {
+            assertTrue(index.remove(players.get(i)));
+            assertFalse(index.remove(players.get(i)));
+        }
+        for (int i = 0; i < 40; i++) {
+            final AuthDecision ban = index.get(players.get(i), NOW);
+            if (i % 2 == 0) {
+                assertNull(ban);
+            } else {
+                assertNotNull("ban " + i, ban);
+                assertEquals("ban " + i, ban.getReason());
+            }
+        }
+        assertEquals(20, index.size());
+    }
+
+    @Test
+    public void matchesHashMap() {
+        final Random random = new Random(11);
+        final LocalBanIndex index = new LocalBanIndex();
+        final Map<UUID, Long> model = new HashMap<>();
+        final List<UUID> players = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            players.add(new UUID(random.nextLong(), random.nextLong()));
+        }
+        for (int step = 0; step < 200_000; step++) {
+            final UUID player = players.get(random.nextInt(players.size()));
+            final int operation = random.nextInt(10);
+            if (operation < 4) {
+                final long expiresAt = NOW + 1 + random.nextInt(1000);
+                index.put(player, expiresAt, "reason");
+                model.put(player, expiresAt);
+            } else if (operation < 8) {
+                assertEquals(model.remove(player) != null, index.remove(player));
+            } else {
+                assertEquals(model.containsKey(player), index.get(player, NOW) != null);
+            }
+            assertEquals(model.size(), index.size());
+        }
+        for (UUID player : players) {
+            assertEquals(player.toString(), model.containsKey(player), index.get(player, NOW) != null);
+        }
+        final List<UUID> expected = new ArrayList<>(model.keySet());
+        final List<UUID> actual = index.getPlayers();
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void expireDropsOnlyBansThatRanOut() {
+        final LocalBanIndex index = new LocalBanIndex();
+        final UUID replaced = UUID.randomUUID();
+        final UUID runsOut = UUID.randomUUID();
+        index.put(replaced, NOW + 1000, "short");
+        index.put(replaced, LocalBanIndex.PERMANENT, "made permanent");
+        index.put(runsOut, NOW + 1000, "short");
+        assertEquals(1, index.expire(NOW + 2000));
+        assertNotNull(index.get(replaced, NOW + 2000));
+        assertNull(index.get(runsOut, NOW));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void saveAndLoad() throws IOException {
+        final LocalBanIndex index = new LocalBanIndex();
+        final UUID player = UUID.randomUUID();
+        index.put(player, LocalBanIndex.PERMANENT, "cheating");
+        index.put(UUID.randomUUID(), System.currentTimeMillis() - 1, "already over");
+        final Path file = directory.resolve("bans.dat");
+        index.save(file);
+
+        final LocalBanIndex loaded = new LocalBanIndex();
+        assertEquals(1, loaded.load(file));
+        final AuthDecision ban = loaded.get(player, NOW);
+        assertNotNull(ban);
+        assertEquals("cheating", ban.getReason());
+    }
+}
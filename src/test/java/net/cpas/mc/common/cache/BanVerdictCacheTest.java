@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.cache;
+
+import net.cpas.mc.common.auth.AuthDecision;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how long a {@link BanVerdictCache} keeps each kind of verdict and which verdicts it drops once it is full.
+ */
+public class BanVerdictCacheTest {
+
+    @Test
+    public void bannedAndAllowedVerdictsHaveTheirOwnTtl() throws InterruptedException {
+        final BanVerdictCache cache = new BanVerdictCache(()->60_000, ()->1, ()->100);
+        final UUID banned = UUID.randomUUID();
+        final UUID allowed = UUID.randomUUID();
+        cache.put(banned, AuthDecision.banned(-1, "cheating", AuthDecision.Source.REMOTE));
+        cache.put(allowed, AuthDecision.allowed(AuthDecision.Source.REMOTE));
+        Thread.sleep(5);
+
+        final AuthDecision cached = cache.get(banned);
+        assertNotNull(cached);
+        assertTrue(cached.isPermanent());
+        assertEquals(AuthDecision.Source.CACHE, cached.getSource());
+        assertNull(cache.get(allowed));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void peekIsNotCounted() {
+        final BanVerdictCache cache = new BanVerdictCache(()->60_000, ()->60_000, ()->100);
+        final UUID player = UUID.randomUUID();
+        assertNull(cache.peek(player));
+        cache.put(player, AuthDecision.allowed(AuthDecision.Source.REMOTE));
+
+        assertNotNull(cache.peek(player));
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+    }
+
+    @Test
+    public void verdictsWithoutATtlAreNotKept() {
+        final BanVerdictCache cache = new BanVerdictCache(()->0, ()->60_000, ()->100);
+        final UUID player = UUID.randomUUID();
+        cache.put(player, AuthDecision.allowed(AuthDecision.Source.REMOTE));
+        cache.put(player, AuthDecision.banned(-1, "cheating", AuthDecision.Source.REMOTE));
+
+        assertEquals(0, cache.size());
+        assertNull(cache.get(player));
+    }
+
+    @Test
+    public void allowedVerdictsAreEvictedBeforeBannedOnesOldestFirst() throws InterruptedException {
+        final BanVerdictCache cache = new BanVerdictCache(()->60_000, ()->60_000, ()->20);
+        final UUID[] banned = fill(cache, 10, true);
+        final UUID[] allowed = fill(cache, 10, false);
+
+        cache.put(UUID.randomUUID(), AuthDecision.allowed(AuthDecision.Source.REMOTE));
+
+        assertNull(cache.get(allowed[0]));
+        assertNull(cache.get(allowed[1]));
+        assertNotNull(cache.get(allowed[2]));
+        for (UUID player : banned) {
+            assertNotNull(cache.get(player));
+        }
+    }
+
+    @Test
+    public void fullCacheIsTrimmedToNinetyPercent() throws InterruptedException {
+        final BanVerdictCache cache = new BanVerdictCache(()->60_000, ()->60_000, ()->100);
+        fill(cache, 100, false);
+
+        cache.put(UUID.randomUUID(), AuthDecision.allowed(AuthDecision.Source.REMOTE));
+        assertEquals(91, cache.size());
+        // The room made by the batch is used up before the next sweep
+        fill(cache, 9, false);
+        assertEquals(100, cache.size());
+    }
+
+    /**
+     * @param cache  the cache to fill.
+     * @param count  the number of verdicts to add.
+     * @param banned whether the verdicts are bans.
+     * @return the players the verdicts were added for, oldest first.
+     * @throws InterruptedException if the test was interrupted.
+     */
+    private static UUID[] fill(BanVerdictCache cache, int count, boolean banned) throws InterruptedException {
+        final UUID[] players = new UUID[count];
+        for (int i = 0; i < count; i++) {
+            players[i] = UUID.randomUUID();
+            cache.put(players[i], banned ? AuthDecision.banned(-1, "cheating", AuthDecision.Source.REMOTE)
+                    : AuthDecision.allowed(AuthDecision.Source.REMOTE));
+            // Keeps the verdicts in a strict age order
+            Thread.sleep(1);
+        }
+        return players;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.client;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives a {@link CircuitBreaker} with a fake clock.
+ */
+public class CircuitBreakerTest {
+
+    /**
+     * The fake clock in milliseconds.
+     */
+    private long now;
+
+    /**
+     * The breaker under test, opens after 3 failures in a row for 1 second.
+     */
+    private CircuitBreaker breaker;
+
+    @Before
+    public void setUp() {
+        now = 1_000_000;
+        breaker = new CircuitBreaker("getInfo", 3, 1000, ()->now);
+    }
+
+    @Test
+    public void opensAfterFailuresInARow() {
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(1, breaker.getTrips());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(1, breaker.getRejectedRequests());
+    }
+
+    @Test
+    public void letsOneTrialThroughOnceTheOpenTimeIsUp() {
+        tripBreaker();
+        now += 999;
+        assertFalse(breaker.tryAcquire());
+        now += 1;
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getConsecutiveFailures());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void failedTrialOpensAgain() {
+        tripBreaker();
+        now += 1000;
+        assertTrue(breaker.tryAcquire());
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getTrips());
+        assertEquals(0, breaker.getMillisInState());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    public void lostTrialDoesNotHoldTheBreakerHalfOpen() {
+        tripBreaker();
+        now += 1000;
+        assertTrue(breaker.tryAcquire());
+        // The trial request never comes back
+        now += 999;
+        assertFalse(breaker.tryAcquire());
+        now += 1;
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    /**
+     * Opens the breaker.
+     */
+    private void tripBreaker() {
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void onlyErrorsWithoutAnAnswerCountAsFailures() {
+        assertFalse(CpasClient.isTransportFailure(null));
+        assertFalse(CpasClient.isTransportFailure("User not found"));
+        assertTrue(CpasClient.isTransportFailure("java.net.ConnectException: Connection refused"));
+        assertTrue(CpasClient.isTransportFailure("Read timed out"));
+    }
+}
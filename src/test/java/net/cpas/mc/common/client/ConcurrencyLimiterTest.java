@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.client;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives a {@link ConcurrencyLimiter} with a fake clock. Queued requests are sent on the releasing thread so every
+ * step is deterministic.
+ */
+public class ConcurrencyLimiterTest {
+
+    /**
+     * The fake clock in nanoseconds.
+     */
+    private long now;
+
+    /**
+     * The answers the fake CPAS still owes, by the time they arrive.
+     */
+    private PriorityQueue<Answer> answers;
+
+    @Before
+    public void setUp() {
+        now = TimeUnit.HOURS.toNanos(1);
+        answers = new PriorityQueue<>((first, second)->Long.compare(first.at, second.at));
+    }
+
+    @Test
+    public void healthyServerLetsTheLimitGrow() {
+        // Latency that does not depend on load: median 50ms, lognormal with sigma 0.35
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 2, 64, ()->now, Runnable::run);
+        final ConcurrencyLimiter.Latency latency = limiter.newLatency("getInfo");
+        final Random random = new Random(42);
+        final int requests = 20000;
+        int answered = 0;
+        for (int i = 0; i < requests; i++) {
+            limiter.execute(RequestPriority.AUTH, latency, permit->answers.add(
+                    new Answer(now + millis(50 * Math.exp(0.35 * random.nextGaussian())), permit, false)));
+        }
+        while (!answers.isEmpty()) {
+            final Answer answer = answers.poll();
+            now = answer.at;
+            answer.permit.release(answer.failed);
+            answered++;
+            assertTrue(limiter.getInFlight() <= limiter.getLimit());
+        }
+        assertEquals(requests, answered);
+        assertEquals(0, limiter.getQueueDepth());
+        assertEquals(0, limiter.getDecreases());
+        assertEquals(64, limiter.getLimit());
+    }
+
+    @Test
+    public void sustainedLatencyGrowthCutsTheLimitUntilItIsTheNewNormal() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 2, 64, ()->now, Runnable::run);
+        final ConcurrencyLimiter.Latency latency = limiter.newLatency("getInfo");
+        answerInTurn(limiter, latency, 200, 50);
+        final int limitBefore = limiter.getLimit();
+        assertEquals(0, limiter.getDecreases());
+
+        answerInTurn(limiter, latency, 20, 150);
+        assertTrue(limiter.getDecreases() > 0);
+        assertTrue(limiter.getLimit() < limitBefore);
+
+        // Once the long average has caught up the slower answers are no longer a sign of overload
+        answerInTurn(limiter, latency, 500, 150);
+        final long decreases = limiter.getDecreases();
+        answerInTurn(limiter, latency, 200, 150);
+        assertEquals(decreases, limiter.getDecreases());
+    }
+
+    @Test
+    public void singleSlowAnswerDoesNotCutTheLimit() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 2, 64, ()->now, Runnable::run);
+        final ConcurrencyLimiter.Latency latency = limiter.newLatency("getInfo");
+        answerInTurn(limiter, latency, 100, 50);
+        answerInTurn(limiter, latency, 1, 150);
+        answerInTurn(limiter, latency, 100, 50);
+        assertEquals(0, limiter.getDecreases());
+    }
+
+    @Test
+    public void slowEndpointDoesNotCountAgainstFastOne() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 2, 64, ()->now, Runnable::run);
+        final ConcurrencyLimiter.Latency fast = limiter.newLatency("getBanInfo");
+        final ConcurrencyLimiter.Latency slow = limiter.newLatency("getBanHistory");
+        for (int i = 0; i < 200; i++) {
+            answerInTurn(limiter, fast, 1, 50);
+            answerInTurn(limiter, slow, 1, 500);
+        }
+        assertEquals(0, limiter.getDecreases());
+        assertEquals(50, fast.getBaselineMillis());
+        assertEquals(500, slow.getBaselineMillis());
+    }
+
+    @Test
+    public void failuresHalveTheLimitOncePerRoundTrip() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 2, 64, ()->now, Runnable::run);
+        final ConcurrencyLimiter.Latency latency = limiter.newLatency("getInfo");
+        final List<ConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        now += millis(1000);
+        for (int i = 0; i < 8; i++) {
+            limiter.execute(RequestPriority.AUTH, latency, permits::add);
+        }
+        now += millis(100);
+        for (int i = 0; i < 4; i++) {
+            permits.get(i).release(true);
+        }
+        assertEquals(4, limiter.getLimit());
+        assertEquals(1, limiter.getDecreases());
+
+        // Sent before the cut, so it does not count again
+        now += millis(50);
+        permits.get(4).release(true);
+        assertEquals(4, limiter.getLimit());
+        assertEquals(1, limiter.getDecreases());
+
+        limiter.execute(RequestPriority.AUTH, latency, permits::add);
+        now += millis(50);
+        permits.get(8).release(true);
+        assertEquals(2, limiter.getLimit());
+        assertEquals(2, limiter.getDecreases());
+    }
+
+    @Test
+    public void releasingTwiceHasNoEffect() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 2, 64, ()->now, Runnable::run);
+        final ConcurrencyLimiter.Latency latency = limiter.newLatency("getInfo");
+        final List<ConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        limiter.execute(RequestPriority.AUTH, latency, permits::add);
+        limiter.execute(RequestPriority.AUTH, latency, permits::add);
+        permits.get(0).release(false);
+        permits.get(0).release(true);
+        assertEquals(1, limiter.getInFlight());
+        assertEquals(0, limiter.getDecreases());
+    }
+
+    @Test
+    public void requestThatFailsToSendDoesNotHoldUpTheQueue() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 2, 2, ()->now, Runnable::run);
+        final ConcurrencyLimiter.Latency latency = limiter.newLatency("getInfo");
+        final List<ConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        limiter.execute(RequestPriority.AUTH, latency, permits::add);
+        limiter.execute(RequestPriority.AUTH, latency, permits::add);
+        limiter.execute(RequestPriority.AUTH, latency, permit->{
+            throw new IllegalStateException("send failed");
+        });
+        limiter.execute(RequestPriority.AUTH, latency, permits::add);
+        assertEquals(2, limiter.getQueueDepth());
+
+        now += millis(50);
+        try {
+            permits.get(0).release(false);
+        } catch (IllegalStateException expected) {
+            // The failed send is reported to whoever made room
+        }
+        assertEquals(0, limiter.getQueueDepth());
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(3, permits.size());
+    }
+
+    @Test
+    public void mostUrgentRequestIsSentFirstUnlessAnotherWaitedLongEnough() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, ()->now, Runnable::run);
+        final ConcurrencyLimiter.Latency latency = limiter.newLatency("getInfo");
+        final List<String> sent = new ArrayList<>();
+        final List<ConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        limiter.execute(RequestPriority.AUTH, latency, permits::add);
+        limiter.execute(RequestPriority.BACKGROUND, latency, permit->{
+            sent.add("background");
+            permits.add(permit);
+        });
+        limiter.execute(RequestPriority.AUTH, latency, permit->{
+            sent.add("auth");
+            permits.add(permit);
+        });
+        permits.get(0).release(false);
+        assertEquals("auth", sent.get(0));
+
+        // Two priorities up after 4 seconds, and ahead of new logins once it waited longer than that
+        now += TimeUnit.SECONDS.toNanos(7);
+        limiter.execute(RequestPriority.AUTH, latency, permit->{
+            sent.add("late auth");
+            permits.add(permit);
+        });
+        permits.get(1).release(false);
+        assertEquals("background", sent.get(1));
+        permits.get(2).release(false);
+        assertEquals("late auth", sent.get(2));
+    }
+
+    /**
+     * Sends requests one after the other, each answered after the same time.
+     *
+     * @param limiter the limiter.
+     * @param latency the latency of the requests.
+     * @param count   the number of requests.
+     * @param millis  the time each answer takes.
+     */
+    private void answerInTurn(ConcurrencyLimiter limiter, ConcurrencyLimiter.Latency latency, int count, long millis) {
+        final List<ConcurrencyLimiter.Permit> permits = new ArrayList<>(1);
+        for (int i = 0; i < count; i++) {
+            permits.clear();
+            limiter.execute(RequestPriority.AUTH, latency, permits::add);
+            now += millis(millis);
+            permits.get(0).release(false);
+        }
+    }
+
+    /**
+     * @param millis a time in milliseconds.
+     * @return the time in nanoseconds.
+     */
+    private static long millis(double millis) {
+        return (long) (millis * 1_000_000);
+    }
+
+    /**
+     * An answer the fake CPAS owes.
+     */
+    private static final class Answer {
+
+        private final long at;
+        private final ConcurrencyLimiter.Permit permit;
+        private final boolean failed;
+
+        Answer(long at, ConcurrencyLimiter.Permit permit, boolean failed) {
+            this.at = at;
+            this.permit = permit;
+            this.failed = failed;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.group;
+
+import net.cpas.model.CpasGroupModel;
+import net.cpas.model.DsInfoModel;
+import net.cpas.model.InfoModel;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the groups a {@link GroupResolver} hands out and takes away for each of the use flags.
+ */
+public class GroupResolverTest {
+
+    /**
+     * Primary ranks 10 and 20, divisions A and B, secondary ranks 100 and 101.
+     */
+    private GroupMappingTable table;
+
+    @Before
+    public void setUp() {
+        final Map<String, String> primary = new HashMap<>();
+        primary.put("10", "member");
+        primary.put("20", "admin");
+        final Map<String, String> division = new HashMap<>();
+        division.put("A", "alpha");
+        division.put("B", "bravo");
+        final Map<String, String> secondary = new HashMap<>();
+        secondary.put("100", "builder");
+        secondary.put("101", "Helper");
+        table = GroupMappingTable.compile("group.", primary, division, secondary, "guest", "ds");
+    }
+
+    @Test
+    public void resolvesEveryGroupType() {
+        final GroupResolver resolver = resolver(GroupResolver.Naming.NODE, true, true, true, true, true);
+        assertEquals(set("group.admin", "group.alpha", "group.builder", "group.ds"),
+                resolver.resolve(info(20, "A", true, 100, 999), true));
+        assertEquals(set("group.guest", "group.bravo", "group.Helper"),
+                resolver.resolve(info(99, "B", false, 101), true));
+    }
+
+    @Test
+    public void dsIsOnlyHandedOutOnLogin() {
+        final GroupResolver resolver = resolver(GroupResolver.Naming.NODE, true, true, true, true, true);
+        assertEquals(set("group.member"), resolver.resolve(info(10, null, true), false));
+        assertTrue(resolver.isManaged("group.ds", true));
+        assertFalse(resolver.isManaged("group.ds", false));
+        assertEquals(resolver.getManagedCount(false) + 1, resolver.getManagedCount(true));
+    }
+
+    @Test
+    public void disabledGroupTypesAreNeitherGivenNorTaken() {
+        final GroupResolver resolver = resolver(GroupResolver.Naming.NODE, false, true, true, false, false);
+        assertEquals(set("group.alpha"), resolver.resolve(info(20, "A", true, 100), true));
+        assertFalse(resolver.isManaged("group.admin", true));
+        // The no group goes with the primary groups
+        assertFalse(resolver.isManaged("group.guest", true));
+        assertFalse(resolver.isManaged("group.builder", true));
+        assertFalse(resolver.isManaged("group.ds", true));
+        assertTrue(resolver.isManaged("group.bravo", true));
+        assertEquals(2, resolver.getManagedCount(true));
+    }
+
+    @Test
+    public void groupNamesIgnoreCase() {
+        final GroupResolver resolver = resolver(GroupResolver.Naming.GROUP, true, false, true, true, true);
+        assertEquals(set("admin", "Helper", "ds"), resolver.resolve(info(20, null, true, 101), true));
+        assertEquals(set(), resolver.resolve(info(99, null, false), true));
+        assertTrue(resolver.isManaged("ADMIN", false));
+        assertTrue(resolver.isManaged("helper", false));
+        assertFalse(resolver.isManaged("group.admin", false));
+        assertFalse(resolver.isManaged("guest", false));
+        assertFalse(resolver.isManaged("default", true));
+    }
+
+    /**
+     * @return a resolver on the test table.
+     */
+    private GroupResolver resolver(GroupResolver.Naming naming, boolean usePrimaryGroups, boolean useNoGroup,
+                                   boolean useDivisionGroups, boolean useSecondaryGroups, boolean useDsGroup) {
+        return new GroupResolver(table, naming, usePrimaryGroups, useNoGroup, useDivisionGroups, useSecondaryGroups,
+                useDsGroup);
+    }
+
+    /**
+     * @param primaryRank the rank of the primary group.
+     * @param division    the division tag or null.
+     * @param ds          true if the player is a dedicated supporter.
+     * @param ranks       the ranks of the player's other groups.
+     * @return the CPAS info of a player.
+     */
+    private static InfoModel info(int primaryRank, String division, boolean ds, int... ranks) {
+        final InfoModel info = new InfoModel();
+        info.primaryGroup = new CpasGroupModel("Primary", primaryRank);
+        info.groups = new ArrayList<>();
+        info.groups.add(info.primaryGroup);
+        for (int rank : ranks) {
+            info.groups.add(new CpasGroupModel("Group " + rank, rank));
+        }
+        info.division = division;
+        info.dsInfo = new DsInfoModel();
+        info.dsInfo.isDedicatedSupporter = ds;
+        return info;
+    }
+
+    /**
+     * @param groups the groups.
+     * @return the groups as a set.
+     */
+    private static Set<String> set(String... groups) {
+        return new HashSet<>(Arrays.asList(groups));
+    }
+}
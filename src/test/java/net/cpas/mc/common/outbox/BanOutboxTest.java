@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.outbox;
+
+import net.cpas.Cpas;
+import net.cpas.model.SuccessResponseModel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs a {@link BanOutbox} against a fake CPAS that answers when the test tells it to, and checks what is left in the
+ * file after reopening it.
+ */
+public class BanOutboxTest {
+
+    /**
+     * How long to wait for the outbox thread.
+     */
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    /**
+     * A directory for the outbox file.
+     */
+    private Path directory;
+
+    /**
+     * The outbox file.
+     */
+    private Path file;
+
+    /**
+     * The bans the fake CPAS was sent and has not answered yet.
+     */
+    private BlockingQueue<Cpas.ProcessResponse<SuccessResponseModel>> sent;
+
+    /**
+     * Errors reported by the outbox.
+     */
+    private List<Exception> errors;
+
+    /**
+     * The outboxes opened by the test.
+     */
+    private List<BanOutbox> opened;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("cpas-outbox");
+        file = directory.resolve("outbox.dat");
+        sent = new LinkedBlockingQueue<>();
+        errors = new ArrayList<>();
+        opened = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (BanOutbox outbox : opened) {
+            outbox.close();
+        }
+        Files.deleteIfExists(directory.resolve("outbox.dat.tmp"));
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    public void bansSurviveAReopen() throws IOException {
+        final BanOutbox outbox = open();
+        enqueue(outbox, 3);
+        outbox.close();
+
+        final BanOutbox reopened = open();
+        assertEquals(3, reopened.getQueueDepth());
+        assertEquals("player0", reopened.getPending().get(0).getName());
+        assertEquals(2, reopened.getPending().get(2).getSequence() - reopened.getPending().get(0).getSequence());
+    }
+
+    @Test
+    public void tornTailIsDropped() throws IOException {
+        final BanOutbox outbox = open();
+        enqueue(outbox, 2);
+        final long intactLength = Files.size(file);
+        enqueue(outbox, 1);
+        outbox.close();
+        truncate(Files.size(file) - 5);
+
+        final BanOutbox reopened = open();
+        assertEquals(2, reopened.getQueueDepth());
+        assertEquals(intactLength, Files.size(file));
+        // New bans go after the intact ones and are not lost on the next reopen
+        reopened.enqueue("id", "late", "", new String[0], 0, "reason");
+        reopened.close();
+        assertEquals(3, open().getQueueDepth());
+    }
+
+    @Test
+    public void recordWithABadChecksumIsDropped() throws IOException {
+        final BanOutbox outbox = open();
+        enqueue(outbox, 3);
+        outbox.close();
+        try (RandomAccessFile data = new RandomAccessFile(file.toFile(), "rw")) {
+            final long last = data.length() - 1;
+            data.seek(last);
+            final int b = data.read();
+            data.seek(last);
+            data.write(b ^ 0xFF);
+        }
+
+        assertEquals(2, open().getQueueDepth());
+        assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void acceptedBansAreNotSentAgain() throws IOException {
+        final BanOutbox outbox = open();
+        enqueue(outbox, 10);
+        for (int i = 0; i < 4; i++) {
+            answer(true);
+        }
+        await(()->outbox.getDelivered() == 4);
+        outbox.close();
+
+        final BanOutbox reopened = open();
+        assertEquals(6, reopened.getQueueDepth());
+        assertEquals("player4", reopened.getPending().get(0).getName());
+    }
+
+    @Test
+    public void fileIsRewrittenOnceMostBansWereAccepted() throws IOException {
+        final BanOutbox outbox = open();
+        enqueue(outbox, 200);
+        final long fullLength = Files.size(file);
+        for (int i = 0; i < 150; i++) {
+            answer(true);
+        }
+        await(()->outbox.getDelivered() == 150);
+        assertTrue(Files.size(file) < fullLength);
+        outbox.close();
+
+        final BanOutbox reopened = open();
+        assertEquals(50, reopened.getQueueDepth());
+        assertEquals("player150", reopened.getPending().get(0).getName());
+    }
+
+    @Test
+    public void emptiedOutboxShrinksToTheHeader() throws IOException {
+        final BanOutbox outbox = open();
+        enqueue(outbox, 3);
+        for (int i = 0; i < 3; i++) {
+            answer(true);
+        }
+        await(()->outbox.getDelivered() == 3);
+        outbox.close();
+        assertEquals(8, Files.size(file));
+    }
+
+    @Test
+    public void refusedBanIsGivenUpOn() throws IOException {
+        final BanOutbox outbox = open();
+        enqueue(outbox, 2);
+        answer(false);
+        answer(true);
+        await(()->outbox.getDelivered() == 1);
+        assertEquals(0, outbox.getQueueDepth());
+        assertEquals(1, outbox.getDeadLetterCount());
+        assertEquals("player0", outbox.getDeadLetters().get(0).getBan().getName());
+        outbox.close();
+
+        final BanOutbox reopened = open();
+        assertEquals(0, reopened.getQueueDepth());
+        assertEquals(1, reopened.getDeadLetterCount());
+        assertEquals("Refused by CPAS", reopened.getDeadLetters().get(0).getReason());
+    }
+
+    @Test
+    public void unreachableCpasKeepsTheBan() throws IOException {
+        final BanOutbox outbox = open();
+        enqueue(outbox, 1);
+        next().process(null, "Could not send the request to CPAS");
+        await(()->outbox.getFailedAttempts() == 1);
+        assertEquals(1, outbox.getQueueDepth());
+        assertEquals(0, outbox.getDeadLetterCount());
+    }
+
+    @Test
+    public void requeuedDeadLettersAreSentFirst() throws IOException {
+        final BanOutbox outbox = open();
+        enqueue(outbox, 2);
+        answer(false);
+        await(()->outbox.getDeadLetterCount() == 1);
+        assertEquals(1, outbox.requeueDeadLetters());
+        assertEquals(0, outbox.getDeadLetterCount());
+        assertEquals("player0", outbox.getPending().get(0).getName());
+        outbox.close();
+
+        final BanOutbox reopened = open();
+        assertEquals(2, reopened.getQueueDepth());
+        assertEquals(0, reopened.getDeadLetterCount());
+    }
+
+    @Test
+    public void onlyTheNewestDeadLettersAreKept() throws IOException {
+        final BanOutbox outbox = open();
+        enqueue(outbox, BanOutbox.MAX_DEAD_LETTERS + 1);
+        for (int i = 0; i <= BanOutbox.MAX_DEAD_LETTERS; i++) {
+            answer(false);
+        }
+        await(()->outbox.getQueueDepth() == 0);
+        assertEquals(BanOutbox.MAX_DEAD_LETTERS, outbox.getDeadLetterCount());
+        assertEquals("player1", outbox.getDeadLetters().get(0).getBan().getName());
+        outbox.close();
+
+        assertEquals(BanOutbox.MAX_DEAD_LETTERS, open().getDeadLetterCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void enqueueNeedsAnOpenOutbox() throws IOException {
+        new BanOutbox(file, (ban, response)->sent.add(response), errors::add)
+                .enqueue("id", "name", "", new String[0], 0, "reason");
+    }
+
+    /**
+     * @return a newly opened outbox on the test file.
+     * @throws IOException if the outbox could not be opened.
+     */
+    private BanOutbox open() throws IOException {
+        final BanOutbox outbox = new BanOutbox(file, (ban, response)->sent.add(response), errors::add);
+        opened.add(outbox);
+        outbox.open();
+        return outbox;
+    }
+
+    /**
+     * @param outbox the outbox to add to.
+     * @param count  the number of bans to add.
+     * @throws IOException if a ban could not be written.
+     */
+    private static void enqueue(BanOutbox outbox, int count) throws IOException {
+        final int first = outbox.getQueueDepth() + (int) outbox.getDelivered();
+        for (int i = first; i < first + count; i++) {
+            outbox.enqueue("id" + i, "player" + i, "", new String[0], 60, "reason " + i);
+        }
+    }
+
+    /**
+     * Answers the ban CPAS was sent.
+     *
+     * @param success whether CPAS accepts the ban.
+     */
+    private void answer(boolean success) {
+        final SuccessResponseModel model = new SuccessResponseModel();
+        model.success = success;
+        next().process(model, null);
+    }
+
+    /**
+     * @return the response of the next ban the outbox sends.
+     */
+    private Cpas.ProcessResponse<SuccessResponseModel> next() {
+        try {
+            final Cpas.ProcessResponse<SuccessResponseModel> response =
+                    sent.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            assertNotNull("The outbox did not send a ban", response);
+            return response;
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Waits for the outbox thread.
+     *
+     * @param condition what to wait for.
+     */
+    private static void await(BooleanSupplier condition) {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out");
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    /**
+     * @param length the length to cut the outbox file to.
+     * @throws IOException if the file could not be cut.
+     */
+    private void truncate(long length) throws IOException {
+        try (RandomAccessFile data = new RandomAccessFile(file.toFile(), "rw")) {
+            data.setLength(length);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.outbox;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the fingerprints and the file of a {@link PushedBanLedger}.
+ */
+public class PushedBanLedgerTest {
+
+    /**
+     * A directory for the ledger file.
+     */
+    private Path directory;
+
+    /**
+     * The ledger file.
+     */
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("cpas-ledger");
+        file = directory.resolve("pushed.dat");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    public void fingerprintCoversEveryField() {
+        final UUID gameId = UUID.randomUUID();
+        final long fingerprint = PushedBanLedger.fingerprint(gameId, 1000, 2000, "cheating");
+        assertEquals(fingerprint, PushedBanLedger.fingerprint(new UUID(gameId.getMostSignificantBits(),
+                gameId.getLeastSignificantBits()), 1000, 2000, "cheating"));
+        assertTrue(fingerprint != PushedBanLedger.fingerprint(UUID.randomUUID(), 1000, 2000, "cheating"));
+        assertTrue(fingerprint != PushedBanLedger.fingerprint(gameId, 1001, 2000, "cheating"));
+        assertTrue(fingerprint != PushedBanLedger.fingerprint(gameId, 1000, 2001, "cheating"));
+        assertTrue(fingerprint != PushedBanLedger.fingerprint(gameId, 1000, 2000, "cheating "));
+    }
+
+    @Test
+    public void survivesAReload() throws IOException {
+        final PushedBanLedger ledger = new PushedBanLedger(file);
+        ledger.load();
+        ledger.markPushed(1);
+        ledger.markPushed(2);
+        ledger.markPushed(3);
+        ledger.save();
+
+        final PushedBanLedger loaded = new PushedBanLedger(file);
+        loaded.load();
+        assertEquals(3, loaded.size());
+        assertTrue(loaded.isPushed(2));
+        assertFalse(loaded.isPushed(4));
+    }
+
+    @Test
+    public void retainForgetsBansThatAreGone() throws IOException {
+        final PushedBanLedger ledger = new PushedBanLedger(file);
+        ledger.markPushed(1);
+        ledger.markPushed(2);
+        ledger.markPushed(3);
+        ledger.retain(Arrays.asList(2L, 3L, 4L));
+        assertEquals(2, ledger.size());
+        assertFalse(ledger.isPushed(1));
+        assertFalse(ledger.isPushed(4));
+        ledger.save();
+
+        final PushedBanLedger loaded = new PushedBanLedger(file);
+        loaded.load();
+        assertEquals(2, loaded.size());
+    }
+
+    @Test
+    public void unchangedLedgerIsNotWritten() throws IOException {
+        final PushedBanLedger ledger = new PushedBanLedger(file);
+        ledger.load();
+        ledger.save();
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void damagedFileIsIgnored() throws IOException {
+        Files.write(file, new byte[]{0x43, 0x50, 0x42, 0x4C, 0x7F, 0, 0, 0, 1, 2, 3});
+        final PushedBanLedger ledger = new PushedBanLedger(file);
+        ledger.load();
+        assertEquals(0, ledger.size());
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2017, Tyler Bucher
+ * Copyright (c) 2017, Orion Stanger
+ * Copyright (c) 2019, (Contributors)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.cpas.mc.common.session;
+
+import net.cpas.Cpas;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that a {@link SessionTracker} drops the callbacks of players who disconnect and only theirs.
+ */
+public class SessionTrackerTest {
+
+    /**
+     * The tracker under test.
+     */
+    private SessionTracker tracker;
+
+    /**
+     * The responses the callbacks under test got.
+     */
+    private List<String> processed;
+
+    @Before
+    public void setUp() {
+        tracker = new SessionTracker();
+        processed = new ArrayList<>();
+    }
+
+    @Test
+    public void disconnectCancelsWaitingCallbacks() {
+        final UUID player = UUID.randomUUID();
+        final Cpas.ProcessResponse<String> first = tracker.bind(player, callback());
+        final Cpas.ProcessResponse<String> second = tracker.bind(player, callback());
+
+        assertEquals(2, tracker.end(player));
+        first.process("late", null);
+        second.process("late", null);
+
+        assertEquals(0, processed.size());
+        assertEquals(2, tracker.getCancelledCallbacks());
+        assertEquals(2, tracker.getDroppedResponses());
+        assertEquals(0, tracker.getActiveSessions());
+    }
+
+    @Test
+    public void callbacksOfOtherPlayersStillRun() {
+        final UUID leaving = UUID.randomUUID();
+        final UUID staying = UUID.randomUUID();
+        tracker.bind(leaving, callback());
+        final Cpas.ProcessResponse<String> kept = tracker.bind(staying, callback());
+
+        tracker.end(leaving);
+        kept.process("answer", null);
+
+        assertEquals(1, processed.size());
+        assertEquals("answer", processed.get(0));
+    }
+
+    @Test
+    public void sessionEndsOnceEveryCallbackRan() {
+        final UUID player = UUID.randomUUID();
+        final Cpas.ProcessResponse<String> response = tracker.bind(player, callback());
+        assertEquals(1, tracker.getActiveSessions());
+
+        response.process("answer", null);
+        assertEquals(0, tracker.getActiveSessions());
+        assertEquals(0, tracker.end(player));
+        // A new request after the answer is tracked again
+        tracker.bind(player, callback());
+        assertEquals(1, tracker.end(player));
+    }
+
+    @Test
+    public void actionWaitsForTheJoin() {
+        final UUID player = UUID.randomUUID();
+        tracker.runWhenJoined(player, ()->processed.add("broadcast"));
+        assertEquals(0, processed.size());
+
+        tracker.joined(player);
+        assertEquals(1, processed.size());
+        // Once joined, actions run straight away
+        tracker.runWhenJoined(player, ()->processed.add("again"));
+        assertEquals(2, processed.size());
+    }
+
+    @Test
+    public void disconnectDropsTheWaitingAction() {
+        final UUID player = UUID.randomUUID();
+        tracker.runWhenJoined(player, ()->processed.add("broadcast"));
+        tracker.end(player);
+
+        tracker.joined(player);
+        assertEquals(0, processed.size());
+    }
+
+    /**
+     * @return a callback that records the responses it gets.
+     */
+    private Cpas.ProcessResponse<String> callback() {
+        return new Cpas.ProcessResponse<String>() {
+            @Override
+            public void process(String response, String errorMessage) {
+                processed.add(response);
+            }
+
+            @Override
+            public Class<String> getModelClass() {
+                return String.class;
+            }
+        };
+    }
+}